@@ -0,0 +1,122 @@
+package io.ably.lib.realtime;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.BenchmarkMessages;
+import io.ably.lib.types.ChannelOptions;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.ProtocolMessage;
+import io.ably.lib.util.Log;
+
+/**
+ * Measures delivery of an inbound MESSAGE ProtocolMessage by an attached realtime
+ * channel: decoding of each JSON-encoded Message and dispatch through the
+ * MessageMulticasters to subscribed listeners. No connection is made; the channel is forced into the
+ * attached state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ChannelDispatchBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int batchSize;
+
+    /**
+     * How listeners are subscribed:
+     * <ul>
+     *     <li>all: one listener subscribed to all messages</li>
+     *     <li>name: one listener subscribed to each message name</li>
+     *     <li>filtered: one listener subscribed to a name that no message carries</li>
+     *     <li>batch: one BatchMessageListener</li>
+     * </ul>
+     */
+    @Param({"all", "name", "filtered", "batch"})
+    public String subscription;
+
+    /**
+     * Whether the channel is configured with ChannelOptions.lazyDecoding.
+     */
+    @Param({"false", "true"})
+    public boolean lazyDecoding;
+
+    private AblyRealtime ably;
+    private Channel channel;
+    private ProtocolMessage template;
+
+    @Setup(Level.Trial)
+    public void setup(final Blackhole blackhole) throws AblyException {
+        ClientOptions options = new ClientOptions("benchmark.app:key");
+        options.autoConnect = false;
+        options.logLevel = Log.NONE;
+        ably = new AblyRealtime(options);
+        ChannelOptions channelOptions = new ChannelOptions();
+        channelOptions.lazyDecoding = lazyDecoding;
+        channel = ably.channels.get("benchmark", channelOptions);
+
+        ChannelBase.MessageListener listener = new ChannelBase.MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                blackhole.consume(message);
+            }
+        };
+        switch(subscription) {
+            case "all":
+                channel.subscribe(listener);
+                break;
+            case "name":
+                channel.subscribe(new String[] {"event0", "event1", "event2", "event3"}, listener);
+                break;
+            case "filtered":
+                channel.subscribe("unused", listener);
+                break;
+            case "batch":
+                channel.subscribeBatch(new ChannelBase.BatchMessageListener() {
+                    @Override
+                    public void onMessages(Message[] messages) {
+                        blackhole.consume(messages);
+                    }
+                });
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown subscription: " + subscription);
+        }
+        channel.state = ChannelState.attached;
+
+        template = BenchmarkMessages.protocolMessage(batchSize, 256, false);
+        for(Message message : template.messages) {
+            message.data = "{\"text\":\"" + message.data + "\"}";
+            message.encoding = "json";
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ably.close();
+    }
+
+    @Benchmark
+    public void onMessage() {
+        ProtocolMessage protocolMessage = new ProtocolMessage(ProtocolMessage.Action.message, template.channel);
+        protocolMessage.id = template.id;
+        protocolMessage.connectionId = template.connectionId;
+        protocolMessage.channelSerial = template.channelSerial;
+        protocolMessage.timestamp = template.timestamp;
+        protocolMessage.messages = BenchmarkMessages.copy(template.messages);
+        channel.onChannelMessage(protocolMessage);
+    }
+}
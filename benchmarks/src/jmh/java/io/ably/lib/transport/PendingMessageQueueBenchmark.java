@@ -0,0 +1,80 @@
+package io.ably.lib.transport;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.ably.lib.realtime.CompletionListener;
+import io.ably.lib.transport.ConnectionManager.QueuedMessage;
+import io.ably.lib.types.BackpressurePolicy;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.ProtocolMessage;
+
+/**
+ * Measures resolution of ACKs by the PendingMessageQueue with a steady backlog of
+ * outstanding messages: each invocation pushes 1000 messages and acknowledges them
+ * in ACKs of ackCount messages, so the number outstanding stays at the backlog.
+ * The result is per message acknowledged.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PendingMessageQueueBenchmark {
+
+    private static final int MESSAGES_PER_INVOCATION = 1000;
+
+    @Param({"10000"})
+    public int outstanding;
+
+    @Param({"1", "10", "100"})
+    public int ackCount;
+
+    private PendingMessageQueue queue;
+    private QueuedMessage[] messages;
+    private long ackSerial;
+
+    @Setup(Level.Trial)
+    public void setup(final Blackhole blackhole) {
+        queue = new PendingMessageQueue(new OutboundLimit(0, 0, BackpressurePolicy.NOTIFY, 0));
+        CompletionListener listener = new CompletionListener() {
+            @Override
+            public void onSuccess() {
+                blackhole.consume(this);
+            }
+            @Override
+            public void onError(ErrorInfo reason) {
+                throw new IllegalStateException("Unexpected nack");
+            }
+        };
+        /* messages are reused; the queue does not inspect their serials */
+        messages = new QueuedMessage[MESSAGES_PER_INVOCATION];
+        for(int i = 0; i < messages.length; i++) {
+            messages[i] = new QueuedMessage(new ProtocolMessage(ProtocolMessage.Action.message, "benchmark"), listener);
+        }
+        for(int i = 0; i < outstanding; i++) {
+            queue.push(messages[i % messages.length]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES_PER_INVOCATION)
+    public void ack() {
+        for(int i = 0; i < MESSAGES_PER_INVOCATION; i += ackCount) {
+            for(int j = 0; j < ackCount; j++) {
+                queue.push(messages[i + j]);
+            }
+            queue.ack(ackSerial, ackCount, null);
+            ackSerial += ackCount;
+        }
+    }
+}
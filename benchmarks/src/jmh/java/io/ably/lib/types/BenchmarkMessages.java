@@ -0,0 +1,64 @@
+package io.ably.lib.types;
+
+import java.util.Random;
+
+/**
+ * Fixtures shared by the benchmarks: deterministic messages and ProtocolMessages
+ * shaped like those received from the service.
+ */
+public final class BenchmarkMessages {
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private BenchmarkMessages() {}
+
+    public static String text(int size) {
+        Random random = new Random(size);
+        StringBuilder builder = new StringBuilder(size);
+        for(int i = 0; i < size; i++) {
+            builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return builder.toString();
+    }
+
+    public static byte[] bytes(int size) {
+        byte[] result = new byte[size];
+        new Random(size).nextBytes(result);
+        return result;
+    }
+
+    /**
+     * A MESSAGE ProtocolMessage with the given number of messages, as the service would send it.
+     */
+    public static ProtocolMessage protocolMessage(int batchSize, int payloadSize, boolean binary) {
+        ProtocolMessage protocolMessage = new ProtocolMessage(ProtocolMessage.Action.message, "benchmark");
+        protocolMessage.id = "benchmarkConnectionId:0";
+        protocolMessage.connectionId = "benchmarkConnectionId";
+        protocolMessage.connectionSerial = 0L;
+        protocolMessage.channelSerial = "benchmarkChannelSerial:0";
+        protocolMessage.timestamp = 1600000000000L;
+        protocolMessage.messages = new Message[batchSize];
+        Object data = binary ? bytes(payloadSize) : text(payloadSize);
+        for(int i = 0; i < batchSize; i++) {
+            Message message = new Message("event" + (i % 4), data);
+            message.clientId = "benchmarkClient";
+            protocolMessage.messages[i] = message;
+        }
+        return protocolMessage;
+    }
+
+    /**
+     * A copy of the given messages carrying the undecoded payload and encoding, so that a
+     * benchmark iteration can decode them afresh. BaseMessage.decode() mutates in place.
+     */
+    public static Message[] copy(Message[] messages) {
+        Message[] result = new Message[messages.length];
+        for(int i = 0; i < messages.length; i++) {
+            Message source = messages[i];
+            Message message = new Message(source.name, source.data, source.clientId, source.extras);
+            message.encoding = source.encoding;
+            result[i] = message;
+        }
+        return result;
+    }
+}
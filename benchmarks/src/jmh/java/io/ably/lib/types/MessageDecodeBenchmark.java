@@ -0,0 +1,120 @@
+package io.ably.lib.types;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.davidehrmann.vcdiff.VCDiffEncoder;
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.google.gson.JsonObject;
+
+import io.ably.lib.util.Base64Coder;
+
+/**
+ * Measures BaseMessage.decode() for the encoding chains seen on realtime channels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MessageDecodeBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] CIPHER_KEY = BenchmarkMessages.bytes(16);
+
+    /**
+     * The encoding chain applied to the payload:
+     * <ul>
+     *     <li>utf-8: a string sent as binary, as received over msgpack</li>
+     *     <li>base64: binary data, as received over JSON</li>
+     *     <li>json: a JSON object, as received over msgpack</li>
+     *     <li>cipher: an encrypted string, as received over msgpack</li>
+     *     <li>json/cipher/base64: an encrypted JSON object, as received over JSON</li>
+     *     <li>vcdiff: a string delta against the previous message, as received over msgpack</li>
+     * </ul>
+     */
+    @Param({"utf-8", "base64", "json", "cipher", "json/cipher/base64", "vcdiff"})
+    public String chain;
+
+    @Param({"64", "1024"})
+    public int payloadSize;
+
+    private ChannelOptions options;
+    private Object encodedData;
+    private String encoding;
+    private byte[] deltaBase;
+
+    @Setup(Level.Trial)
+    public void setup() throws AblyException, IOException {
+        String text = BenchmarkMessages.text(payloadSize);
+        Message message = new Message("event", text);
+        switch(chain) {
+            case "utf-8":
+                message.data = text.getBytes(UTF_8);
+                message.encoding = "utf-8";
+                break;
+            case "base64":
+                message.data = new String(Base64Coder.encode(BenchmarkMessages.bytes(payloadSize)));
+                message.encoding = "base64";
+                break;
+            case "json":
+                message.data = jsonObject(text);
+                message.encode(null);
+                break;
+            case "cipher":
+                options = ChannelOptions.withCipherKey(CIPHER_KEY);
+                message.encode(options);
+                break;
+            case "json/cipher/base64":
+                options = ChannelOptions.withCipherKey(CIPHER_KEY);
+                message.data = jsonObject(text);
+                message.encode(options);
+                message.data = new String(Base64Coder.encode((byte[]) message.data));
+                message.encoding = message.encoding + "/base64";
+                break;
+            case "vcdiff":
+                deltaBase = BenchmarkMessages.text(payloadSize + 1).getBytes(UTF_8);
+                VCDiffEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder().withDictionary(deltaBase).buildSimple();
+                ByteArrayOutputStream delta = new ByteArrayOutputStream();
+                encoder.encode(text.getBytes(UTF_8), delta);
+                message.data = delta.toByteArray();
+                message.encoding = "utf-8/vcdiff";
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown chain: " + chain);
+        }
+        encodedData = message.data;
+        encoding = message.encoding;
+    }
+
+    @Benchmark
+    public Object decode() throws MessageDecodeException {
+        Message message = new Message("event", encodedData);
+        message.encoding = encoding;
+        DecodingContext context = new DecodingContext();
+        if(deltaBase != null) {
+            context.setLastMessageData(deltaBase);
+        }
+        message.decode(options, context);
+        return message.data;
+    }
+
+    private static JsonObject jsonObject(String text) {
+        JsonObject json = new JsonObject();
+        json.addProperty("text", text);
+        json.addProperty("count", text.length());
+        json.addProperty("flag", true);
+        return json;
+    }
+}
@@ -0,0 +1,86 @@
+package io.ably.lib.types;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.core.buffer.ArrayBufferInput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.ably.lib.util.Serialisation;
+
+/**
+ * Measures decoding of inbound MESSAGE ProtocolMessages from their msgpack wire form,
+ * as performed by the WebSocket transport for every binary frame received.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ProtocolDecodeBenchmark {
+
+    /**
+     * Number of Messages carried in each ProtocolMessage.
+     */
+    @Param({"1", "10", "100"})
+    public int batchSize;
+
+    /**
+     * Size in bytes of each message payload.
+     */
+    @Param({"64", "1024"})
+    public int payloadSize;
+
+    /**
+     * Whether payloads are carried as msgpack strings or binary.
+     */
+    @Param({"string", "binary"})
+    public String payloadType;
+
+    private byte[] packed;
+    private ByteBuffer packedBuffer;
+    private MessageUnpacker unpacker;
+    private ProtocolSerializer.MsgpackDecoder decoder;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        packed = ProtocolSerializer.writeMsgpack(BenchmarkMessages.protocolMessage(batchSize, payloadSize, "binary".equals(payloadType)));
+        packedBuffer = ByteBuffer.wrap(packed);
+        unpacker = Serialisation.msgpackUnpackerConfig.newUnpacker(packed);
+        decoder = new ProtocolSerializer.MsgpackDecoder();
+    }
+
+    /**
+     * The full transport entry point, including creation of the unpacker for the frame.
+     */
+    @Benchmark
+    public ProtocolMessage readMsgpack() throws AblyException {
+        return ProtocolSerializer.readMsgpack(packed);
+    }
+
+    /**
+     * Field-by-field decode only, reusing a single unpacker across frames.
+     */
+    @Benchmark
+    public ProtocolMessage fromMsgpack() throws IOException {
+        unpacker.reset(new ArrayBufferInput(packed));
+        return ProtocolMessage.fromMsgpack(unpacker);
+    }
+
+    /**
+     * The transport entry point for frames received as a ByteBuffer, reusing the
+     * transport's decoder.
+     */
+    @Benchmark
+    public ProtocolMessage readMsgpackByteBuffer() throws AblyException {
+        return decoder.readMsgpack(packedBuffer);
+    }
+}
@@ -22,7 +22,7 @@ import io.ably.lib.types.Param;
  *
  * @param <T>
  */
-public class BasePaginatedQuery<T> implements HttpCore.ResponseHandler<BasePaginatedResult<T>> {
+public class BasePaginatedQuery<T> implements HttpCore.StreamingResponseHandler<BasePaginatedResult<T>> {
 
     /**
      * Construct a PaginatedQuery
@@ -156,10 +156,20 @@ public class BasePaginatedQuery<T> implements HttpCore.ResponseHandler<BasePagin
         if(error != null) {
             throw AblyException.fromErrorInfo(error);
         }
-        T[] responseContents = bodyHandler.handleResponseBody(response.contentType, response.body);
+        T[] responseContents = (response.bodyStream != null)
+            ? ((HttpCore.StreamingBodyHandler<T>)bodyHandler).handleResponseBody(response.contentType, response.bodyStream)
+            : bodyHandler.handleResponseBody(response.contentType, response.body);
         return new BasePaginatedQuery.ResultPage(responseContents, response.getHeaderFields(HttpConstants.Headers.LINK));
     }
 
+    /**
+     * Each page may be decoded as it is read if the body handler supports it
+     */
+    @Override
+    public boolean acceptsBodyStream() {
+        return bodyHandler instanceof HttpCore.StreamingBodyHandler;
+    }
+
     /****************
      * internal
      ****************/
@@ -222,6 +232,14 @@ public class BasePaginatedQuery<T> implements HttpCore.ResponseHandler<BasePagin
             });
         }
 
+        /**
+         * Iterate over the items of every page, prefetching each following page
+         * in the background
+         */
+        public PaginatedResultIterator<T> iterator() {
+            return new PaginatedResultIterator<T>(this);
+        }
+
         /**
          * A ResultRequest that has already failed due to a previous condition.
          *
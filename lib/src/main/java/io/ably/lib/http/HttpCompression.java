@@ -0,0 +1,221 @@
+package io.ably.lib.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import io.ably.lib.util.CompressionStats;
+
+/**
+ * Compression of HTTP request bodies, and decompression of response bodies, with the
+ * gzip and deflate content codings; the bytes before and after are counted in the
+ * given CompressionStats.
+ */
+final class HttpCompression {
+
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private HttpCompression() {}
+
+    /**
+     * Compress a request body with gzip.
+     * @return the compressed body, or null if compression does not make it smaller
+     */
+    static byte[] compress(byte[] body, CompressionStats stats) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2 + 64);
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(body);
+        gzip.close();
+        if(out.size() >= body.length) {
+            return null;
+        }
+        byte[] compressed = out.toByteArray();
+        stats.recordSent(body.length, compressed.length);
+        return compressed;
+    }
+
+    /**
+     * Decompress the body of a response, if it has a supported Content-Encoding, and remove
+     * that header so the response appears as if it had not been compressed.
+     * @throws IOException if a buffered body is not validly compressed; errors in a
+     * streamed body are thrown as it is read
+     */
+    static void decompress(HttpCore.Response response, CompressionStats stats) throws IOException {
+        List<String> encodings = response.getHeaderFields(HttpConstants.Headers.CONTENT_ENCODING);
+        if(encodings == null || encodings.size() != 1) {
+            return;
+        }
+        String encoding = encodings.get(0).trim().toLowerCase(Locale.ROOT);
+        if(!encoding.equals(GZIP) && !encoding.equals(DEFLATE)) {
+            return;
+        }
+        response.headers.remove(HttpConstants.Headers.CONTENT_ENCODING.toLowerCase(Locale.ROOT));
+        if(response.bodyStream != null) {
+            response.bodyStream = new DecompressingInputStream(response.bodyStream, encoding, stats);
+            response.contentLength = -1;
+        } else if(response.body != null && response.body.length > 0) {
+            InputStream in = decoder(new ByteArrayInputStream(response.body), encoding);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(response.body.length * 4);
+            byte[] buffer = new byte[4 * 1024];
+            int read;
+            try {
+                while((read = in.read(buffer)) > -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+            stats.recordReceived(out.size(), response.body.length);
+            response.body = out.toByteArray();
+            response.contentLength = response.body.length;
+        }
+    }
+
+    /**
+     * A stream decoding the given content coding. Although "deflate" is defined as zlib
+     * data, some servers send raw deflate data, so that is accepted too.
+     */
+    private static InputStream decoder(InputStream in, String encoding) throws IOException {
+        if(encoding.equals(GZIP)) {
+            return new GZIPInputStream(in);
+        }
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        byte[] header = new byte[2];
+        int length = 0, read;
+        while(length < 2 && (read = pushback.read(header, length, 2 - length)) > -1) {
+            length += read;
+        }
+        pushback.unread(header, 0, length);
+        boolean zlib = length == 2 && (header[0] & 0x0f) == 8 && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+        return new InflaterInputStream(pushback, new Inflater(!zlib));
+    }
+
+    /**
+     * A streamed response body, decompressed as it is read, counting the bytes read
+     * before and after decompression.
+     */
+    private static class DecompressingInputStream extends FilterInputStream {
+        private final CompressionStats stats;
+        private final Counter compressed;
+        private final String encoding;
+        private boolean started;
+        private long rawBytes;
+
+        DecompressingInputStream(InputStream in, String encoding, CompressionStats stats) {
+            this(new Counter(in), encoding, stats);
+        }
+
+        private DecompressingInputStream(Counter compressed, String encoding, CompressionStats stats) {
+            super(compressed);
+            this.compressed = compressed;
+            this.encoding = encoding;
+            this.stats = stats;
+        }
+
+        /* the decoder is made on the first read, as making it reads the stream's header */
+        private void start() throws IOException {
+            if(!started) {
+                started = true;
+                in = decoder(compressed, encoding);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            start();
+            int b = in.read();
+            if(b >= 0) {
+                ++rawBytes;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            start();
+            int read = in.read(b, off, len);
+            if(read > 0) {
+                rawBytes += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            start();
+            long skipped = in.skip(n);
+            rawBytes += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return started ? in.available() : 0;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            stats.recordReceived(rawBytes, compressed.count);
+            rawBytes = 0;
+            compressed.count = 0;
+            in.close();
+        }
+    }
+
+    /**
+     * A stream counting the bytes read from it.
+     */
+    private static class Counter extends FilterInputStream {
+        long count;
+
+        Counter(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if(b >= 0) {
+                ++count;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if(read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -11,6 +11,8 @@ public class HttpConstants {
         public static final String CONTENT_LENGTH      = "Content-Length";
         public static final String ACCEPT              = "Accept";
         public static final String CONTENT_TYPE        = "Content-Type";
+        public static final String CONTENT_ENCODING    = "Content-Encoding";
+        public static final String ACCEPT_ENCODING     = "Accept-Encoding";
         public static final String WWW_AUTHENTICATE    = "WWW-Authenticate";
         public static final String PROXY_AUTHENTICATE  = "Proxy-Authenticate";
         public static final String AUTHORIZATION       = "Authorization";
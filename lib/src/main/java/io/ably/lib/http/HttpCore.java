@@ -1,18 +1,18 @@
 package io.ably.lib.http;
 
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.lang.reflect.Field;
-import java.net.HttpURLConnection;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.google.gson.JsonParseException;
 
@@ -28,6 +28,7 @@ import io.ably.lib.types.ErrorResponse;
 import io.ably.lib.types.Param;
 import io.ably.lib.types.ProxyOptions;
 import io.ably.lib.util.AgentHeaderCreator;
+import io.ably.lib.util.CompressionStats;
 import io.ably.lib.util.Log;
 import io.ably.lib.util.PlatformAgentProvider;
 
@@ -47,6 +48,8 @@ public class HttpCore {
         this.scheme = options.tls ? "https://" : "http://";
         this.port = Defaults.getPort(options);
         this.hosts = new Hosts(options.restHost, Defaults.HOST_REST, options);
+        HttpEngine.Factory engineFactory = (options.httpEngineFactory != null) ? options.httpEngineFactory : new HttpUrlConnectionEngine.Factory();
+        this.engine = engineFactory.create(options);
 
         this.proxyOptions = options.proxy;
         if(proxyOptions != null) {
@@ -75,7 +78,7 @@ public class HttpCore {
      * @throws AblyException
      */
     public <T> T httpExecuteWithRetry(URL url, String method, Param[] headers, RequestBody requestBody, ResponseHandler<T> responseHandler, boolean requireAblyAuth) throws AblyException {
-        boolean renewPending = true, proxyAuthPending = true;
+        AuthRetry retry = new AuthRetry(requireAblyAuth);
         if(requireAblyAuth) {
             authorize(false);
         }
@@ -83,23 +86,61 @@ public class HttpCore {
             try {
                 return httpExecute(url, getProxy(url), method, headers, requestBody, true, responseHandler);
             } catch(AuthRequiredException are) {
-                if(are.authChallenge != null && requireAblyAuth) {
-                    if(are.expired && renewPending) {
-                        authorize(true);
-                        renewPending = false;
-                        continue;
-                    }
+                if(!retry.onAuthRequired(are)) {
+                    throw are;
                 }
-                if(are.proxyAuthChallenge != null && proxyAuthPending && proxyAuth != null) {
-                    proxyAuth.processAuthenticateHeaders(are.proxyAuthChallenge);
-                    proxyAuthPending = false;
-                    continue;
-                }
-                throw are;
             }
         }
     }
 
+    /**
+     * Make an asynchronous HTTP request specified by URL and proxy, retrying if necessary on WWW-Authenticate.
+     * The request is made by the engine without blocking, and the response is handled on the given executor,
+     * on which the callback is called.
+     * @param url
+     * @param method
+     * @param headers
+     * @param requestBody
+     * @param responseHandler
+     * @param executor
+     * @param callback
+     */
+    public <T> void httpExecuteWithRetryAsync(final URL url, final String method, final Param[] headers, final RequestBody requestBody, final ResponseHandler<T> responseHandler, boolean requireAblyAuth, final Executor executor, final ExecuteCallback<T> callback) {
+        final AuthRetry retry = new AuthRetry(requireAblyAuth);
+        try {
+            if(requireAblyAuth) {
+                authorize(false);
+            }
+        } catch(AblyException e) {
+            callback.onException(e);
+            return;
+        }
+        httpExecuteAsync(url, getProxy(url), method, headers, requestBody, true, responseHandler, executor, new ExecuteCallback<T>() {
+            @Override
+            public void onResult(T result) {
+                callback.onResult(result);
+            }
+
+            @Override
+            public void onException(AblyException e) {
+                if(e instanceof AuthRequiredException) {
+                    boolean retrying;
+                    try {
+                        retrying = retry.onAuthRequired((AuthRequiredException)e);
+                    } catch(AblyException authException) {
+                        callback.onException(authException);
+                        return;
+                    }
+                    if(retrying) {
+                        httpExecuteAsync(url, getProxy(url), method, headers, requestBody, true, responseHandler, executor, this);
+                        return;
+                    }
+                }
+                callback.onException(e);
+            }
+        });
+    }
+
     /**
      * Sets host for this HTTP client
      *
@@ -128,6 +169,15 @@ public class HttpCore {
         return hosts.getPrimaryHost();
     }
 
+    /**
+     * Gets the measured health of the hosts to which requests have been made
+     *
+     * @return
+     */
+    public Hosts.HostStats[] getHostStats() {
+        return hosts.getStats();
+    }
+
     /**************************
      *     Internal API
      **************************/
@@ -139,6 +189,7 @@ public class HttpCore {
     synchronized void dispose() {
         if(!isDisposed) {
             isDisposed = true;
+            engine.dispose();
         }
     }
 
@@ -146,6 +197,13 @@ public class HttpCore {
         dispose();
     }
 
+    /**
+     * Whether the engine makes asynchronous requests without blocking
+     */
+    boolean isNonBlocking() {
+        return engine.isNonBlocking();
+    }
+
     /**
      * Make a synchronous HTTP request specified by URL and proxy
      * @param url
@@ -159,128 +217,243 @@ public class HttpCore {
      * @throws AblyException
      */
     public <T> T httpExecute(URL url, Proxy proxy, String method, Param[] headers, RequestBody requestBody, boolean withCredentials, ResponseHandler<T> responseHandler) throws AblyException {
-        HttpURLConnection conn = null;
+        Exchange exchange = prepareRequest(url, proxy, method, headers, requestBody, withCredentials);
+        Response response = exchange.interceptedResponse;
+        if(response == null) {
+            /* a debug listener is given the buffered body, so the body is only streamed without one */
+            exchange.request.streamBody = exchange.rawHttpListener == null
+                && responseHandler instanceof StreamingResponseHandler
+                && ((StreamingResponseHandler<?>)responseHandler).acceptsBodyStream();
+            long start = System.nanoTime();
+            try {
+                response = engine.execute(exchange.request);
+                recordOutcome(url, response, start);
+                HttpCompression.decompress(response, compressionStats);
+            } catch(IOException ioe) {
+                if(response == null) {
+                    hosts.recordFailure(url.getHost());
+                }
+                closeBodyStream(response);
+                throw exchange.onException(ioe);
+            }
+            exchange.onResponse(response);
+        }
         try {
-            conn = (HttpURLConnection)url.openConnection(proxy);
-            boolean withProxyCredentials = (proxy != Proxy.NO_PROXY) && (proxyAuth != null);
-            return httpExecute(conn, method, headers, requestBody, withCredentials, withProxyCredentials, responseHandler);
-        } catch(IOException ioe) {
-            throw AblyException.fromThrowable(ioe);
+            return handleResponse(exchange.credentialsIncluded, response, responseHandler);
         } finally {
-            if(conn != null) {
-                conn.disconnect();
-            }
+            closeBodyStream(response);
+        }
+    }
+
+    /**
+     * Record the outcome of a request in the health of its host; a response indicating
+     * a server failure, as handled by fallback to another host, counts as a failure
+     */
+    private void recordOutcome(URL url, Response response, long start) {
+        if(response.statusCode >= 500 && response.statusCode <= 504) {
+            hosts.recordFailure(url.getHost());
+        } else {
+            hosts.recordSuccess(url.getHost(), (System.nanoTime() - start) / 1000000L);
+        }
+    }
+
+    private static void closeBodyStream(Response response) {
+        if(response != null && response.bodyStream != null) {
+            try {
+                response.bodyStream.close();
+            } catch(IOException e) {}
         }
     }
 
     /**
-     * Make a synchronous HTTP request with a given HttpURLConnection
-     * @param conn
+     * Make an asynchronous HTTP request specified by URL and proxy. The response is handled
+     * on the given executor, on which the callback is called.
+     * @param url
+     * @param proxy
      * @param method
      * @param headers
      * @param requestBody
      * @param withCredentials
      * @param responseHandler
-     * @return
-     * @throws AblyException
+     * @param executor
+     * @param callback
      */
-    <T> T httpExecute(HttpURLConnection conn, String method, Param[] headers, RequestBody requestBody, boolean withCredentials, boolean withProxyCredentials, ResponseHandler<T> responseHandler) throws AblyException {
-        Response response;
-        boolean credentialsIncluded = false;
-        RawHttpListener rawHttpListener = null;
-        String id = null;
+    public <T> void httpExecuteAsync(final URL url, Proxy proxy, String method, Param[] headers, RequestBody requestBody, boolean withCredentials, final ResponseHandler<T> responseHandler, final Executor executor, final ExecuteCallback<T> callback) {
+        final Exchange exchange;
         try {
-            /* prepare connection */
-            conn.setRequestMethod(method);
-            conn.setConnectTimeout(options.httpOpenTimeout);
-            conn.setReadTimeout(options.httpRequestTimeout);
-            conn.setDoInput(true);
-
-            String authHeader = Param.getFirst(headers, HttpConstants.Headers.AUTHORIZATION);
-            if (authHeader == null && auth != null) {
-                authHeader = auth.getAuthorizationHeader();
-            }
-            if(withCredentials && authHeader != null) {
-                conn.setRequestProperty(HttpConstants.Headers.AUTHORIZATION, authHeader);
-                credentialsIncluded = true;
-            }
-            if(withProxyCredentials && proxyAuth.hasChallenge()) {
-                byte[] encodedRequestBody = (requestBody != null) ? requestBody.getEncoded() : null;
-                String proxyAuthorizationHeader = proxyAuth.getAuthorizationHeader(method, conn.getURL().getPath(), encodedRequestBody);
-                conn.setRequestProperty(HttpConstants.Headers.PROXY_AUTHORIZATION, proxyAuthorizationHeader);
-            }
-            boolean acceptSet = false;
-            if(headers != null) {
-                for(Param header: headers) {
-                    conn.setRequestProperty(header.key, header.value);
-                    if(header.key.equals(HttpConstants.Headers.ACCEPT)) { acceptSet = true; }
-                }
+            exchange = prepareRequest(url, proxy, method, headers, requestBody, withCredentials);
+        } catch(AblyException e) {
+            callback.onException(e);
+            return;
+        }
+        if(exchange.interceptedResponse != null) {
+            handleResponseAsync(exchange, exchange.interceptedResponse, responseHandler, callback);
+            return;
+        }
+        final long start = System.nanoTime();
+        engine.executeAsync(exchange.request, new HttpEngine.Callback() {
+            @Override
+            public void onResponse(final Response response) {
+                dispatch(executor, new Runnable() {
+                    @Override
+                    public void run() {
+                        recordOutcome(url, response, start);
+                        try {
+                            HttpCompression.decompress(response, compressionStats);
+                        } catch(IOException ioe) {
+                            callback.onException(exchange.onException(ioe));
+                            return;
+                        }
+                        exchange.onResponse(response);
+                        handleResponseAsync(exchange, response, responseHandler, callback);
+                    }
+                }, callback);
             }
-            if(!acceptSet) { conn.setRequestProperty(HttpConstants.Headers.ACCEPT, HttpConstants.ContentTypes.JSON); }
-
-            /* pass required headers */
-            conn.setRequestProperty(Defaults.ABLY_VERSION_HEADER, Defaults.ABLY_VERSION);
-            conn.setRequestProperty(Defaults.ABLY_AGENT_HEADER, AgentHeaderCreator.create(options.agents, platformAgentProvider));
-
-            /* prepare request body */
-            byte[] body = null;
-            if(requestBody != null) {
-                body = prepareRequestBody(requestBody, conn);
-                if (Log.level <= Log.VERBOSE)
-                    Log.v(TAG, System.lineSeparator() + new String(body));
+
+            @Override
+            public void onError(final IOException ioe) {
+                dispatch(executor, new Runnable() {
+                    @Override
+                    public void run() {
+                        hosts.recordFailure(url.getHost());
+                        callback.onException(exchange.onException(ioe));
+                    }
+                }, callback);
             }
+        });
+    }
+
+    private <T> void handleResponseAsync(Exchange exchange, Response response, ResponseHandler<T> responseHandler, ExecuteCallback<T> callback) {
+        T result;
+        try {
+            result = handleResponse(exchange.credentialsIncluded, response, responseHandler);
+        } catch(AblyException e) {
+            callback.onException(e);
+            return;
+        }
+        callback.onResult(result);
+    }
+
+    /**
+     * Run the handling of an engine's callback on the given executor, so that it never
+     * blocks the engine's thread.
+     */
+    private static void dispatch(Executor executor, Runnable task, ExecuteCallback<?> callback) {
+        try {
+            executor.execute(task);
+        } catch(RejectedExecutionException ree) {
+            Log.e(TAG, "Unable to handle HTTP response; executor rejected task", ree);
+            callback.onException(AblyException.fromThrowable(ree));
+        }
+    }
 
-            /* log raw request details */
-            Map<String, List<String>> requestProperties = conn.getRequestProperties();
-            if (Log.level <= Log.VERBOSE) {
-                Log.v(TAG, "HTTP request: " + conn.getURL() + " " + method);
-                if (credentialsIncluded)
-                    Log.v(TAG, "  " + HttpConstants.Headers.AUTHORIZATION + ": " + authHeader);
-                for (Map.Entry<String, List<String>> entry : requestProperties.entrySet())
-                    for (String val : entry.getValue())
-                        Log.v(TAG, "  " + entry.getKey() + ": " + val);
+    /**
+     * Prepare an authenticated request for the engine, and pass it to any debug listener
+     * @param url
+     * @param proxy
+     * @param method
+     * @param headers
+     * @param requestBody
+     * @param withCredentials
+     * @return
+     * @throws AblyException
+     */
+    private Exchange prepareRequest(URL url, Proxy proxy, String method, Param[] headers, RequestBody requestBody, boolean withCredentials) throws AblyException {
+        Exchange exchange = new Exchange();
+        Request request = exchange.request;
+        request.url = url;
+        request.proxy = proxy;
+        request.method = method;
+        request.connectTimeout = options.httpOpenTimeout;
+        request.readTimeout = options.httpRequestTimeout;
+
+        String authHeader = Param.getFirst(headers, HttpConstants.Headers.AUTHORIZATION);
+        if (authHeader == null && auth != null) {
+            authHeader = auth.getAuthorizationHeader();
+        }
+        if(withCredentials && authHeader != null) {
+            request.setHeader(HttpConstants.Headers.AUTHORIZATION, authHeader);
+            exchange.credentialsIncluded = true;
+        }
+        boolean withProxyCredentials = (proxy != null && proxy != Proxy.NO_PROXY) && (proxyAuth != null);
+        if(withProxyCredentials && proxyAuth.hasChallenge()) {
+            byte[] encodedRequestBody = (requestBody != null) ? requestBody.getEncoded() : null;
+            String proxyAuthorizationHeader = proxyAuth.getAuthorizationHeader(method, url.getPath(), encodedRequestBody);
+            request.setHeader(HttpConstants.Headers.PROXY_AUTHORIZATION, proxyAuthorizationHeader);
+        }
+        boolean acceptSet = false;
+        if(headers != null) {
+            for(Param header: headers) {
+                request.setHeader(header.key, header.value);
+                if(header.key.equals(HttpConstants.Headers.ACCEPT)) { acceptSet = true; }
             }
+        }
+        if(!acceptSet) { request.setHeader(HttpConstants.Headers.ACCEPT, HttpConstants.ContentTypes.JSON); }
 
-            if(options instanceof DebugOptions) {
-                rawHttpListener = ((DebugOptions)options).httpListener;
-                if(rawHttpListener != null) {
-                    id = String.valueOf(Math.random()).substring(2);
-                    response = rawHttpListener.onRawHttpRequest(id, conn, method, (credentialsIncluded ? authHeader : null), requestProperties, requestBody);
-                    if (response != null) {
-                        return handleResponse(conn, credentialsIncluded, response, responseHandler);
-                    }
+        /* pass required headers */
+        request.setHeader(Defaults.ABLY_VERSION_HEADER, Defaults.ABLY_VERSION);
+        request.setHeader(Defaults.ABLY_AGENT_HEADER, AgentHeaderCreator.create(options.agents, platformAgentProvider));
+
+        if(options.httpCompression) {
+            request.setHeader(HttpConstants.Headers.ACCEPT_ENCODING, HttpCompression.ACCEPT_ENCODING);
+        }
+
+        /* prepare request body */
+        if(requestBody != null) {
+            byte[] body = requestBody.getEncoded();
+            if (Log.level <= Log.VERBOSE)
+                Log.v(TAG, System.lineSeparator() + new String(body));
+            int compressionThreshold = options.httpRequestCompressionThreshold;
+            if(compressionThreshold > 0 && body.length >= compressionThreshold) {
+                byte[] compressed;
+                try {
+                    compressed = HttpCompression.compress(body, compressionStats);
+                } catch(IOException ioe) {
+                    throw AblyException.fromThrowable(ioe);
+                }
+                if(compressed != null) {
+                    body = compressed;
+                    request.setHeader(HttpConstants.Headers.CONTENT_ENCODING, HttpCompression.GZIP);
                 }
             }
+            request.body = body;
+            request.setHeader(HttpConstants.Headers.CONTENT_TYPE, requestBody.getContentType());
+            request.setHeader(HttpConstants.Headers.CONTENT_LENGTH, Integer.toString(body.length));
+        }
 
-            /* send request body */
-            if(requestBody != null) {
-                writeRequestBody(body, conn);
-            }
-            response = readResponse(conn);
-            if(rawHttpListener != null) {
-                rawHttpListener.onRawHttpResponse(id, method, response);
-            }
-        } catch(IOException ioe) {
-            ioe.printStackTrace();
+        /* log raw request details; credentials are logged, and passed to the listener, separately */
+        Map<String, List<String>> requestProperties = new HashMap<>(request.headers);
+        requestProperties.remove(HttpConstants.Headers.AUTHORIZATION);
+        requestProperties.remove(HttpConstants.Headers.PROXY_AUTHORIZATION);
+        if (Log.level <= Log.VERBOSE) {
+            Log.v(TAG, "HTTP request: " + url + " " + method);
+            if (exchange.credentialsIncluded)
+                Log.v(TAG, "  " + HttpConstants.Headers.AUTHORIZATION + ": " + authHeader);
+            for (Map.Entry<String, List<String>> entry : requestProperties.entrySet())
+                for (String val : entry.getValue())
+                    Log.v(TAG, "  " + entry.getKey() + ": " + val);
+        }
+
+        if(options instanceof DebugOptions) {
+            RawHttpListener rawHttpListener = ((DebugOptions)options).httpListener;
             if(rawHttpListener != null) {
-                rawHttpListener.onRawHttpException(id, method, ioe);
+                exchange.rawHttpListener = rawHttpListener;
+                exchange.id = String.valueOf(Math.random()).substring(2);
+                exchange.interceptedResponse = rawHttpListener.onRawHttpRequest(exchange.id, url, method, (exchange.credentialsIncluded ? authHeader : null), requestProperties, requestBody);
             }
-            throw AblyException.fromThrowable(ioe);
         }
-
-        return handleResponse(conn, credentialsIncluded, response, responseHandler);
+        return exchange;
     }
 
     /**
      * Handle HTTP response
-     * @param conn
      * @param credentialsIncluded
      * @param response
      * @param responseHandler
      * @return
      * @throws AblyException
      */
-    private <T> T handleResponse(HttpURLConnection conn, boolean credentialsIncluded, Response response, ResponseHandler<T> responseHandler) throws AblyException {
+    private <T> T handleResponse(boolean credentialsIncluded, Response response, ResponseHandler<T> responseHandler) throws AblyException {
         if (response.statusCode == 0) {
             return null;
         }
@@ -321,8 +494,8 @@ public class HttpCore {
 
         /* handle error details in header */
         if(error == null) {
-            String errorCodeHeader = conn.getHeaderField("X-Ably-ErrorCode");
-            String errorMessageHeader = conn.getHeaderField("X-Ably-ErrorMessage");
+            String errorCodeHeader = getFirstHeader(response, "X-Ably-ErrorCode");
+            String errorMessageHeader = getFirstHeader(response, "X-Ably-ErrorMessage");
             if(errorCodeHeader != null) {
                 try {
                     error = new ErrorInfo(errorMessageHeader, response.statusCode, Integer.parseInt(errorCodeHeader));
@@ -369,109 +542,9 @@ public class HttpCore {
         throw AblyException.fromErrorInfo(error);
     }
 
-    /**
-     * Emit the request body for an HTTP request
-     * @param requestBody
-     * @param conn
-     * @return body
-     * @throws IOException
-     */
-    private byte[] prepareRequestBody(RequestBody requestBody, HttpURLConnection conn) throws IOException {
-        conn.setDoOutput(true);
-        byte[] body = requestBody.getEncoded();
-        int length = body.length;
-        conn.setFixedLengthStreamingMode(length);
-        conn.setRequestProperty(HttpConstants.Headers.CONTENT_TYPE, requestBody.getContentType());
-        conn.setRequestProperty(HttpConstants.Headers.CONTENT_LENGTH, Integer.toString(length));
-        return body;
-    }
-
-    private void writeRequestBody(byte[] body, HttpURLConnection conn) throws IOException {
-        OutputStream os = conn.getOutputStream();
-        os.write(body);
-    }
-
-    /**
-     * Read the response for an HTTP request
-     * @param connection
-     * @return
-     * @throws IOException
-     */
-    private Response readResponse(HttpURLConnection connection) throws IOException {
-        Response response = new Response();
-        response.statusCode = connection.getResponseCode();
-        response.statusLine = connection.getResponseMessage();
-
-        /* Store all header field names in lower-case to eliminate case insensitivity */
-        Log.v(TAG, "HTTP response:");
-        Map<String, List<String>> caseSensitiveHeaders = connection.getHeaderFields();
-        response.headers = new HashMap<>(caseSensitiveHeaders.size(), 1f);
-
-        for (Map.Entry<String, List<String>> entry : caseSensitiveHeaders.entrySet()) {
-            if (entry.getKey() != null) {
-                response.headers.put(entry.getKey().toLowerCase(Locale.ROOT), entry.getValue());
-                if (Log.level <= Log.VERBOSE)
-                    for (String val : entry.getValue())
-                        Log.v(TAG, entry.getKey() + ": " + val);
-            }
-        }
-
-        if(response.statusCode == HttpURLConnection.HTTP_NO_CONTENT) {
-            return response;
-        }
-
-        response.contentType = connection.getContentType();
-        response.contentLength = connection.getContentLength();
-
-        InputStream is = null;
-        try {
-            is = connection.getInputStream();
-        } catch (Throwable e) {}
-        if (is == null)
-            is = connection.getErrorStream();
-
-        try {
-            response.body = readInputStream(is, response.contentLength);
-            Log.v(TAG, System.lineSeparator() + new String(response.body));
-        } catch (NullPointerException e) {
-            /* nothing to read */
-        } finally {
-            if (is != null) {
-                try {
-                    is.close();
-                } catch (IOException e) {}
-            }
-        }
-
-        return response;
-    }
-
-    private byte[] readInputStream(InputStream inputStream, int bytes) throws IOException {
-        /* If there is nothing to read */
-        if (inputStream == null) {
-            throw new NullPointerException("inputStream == null");
-        }
-
-        int bytesRead = 0;
-
-        if (bytes == -1) {
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            byte[] buffer = new byte[4 * 1024];
-            while((bytesRead = inputStream.read(buffer)) > -1) {
-                outputStream.write(buffer, 0, bytesRead);
-            }
-
-            return outputStream.toByteArray();
-        }
-        else {
-            int idx = 0;
-            byte[] output = new byte[bytes];
-            while((bytesRead = inputStream.read(output,  idx, bytes - idx)) > -1) {
-                idx += bytesRead;
-            }
-
-            return output;
-        }
+    private static String getFirstHeader(Response response, String name) {
+        List<String> values = response.getHeaderFields(name);
+        return (values == null || values.isEmpty()) ? null : values.get(0);
     }
 
     Proxy getProxy(URL url) {
@@ -497,22 +570,14 @@ public class HttpCore {
      *     Private state
      *************************/
 
-    static {
-        /* if on Android, check version */
-        Field androidVersionField = null;
-        int androidVersion = 0;
-        try {
-            androidVersionField = Class.forName("android.os.Build$VERSION").getField("SDK_INT");
-            androidVersion = androidVersionField.getInt(androidVersionField);
-        } catch (Exception e) {}
-        if(androidVersionField != null && androidVersion < 8) {
-            /* HTTP connection reuse which was buggy pre-froyo */
-            System.setProperty("httpCore.keepAlive", "false");
-        }
-    }
-
     public final String scheme;
     public final int port;
+    /**
+     * The bytes of request and response bodies sent and received by this client, before and
+     * after compression, if {@link ClientOptions#httpCompression} or
+     * {@link ClientOptions#httpRequestCompressionThreshold} is set.
+     */
+    public final CompressionStats compressionStats = new CompressionStats();
     final ClientOptions options;
     final Hosts hosts;
 
@@ -521,10 +586,107 @@ public class HttpCore {
     private HttpAuth proxyAuth;
     private Proxy proxy = Proxy.NO_PROXY;
     private boolean isDisposed;
+    private final HttpEngine engine;
     private final PlatformAgentProvider platformAgentProvider;
 
     private static final String TAG = HttpCore.class.getName();
 
+    /**
+     * A type encapsulating an httpCore request, as made by an HttpEngine
+     */
+    public static class Request {
+        public URL url;
+        public String method;
+        /* null for a direct connection */
+        public Proxy proxy;
+        /* header names are compared without regard to case */
+        public final Map<String,List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        public byte[] body;
+        public int connectTimeout;
+        public int readTimeout;
+        /* whether the body of a successful response may be returned unread, as Response.bodyStream;
+         * an engine that always buffers the body may ignore this */
+        public boolean streamBody;
+
+        /**
+         * Set the named header field, replacing any existing values
+         */
+        public void setHeader(String name, String value) {
+            List<String> values = new ArrayList<>(1);
+            values.add(value);
+            headers.put(name, values);
+        }
+    }
+
+    /**
+     * Interface for an entity notified of the outcome of an asynchronous httpCore request
+     * @param <T>
+     */
+    public interface ExecuteCallback<T> {
+        void onResult(T result);
+        void onException(AblyException e);
+    }
+
+    /**
+     * A request in progress, and the state needed to handle its response
+     */
+    private static class Exchange {
+        final Request request = new Request();
+        boolean credentialsIncluded;
+        RawHttpListener rawHttpListener;
+        String id;
+        /* a response supplied by a debug listener, in place of making the request */
+        Response interceptedResponse;
+
+        void onResponse(Response response) {
+            if(rawHttpListener != null) {
+                rawHttpListener.onRawHttpResponse(id, request.method, response);
+            }
+        }
+
+        AblyException onException(IOException ioe) {
+            Log.e(TAG, "HTTP request failed: " + request.url + " " + request.method, ioe);
+            if(rawHttpListener != null) {
+                rawHttpListener.onRawHttpException(id, request.method, ioe);
+            }
+            return AblyException.fromThrowable(ioe);
+        }
+    }
+
+    /**
+     * The state of reauthentication for a request, which is retried at most once on each of
+     * an expired token and a proxy authentication challenge
+     */
+    private class AuthRetry {
+        private final boolean requireAblyAuth;
+        private boolean renewPending = true, proxyAuthPending = true;
+
+        AuthRetry(boolean requireAblyAuth) {
+            this.requireAblyAuth = requireAblyAuth;
+        }
+
+        /**
+         * Reauthenticate in response to a challenge, if possible
+         * @return true if the request should be retried
+         * @throws AblyException if reauthentication failed
+         */
+        boolean onAuthRequired(AuthRequiredException are) throws AblyException {
+            if(are.authChallenge != null && requireAblyAuth) {
+                if(are.expired && renewPending) {
+                    authorize(true);
+                    renewPending = false;
+                    return true;
+                }
+            }
+            if(are.proxyAuthChallenge != null && proxyAuthPending && proxyAuth != null) {
+                proxyAuth.processAuthenticateHeaders(are.proxyAuthChallenge);
+                proxyAuthPending = false;
+                return true;
+            }
+            return false;
+        }
+    }
+
     /**
      * Interface for an entity that supplies an httpCore request body
      */
@@ -541,6 +703,15 @@ public class HttpCore {
         T[] handleResponseBody(String contentType, byte[] body) throws AblyException;
     }
 
+    /**
+     * Interface for a BodyHandler that is also able to decode a body incrementally as it is
+     * read, so that the complete encoded body is never held in memory
+     * @param <T>
+     */
+    public interface StreamingBodyHandler<T> extends BodyHandler<T> {
+        T[] handleResponseBody(String contentType, InputStream body) throws AblyException;
+    }
+
     /**
      * Interface for an entity that performs type-specific processing on an httpCore response
      * @param <T>
@@ -549,6 +720,15 @@ public class HttpCore {
         T handleResponse(Response response, ErrorInfo error) throws AblyException;
     }
 
+    /**
+     * Interface for a ResponseHandler that is able to handle the body of a successful response
+     * as an unread stream, Response.bodyStream, which is closed once the handler returns
+     * @param <T>
+     */
+    public interface StreamingResponseHandler<T> extends ResponseHandler<T> {
+        boolean acceptsBodyStream();
+    }
+
     /**
      * A type encapsulating an httpCore response
      */
@@ -559,6 +739,9 @@ public class HttpCore {
         public String contentType;
         public int contentLength;
         public byte[] body;
+        /* the unread body of a successful response, in place of body, if the request
+         * was made with streamBody set and the engine supports it */
+        public InputStream bodyStream;
 
         /**
          * Returns the value of the named header field.
@@ -0,0 +1,57 @@
+package io.ably.lib.http;
+
+import java.io.IOException;
+
+import io.ably.lib.types.ClientOptions;
+
+/**
+ * An engine that performs the HTTP requests of an HttpCore, once they have been
+ * authenticated and encoded. The engine used by a client is made by the factory in
+ * {@link ClientOptions#httpEngineFactory}; by default, requests are made with
+ * HttpURLConnection.
+ *
+ * Internal; use Http or HttpScheduler instead.
+ */
+public interface HttpEngine {
+
+    /**
+     * A factory of HttpEngine instances; each client makes its own.
+     */
+    interface Factory {
+        HttpEngine create(ClientOptions options);
+    }
+
+    /**
+     * An interface allowing the outcome of an asynchronous request to be notified.
+     * Exactly one method is called, once; it may be called on a thread belonging to
+     * the engine, so must not block.
+     */
+    interface Callback {
+        void onResponse(HttpCore.Response response);
+        void onError(IOException e);
+    }
+
+    /**
+     * Whether this engine performs asynchronous requests without a thread waiting
+     * for each. If so, the async HttpScheduler uses executeAsync() and is released
+     * while requests are in progress; otherwise it calls execute() on a pool thread.
+     */
+    boolean isNonBlocking();
+
+    /**
+     * Perform a request synchronously.
+     * @return the response; never null
+     * @throws IOException if no response was received
+     */
+    HttpCore.Response execute(HttpCore.Request request) throws IOException;
+
+    /**
+     * Perform a request asynchronously, notifying the given callback of its outcome.
+     */
+    void executeAsync(HttpCore.Request request, Callback callback);
+
+    /**
+     * Release any resources, such as idle connections, held by the engine.
+     */
+    void dispose();
+}
@@ -8,10 +8,12 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import io.ably.lib.transport.Hosts;
 import io.ably.lib.types.AblyException;
 import io.ably.lib.types.Callback;
 import io.ably.lib.types.ErrorInfo;
 import io.ably.lib.types.Param;
+import io.ably.lib.util.CurrentThreadExecutor;
 import io.ably.lib.util.Log;
 
 /**
@@ -122,6 +124,10 @@ public class HttpScheduler<Executor extends java.util.concurrent.Executor> {
         }
         @Override
         public void run() {
+            if(nonBlocking) {
+                httpExecuteWithRetryAsync(url, completion);
+                return;
+            }
             try {
                 T result = httpExecuteWithRetry(url);
                 setResult(result);
@@ -157,6 +163,10 @@ public class HttpScheduler<Executor extends java.util.concurrent.Executor> {
         }
         @Override
         public void run() {
+            if(nonBlocking) {
+                httpExecuteWithRetryAsync(host, path, requireAblyAuth, completion);
+                return;
+            }
             try {
                 result = httpExecuteWithRetry(host, path, requireAblyAuth);
                 setResult(result);
@@ -200,7 +210,12 @@ public class HttpScheduler<Executor extends java.util.concurrent.Executor> {
         public void run() {
             String candidateHost = httpCore.hosts.getPreferredHost();
             int retryCountRemaining = (httpCore.hosts.fallbackHostsRemaining(candidateHost) > 0) ? httpCore.options.httpMaxRetryCount : 0;
+            Hosts.FallbackSequence fallbacks = httpCore.hosts.fallbackSequence();
 
+            if(nonBlocking) {
+                attemptAsync(candidateHost, retryCountRemaining, fallbacks);
+                return;
+            }
             while(!isCancelled) {
                 try {
                     result = httpExecuteWithRetry(candidateHost, path, requireAblyAuth);
@@ -214,7 +229,7 @@ public class HttpScheduler<Executor extends java.util.concurrent.Executor> {
                         break;
                     }
                     Log.d(TAG, extendMessage("Connection failed to host `" + candidateHost + "`. Searching for new host..."));
-                    candidateHost = httpCore.hosts.getFallback(candidateHost);
+                    candidateHost = fallbacks.next(candidateHost);
                     if (candidateHost == null) {
                         e.errorInfo.message = extendMessage(e.errorInfo.message);
                         setError(e.errorInfo);
@@ -230,6 +245,38 @@ public class HttpScheduler<Executor extends java.util.concurrent.Executor> {
                 }
             }
         }
+        /**
+         * Make an attempt on the given host without blocking; each attempt
+         * is made on the executor thread that handled the last response.
+         */
+        private void attemptAsync(final String candidateHost, final int retryCountRemaining, final Hosts.FallbackSequence fallbacks) {
+            if(isCancelled) {
+                return;
+            }
+            httpExecuteWithRetryAsync(candidateHost, path, requireAblyAuth, new HttpCore.ExecuteCallback<T>() {
+                @Override
+                public void onResult(T result) {
+                    setResult(result);
+                    httpCore.hosts.setPreferredHost(candidateHost, true);
+                }
+
+                @Override
+                public void onException(AblyException e) {
+                    if(e instanceof AblyException.HostFailedException && retryCountRemaining > 0) {
+                        Log.d(TAG, extendMessage("Connection failed to host `" + candidateHost + "`. Searching for new host..."));
+                        String fallbackHost = fallbacks.next(candidateHost);
+                        if(fallbackHost != null) {
+                            Log.d(TAG, extendMessage("Switched to `" + fallbackHost + "`."));
+                            attemptAsync(fallbackHost, retryCountRemaining - 1, fallbacks);
+                            return;
+                        }
+                    }
+                    e.errorInfo.message = extendMessage(e.errorInfo.message);
+                    setError(e.errorInfo);
+                }
+            });
+        }
+
         private final String path;
         private final boolean requireAblyAuth;
     }
@@ -312,6 +359,13 @@ public class HttpScheduler<Executor extends java.util.concurrent.Executor> {
             URL url = HttpUtils.buildURL(httpCore.scheme, host, httpCore.port, path, params);
             return httpCore.httpExecuteWithRetry(url, method, headers, requestBody, responseHandler, requireAblyAuth);
         }
+        protected void httpExecuteWithRetryAsync(URL url, HttpCore.ExecuteCallback<T> callback) {
+            httpCore.httpExecuteWithRetryAsync(url, method, headers, requestBody, responseHandler, false, executor, callback);
+        }
+        protected void httpExecuteWithRetryAsync(String host, String path, boolean requireAblyAuth, HttpCore.ExecuteCallback<T> callback) {
+            URL url = HttpUtils.buildURL(httpCore.scheme, host, httpCore.port, path, params);
+            httpCore.httpExecuteWithRetryAsync(url, method, headers, requestBody, responseHandler, requireAblyAuth, executor, callback);
+        }
         protected void setResult(T result) {
             synchronized(this) {
                 this.result = result;
@@ -341,6 +395,19 @@ public class HttpScheduler<Executor extends java.util.concurrent.Executor> {
             return hasConnection;
         }
 
+        /* completes this request with the outcome of an async execution */
+        protected final HttpCore.ExecuteCallback<T> completion = new HttpCore.ExecuteCallback<T>() {
+            @Override
+            public void onResult(T result) {
+                setResult(result);
+            }
+
+            @Override
+            public void onException(AblyException e) {
+                setError(e.errorInfo);
+            }
+        };
+
         protected HttpURLConnection conn;
         protected T result;
         protected ErrorInfo err;
@@ -358,6 +425,8 @@ public class HttpScheduler<Executor extends java.util.concurrent.Executor> {
     protected HttpScheduler(HttpCore httpCore, Executor executor) {
         this.httpCore = httpCore;
         this.executor = executor;
+        /* a scheduler running requests on the calling thread must wait for each */
+        this.nonBlocking = httpCore.isNonBlocking() && !(executor instanceof CurrentThreadExecutor);
     }
 
     /**
@@ -439,6 +508,8 @@ public class HttpScheduler<Executor extends java.util.concurrent.Executor> {
 
     protected final Executor executor;
     private final HttpCore httpCore;
+    /* whether requests are made without an executor thread waiting for each */
+    private final boolean nonBlocking;
 
     protected static final String TAG = HttpScheduler.class.getName();
 
@@ -0,0 +1,198 @@
+package io.ably.lib.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.util.Log;
+
+/**
+ * The default HttpEngine, making each request with an HttpURLConnection on the calling
+ * thread. Connections are pooled by the platform's HttpURLConnection implementation.
+ */
+public class HttpUrlConnectionEngine implements HttpEngine {
+
+    public static class Factory implements HttpEngine.Factory {
+        @Override
+        public HttpEngine create(ClientOptions options) {
+            return new HttpUrlConnectionEngine();
+        }
+    }
+
+    @Override
+    public boolean isNonBlocking() {
+        return false;
+    }
+
+    @Override
+    public HttpCore.Response execute(HttpCore.Request request) throws IOException {
+        Proxy proxy = (request.proxy != null) ? request.proxy : Proxy.NO_PROXY;
+        HttpURLConnection conn = (HttpURLConnection)request.url.openConnection(proxy);
+        HttpCore.Response response = null;
+        try {
+            conn.setRequestMethod(request.method);
+            conn.setConnectTimeout(request.connectTimeout);
+            conn.setReadTimeout(request.readTimeout);
+            conn.setDoInput(true);
+            for(Map.Entry<String, List<String>> header : request.headers.entrySet()) {
+                for(String value : header.getValue()) {
+                    conn.addRequestProperty(header.getKey(), value);
+                }
+            }
+            if(request.body != null) {
+                conn.setDoOutput(true);
+                conn.setFixedLengthStreamingMode(request.body.length);
+                OutputStream os = conn.getOutputStream();
+                os.write(request.body);
+            }
+            response = readResponse(conn, request.streamBody);
+            return response;
+        } finally {
+            /* a streamed body disconnects once it is closed */
+            if(response == null || response.bodyStream == null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Perform a request on the calling thread, as this engine has no thread of its own.
+     */
+    @Override
+    public void executeAsync(HttpCore.Request request, Callback callback) {
+        HttpCore.Response response;
+        try {
+            response = execute(request);
+        } catch(IOException e) {
+            callback.onError(e);
+            return;
+        }
+        callback.onResponse(response);
+    }
+
+    @Override
+    public void dispose() {}
+
+    /**
+     * Read the response for an HTTP request
+     * @param connection
+     * @param streamBody whether to return the body of a successful response unread
+     * @return
+     * @throws IOException
+     */
+    private HttpCore.Response readResponse(final HttpURLConnection connection, boolean streamBody) throws IOException {
+        HttpCore.Response response = new HttpCore.Response();
+        response.statusCode = connection.getResponseCode();
+        response.statusLine = connection.getResponseMessage();
+
+        /* Store all header field names in lower-case to eliminate case insensitivity */
+        Log.v(TAG, "HTTP response:");
+        Map<String, List<String>> caseSensitiveHeaders = connection.getHeaderFields();
+        response.headers = new HashMap<>(caseSensitiveHeaders.size(), 1f);
+
+        for (Map.Entry<String, List<String>> entry : caseSensitiveHeaders.entrySet()) {
+            if (entry.getKey() != null) {
+                response.headers.put(entry.getKey().toLowerCase(Locale.ROOT), entry.getValue());
+                if (Log.level <= Log.VERBOSE)
+                    for (String val : entry.getValue())
+                        Log.v(TAG, entry.getKey() + ": " + val);
+            }
+        }
+
+        if(response.statusCode == HttpURLConnection.HTTP_NO_CONTENT) {
+            return response;
+        }
+
+        response.contentType = connection.getContentType();
+        response.contentLength = connection.getContentLength();
+
+        InputStream is = null;
+        try {
+            is = connection.getInputStream();
+        } catch (Throwable e) {}
+        if (is == null)
+            is = connection.getErrorStream();
+        else if (streamBody && response.statusCode >= 200 && response.statusCode < 300) {
+            response.bodyStream = new FilterInputStream(is) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        connection.disconnect();
+                    }
+                }
+            };
+            return response;
+        }
+
+        try {
+            response.body = readInputStream(is, response.contentLength);
+            Log.v(TAG, System.lineSeparator() + new String(response.body));
+        } catch (NullPointerException e) {
+            /* nothing to read */
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {}
+            }
+        }
+
+        return response;
+    }
+
+    private byte[] readInputStream(InputStream inputStream, int bytes) throws IOException {
+        /* If there is nothing to read */
+        if (inputStream == null) {
+            throw new NullPointerException("inputStream == null");
+        }
+
+        int bytesRead = 0;
+
+        if (bytes == -1) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4 * 1024];
+            while((bytesRead = inputStream.read(buffer)) > -1) {
+                outputStream.write(buffer, 0, bytesRead);
+            }
+
+            return outputStream.toByteArray();
+        }
+        else {
+            int idx = 0;
+            byte[] output = new byte[bytes];
+            while((bytesRead = inputStream.read(output,  idx, bytes - idx)) > -1) {
+                idx += bytesRead;
+            }
+
+            return output;
+        }
+    }
+
+    static {
+        /* if on Android, check version */
+        Field androidVersionField = null;
+        int androidVersion = 0;
+        try {
+            androidVersionField = Class.forName("android.os.Build$VERSION").getField("SDK_INT");
+            androidVersion = androidVersionField.getInt(androidVersionField);
+        } catch (Exception e) {}
+        if(androidVersionField != null && androidVersion < 8) {
+            /* HTTP connection reuse which was buggy pre-froyo */
+            System.setProperty("httpCore.keepAlive", "false");
+        }
+    }
+
+    private static final String TAG = HttpUrlConnectionEngine.class.getName();
+}
@@ -0,0 +1,139 @@
+package io.ably.lib.http;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.AsyncPaginatedResult;
+import io.ably.lib.types.Callback;
+import io.ably.lib.types.ErrorInfo;
+
+/**
+ * An Iterator over the items of every page of a paginated query, fetching pages as they
+ * are needed. While the items of one page are consumed the next page is requested in the
+ * background, so at most two pages are held at once; items are released as they are
+ * returned.
+ *
+ * hasNext() and next() block while waiting for a page to arrive, so must not be called
+ * on a thread used by the library to deliver callbacks.
+ *
+ * @param <T>
+ */
+public class PaginatedResultIterator<T> implements Iterator<T> {
+
+    /**
+     * Exception thrown by hasNext() or next() if a page could not be obtained; the
+     * cause is an AblyException giving the reason.
+     */
+    public static class PageFailedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        PageFailedException(AblyException cause) {
+            super(cause.getMessage(), cause);
+        }
+
+        @Override
+        public synchronized AblyException getCause() {
+            return (AblyException)super.getCause();
+        }
+    }
+
+    /**
+     * Construct an iterator, requesting the first page of the given query.
+     */
+    PaginatedResultIterator(BasePaginatedQuery.ResultRequest<T> firstPage) {
+        fetching = true;
+        firstPage.async(new PageCallback());
+    }
+
+    @Override
+    public boolean hasNext() {
+        while(items == null || index == items.length) {
+            if(!nextPage()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T item = items[index];
+        items[index++] = null;
+        return item;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Move to the page following the current one, waiting for it if it has not yet
+     * arrived, and request the page after that.
+     * @return false if the current page is the last
+     */
+    private boolean nextPage() {
+        AsyncPaginatedResult<T> page;
+        synchronized(lock) {
+            while(fetching) {
+                try {
+                    lock.wait();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new PageFailedException(AblyException.fromThrowable(e));
+                }
+            }
+            if(error != null) {
+                throw new PageFailedException(AblyException.fromErrorInfo(error));
+            }
+            if(fetched == null) {
+                return false;
+            }
+            page = fetched;
+            fetched = null;
+            fetching = page.hasNext();
+        }
+        /* a page with no decodable items is passed over by hasNext() */
+        items = page.items();
+        index = 0;
+        if(page.hasNext()) {
+            page.next(new PageCallback());
+        }
+        return true;
+    }
+
+    private class PageCallback implements Callback<AsyncPaginatedResult<T>> {
+        @Override
+        public void onSuccess(AsyncPaginatedResult<T> result) {
+            synchronized(lock) {
+                fetched = result;
+                fetching = false;
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        public void onError(ErrorInfo reason) {
+            synchronized(lock) {
+                error = reason;
+                fetching = false;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private final Object lock = new Object();
+
+    /* the items of the page being consumed, and the position of the next one */
+    private T[] items;
+    private int index;
+
+    /* the state of the request for the following page, guarded by lock */
+    private boolean fetching;
+    private AsyncPaginatedResult<T> fetched;
+    private ErrorInfo error;
+}
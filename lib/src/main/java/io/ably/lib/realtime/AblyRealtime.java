@@ -1,18 +1,28 @@
 package io.ably.lib.realtime;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 import io.ably.lib.rest.AblyRest;
+import io.ably.lib.rest.Auth;
 import io.ably.lib.transport.ConnectionManager;
+import io.ably.lib.transport.Defaults;
 import io.ably.lib.types.AblyException;
 import io.ably.lib.types.ChannelOptions;
 import io.ably.lib.types.ClientOptions;
 import io.ably.lib.types.ErrorInfo;
 import io.ably.lib.types.ProtocolMessage;
 import io.ably.lib.types.ReadOnlyMap;
+import io.ably.lib.util.CurrentThreadExecutor;
+import io.ably.lib.util.DispatchMetrics;
+import io.ably.lib.util.HashedWheelTimer;
 import io.ably.lib.util.InternalMap;
 import io.ably.lib.util.Log;
+import io.ably.lib.util.SerialExecutor;
 
 /**
  * AblyRealtime
@@ -30,6 +40,18 @@ public class AblyRealtime extends AblyRest implements AutoCloseable {
 
     public final Channels channels;
 
+    /**
+     * Counters for the dispatch of listener callbacks when a
+     * {@link ClientOptions#dispatchExecutor} is set.
+     */
+    public final DispatchMetrics dispatchMetrics = new DispatchMetrics();
+
+    /**
+     * Internal; the timer serving all timeouts of this client's connection and channels.
+     * Its counters describe the timeouts scheduled, expired and cancelled.
+     */
+    public final HashedWheelTimer timer = new HashedWheelTimer("ably-timer", Defaults.TIMER_TICK_INTERVAL, Defaults.TIMER_WHEEL_SIZE);
+
     /**
      * Instance the Ably library using a key only.
      * This is simply a convenience constructor for the
@@ -49,18 +71,30 @@ public class AblyRealtime extends AblyRest implements AutoCloseable {
      */
     public AblyRealtime(ClientOptions options) throws AblyException {
         super(options);
+        if(options.webSocketServerMaxWindowBits < 8 || options.webSocketServerMaxWindowBits > Defaults.WEBSOCKET_MAX_WINDOW_BITS) {
+            throw AblyException.fromErrorInfo(new ErrorInfo("webSocketServerMaxWindowBits must be from 8 to 15", 40000, 400));
+        }
         final InternalChannels channels = new InternalChannels();
         this.channels = channels;
         connection = new Connection(this, channels, platformAgentProvider);
 
-        /* remove all channels when the connection is closed, to avoid stalled state */
-        connection.on(ConnectionEvent.closed, new ConnectionStateListener() {
+        /* remove all channels when the connection is closed, to avoid stalled state,
+         * and cancel any timeouts that remain */
+        connection.internalListeners.on(ConnectionEvent.closed, new ConnectionStateListener() {
             @Override
             public void onConnectionStateChanged(ConnectionStateListener.ConnectionStateChange state) {
                 channels.clear();
+                timer.close();
             }
         });
 
+        /* restore the connection and channels saved by an earlier instance, if any */
+        if(options.resumeStateStore != null) {
+            ResumeStateTracker resumeStateTracker = new ResumeStateTracker(this, options.resumeStateStore);
+            resumeStateTracker.restore();
+            connection.internalListeners.on(resumeStateTracker);
+        }
+
         if(options.autoConnect) connection.connect();
     }
 
@@ -82,6 +116,81 @@ public class AblyRealtime extends AblyRest implements AutoCloseable {
         connection.close();
     }
 
+    /**
+     * Create a logical client, acting as the given clientId, that shares the connection
+     * and channels of this instance with any other logical clients created from it. This
+     * allows many clients to be hosted in one process with a single socket, and a single
+     * instance of each channel, between them. Messages published, and presence entered,
+     * through the client are attributed to its clientId.
+     *
+     * This instance must be able to act for any clientId, as for {@link Presence#enterClient(String)}:
+     * it must be instanced with a key and no clientId, or with a token for the wildcard
+     * clientId. Connection state, and echoMessages, apply to all logical
+     * clients together; with echoMessages disabled, logical clients do not receive each
+     * other's messages.
+     * @param clientId the clientId of the logical client
+     * @return the client
+     * @throws AblyException if the clientId is invalid, or this instance cannot act for it
+     */
+    public SharedClient createSharedClient(String clientId) throws AblyException {
+        if(clientId == null || clientId.equals(Auth.WILDCARD_CLIENTID)) {
+            throw AblyException.fromErrorInfo(new ErrorInfo("Invalid clientId for shared client", 400, 40000));
+        }
+        String libraryClientId = auth.clientId;
+        if(libraryClientId != null && !libraryClientId.equals(Auth.WILDCARD_CLIENTID)) {
+            throw AblyException.fromErrorInfo(new ErrorInfo("Shared clients require a connection that can act for any clientId", 400, 40012));
+        }
+        return new SharedClient(this, clientId);
+    }
+
+    /**
+     * Get the named channel for use by a shared client, counting its users.
+     */
+    Channel acquireSharedChannel(String channelName) {
+        synchronized(sharedChannelUsers) {
+            Integer users = sharedChannelUsers.get(channelName);
+            if(users == null && !channels.containsKey(channelName)) {
+                sharedChannelsCreated.add(channelName);
+            }
+            sharedChannelUsers.put(channelName, (users == null) ? 1 : users + 1);
+            return channels.get(channelName);
+        }
+    }
+
+    /**
+     * Release a shared client's use of the named channel. Once no shared client uses
+     * it, the channel is released if a shared client created it; a channel that the
+     * application was already using directly is left in place.
+     */
+    void releaseSharedChannel(String channelName) {
+        synchronized(sharedChannelUsers) {
+            Integer users = sharedChannelUsers.get(channelName);
+            if(users == null) {
+                return;
+            }
+            if(users > 1) {
+                sharedChannelUsers.put(channelName, users - 1);
+                return;
+            }
+            sharedChannelUsers.remove(channelName);
+            if(sharedChannelsCreated.remove(channelName)) {
+                channels.release(channelName);
+            }
+        }
+    }
+
+    /**
+     * Create an Executor to run listener callbacks in order: a queue on the configured
+     * dispatchExecutor, or the calling thread if none is set.
+     * @param capacity the maximum number of callbacks queued; 0 for no limit
+     * @param onOverflow called when callbacks are discarded because the queue is full; may be null
+     */
+    Executor createDispatcher(int capacity, Runnable onOverflow) {
+        if(options.dispatchExecutor == null)
+            return CurrentThreadExecutor.INSTANCE;
+        return new SerialExecutor(options.dispatchExecutor, capacity, dispatchMetrics, onOverflow);
+    }
+
     /**
      * Authentication token has changed.
      */
@@ -126,6 +235,30 @@ public class AblyRealtime extends AblyRest implements AutoCloseable {
          * @param channelName the name of the channel
          */
         void release(String channelName);
+
+        /**
+         * Attach the named channels, creating any that do not already exist.
+         * ATTACH requests for all the channels are sent without waiting for any response.
+         * @param channelNames the names of the channels
+         * @param listener a listener to be notified of the outcome for every channel, once each has
+         * attached or failed, or the request timeout has elapsed; may be null
+         */
+        void attach(String[] channelNames, BulkCompletionListener listener);
+
+        /**
+         * Detach the named channels. Names of channels that do not exist are ignored.
+         * DETACH requests for all the channels are sent without waiting for any response.
+         * @param channelNames the names of the channels
+         * @param listener a listener to be notified of the outcome for every channel, once each has
+         * detached or failed, or the request timeout has elapsed; may be null
+         */
+        void detach(String[] channelNames, BulkCompletionListener listener);
+
+        /**
+         * Remove the named channels from this AblyRealtime instance, as {@link #release(String)}.
+         * @param channelNames the names of the channels
+         */
+        void release(String[] channelNames);
     }
 
     private class InternalChannels extends InternalMap<String, Channel> implements Channels, ConnectionManager.Channels {
@@ -144,23 +277,25 @@ public class AblyRealtime extends AblyRest implements AutoCloseable {
 
         @Override
         public Channel get(final String channelName, final ChannelOptions channelOptions) throws AblyException {
-            // We're not using computeIfAbsent because that requires Java 1.8.
-            // Hence there's the slight inefficiency of creating newChannel when it may not be
-            // needed because there is an existingChannel.
-            final Channel newChannel = new Channel(AblyRealtime.this, channelName, channelOptions);
-            final Channel existingChannel = map.putIfAbsent(channelName, newChannel);
-
-            if (existingChannel != null) {
-                if (channelOptions != null) {
-                    if (existingChannel.shouldReattachToSetOptions(channelOptions)) {
-                        throw AblyException.fromErrorInfo(new ErrorInfo("Channels.get() cannot be used to set channel options that would cause the channel to reattach. Please, use Channel.setOptions() instead.", 40000, 400));
-                    }
-                    existingChannel.setOptions(channelOptions);
+            // Lookups of existing channels are lock-free; a new channel is only constructed
+            // when none exists. We're not using computeIfAbsent because that requires Java 1.8,
+            // so racing callers may each construct a channel, with only one being retained.
+            Channel channel = map.get(channelName);
+            if (channel == null) {
+                final Channel newChannel = new Channel(AblyRealtime.this, channelName, channelOptions);
+                channel = map.putIfAbsent(channelName, newChannel);
+                if (channel == null) {
+                    return newChannel;
                 }
-                return existingChannel;
             }
 
-            return newChannel;
+            if (channelOptions != null) {
+                if (channel.shouldReattachToSetOptions(channelOptions)) {
+                    throw AblyException.fromErrorInfo(new ErrorInfo("Channels.get() cannot be used to set channel options that would cause the channel to reattach. Please, use Channel.setOptions() instead.", 40000, 400));
+                }
+                channel.setOptions(channelOptions);
+            }
+            return channel;
         }
 
         @Override
@@ -175,11 +310,50 @@ public class AblyRealtime extends AblyRest implements AutoCloseable {
             }
         }
 
+        @Override
+        public void attach(String[] channelNames, BulkCompletionListener listener) {
+            BulkOperation operation = new BulkOperation(channelNames, new ErrorInfo("Attach timed out", 408, 91200), listener);
+            for(String channelName : channelNames) {
+                CompletionListener channelListener = operation.listenerFor(channelName);
+                try {
+                    get(channelName, null).attach(channelListener);
+                } catch (AblyException e) {
+                    channelListener.onError(e.errorInfo);
+                }
+            }
+            operation.startTimeout(timer, options.realtimeRequestTimeout);
+        }
+
+        @Override
+        public void detach(String[] channelNames, BulkCompletionListener listener) {
+            BulkOperation operation = new BulkOperation(channelNames, new ErrorInfo("Detach operation timed out", 408, 90007), listener);
+            for(String channelName : channelNames) {
+                CompletionListener channelListener = operation.listenerFor(channelName);
+                Channel channel = map.get(channelName);
+                if(channel == null) {
+                    channelListener.onSuccess();
+                    continue;
+                }
+                try {
+                    channel.detach(channelListener);
+                } catch (AblyException e) {
+                    channelListener.onError(e.errorInfo);
+                }
+            }
+            operation.startTimeout(timer, options.realtimeRequestTimeout);
+        }
+
+        @Override
+        public void release(String[] channelNames) {
+            for(String channelName : channelNames) {
+                release(channelName);
+            }
+        }
+
         @Override
         public void onMessage(ProtocolMessage msg) {
             String channelName = msg.channel;
-            Channel channel;
-            synchronized(this) { channel = channels.get(channelName); }
+            Channel channel = map.get(channelName);
             if(channel == null) {
                 Log.e(TAG, "Received channel message for non-existent channel");
                 return;
@@ -204,5 +378,11 @@ public class AblyRealtime extends AblyRest implements AutoCloseable {
      * internal
      ********************/
 
+    /* the number of shared clients using each channel */
+    private final Map<String, Integer> sharedChannelUsers = new HashMap<>();
+
+    /* the channels in use by shared clients that were created for them; guarded by sharedChannelUsers */
+    private final Set<String> sharedChannelsCreated = new HashSet<>();
+
     private static final String TAG = AblyRealtime.class.getName();
 }
@@ -0,0 +1,18 @@
+package io.ably.lib.realtime;
+
+import java.util.Map;
+
+import io.ably.lib.types.ErrorInfo;
+
+/**
+ * An interface allowing a client to be notified of the outcome
+ * of an asynchronous operation on a number of channels.
+ */
+public interface BulkCompletionListener {
+    /**
+     * Called once the operation has completed, or timed out, on every channel.
+     * @param errors the error for each channel on which the operation failed, keyed by
+     * channel name; empty if the operation succeeded on every channel.
+     */
+    void onComplete(Map<String, ErrorInfo> errors);
+}
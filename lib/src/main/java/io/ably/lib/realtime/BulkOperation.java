@@ -0,0 +1,122 @@
+package io.ably.lib.realtime;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.util.HashedWheelTimer;
+import io.ably.lib.util.Log;
+
+/**
+ * Tracks an operation on a number of channels, notifying a BulkCompletionListener of the
+ * result for every channel once all have completed. The operation as a whole is bounded
+ * by a single timeout, on expiry of which any channels yet to complete are reported as failed.
+ */
+class BulkOperation {
+    private final ErrorInfo timeoutError;
+    private final BulkCompletionListener listener;
+    private final Set<String> pending = new HashSet<>();
+    private final Map<String, ErrorInfo> errors = new HashMap<>();
+    private HashedWheelTimer.Timeout timeout;
+    private boolean completed;
+
+    /**
+     * @param channelNames the names of the channels
+     * @param timeoutError the error reported for channels that have not completed within the timeout
+     * @param listener the client listener, or null
+     */
+    BulkOperation(String[] channelNames, ErrorInfo timeoutError, BulkCompletionListener listener) {
+        Collections.addAll(pending, channelNames);
+        this.timeoutError = timeoutError;
+        this.listener = listener;
+    }
+
+    /**
+     * A listener for the outcome of the operation on the named channel.
+     */
+    CompletionListener listenerFor(final String channelName) {
+        return new CompletionListener() {
+            @Override
+            public void onSuccess() {
+                onResult(channelName, null);
+            }
+
+            @Override
+            public void onError(ErrorInfo reason) {
+                onResult(channelName, reason);
+            }
+        };
+    }
+
+    /**
+     * Start the timeout for the operation, once it has been initiated on every channel.
+     * An operation on no channels completes immediately.
+     */
+    void startTimeout(HashedWheelTimer timer, long timeoutMillis) {
+        synchronized(this) {
+            if(completed) {
+                return;
+            }
+            if(!pending.isEmpty()) {
+                timeout = timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        onTimeout();
+                    }
+                }, timeoutMillis);
+                return;
+            }
+            completed = true;
+        }
+        complete();
+    }
+
+    private void onResult(String channelName, ErrorInfo error) {
+        synchronized(this) {
+            if(completed || !pending.remove(channelName)) {
+                return;
+            }
+            if(error != null) {
+                errors.put(channelName, error);
+            }
+            if(!pending.isEmpty()) {
+                return;
+            }
+            completed = true;
+            if(timeout != null) {
+                timeout.cancel();
+            }
+        }
+        complete();
+    }
+
+    private void onTimeout() {
+        synchronized(this) {
+            if(completed) {
+                return;
+            }
+            for(String channelName : pending) {
+                errors.put(channelName, timeoutError);
+            }
+            pending.clear();
+            completed = true;
+        }
+        complete();
+    }
+
+    private void complete() {
+        if(listener == null) {
+            return;
+        }
+        try {
+            listener.onComplete(errors);
+        } catch(Throwable t) {
+            Log.e(TAG, "Unexpected exception calling BulkCompletionListener", t);
+        }
+    }
+
+    private static final String TAG = BulkOperation.class.getName();
+}
@@ -7,12 +7,12 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executor;
 
 import io.ably.lib.http.BasePaginatedQuery;
 import io.ably.lib.http.HttpCore;
 import io.ably.lib.http.HttpUtils;
+import io.ably.lib.http.PaginatedResultIterator;
 import io.ably.lib.transport.ConnectionManager;
 import io.ably.lib.transport.ConnectionManager.QueuedMessage;
 import io.ably.lib.transport.Defaults;
@@ -36,6 +36,7 @@ import io.ably.lib.types.ProtocolMessage.Action;
 import io.ably.lib.types.ProtocolMessage.Flag;
 import io.ably.lib.util.CollectionUtils;
 import io.ably.lib.util.EventEmitter;
+import io.ably.lib.util.HashedWheelTimer;
 import io.ably.lib.util.Log;
 
 /**
@@ -103,6 +104,30 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
         }
     }
 
+    /**
+     * The serial from which this channel would be resumed: that of the last message
+     * received, or of the attachment if none has been received; null if not attached.
+     */
+    synchronized String getResumeSerial() {
+        if(state != ChannelState.attached) {
+            return null;
+        }
+        return (lastPayloadProtocolMessageChannelSerial != null) ? lastPayloadProtocolMessageChannelSerial : properties.attachSerial;
+    }
+
+    /**
+     * Attach, resuming from the given serial, restored from a ResumeState.
+     */
+    synchronized void attachFromSerial(String channelSerial) throws AblyException {
+        if(state == ChannelState.attaching || state == ChannelState.attached) {
+            /* already attached by the application */
+            return;
+        }
+        lastPayloadProtocolMessageChannelSerial = channelSerial;
+        resumeFromSerial = true;
+        attach();
+    }
+
     /************************************
      * attach / detach
      ************************************/
@@ -175,8 +200,9 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
                 attachMessage.setFlags(options.getModeFlags());
             }
         }
-        if(this.decodeFailureRecoveryInProgress) {
+        if(this.decodeFailureRecoveryInProgress || this.resumeFromSerial) {
             attachMessage.channelSerial = this.lastPayloadProtocolMessageChannelSerial;
+            this.resumeFromSerial = false;
         }
         try {
             if (listener != null) {
@@ -329,22 +355,21 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
         failQueuedMessages(reason);
     }
 
-    /* Timer for attach operation */
-    private Timer attachTimer;
+    /* Timeout for attach or detach operation */
+    private HashedWheelTimer.Timeout attachTimer;
 
-    /* Timer for reattaching if attach failed */
-    private Timer reattachTimer;
+    /* Timeout for reattaching if attach failed */
+    private HashedWheelTimer.Timeout reattachTimer;
 
     /**
      * Cancel attach/reattach timers
      */
     synchronized private void clearAttachTimers() {
-        Timer[] timers = new Timer[]{attachTimer, reattachTimer};
+        HashedWheelTimer.Timeout[] timers = new HashedWheelTimer.Timeout[]{attachTimer, reattachTimer};
         attachTimer = reattachTimer = null;
-        for (Timer t: timers) {
+        for (HashedWheelTimer.Timeout t: timers) {
             if (t != null) {
                 t.cancel();
-                t.purge();
             }
         }
     }
@@ -358,16 +383,23 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
      * set up timer to reattach it later
      */
     synchronized private void attachWithTimeout(final boolean forceReattach, final CompletionListener listener) {
-        Timer currentAttachTimer;
-        try {
-            currentAttachTimer = new Timer();
-        } catch(Throwable t) {
-            /* an exception instancing the timer can arise because the runtime is exiting */
-            callCompletionListenerError(listener, ErrorInfo.fromThrowable(t));
-            return;
-        }
-        attachTimer = currentAttachTimer;
+        attachTimer = new TimeoutTask() {
+            @Override
+            void onTimeout(HashedWheelTimer.Timeout timeout) {
+                String errorMessage = String.format(Locale.ROOT, "Attach timed out for channel %s", name);
+                Log.v(TAG, errorMessage);
+                if(attachTimer != timeout) {
+                    return;
+                }
+                attachTimer = null;
+                if(state == ChannelState.attaching) {
+                    setSuspended(new ErrorInfo(errorMessage, 91200), true);
+                    reattachAfterTimeout();
+                }
+            }
+        }.schedule(Defaults.realtimeRequestTimeout);
 
+        /* if the operation succeeds or fails immediately, the timer is cleared */
         try {
             attachImpl(forceReattach, new CompletionListener() {
                 @Override
@@ -383,34 +415,9 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
                 }
             });
         } catch(AblyException e) {
-            attachTimer = null;
+            clearAttachTimers();
             callCompletionListenerError(listener, e.errorInfo);
         }
-
-        if(attachTimer == null) {
-            /* operation has already succeeded or failed, no need to set the timer */
-            return;
-        }
-
-        final Timer inProgressTimer = currentAttachTimer;
-        attachTimer.schedule(
-                new TimerTask() {
-                    @Override
-                    public void run() {
-                        String errorMessage = String.format(Locale.ROOT, "Attach timed out for channel %s", name);
-                        Log.v(TAG, errorMessage);
-                        synchronized (ChannelBase.this) {
-                            if(attachTimer != inProgressTimer) {
-                                return;
-                            }
-                            attachTimer = null;
-                            if(state == ChannelState.attaching) {
-                                setSuspended(new ErrorInfo(errorMessage, 91200), true);
-                                reattachAfterTimeout();
-                            }
-                        }
-                    }
-                }, Defaults.realtimeRequestTimeout);
     }
 
     /**
@@ -418,34 +425,22 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
      * try to attach the channel
      */
     synchronized private void reattachAfterTimeout() {
-        Timer currentReattachTimer;
-        try {
-            currentReattachTimer = new Timer();
-        } catch(Throwable t) {
-            /* an exception instancing the timer can arise because the runtime is exiting */
-            return;
-        }
-        reattachTimer = currentReattachTimer;
-
-        final Timer inProgressTimer = currentReattachTimer;
-        reattachTimer.schedule(new TimerTask() {
+        reattachTimer = new TimeoutTask() {
             @Override
-            public void run() {
-                synchronized (ChannelBase.this) {
-                    if (inProgressTimer != reattachTimer) {
-                        return;
-                    }
-                    reattachTimer = null;
-                    if (state == ChannelState.suspended) {
-                        try {
-                            attachWithTimeout(null);
-                        } catch (AblyException e) {
-                            Log.e(TAG, "Reattach channel failed; channel = " + name, e);
-                        }
+            void onTimeout(HashedWheelTimer.Timeout timeout) {
+                if (reattachTimer != timeout) {
+                    return;
+                }
+                reattachTimer = null;
+                if (state == ChannelState.suspended) {
+                    try {
+                        attachWithTimeout(null);
+                    } catch (AblyException e) {
+                        Log.e(TAG, "Reattach channel failed; channel = " + name, e);
                     }
                 }
             }
-        }, ably.options.channelRetryTimeout);
+        }.schedule(ably.options.channelRetryTimeout);
     }
 
     /**
@@ -454,16 +449,22 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
      */
     synchronized private void detachWithTimeout(final CompletionListener listener) {
         final ChannelState originalState = state;
-        Timer currentDetachTimer;
-        try {
-            currentDetachTimer = new Timer();
-        } catch(Throwable t) {
-            /* an exception instancing the timer can arise because the runtime is exiting */
-            callCompletionListenerError(listener, ErrorInfo.fromThrowable(t));
-            return;
-        }
-        attachTimer = currentDetachTimer;
+        attachTimer = new TimeoutTask() {
+            @Override
+            void onTimeout(HashedWheelTimer.Timeout timeout) {
+                if (attachTimer != timeout) {
+                    return;
+                }
+                attachTimer = null;
+                if (state == ChannelState.detaching) {
+                    ErrorInfo reason = new ErrorInfo("Detach operation timed out", 90007);
+                    callCompletionListenerError(listener, reason);
+                    setState(originalState, reason);
+                }
+            }
+        }.schedule(Defaults.realtimeRequestTimeout);
 
+        /* if the operation succeeds or fails immediately, the timer is cleared */
         try {
             detachImpl(new CompletionListener() {
                 @Override
@@ -479,31 +480,33 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
                 }
             });
         } catch (AblyException e) {
-            attachTimer = null;
+            clearAttachTimers();
         }
+    }
 
-        if(attachTimer == null) {
-            /* operation has already succeeded or failed, no need to set the timer */
-            return;
+    /**
+     * A task run, holding the lock on this channel, on expiry of a timeout scheduled
+     * on the client's shared timer.
+     */
+    private abstract class TimeoutTask implements Runnable {
+        private HashedWheelTimer.Timeout timeout;
+
+        HashedWheelTimer.Timeout schedule(long delay) {
+            /* the task cannot run before this is assigned, as scheduling holds the channel lock */
+            return timeout = ably.timer.schedule(this, delay);
         }
 
-        final Timer inProgressTimer = currentDetachTimer;
-        attachTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                synchronized (ChannelBase.this) {
-                    if (inProgressTimer != attachTimer) {
-                        return;
-                    }
-                    attachTimer = null;
-                    if (state == ChannelState.detaching) {
-                        ErrorInfo reason = new ErrorInfo("Detach operation timed out", 90007);
-                        callCompletionListenerError(listener, reason);
-                        setState(originalState, reason);
-                    }
-                }
+        @Override
+        public void run() {
+            synchronized (ChannelBase.this) {
+                onTimeout(timeout);
             }
-        }, Defaults.realtimeRequestTimeout);
+        }
+
+        /**
+         * @param timeout the timeout that expired, by which the task can determine if it has been superseded
+         */
+        abstract void onTimeout(HashedWheelTimer.Timeout timeout);
     }
 
     /* State changes provoked by ConnectionManager state changes. */
@@ -587,6 +590,14 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
         void onMessage(Message message);
     }
 
+    /**
+     * An interface whereby a client may be notified of messages on a channel in batches.
+     * Each batch contains all the messages that were received together, in order.
+     */
+    public interface BatchMessageListener {
+        void onMessages(Message[] messages);
+    }
+
     /**
      * <p>
      * Unsubscribe all subscribed listeners from this channel.
@@ -599,6 +610,7 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
         Log.v(TAG, "unsubscribe(); channel = " + this.name);
         listeners.clear();
         eventListeners.clear();
+        batchListeners.clear();
     }
 
     /**
@@ -625,6 +637,28 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
         }
     }
 
+    /**
+     * Subscribe for batches of messages on this channel. Each batch is delivered with a single
+     * call to the listener, after any MessageListeners have been called for its messages.
+     * This implicitly attaches the channel if not already attached.
+     * @param listener the BatchMessageListener
+     * @throws AblyException
+     */
+    public synchronized void subscribeBatch(BatchMessageListener listener) throws AblyException {
+        Log.v(TAG, "subscribeBatch(); channel = " + this.name);
+        batchListeners.add(listener);
+        attach();
+    }
+
+    /**
+     * Unsubscribe a previously subscribed batch listener from this channel.
+     * @param listener the previously subscribed listener.
+     */
+    public synchronized void unsubscribeBatch(BatchMessageListener listener) {
+        Log.v(TAG, "unsubscribeBatch(); channel = " + this.name);
+        batchListeners.remove(listener);
+    }
+
     /**
      * Subscribe for messages with a specific event name on this channel.
      * This implicitly attaches the channel if not already attached.
@@ -690,6 +724,11 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
             return;
         }
 
+        /* when decoding lazily, a message is decoded only if there is a listener to receive it */
+        final boolean lazyDecoding = isLazyDecoding() && null == deltaExtras;
+        final boolean hasListeners = !this.listeners.isEmpty() || !batchListeners.isEmpty();
+        final MessageMulticaster[] namedListeners = new MessageMulticaster[messages.length];
+
         for(int i = 0; i < messages.length; i++) {
             final Message msg = messages[i];
 
@@ -698,6 +737,10 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
             if(msg.timestamp == 0) msg.timestamp = protocolMessage.timestamp;
             if(msg.id == null) msg.id = protocolMessage.id + ':' + i;
 
+            final MessageMulticaster listeners = namedListeners[i] = eventListeners.get(msg.name);
+            if(lazyDecoding && listeners == null && !hasListeners)
+                continue;
+
             try {
                 msg.decode(options, decodingContext);
             } catch (MessageDecodeException e) {
@@ -712,25 +755,46 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
                         Log.v(TAG, String.format(Locale.ROOT, "Delta recovery in progress - message skipped. Message id = %s, channel = %s", jIdToLog, name));
                     }
 
+                    /* messages preceding the failure have been broadcast to their event listeners only */
+                    dispatchMessages(messages, namedListeners, i, false);
                     return;
                 }
                 else {
                     Log.e(TAG, String.format(Locale.ROOT, "Message decode failure - %s. Message id = %s, channel = %s", e.errorInfo.message, msg.id, name));
                 }
             }
-
-            /* broadcast */
-            final MessageMulticaster listeners = eventListeners.get(msg.name);
-            if(listeners != null)
-                listeners.onMessage(msg);
         }
 
         lastPayloadMessageId = lastMessage.id;
         lastPayloadProtocolMessageChannelSerial = protocolMessage.channelSerial;
 
-        for (final Message msg : messages) {
-            this.listeners.onMessage(msg);
-        }
+        /* listeners subscribed after the messages were left undecoded must not receive them */
+        dispatchMessages(messages, namedListeners, messages.length, hasListeners || !lazyDecoding);
+    }
+
+    /**
+     * Broadcast the first count messages to their event listeners and then, if broadcastAll,
+     * all messages to the listeners subscribed to all messages, on this channel's dispatcher.
+     * The event listeners are those found when the messages were decoded; the listeners
+     * subscribed to all messages are those found at dispatch, so broadcastAll must be false
+     * if messages may have been left undecoded for want of them.
+     */
+    private void dispatchMessages(final Message[] messages, final MessageMulticaster[] namedListeners, final int count, final boolean broadcastAll) {
+        dispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                for(int i = 0; i < count; i++) {
+                    if(namedListeners[i] != null)
+                        namedListeners[i].onMessage(messages[i]);
+                }
+                if(broadcastAll) {
+                    for (final Message msg : messages) {
+                        listeners.onMessage(msg);
+                    }
+                    batchListeners.onMessages(messages);
+                }
+            }
+        });
     }
 
     private void startDecodeFailureRecovery() {
@@ -757,11 +821,9 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
         PresenceMessage[] messages = message.presence;
         for(int i = 0; i < messages.length; i++) {
             PresenceMessage msg = messages[i];
-            try {
-                msg.decode(options);
-            } catch (MessageDecodeException e) {
-                Log.e(TAG, String.format(Locale.ROOT, "%s on channel %s", e.errorInfo.message, name));
-            }
+            /* when decoding lazily, Presence decodes only messages that are not superseded */
+            if(!isLazyDecoding())
+                decodePresence(msg);
             /* populate fields derived from protocol message */
             if(msg.connectionId == null) msg.connectionId = message.connectionId;
             if(msg.timestamp == 0) msg.timestamp = message.timestamp;
@@ -770,6 +832,23 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
         presence.setPresence(messages, true, syncChannelSerial);
     }
 
+    void decodePresence(PresenceMessage msg) {
+        try {
+            msg.decode(options);
+        } catch (MessageDecodeException e) {
+            Log.e(TAG, String.format(Locale.ROOT, "%s on channel %s", e.errorInfo.message, name));
+        }
+    }
+
+    /**
+     * Whether payloads are to be decoded lazily; see {@link ChannelOptions#lazyDecoding}.
+     */
+    boolean isLazyDecoding() {
+        final ChannelOptions options = this.options;
+        return options != null && options.lazyDecoding &&
+            !(options.hasParams() && options.params.containsKey(DELTA_PARAM));
+    }
+
     private void onSync(ProtocolMessage message) {
         Log.v(TAG, "onSync(); channel = " + name);
         if(message.presence != null)
@@ -791,6 +870,20 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
         }
     }
 
+    private final BatchMessageMulticaster batchListeners = new BatchMessageMulticaster();
+
+    private static class BatchMessageMulticaster extends io.ably.lib.util.Multicaster<BatchMessageListener> implements BatchMessageListener {
+        @Override
+        public void onMessages(Message[] messages) {
+            for (final BatchMessageListener member : getMembers())
+                try {
+                    member.onMessages(messages);
+                } catch (Throwable t) {
+                    Log.e(TAG, "Unexpected exception calling listener", t);
+                }
+        }
+    }
+
     private void subscribeImpl(String name, MessageListener listener) throws AblyException {
         MessageMulticaster listeners = eventListeners.get(name);
         if(listeners == null) {
@@ -876,8 +969,14 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
      * @param listener a listener to be notified of the outcome of this message.
      * @throws AblyException
      */
-    public synchronized void publish(Message[] messages, CompletionListener listener) throws AblyException {
+    public void publish(Message[] messages, CompletionListener listener) throws AblyException {
         Log.v(TAG, "publish(Message[]); channel = " + this.name);
+        /* apply backpressure before locking the channel, which is needed to process inbound messages */
+        ably.connection.connectionManager.awaitWritable();
+        publishImpl(messages, listener);
+    }
+
+    private synchronized void publishImpl(Message[] messages, CompletionListener listener) throws AblyException {
         ConnectionManager connectionManager = ably.connection.connectionManager;
         ConnectionManager.State connectionState = connectionManager.getConnectionState();
         boolean queueMessages = ably.options.queueMessages;
@@ -896,13 +995,19 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
             callCompletionListenerError(listener, e.errorInfo);
             return;
         }
-        ProtocolMessage msg = new ProtocolMessage(Action.message, this.name);
-        msg.messages = messages;
         switch(state) {
         case failed:
         case suspended:
             throw AblyException.fromErrorInfo(new ErrorInfo("Unable to publish in failed or suspended state", 400, 40000));
         default:
+            if(PublishCoalescer.isEnabled(options)) {
+                publishCoalescer.add(messages, listener, options);
+                return;
+            }
+            /* send anything coalesced before the options changed first */
+            publishCoalescer.flush();
+            ProtocolMessage msg = new ProtocolMessage(Action.message, this.name);
+            msg.messages = messages;
             connectionManager.send(msg, queueMessages, listener);
         }
     }
@@ -948,7 +1053,9 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
         Log.v(TAG, "failQueuedMessages()");
 
         ArrayList<FailedMessage> failedMessages = new ArrayList<>();
+        CompletionListener coalescedListener;
         synchronized (this) {
+            coalescedListener = publishCoalescer.discard();
             for (QueuedMessage msg: queuedMessages) {
                 if (msg.listener != null)
                     failedMessages.add(new FailedMessage(msg, reason));
@@ -956,6 +1063,7 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
             queuedMessages.clear();
         }
 
+        callCompletionListenerError(coalescedListener, reason);
         for(FailedMessage failed : failedMessages) {
             callCompletionListenerError(failed.msg.listener, failed.reason);
         }
@@ -997,6 +1105,7 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
     private static final String KEY_UNTIL_ATTACH = "untilAttach";
     private static final String KEY_FROM_SERIAL = "fromSerial";
     private List<QueuedMessage> queuedMessages;
+    private final PublishCoalescer publishCoalescer;
 
     /************************************
      * Channel history
@@ -1019,6 +1128,16 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
         historyImpl(params).async(callback);
     }
 
+    /**
+     * Iterate over history for this channel across all pages using the REST API,
+     * requesting each page while the previous one is consumed.
+     * @param params the request params, as for history()
+     * @return an iterator that blocks while awaiting a page; see PaginatedResultIterator.
+     */
+    public PaginatedResultIterator<Message> historyIterator(Param[] params) {
+        return historyImpl(params).iterator();
+    }
+
     private BasePaginatedQuery.ResultRequest<Message> historyImpl(Param[] params) {
         try {
             params = replacePlaceholderParams((Channel) this, params);
@@ -1100,7 +1219,15 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
         this.attachResume = false;
         state = ChannelState.initialized;
         queuedMessages = new ArrayList<QueuedMessage>();
+        this.publishCoalescer = new PublishCoalescer(this);
         this.decodingContext = new DecodingContext();
+        this.dispatcher = ably.createDispatcher(ably.options.dispatchQueueCapacity, new Runnable() {
+            @Override
+            public void run() {
+                /* subscribers have missed messages, so are told continuity is lost */
+                emitUpdate(new ErrorInfo("Messages discarded; the channel's dispatch queue is full", 500, 50000), false);
+            }
+        });
     }
 
     void onChannelMessage(ProtocolMessage msg) {
@@ -1191,6 +1318,7 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
     }
 
     private static final String TAG = Channel.class.getName();
+    private static final String DELTA_PARAM = "delta";
     final AblyRealtime ably;
     final String basePath;
     ChannelOptions options;
@@ -1199,6 +1327,10 @@ public abstract class ChannelBase extends EventEmitter<ChannelEvent, ChannelStat
     private Set<ChannelMode> modes;
     private String lastPayloadMessageId;
     private String lastPayloadProtocolMessageChannelSerial;
+    /* whether the next attach resumes from a serial restored from a ResumeState */
+    private boolean resumeFromSerial;
     private boolean decodeFailureRecoveryInProgress;
     private final DecodingContext decodingContext;
+    /* runs message and presence listener callbacks, in order */
+    final Executor dispatcher;
 }
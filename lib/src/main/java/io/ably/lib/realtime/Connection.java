@@ -2,12 +2,18 @@ package io.ably.lib.realtime;
 
 import io.ably.lib.realtime.ConnectionStateListener.ConnectionStateChange;
 import io.ably.lib.transport.ConnectionManager;
+import io.ably.lib.transport.Hosts;
 import io.ably.lib.types.AblyException;
+import io.ably.lib.types.Callback;
 import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.util.CompressionStats;
 import io.ably.lib.util.EventEmitter;
+import io.ably.lib.util.LatencyHistogram;
 import io.ably.lib.util.Log;
 import io.ably.lib.util.PlatformAgentProvider;
 
+import java.util.concurrent.Executor;
+
 /**
  * A class representing the connection associated with an AblyRealtime instance.
  * The Connection object exposes the lifecycle and parameters of the realtime connection.
@@ -46,6 +52,65 @@ public class Connection extends EventEmitter<ConnectionEvent, ConnectionStateLis
      */
     public long serial;
 
+    /**
+     * The round-trip times of pings on this connection, in milliseconds.
+     */
+    public final LatencyHistogram pingLatency = new LatencyHistogram();
+
+    /**
+     * The bytes sent and received on this connection's WebSockets, before and after
+     * compression, if {@link io.ably.lib.types.ClientOptions#webSocketCompression} is enabled
+     * and the server accepts it.
+     */
+    public final CompressionStats compressionStats = new CompressionStats();
+
+    /**
+     * An interface whereby a client may be notified when the connection
+     * becomes unwritable, or writable again.
+     */
+    public interface WritabilityListener {
+        /**
+         * Called when the number of outbound messages queued or awaiting acknowledgement
+         * reaches {@link io.ably.lib.types.ClientOptions#outboundHighWatermark}, and when it
+         * subsequently falls to the low watermark. This is called on the thread that sent
+         * or acknowledged the message that caused the change, so must not block.
+         * @param writable whether the connection is now writable
+         */
+        void onWritabilityChanged(boolean writable);
+    }
+
+    /**
+     * Whether the number of outbound messages queued or awaiting acknowledgement is
+     * below the configured high watermark. Always true if no watermark is configured.
+     */
+    public boolean isWritable() {
+        return connectionManager.isWritable();
+    }
+
+    /**
+     * Register a listener to be notified of changes in writability.
+     * @param listener the listener
+     */
+    public void addWritabilityListener(WritabilityListener listener) {
+        connectionManager.addWritabilityListener(listener);
+    }
+
+    /**
+     * Remove a previously registered writability listener.
+     * @param listener the listener
+     */
+    public void removeWritabilityListener(WritabilityListener listener) {
+        connectionManager.removeWritabilityListener(listener);
+    }
+
+    /**
+     * Get the measured latency and error rate of each realtime host to which a connection
+     * has been attempted; see {@link io.ably.lib.types.ClientOptions#adaptiveHostSelection}.
+     */
+    public Hosts.HostStats[] getHostStats() {
+        return connectionManager.getHostStats();
+    }
+
     /**
      * Causes the library to re-attempt connection, if it was previously explicitly
      * closed by the user, or was closed as a result of an unrecoverable error.
@@ -62,6 +127,17 @@ public class Connection extends EventEmitter<ConnectionEvent, ConnectionStateLis
         connectionManager.ping(listener);
     }
 
+    /**
+     * Send a heartbeat message to the Ably service and measure the time taken for
+     * the response. This does not block; the round-trip time is also recorded in
+     * {@link #pingLatency}.
+     * @param callback a callback to be notified of the round-trip time, in milliseconds,
+     * or of an error if the connection is not connected or no response is received in time.
+     */
+    public void measureRoundTrip(Callback<Long> callback) {
+        connectionManager.ping(callback);
+    }
+
     /**
      * Causes the connection to close, entering the closed state, from any state except
      * the failed state. Once closed, the library will not attempt to re-establish the
@@ -80,17 +156,29 @@ public class Connection extends EventEmitter<ConnectionEvent, ConnectionStateLis
     Connection(AblyRealtime ably, ConnectionManager.Channels channels, PlatformAgentProvider platformAgentProvider) throws AblyException {
         this.ably = ably;
         this.state = ConnectionState.initialized;
+        /* unbounded, as connection state changes are emitted by threads that must not block */
+        this.dispatcher = ably.createDispatcher(0, null);
         this.connectionManager = new ConnectionManager(ably, this, channels, platformAgentProvider);
     }
 
-    public void onConnectionStateChange(ConnectionStateChange stateChange) {
+    public void onConnectionStateChange(final ConnectionStateChange stateChange) {
         state = stateChange.current;
         reason = stateChange.reason;
-        emit(state, stateChange);
+        internalListeners.emit(stateChange.current.getConnectionEvent(), stateChange);
+        dispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                emit(stateChange.current, stateChange);
+            }
+        });
     }
 
     @Override
     protected void apply(ConnectionStateListener listener, ConnectionEvent event, Object... args) {
+        applyListener(listener, args);
+    }
+
+    private static void applyListener(ConnectionStateListener listener, Object... args) {
         try {
             listener.onConnectionStateChanged((ConnectionStateChange)args[0]);
         } catch (Throwable t) {
@@ -98,9 +186,30 @@ public class Connection extends EventEmitter<ConnectionEvent, ConnectionStateLis
         }
     }
 
+    /**
+     * The library's own connection listeners. These are called on the thread making
+     * each state change, ahead of the listeners registered on this Connection, and
+     * never through the dispatch executor, so each has handled a change before any
+     * later change is made.
+     */
+    private static class InternalListeners extends EventEmitter<ConnectionEvent, ConnectionStateListener> {
+        @Override
+        protected void apply(ConnectionStateListener listener, ConnectionEvent event, Object... args) {
+            applyListener(listener, args);
+        }
+    }
+
     public void emitUpdate(ErrorInfo errorInfo) {
-        if (state == ConnectionState.connected)
-            emit(ConnectionEvent.update, ConnectionStateListener.ConnectionStateChange.createUpdateEvent(errorInfo));
+        if (state == ConnectionState.connected) {
+            final ConnectionStateChange stateChange = ConnectionStateListener.ConnectionStateChange.createUpdateEvent(errorInfo);
+            internalListeners.emit(ConnectionEvent.update, stateChange);
+            dispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    emit(ConnectionEvent.update, stateChange);
+                }
+            });
+        }
     }
 
     @Deprecated
@@ -121,4 +230,8 @@ public class Connection extends EventEmitter<ConnectionEvent, ConnectionStateLis
     private static final String TAG = Connection.class.getName();
     final AblyRealtime ably;
     public final ConnectionManager connectionManager;
+    /* for internal use only; listeners of the library's own, called synchronously */
+    public final EventEmitter<ConnectionEvent, ConnectionStateListener> internalListeners = new InternalListeners();
+    /* runs ConnectionStateListener callbacks, in order */
+    private final Executor dispatcher;
 }
@@ -3,6 +3,7 @@ package io.ably.lib.realtime;
 import io.ably.lib.http.BasePaginatedQuery;
 import io.ably.lib.http.HttpCore;
 import io.ably.lib.http.HttpUtils;
+import io.ably.lib.http.PaginatedResultIterator;
 import io.ably.lib.transport.ConnectionManager;
 import io.ably.lib.types.AblyException;
 import io.ably.lib.types.AsyncPaginatedResult;
@@ -310,8 +311,14 @@ public class Presence {
                 currentSyncChannelSerial = serial;
             }
         }
+        boolean lazyDecoding = channel.isLazyDecoding();
         for(PresenceMessage update : messages) {
             boolean updateInternalPresence = update.connectionId.equals(channel.ably.connection.id);
+
+            /* a superseded message is discarded, so is only decoded if it is newer than the member it updates;
+             * members of this connection are always decoded, as internalPresence keeps its own data for re-entry */
+            if(lazyDecoding && (updateInternalPresence || !presence.hasNewerItem(update.memberKey(), update)))
+                channel.decodePresence(update);
             boolean broadcastThisUpdate = broadcast;
             PresenceMessage originalUpdate = update;
 
@@ -347,14 +354,19 @@ public class Presence {
         }
     }
 
-    private void broadcastPresence(PresenceMessage[] messages) {
-        for(PresenceMessage message : messages) {
-            listeners.onPresenceMessage(message);
+    private void broadcastPresence(final PresenceMessage[] messages) {
+        channel.dispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                for(PresenceMessage message : messages) {
+                    listeners.onPresenceMessage(message);
 
-            Multicaster eventListener = eventListeners.get(message.action);
-            if(eventListener != null)
-                eventListener.onPresenceMessage(message);
-        }
+                    Multicaster eventListener = eventListeners.get(message.action);
+                    if(eventListener != null)
+                        eventListener.onPresenceMessage(message);
+                }
+            }
+        });
     }
 
     private final Multicaster listeners = new Multicaster();
@@ -616,6 +628,7 @@ public class Presence {
         }
 
         msg.encode(null);
+        ably.connection.connectionManager.awaitWritable();
         synchronized(channel) {
             switch(channel.state) {
             case initialized:
@@ -657,6 +670,14 @@ public class Presence {
         historyImpl(params).async(callback);
     }
 
+    /**
+     * Iterate over presence history for this channel across all pages; see
+     * {@link ChannelBase#historyIterator(Param[])}.
+     */
+    public PaginatedResultIterator<PresenceMessage> historyIterator(Param[] params) {
+        return historyImpl(params).iterator();
+    }
+
     private BasePaginatedQuery.ResultRequest<PresenceMessage> historyImpl(Param[] params) {
         try {
             params = Channel.replacePlaceholderParams(channel, params);
@@ -0,0 +1,203 @@
+package io.ably.lib.realtime;
+
+import io.ably.lib.transport.ConnectionManager;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ChannelOptions;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.ProtocolMessage;
+import io.ably.lib.types.ProtocolMessage.Action;
+import io.ably.lib.util.HashedWheelTimer;
+import io.ably.lib.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges consecutive publishes on a channel into a single MESSAGE ProtocolMessage,
+ * as configured by {@link ChannelOptions#publishLinger}.
+ *
+ * A batch is sent once it holds publishBatchMaxMessages messages, or
+ * publishBatchMaxBytes of message content, or publishLinger milliseconds after
+ * its first publish. The CompletionListener of each publish is called once,
+ * with the outcome of the ProtocolMessage that carried it.
+ *
+ * All methods except the timer task are called with the channel locked.
+ */
+class PublishCoalescer {
+
+    PublishCoalescer(ChannelBase channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Whether publishes are coalesced with the given channel options.
+     */
+    static boolean isEnabled(ChannelOptions options) {
+        return options != null && options.publishLinger > 0;
+    }
+
+    /**
+     * Add encoded messages to the batch, sending the batch if it is full.
+     */
+    void add(Message[] messages, CompletionListener listener, ChannelOptions options) {
+        int size = 0;
+        for(Message message : messages) {
+            size += estimateSize(message);
+        }
+        if(!pending.isEmpty() && (pending.size() + messages.length > options.publishBatchMaxMessages
+                || pendingBytes + size > options.publishBatchMaxBytes)) {
+            flush();
+        }
+        for(Message message : messages) {
+            pending.add(message);
+        }
+        pendingBytes += size;
+        if(listener != null) {
+            listeners.add(listener);
+        }
+        if(pending.size() >= options.publishBatchMaxMessages || pendingBytes >= options.publishBatchMaxBytes) {
+            flush();
+        } else if(lingerTimer == null) {
+            final long batch = batchCount;
+            lingerTimer = channel.ably.timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized(channel) {
+                        /* the batch may have been sent while this waited for the lock */
+                        if(batch == batchCount) {
+                            flush();
+                        }
+                    }
+                }
+            }, options.publishLinger);
+        }
+    }
+
+    /**
+     * Send any pending batch.
+     */
+    void flush() {
+        if(lingerTimer != null) {
+            lingerTimer.cancel();
+            lingerTimer = null;
+        }
+        if(pending.isEmpty()) {
+            return;
+        }
+        ProtocolMessage msg = new ProtocolMessage(Action.message, channel.name);
+        msg.messages = pending.toArray(new Message[pending.size()]);
+        CompletionListener listener = batchListener();
+        pending.clear();
+        pendingBytes = 0;
+        ++batchCount;
+
+        ChannelState state = channel.state;
+        if(state == ChannelState.failed || state == ChannelState.suspended) {
+            callListenerError(listener, new ErrorInfo("Unable to publish in failed or suspended state", 400, 40000));
+            return;
+        }
+        try {
+            ConnectionManager connectionManager = channel.ably.connection.connectionManager;
+            connectionManager.send(msg, channel.ably.options.queueMessages, listener);
+        } catch(AblyException e) {
+            callListenerError(listener, e.errorInfo);
+        }
+    }
+
+    /**
+     * Discard any pending batch. Its publishes are failed by the caller, once it has
+     * released the channel lock.
+     * @return a listener resolving the listener of each publish in the batch, or null if none
+     */
+    CompletionListener discard() {
+        if(lingerTimer != null) {
+            lingerTimer.cancel();
+            lingerTimer = null;
+        }
+        CompletionListener listener = batchListener();
+        pending.clear();
+        pendingBytes = 0;
+        ++batchCount;
+        return listener;
+    }
+
+    /**
+     * A listener resolving the listener of each publish in the pending batch,
+     * or null if none
+     */
+    private CompletionListener batchListener() {
+        if(listeners.isEmpty()) {
+            return null;
+        }
+        if(listeners.size() == 1) {
+            CompletionListener listener = listeners.get(0);
+            listeners.clear();
+            return listener;
+        }
+        final CompletionListener[] members = listeners.toArray(new CompletionListener[listeners.size()]);
+        listeners.clear();
+        return new CompletionListener() {
+            @Override
+            public void onSuccess() {
+                for(CompletionListener member : members) {
+                    try {
+                        member.onSuccess();
+                    } catch(Throwable t) {
+                        Log.e(TAG, "Unexpected exception calling CompletionListener", t);
+                    }
+                }
+            }
+
+            @Override
+            public void onError(ErrorInfo reason) {
+                for(CompletionListener member : members) {
+                    try {
+                        member.onError(reason);
+                    } catch(Throwable t) {
+                        Log.e(TAG, "Unexpected exception calling CompletionListener", t);
+                    }
+                }
+            }
+        };
+    }
+
+    private static void callListenerError(CompletionListener listener, ErrorInfo reason) {
+        if(listener != null) {
+            try {
+                listener.onError(reason);
+            } catch(Throwable t) {
+                Log.e(TAG, "Unexpected exception calling CompletionListener", t);
+            }
+        }
+    }
+
+    /**
+     * An estimate of the encoded size of a message: the length of its string members
+     * and its encoded data, which is a String or byte[]. Strings are counted in chars.
+     */
+    static int estimateSize(Message message) {
+        int size = length(message.name) + length(message.clientId) + length(message.id) + length(message.encoding);
+        Object data = message.data;
+        if(data instanceof byte[]) {
+            size += ((byte[]) data).length;
+        } else if(data instanceof String) {
+            size += ((String) data).length();
+        }
+        return size;
+    }
+
+    private static int length(String value) {
+        return (value == null) ? 0 : value.length();
+    }
+
+    private final ChannelBase channel;
+    private final List<Message> pending = new ArrayList<>();
+    private final List<CompletionListener> listeners = new ArrayList<>();
+    private int pendingBytes;
+    private HashedWheelTimer.Timeout lingerTimer;
+    /* the number of batches sent or failed */
+    private long batchCount;
+
+    private static final String TAG = PublishCoalescer.class.getName();
+}
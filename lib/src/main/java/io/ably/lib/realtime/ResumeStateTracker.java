@@ -0,0 +1,191 @@
+package io.ably.lib.realtime;
+
+import io.ably.lib.transport.ConnectionManager;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ResumeState;
+import io.ably.lib.types.ResumeStateStore;
+import io.ably.lib.util.HashedWheelTimer;
+import io.ably.lib.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves the state of a client's connection and channels to its
+ * {@link io.ably.lib.types.ClientOptions#resumeStateStore}, and restores it when
+ * the client is instanced.
+ *
+ * The state is saved periodically while connected, and when the connection is
+ * disconnected, while it can still be recovered; it is cleared when the connection
+ * is closed or fails. Saves are made on a dedicated thread, so
+ * the store may block.
+ */
+class ResumeStateTracker implements ConnectionStateListener {
+
+    ResumeStateTracker(AblyRealtime ably, ResumeStateStore store) {
+        this.ably = ably;
+        this.store = store;
+        this.saveInterval = ably.options.resumeStateSaveInterval;
+    }
+
+    /**
+     * Restore any recoverable state; called before the connection is first opened.
+     * The channels of the state are attached once the connection is connected.
+     */
+    void restore() {
+        if(ably.options.recover != null) {
+            /* an explicit recover string takes precedence */
+            return;
+        }
+        ResumeState state;
+        try {
+            state = store.load();
+        } catch(AblyException e) {
+            Log.e(TAG, "Unable to load resume state", e);
+            return;
+        }
+        if(state == null || !state.isRecoverable(System.currentTimeMillis())) {
+            return;
+        }
+        Log.v(TAG, "restore(); connectionId = " + state.connectionId + "; channels = " + state.channelSerials.size());
+        ably.connection.connectionManager.restore(state);
+        synchronized(this) {
+            restoredChannels = state.channelSerials;
+        }
+    }
+
+    @Override
+    public void onConnectionStateChanged(ConnectionStateChange change) {
+        switch(change.current) {
+            case connected:
+                attachRestoredChannels();
+                scheduleSave();
+                break;
+            case disconnected:
+                cancelSave();
+                save();
+                break;
+            case suspended:
+                /* the state saved when disconnected expires with the connection */
+                cancelSave();
+                break;
+            case closed:
+            case failed:
+                cancelSave();
+                clear();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void attachRestoredChannels() {
+        Map<String, String> channelSerials;
+        synchronized(this) {
+            channelSerials = restoredChannels;
+            restoredChannels = null;
+        }
+        if(channelSerials == null) {
+            return;
+        }
+        for(Map.Entry<String, String> entry : channelSerials.entrySet()) {
+            try {
+                ably.channels.get(entry.getKey()).attachFromSerial(entry.getValue());
+            } catch(AblyException e) {
+                Log.e(TAG, "Unable to attach restored channel; channel = " + entry.getKey(), e);
+            }
+        }
+    }
+
+    private synchronized void scheduleSave() {
+        if(saveTimer != null || saveInterval <= 0) {
+            return;
+        }
+        saveTimer = ably.timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized(ResumeStateTracker.this) {
+                    saveTimer = null;
+                }
+                /* once disconnected, the state saved then must not be refreshed */
+                if(ably.connection.state == ConnectionState.connected) {
+                    save();
+                    scheduleSave();
+                }
+            }
+        }, saveInterval);
+    }
+
+    private synchronized void cancelSave() {
+        if(saveTimer != null) {
+            saveTimer.cancel();
+            saveTimer = null;
+        }
+    }
+
+    /**
+     * Snapshot the state, and save it on the store's thread.
+     */
+    private void save() {
+        final ResumeState state = new ResumeState();
+        ConnectionManager connectionManager = ably.connection.connectionManager;
+        if(!connectionManager.snapshot(state)) {
+            return;
+        }
+        state.timestamp = System.currentTimeMillis();
+        Map<String, String> channelSerials = new HashMap<>();
+        for(Channel channel : ably.channels.values()) {
+            String serial = channel.getResumeSerial();
+            if(serial != null) {
+                channelSerials.put(channel.name, serial);
+            }
+        }
+        state.channelSerials = channelSerials;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    store.save(state);
+                } catch(AblyException e) {
+                    Log.e(TAG, "Unable to save resume state", e);
+                }
+            }
+        });
+    }
+
+    private void clear() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    store.clear();
+                } catch(AblyException e) {
+                    Log.e(TAG, "Unable to clear resume state", e);
+                }
+            }
+        });
+    }
+
+    private final AblyRealtime ably;
+    private final ResumeStateStore store;
+    private final long saveInterval;
+    private Map<String, String> restoredChannels;
+    private HashedWheelTimer.Timeout saveTimer;
+
+    /* a single thread, so saves are made in order; it exits when idle */
+    private final Executor executor = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "ably-resume-state");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final String TAG = ResumeStateTracker.class.getName();
+}
@@ -0,0 +1,207 @@
+package io.ably.lib.realtime;
+
+import io.ably.lib.realtime.ChannelBase.MessageListener;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PaginatedResult;
+import io.ably.lib.types.Param;
+import io.ably.lib.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A shared client's view of a channel. The underlying channel, and its attachment,
+ * are shared by all clients using the channel; messages published through this
+ * view are attributed to the client's clientId, and the listeners it subscribes
+ * are removed when the client releases the channel.
+ */
+public class SharedChannel {
+
+    /**
+     * The name of this channel.
+     */
+    public final String name;
+
+    /**
+     * The client's view of the presence of this channel.
+     */
+    public final SharedPresence presence;
+
+    SharedChannel(AblyRealtime ably, SharedClient client, String name) {
+        this.ably = ably;
+        this.client = client;
+        this.name = name;
+        this.presence = new SharedPresence(this, client.clientId);
+    }
+
+    /**
+     * The state of the underlying channel.
+     */
+    public ChannelState getState() {
+        return channel().state;
+    }
+
+    /**
+     * Attach the underlying channel, if not already attached.
+     * @param listener a listener to be notified on completion of the operation; may be null
+     * @throws AblyException
+     */
+    public void attach(CompletionListener listener) throws AblyException {
+        channel().attach(listener);
+    }
+
+    /**
+     * Publish a message on this channel, as this client. This implicitly attaches the
+     * channel if not already attached.
+     * @param name the event name
+     * @param data the message payload
+     * @param listener a listener to be notified of the outcome of this message; may be null
+     * @throws AblyException
+     */
+    public void publish(String name, Object data, CompletionListener listener) throws AblyException {
+        publish(new Message[] {new Message(name, data)}, listener);
+    }
+
+    /**
+     * Publish a message on this channel, as this client.
+     * @param message the message; its clientId, if set, must be that of this client
+     * @param listener a listener to be notified of the outcome of this message; may be null
+     * @throws AblyException
+     */
+    public void publish(Message message, CompletionListener listener) throws AblyException {
+        publish(new Message[] {message}, listener);
+    }
+
+    /**
+     * Publish an array of messages on this channel, as this client. Messages without a
+     * clientId are published as copies bearing this client's clientId; the given
+     * messages are not modified.
+     * @param messages the messages; the clientId of each, if set, must be that of this client
+     * @param listener a listener to be notified of the outcome of this message; may be null
+     * @throws AblyException
+     */
+    public void publish(Message[] messages, CompletionListener listener) throws AblyException {
+        Message[] attributed = new Message[messages.length];
+        for(int i = 0; i < messages.length; i++) {
+            Message message = messages[i];
+            if(message.clientId == null) {
+                attributed[i] = withClientId(message);
+            } else if(message.clientId.equals(client.clientId)) {
+                attributed[i] = message;
+            } else {
+                if(listener != null) {
+                    listener.onError(new ErrorInfo("Incompatible clientId specified in message", 400, 40012));
+                }
+                return;
+            }
+        }
+        channel().publish(attributed, listener);
+    }
+
+    /**
+     * Subscribe for messages on this channel. This implicitly attaches the channel if
+     * not already attached.
+     * @param listener the MessageListener
+     * @throws AblyException
+     */
+    public void subscribe(MessageListener listener) throws AblyException {
+        track(listener);
+        channel().subscribe(listener);
+    }
+
+    /**
+     * Subscribe for messages with a specific event name on this channel.
+     * This implicitly attaches the channel if not already attached.
+     * @param name the event name
+     * @param listener the MessageListener
+     * @throws AblyException
+     */
+    public void subscribe(String name, MessageListener listener) throws AblyException {
+        track(listener);
+        channel().subscribe(name, listener);
+    }
+
+    /**
+     * Unsubscribe a previously subscribed listener from this channel.
+     * @param listener the previously subscribed listener.
+     */
+    public void unsubscribe(MessageListener listener) {
+        synchronized(listeners) {
+            listeners.remove(listener);
+        }
+        channel().unsubscribe(listener);
+    }
+
+    /**
+     * Unsubscribe all listeners subscribed through this client; those of other
+     * clients are unaffected.
+     */
+    public void unsubscribe() {
+        MessageListener[] subscribed;
+        synchronized(listeners) {
+            subscribed = listeners.toArray(new MessageListener[listeners.size()]);
+            listeners.clear();
+        }
+        Channel channel = channel();
+        for(MessageListener listener : subscribed) {
+            channel.unsubscribe(listener);
+        }
+    }
+
+    /**
+     * Obtain recent history for this channel using the REST API.
+     * @param params the request params. See the Ably REST API
+     * documentation for more details.
+     * @throws AblyException
+     */
+    public PaginatedResult<Message> history(Param[] params) throws AblyException {
+        return channel().history(params);
+    }
+
+    /**
+     * The underlying channel. This is looked up on each use, as the channel is
+     * replaced if the connection is closed and reopened.
+     */
+    Channel channel() {
+        return ably.channels.get(name);
+    }
+
+    /**
+     * Remove this client's listeners, and leave presence if entered.
+     */
+    void dispose() {
+        unsubscribe();
+        try {
+            presence.dispose();
+        } catch(AblyException e) {
+            Log.e(TAG, "Unexpected exception leaving presence; channel = " + name, e);
+        }
+    }
+
+    /**
+     * A copy of the given message, attributed to this client.
+     */
+    private Message withClientId(Message message) {
+        Message copy = new Message(message.name, message.data, client.clientId, message.extras);
+        copy.id = message.id;
+        copy.timestamp = message.timestamp;
+        copy.connectionId = message.connectionId;
+        copy.connectionKey = message.connectionKey;
+        copy.encoding = message.encoding;
+        return copy;
+    }
+
+    private void track(MessageListener listener) {
+        synchronized(listeners) {
+            listeners.add(listener);
+        }
+    }
+
+    private final AblyRealtime ably;
+    private final SharedClient client;
+    private final Set<MessageListener> listeners = new HashSet<>();
+
+    private static final String TAG = SharedChannel.class.getName();
+}
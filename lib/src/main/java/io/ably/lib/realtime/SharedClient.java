@@ -0,0 +1,98 @@
+package io.ably.lib.realtime;
+
+import io.ably.lib.types.ReadOnlyMap;
+import io.ably.lib.util.InternalMap;
+
+/**
+ * A logical client, with its own clientId, that shares the connection and channels
+ * of an AblyRealtime instance with other logical clients. Created with
+ * {@link AblyRealtime#createSharedClient(String)}.
+ *
+ * Closing a shared client releases its channels, leaving presence where it has entered,
+ * but does not close the shared connection.
+ */
+public class SharedClient implements AutoCloseable {
+
+    /**
+     * The clientId of this client.
+     */
+    public final String clientId;
+
+    /**
+     * The connection shared by all logical clients of the AblyRealtime instance.
+     */
+    public final Connection connection;
+
+    /**
+     * The channels in use by this client.
+     */
+    public final Channels channels;
+
+    /**
+     * A collection of the channels in use by a shared client.
+     */
+    public interface Channels extends ReadOnlyMap<String, SharedChannel> {
+        /**
+         * Get the named channel for this client; the underlying channel is created if
+         * it does not already exist, and is shared with other clients using the same name.
+         * @param channelName the name of the channel
+         * @return the channel
+         */
+        SharedChannel get(String channelName);
+
+        /**
+         * Stop using the named channel in this client, removing this client's listeners and
+         * leaving presence if entered. The underlying channel is released once no shared
+         * client uses it, unless the application was already using it directly when the first
+         * shared client got it. This silently does nothing if the channel is not in use by this client.
+         * @param channelName the name of the channel
+         */
+        void release(String channelName);
+    }
+
+    SharedClient(AblyRealtime ably, String clientId) {
+        this.ably = ably;
+        this.clientId = clientId;
+        this.connection = ably.connection;
+        this.channels = new InternalChannels();
+    }
+
+    /**
+     * Release all channels in use by this client. The shared connection remains open.
+     */
+    @Override
+    public void close() {
+        for(String channelName : channels.keySet()) {
+            channels.release(channelName);
+        }
+    }
+
+    private class InternalChannels extends InternalMap<String, SharedChannel> implements Channels {
+        @Override
+        public SharedChannel get(String channelName) {
+            SharedChannel channel = map.get(channelName);
+            if(channel == null) {
+                ably.acquireSharedChannel(channelName);
+                final SharedChannel newChannel = new SharedChannel(ably, SharedClient.this, channelName);
+                channel = map.putIfAbsent(channelName, newChannel);
+                if(channel == null) {
+                    return newChannel;
+                }
+                /* another caller created it first */
+                ably.releaseSharedChannel(channelName);
+            }
+            return channel;
+        }
+
+        @Override
+        public void release(String channelName) {
+            SharedChannel channel = map.remove(channelName);
+            if(channel != null) {
+                channel.dispose();
+                ably.releaseSharedChannel(channelName);
+            }
+        }
+    }
+
+    private final AblyRealtime ably;
+}
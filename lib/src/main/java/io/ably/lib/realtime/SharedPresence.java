@@ -0,0 +1,129 @@
+package io.ably.lib.realtime;
+
+import io.ably.lib.realtime.Presence.PresenceListener;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.PresenceMessage;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A shared client's view of the presence of a channel. Members are entered, updated
+ * and left as the client's clientId; the presence set, and presence events, are
+ * those of the underlying channel.
+ */
+public class SharedPresence {
+
+    SharedPresence(SharedChannel channel, String clientId) {
+        this.channel = channel;
+        this.clientId = clientId;
+    }
+
+    /**
+     * Enter this client into the channel.
+     * @param data optional data (eg a status message) for this member.
+     * @param listener a listener to be notified on completion of the operation; may be null
+     * @throws AblyException
+     */
+    public void enter(Object data, CompletionListener listener) throws AblyException {
+        setEntered(true);
+        channel.channel().presence.enterClient(clientId, data, listener);
+    }
+
+    /**
+     * Update the presence data of this client, entering the channel if not already a member.
+     * @param data optional data (eg a status message) for this member.
+     * @param listener a listener to be notified on completion of the operation; may be null
+     * @throws AblyException
+     */
+    public void update(Object data, CompletionListener listener) throws AblyException {
+        setEntered(true);
+        channel.channel().presence.updateClient(clientId, data, listener);
+    }
+
+    /**
+     * Leave this client from the channel.
+     * @param data optional data (eg a status message) for this member.
+     * @param listener a listener to be notified on completion of the operation; may be null
+     * @throws AblyException
+     */
+    public void leave(Object data, CompletionListener listener) throws AblyException {
+        setEntered(false);
+        channel.channel().presence.leaveClient(clientId, data, listener);
+    }
+
+    /**
+     * Get the presence state of the channel, optionally waiting for sync to complete.
+     * @return the current present members, of all clients.
+     * @throws AblyException
+     */
+    public PresenceMessage[] get(boolean wait) throws AblyException {
+        return channel.channel().presence.get(wait);
+    }
+
+    /**
+     * Subscribe to presence events on the channel. This implicitly attaches the
+     * channel if it is not already attached.
+     * @param listener the listener to me notified on arrival of presence messages.
+     * @throws AblyException
+     */
+    public void subscribe(PresenceListener listener) throws AblyException {
+        synchronized(listeners) {
+            listeners.add(listener);
+        }
+        channel.channel().presence.subscribe(listener);
+    }
+
+    /**
+     * Unsubscribe a previously subscribed presence listener.
+     * @param listener the previously subscribed listener.
+     */
+    public void unsubscribe(PresenceListener listener) {
+        synchronized(listeners) {
+            listeners.remove(listener);
+        }
+        channel.channel().presence.unsubscribe(listener);
+    }
+
+    /**
+     * Unsubscribe all presence listeners subscribed through this client; those of
+     * other clients are unaffected.
+     */
+    public void unsubscribe() {
+        PresenceListener[] subscribed;
+        synchronized(listeners) {
+            subscribed = listeners.toArray(new PresenceListener[listeners.size()]);
+            listeners.clear();
+        }
+        Presence presence = channel.channel().presence;
+        for(PresenceListener listener : subscribed) {
+            presence.unsubscribe(listener);
+        }
+    }
+
+    /**
+     * Remove this client's listeners, and leave if entered.
+     */
+    void dispose() throws AblyException {
+        unsubscribe();
+        boolean wasEntered;
+        synchronized(listeners) {
+            wasEntered = entered;
+            entered = false;
+        }
+        if(wasEntered) {
+            channel.channel().presence.leaveClient(clientId, null, null);
+        }
+    }
+
+    private void setEntered(boolean entered) {
+        synchronized(listeners) {
+            this.entered = entered;
+        }
+    }
+
+    private final SharedChannel channel;
+    private final String clientId;
+    private final Set<PresenceListener> listeners = new HashSet<>();
+    private boolean entered;
+}
@@ -32,6 +32,7 @@ import io.ably.lib.types.StatsReader;
 import io.ably.lib.util.Crypto;
 import io.ably.lib.util.InternalMap;
 import io.ably.lib.util.Log;
+import io.ably.lib.util.MsgpackPackerPool;
 import io.ably.lib.util.PlatformAgentProvider;
 import io.ably.lib.util.Serialisation;
 
@@ -52,6 +53,11 @@ public abstract class AblyBase {
     public final Push push;
     protected final PlatformAgentProvider platformAgentProvider;
 
+    /**
+     * Internal; packers reused for msgpack serialisation of outbound messages.
+     */
+    public final MsgpackPackerPool msgpackPackerPool;
+
     /**
      * Instance the Ably library using a key only.
      * This is simply a convenience constructor for the
@@ -89,6 +95,7 @@ public abstract class AblyBase {
         auth = new Auth(this, options);
         httpCore = new HttpCore(options, auth, this.platformAgentProvider);
         http = new Http(new AsyncHttpScheduler(httpCore, options), new SyncHttpScheduler(httpCore));
+        msgpackPackerPool = new MsgpackPackerPool(options.msgpackPackerPoolSize, options.msgpackPackerMaxBufferSize);
 
         channels = new InternalChannels();
 
@@ -279,7 +286,7 @@ public abstract class AblyBase {
         return http.request(new Http.Execute<PublishResponse[]>() {
             @Override
             public void execute(HttpScheduler http, final Callback<PublishResponse[]> callback) throws AblyException {
-                HttpCore.RequestBody requestBody = options.useBinaryProtocol ? MessageSerializer.asMsgpackRequest(pubSpecs) : MessageSerializer.asJSONRequest(pubSpecs);
+                HttpCore.RequestBody requestBody = options.useBinaryProtocol ? MessageSerializer.asMsgpackRequest(pubSpecs, msgpackPackerPool) : MessageSerializer.asJSONRequest(pubSpecs);
                 final Param[] params = options.addRequestIds ? Param.set(initialParams, Crypto.generateRandomRequestId()) : initialParams ; // RSC7c
                 http.post("/messages", HttpUtils.defaultAcceptHeaders(options.useBinaryProtocol), params, requestBody, new HttpCore.ResponseHandler<PublishResponse[]>() {
                     @Override
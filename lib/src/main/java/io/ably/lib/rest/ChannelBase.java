@@ -5,6 +5,7 @@ import io.ably.lib.http.Http;
 import io.ably.lib.http.HttpScheduler;
 import io.ably.lib.http.HttpCore;
 import io.ably.lib.http.HttpUtils;
+import io.ably.lib.http.PaginatedResultIterator;
 import io.ably.lib.realtime.CompletionListener;
 import io.ably.lib.types.AblyException;
 import io.ably.lib.types.AsyncPaginatedResult;
@@ -109,7 +110,7 @@ public class ChannelBase {
                     }
                 }
 
-                HttpCore.RequestBody requestBody = ably.options.useBinaryProtocol ? MessageSerializer.asMsgpackRequest(messages) : MessageSerializer.asJsonRequest(messages);
+                HttpCore.RequestBody requestBody = ably.options.useBinaryProtocol ? MessageSerializer.asMsgpackRequest(messages, ably.msgpackPackerPool) : MessageSerializer.asJsonRequest(messages);
                 final Param[] params = ably.options.addRequestIds ? Param.array(Crypto.generateRandomRequestId()) : null; // RSC7c
 
                 http.post(basePath + "/messages", HttpUtils.defaultAcceptHeaders(ably.options.useBinaryProtocol), params, requestBody, null, true, callback);
@@ -140,6 +141,19 @@ public class ChannelBase {
         historyImpl(params).async(callback);
     }
 
+    /**
+     * Iterate over the message history of this channel, across all pages, using the REST API.
+     * Each page is requested in the background while the previous one is consumed, so at
+     * most two pages are held in memory at once. The iterator blocks while waiting for a
+     * page, and throws PaginatedResultIterator.PageFailedException if one cannot be obtained.
+     * @param params the request params. See the Ably REST API
+     * documentation for more details.
+     * @return an iterator over the messages of every page.
+     */
+    public PaginatedResultIterator<Message> historyIterator(Param[] params) {
+        return historyImpl(params).iterator();
+    }
+
     private BasePaginatedQuery.ResultRequest<Message> historyImpl(Param[] initialParams) {
         HttpCore.BodyHandler<Message> bodyHandler = MessageSerializer.getMessageResponseHandler(options);
         final Param[] params = ably.options.addRequestIds ? Param.set(initialParams, Crypto.generateRandomRequestId()) : initialParams; // RSC7c
@@ -198,6 +212,16 @@ public class ChannelBase {
             historyImpl(params).async(callback);
         }
 
+        /**
+         * Iterate over presence history for this channel across all pages, as
+         * {@link ChannelBase#historyIterator(Param[])} does for messages.
+         * @param params the request params. See the Ably REST API
+         * documentation for more details.
+         */
+        public PaginatedResultIterator<PresenceMessage> historyIterator(Param[] params) {
+            return historyImpl(params).iterator();
+        }
+
         private BasePaginatedQuery.ResultRequest<PresenceMessage> historyImpl(Param[] initialParams) {
             HttpCore.BodyHandler<PresenceMessage> bodyHandler = PresenceSerializer.getPresenceResponseHandler(options);
             final Param[] params = ably.options.addRequestIds ? Param.set(initialParams, Crypto.generateRandomRequestId()) : initialParams; // RSC7c
@@ -0,0 +1,95 @@
+package io.ably.lib.transport;
+
+import io.ably.lib.util.HashedWheelTimer;
+import io.ably.lib.util.Log;
+
+/**
+ * Tracks activity on a transport, and closes it when nothing has been received
+ * for longer than the connection's maxIdleInterval plus the realtime request timeout.
+ * The check is scheduled on the client's shared timer.
+ */
+class ActivityMonitor {
+
+    private final ConnectionManager connectionManager;
+    private final Runnable onIdle;
+
+    private HashedWheelTimer.Timeout activityTimeout = null;
+    private boolean disposed;
+    private long lastActivityTime;
+
+    /**
+     * @param connectionManager the ConnectionManager of the transport
+     * @param onIdle run, once, when the idle timeout is reached
+     */
+    ActivityMonitor(ConnectionManager connectionManager, Runnable onIdle) {
+        this.connectionManager = connectionManager;
+        this.onIdle = onIdle;
+    }
+
+    synchronized void flagActivity() {
+        lastActivityTime = System.currentTimeMillis();
+        connectionManager.setLastActivity(lastActivityTime);
+        if (activityTimeout == null && connectionManager.maxIdleInterval != 0) {
+            /* No timer currently running because previously there was no
+             * maxIdleInterval configured, but now there is a
+             * maxIdleInterval configured.  Call checkActivity so a timer
+             * gets started.  This happens when flagActivity gets called
+             * just after processing the connect message that configures
+             * maxIdleInterval. */
+            checkActivity();
+        }
+    }
+
+    /**
+     * Cancel any activity timeout; no further checks are made.
+     */
+    synchronized void dispose() {
+        disposed = true;
+        if(activityTimeout != null) {
+            activityTimeout.cancel();
+            activityTimeout = null;
+        }
+    }
+
+    private synchronized void checkActivity() {
+        long timeout = connectionManager.maxIdleInterval;
+        if (timeout == 0) {
+            Log.v(TAG, "checkActivity: infinite timeout");
+            return;
+        }
+        if(activityTimeout != null || disposed) {
+            /* timer already running, or transport disposed */
+            return;
+        }
+        timeout += connectionManager.ably.options.realtimeRequestTimeout;
+        long now = System.currentTimeMillis();
+        long next = lastActivityTime + timeout;
+        if (now < next) {
+            /* We have not reached maxIdleInterval+realtimeRequestTimeout
+             * of inactivity.  Schedule a new timer for that long after the
+             * last activity time. */
+            Log.v(TAG, "checkActivity: ok");
+            activityTimeout = connectionManager.ably.timer.schedule(new Runnable() {
+                public void run() {
+                    try {
+                        onActivityTimeout();
+                    } catch(Throwable t) {
+                        Log.e(TAG, "Unexpected exception in activity timer handler", t);
+                    }
+                }
+            }, next - now);
+        } else {
+            /* Timeout has been reached. Close the connection. */
+            Log.e(TAG, "No activity for " + timeout + "ms, closing connection");
+            disposed = true;
+            onIdle.run();
+        }
+    }
+
+    private synchronized void onActivityTimeout() {
+        activityTimeout = null;
+        checkActivity();
+    }
+
+    private static final String TAG = ActivityMonitor.class.getName();
+}
@@ -13,11 +13,14 @@ import io.ably.lib.realtime.ConnectionStateListener.ConnectionStateChange;
 import io.ably.lib.transport.ITransport.ConnectListener;
 import io.ably.lib.transport.ITransport.TransportParams;
 import io.ably.lib.types.AblyException;
+import io.ably.lib.types.Callback;
 import io.ably.lib.types.ClientOptions;
 import io.ably.lib.types.ConnectionDetails;
 import io.ably.lib.types.ErrorInfo;
 import io.ably.lib.types.ProtocolMessage;
 import io.ably.lib.types.ProtocolSerializer;
+import io.ably.lib.types.ResumeState;
+import io.ably.lib.util.HashedWheelTimer;
 import io.ably.lib.util.Log;
 import io.ably.lib.transport.NetworkConnectivity.NetworkConnectivityListener;
 import io.ably.lib.util.PlatformAgentProvider;
@@ -25,10 +28,10 @@ import io.ably.lib.util.PlatformAgentProvider;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class ConnectionManager implements ConnectListener {
 
@@ -371,7 +374,7 @@ public class ConnectionManager implements ConnectListener {
         @Override
         void enact(StateIndication stateIndication, ConnectionStateChange change) {
             super.enact(stateIndication, change);
-            boolean closed = closeImpl();
+            boolean closed = closeImpl(change.previous == ConnectionState.connected);
             if(closed) {
                 addAction(new AsynchronousStateChangeAction(ConnectionState.closed));
             }
@@ -469,7 +472,7 @@ public class ConnectionManager implements ConnectListener {
          * Create a ConnectionWaiter as a connection listener.
          */
         private ConnectionWaiter() {
-            connection.on(this);
+            connection.internalListeners.on(this);
         }
 
         /**
@@ -509,7 +512,7 @@ public class ConnectionManager implements ConnectListener {
                 return;
             }
             closed = true;
-            connection.off(this);
+            connection.internalListeners.off(this);
         }
     }
 
@@ -545,6 +548,11 @@ public class ConnectionManager implements ConnectListener {
 
         protected void enactState() {
             if(change != null) {
+                if(change.current != ConnectionState.connected) {
+                    /* pings can no longer be answered; this precedes the broadcast, as the
+                     * client's timer is closed when the connection closes */
+                    failHeartbeatWaiters(change.reason);
+                }
                 if(change.current != change.previous) {
                     /* broadcast currentState change */
                     connection.onConnectionStateChange(change);
@@ -726,6 +734,9 @@ public class ConnectionManager implements ConnectListener {
 
         ClientOptions options = ably.options;
         this.hosts = new Hosts(options.realtimeHost, Defaults.HOST_REALTIME, options);
+        this.outboundLimit = new OutboundLimit(options);
+        this.pendingMessages = new PendingMessageQueue(outboundLimit);
+        this.transportFlushInterval = options.transportFlushInterval;
 
         /* debug options */
         ITransport.Factory transportFactory = null;
@@ -735,7 +746,10 @@ public class ConnectionManager implements ConnectListener {
             transportFactory = ((DebugOptions) options).transportFactory;
         }
         this.protocolListener = protocolListener;
-        this.transportFactory = (transportFactory != null) ? transportFactory : Defaults.TRANSPORT;
+        if(transportFactory == null) {
+            transportFactory = options.nonBlockingTransport ? Defaults.NIO_TRANSPORT : Defaults.TRANSPORT;
+        }
+        this.transportFactory = transportFactory;
 
         /* construct all states */
         states.put(ConnectionState.initialized, new Initialized());
@@ -761,6 +775,13 @@ public class ConnectionManager implements ConnectListener {
         return lastUsedHost;
     }
 
+    /**
+     * Get the measured health of the realtime hosts to which connections have been attempted.
+     */
+    public Hosts.HostStats[] getHostStats() {
+        return hosts.getStats();
+    }
+
     /*********************
      * states API
      *********************/
@@ -817,6 +838,14 @@ public class ConnectionManager implements ConnectListener {
         }
         Log.v(TAG, "setState(): setting " + newState.state + "; reason " + reason);
         ConnectionStateChange change = new ConnectionStateChange(currentState.state, newConnectionState, newState.timeout, reason);
+        if(currentState.state == ConnectionState.connected && newConnectionState == ConnectionState.closing) {
+            /* messages batched while connected are written ahead of the CLOSE */
+            try {
+                flushOutbound();
+            } catch(AblyException e) {
+                Log.e(TAG, "setState(): Unexpected error sending batched messages", e);
+            }
+        }
         currentState = newState;
         stateError = reason;
 
@@ -828,72 +857,121 @@ public class ConnectionManager implements ConnectListener {
      *********************/
 
     public void ping(final CompletionListener listener) {
-        HeartbeatWaiter waiter = new HeartbeatWaiter(listener);
+        ping(new Callback<Long>() {
+            @Override
+            public void onSuccess(Long roundTripMillis) {
+                if(listener != null) {
+                    listener.onSuccess();
+                }
+            }
+
+            @Override
+            public void onError(ErrorInfo reason) {
+                if(listener != null) {
+                    listener.onError(reason);
+                }
+            }
+        });
+    }
+
+    /**
+     * Send a heartbeat with a unique id, and notify the callback of the round-trip
+     * time once the service echoes it. Pings do not block; any number may be
+     * outstanding, each awaiting its response with a timeout on the client's timer.
+     */
+    public void ping(final Callback<Long> callback) {
+        HeartbeatWaiter waiter = new HeartbeatWaiter(callback);
         if(currentState.state != ConnectionState.connected) {
             waiter.onError(new ErrorInfo("Unable to ping service; not connected", 40000, 400));
             return;
         }
+        ProtocolMessage heartbeat = new ProtocolMessage(ProtocolMessage.Action.heartbeat);
         synchronized(heartbeatWaiters) {
-            heartbeatWaiters.add(waiter);
-            waiter.start();
+            heartbeat.id = waiter.id = String.valueOf(++heartbeatSerial);
+            waiter.sentTime = System.nanoTime();
+            heartbeatWaiters.put(waiter.id, waiter);
+            waiter.timeout = ably.timer.schedule(waiter, HEARTBEAT_TIMEOUT);
         }
         try {
-            send(new ProtocolMessage(ProtocolMessage.Action.heartbeat), false, null);
+            send(heartbeat, false, null);
         } catch (AblyException e) {
-            waiter.onError(e.errorInfo);
+            if(waiter.clear()) {
+                waiter.onError(e.errorInfo);
+            }
         }
     }
 
     /**
-     * A thread that waits for completion of a ping
+     * A pending ping, completed by the heartbeat echoing its id or
+     * failed when its timeout expires
      */
-    private class HeartbeatWaiter extends Thread {
-        private final CompletionListener listener;
+    private class HeartbeatWaiter implements Runnable {
+        private final Callback<Long> callback;
+        private String id;
+        private long sentTime;
+        private HashedWheelTimer.Timeout timeout;
 
-        HeartbeatWaiter(CompletionListener listener) {
-            this.listener = listener;
+        HeartbeatWaiter(Callback<Long> callback) {
+            this.callback = callback;
         }
 
-        private void onSuccess() {
-            clear();
-            if(listener != null) {
-                listener.onSuccess();
+        private void onSuccess(long receivedTime) {
+            long roundTripMillis = TimeUnit.NANOSECONDS.toMillis(receivedTime - sentTime);
+            connection.pingLatency.record(roundTripMillis);
+            if(callback != null) {
+                callback.onSuccess(roundTripMillis);
             }
         }
 
         private void onError(ErrorInfo reason) {
-            clear();
-            if(listener != null) {
-                listener.onError(reason);
+            if(callback != null) {
+                callback.onError(reason);
             }
         }
 
         private boolean clear() {
-            boolean pending = heartbeatWaiters.remove(this);
-            if(pending) {
-                interrupt();
+            synchronized(heartbeatWaiters) {
+                timeout.cancel();
+                return heartbeatWaiters.remove(id) != null;
             }
-            return pending;
         }
 
+        /* the timeout has expired */
         @Override
         public void run() {
             boolean pending;
             synchronized(heartbeatWaiters) {
-                try {
-                    heartbeatWaiters.wait(HEARTBEAT_TIMEOUT);
-                } catch (InterruptedException ie) {
-                }
-                pending = clear();
+                pending = heartbeatWaiters.remove(id) != null;
             }
             if(pending) {
                 onError(new ErrorInfo("Timed out waiting for heartbeat response", 50000, 500));
-            } else {
-                onSuccess();
             }
         }
     }
 
+    /**
+     * Fail every ping outstanding, as its response can no longer be received
+     */
+    private void failHeartbeatWaiters(ErrorInfo reason) {
+        HeartbeatWaiter[] waiters;
+        synchronized(heartbeatWaiters) {
+            if(heartbeatWaiters.isEmpty()) {
+                return;
+            }
+            waiters = heartbeatWaiters.values().toArray(new HeartbeatWaiter[heartbeatWaiters.size()]);
+            heartbeatWaiters.clear();
+            for(HeartbeatWaiter waiter : waiters) {
+                waiter.timeout.cancel();
+            }
+        }
+        if(reason == null) {
+            reason = new ErrorInfo("Unable to ping service; not connected", 40000, 400);
+        }
+        for(HeartbeatWaiter waiter : waiters) {
+            waiter.onError(reason);
+        }
+    }
+
     /***************************************
      * auth event handling
      ***************************************/
@@ -1024,6 +1102,18 @@ public class ConnectionManager implements ConnectListener {
      * @throws AblyException
      */
     public void onMessage(ITransport transport, ProtocolMessage message) throws AblyException {
+        Boolean processing = inboundThread.get();
+        inboundThread.set(Boolean.TRUE);
+        try {
+            onMessageImpl(transport, message);
+        } finally {
+            if(processing == null) {
+                inboundThread.remove();
+            }
+        }
+    }
+
+    private void onMessageImpl(ITransport transport, ProtocolMessage message) throws AblyException {
         if (transport != null && this.transport != transport) {
             return;
         }
@@ -1091,7 +1181,21 @@ public class ConnectionManager implements ConnectListener {
         channels.onMessage(message);
     }
 
-    private synchronized void onConnected(ProtocolMessage message) {
+    private void onConnected(ProtocolMessage message) {
+        QueuedMessage[] failedMessages;
+        synchronized(this) {
+            failedMessages = onConnectedImpl(message);
+        }
+        /* listeners are called with the lock released, as they may call back into the library */
+        pendingMessages.fail(failedMessages, new ErrorInfo("Connection resume failed", 500, 50000));
+    }
+
+    /**
+     * Update the connection on receipt of CONNECTED, with the lock held.
+     * @return the pending messages of a connection that was not resumed,
+     * to be failed once the lock is released, or null if none
+     */
+    private QueuedMessage[] onConnectedImpl(ProtocolMessage message) {
         /* if the returned connection id differs from
          * the existing connection id, then this means
          * we need to suspend all existing attachments to
@@ -1102,6 +1206,11 @@ public class ConnectionManager implements ConnectListener {
          *
          * Suspend all channels attached to the previous id;
          * this will be reattached in setConnection() */
+        if(pendingConnect != null && !pendingConnect.outcomeRecorded) {
+            pendingConnect.outcomeRecorded = true;
+            hosts.recordSuccess(pendingConnect.host, (System.nanoTime() - pendingConnect.startTime) / 1000000L);
+        }
+
         ErrorInfo error = message.error;
         if(connection.id != null && !message.connectionId.equals(connection.id)) {
             /* we need to suspend the original connection */
@@ -1114,12 +1223,12 @@ public class ConnectionManager implements ConnectListener {
         /* set the new connection id */
         ConnectionDetails connectionDetails = message.connectionDetails;
         connection.key = connectionDetails.connectionKey;
+        QueuedMessage[] failedMessages = null;
         if (!message.connectionId.equals(connection.id)) {
             /* The connection id has changed. Reset the message serial and the
-             * pending message queue (which fails the messages currently in
-             * there). */
-            pendingMessages.reset(msgSerial,
-                    new ErrorInfo("Connection resume failed", 500, 50000));
+             * pending message queue (the messages currently in there are
+             * failed by the caller). */
+            failedMessages = pendingMessages.reset(msgSerial);
             msgSerial = 0;
         }
         connection.id = message.connectionId;
@@ -1139,12 +1248,13 @@ public class ConnectionManager implements ConnectListener {
             ably.auth.setClientId(clientId);
         } catch (AblyException e) {
             requestState(transport, new StateIndication(ConnectionState.failed, e.errorInfo));
-            return;
+            return failedMessages;
         }
 
         /* indicated connected currentState */
         setSuspendTime();
         requestState(new StateIndication(ConnectionState.connected, error));
+        return failedMessages;
     }
 
     private synchronized void onDisconnected(ProtocolMessage message) {
@@ -1183,9 +1293,24 @@ public class ConnectionManager implements ConnectListener {
     }
 
     private void onHeartbeat(ProtocolMessage message) {
+        long receivedTime = System.nanoTime();
+        HeartbeatWaiter[] waiters;
         synchronized(heartbeatWaiters) {
-            heartbeatWaiters.clear();
-            heartbeatWaiters.notifyAll();
+            if(message.id != null) {
+                /* a response to a single ping; heartbeats with an unknown id are ignored */
+                HeartbeatWaiter waiter = heartbeatWaiters.remove(message.id);
+                waiters = (waiter == null) ? new HeartbeatWaiter[0] : new HeartbeatWaiter[] {waiter};
+            } else {
+                /* a service that does not echo ids; this completes every ping outstanding */
+                waiters = heartbeatWaiters.values().toArray(new HeartbeatWaiter[heartbeatWaiters.size()]);
+                heartbeatWaiters.clear();
+            }
+            for(HeartbeatWaiter waiter : waiters) {
+                waiter.timeout.cancel();
+            }
+        }
+        for(HeartbeatWaiter waiter : waiters) {
+            waiter.onSuccess(receivedTime);
         }
     }
 
@@ -1235,7 +1360,7 @@ public class ConnectionManager implements ConnectListener {
         if(pendingConnect != null && (reason == null || reason.statusCode >= 500)) {
             if (checkConnectivity()) {
                 /* we will try a fallback host */
-                String hostFallback = hosts.getFallback(pendingConnect.host);
+                String hostFallback = fallbackSequence.next(pendingConnect.host);
                 if (hostFallback != null) {
                     Log.v(TAG, "checkFallback: fallback to " + hostFallback);
                     return new StateIndication(ConnectionState.connecting, null, hostFallback, pendingConnect.host);
@@ -1308,6 +1433,11 @@ public class ConnectionManager implements ConnectListener {
             return;
         }
 
+        if(pendingConnect != null && !pendingConnect.outcomeRecorded && (reason == null || reason.statusCode >= 500)) {
+            pendingConnect.outcomeRecorded = true;
+            hosts.recordFailure(pendingConnect.host);
+        }
+
         /* if this is a failure of a pending connection attempt, decide whether or not to attempt a fallback host */
         StateIndication fallbackAttempt = checkFallback(reason);
         if(fallbackAttempt != null) {
@@ -1331,6 +1461,10 @@ public class ConnectionManager implements ConnectListener {
     }
 
     private class ConnectParams extends TransportParams {
+        /* when the attempt was started, and whether its outcome has been recorded in the host's health */
+        final long startTime = System.nanoTime();
+        boolean outcomeRecorded;
+
         ConnectParams(ClientOptions options, PlatformAgentProvider platformAgentProvider) {
             super(options, platformAgentProvider);
             this.connectionKey = connection.key;
@@ -1350,6 +1484,8 @@ public class ConnectionManager implements ConnectListener {
         String host = request.fallback;
         if (host == null) {
             host = hosts.getPreferredHost();
+            /* the hosts to try in turn, should this attempt fail */
+            fallbackSequence = hosts.fallbackSequence();
         }
         checkConnectionStale();
         pendingConnect = new ConnectParams(ably.options, platformAgentProvider);
@@ -1369,6 +1505,7 @@ public class ConnectionManager implements ConnectListener {
         synchronized(this) {
             oldTransport = this.transport;
             this.transport = transport;
+            discardOutbound();
         }
         if (oldTransport != null) {
             oldTransport.close();
@@ -1381,24 +1518,26 @@ public class ConnectionManager implements ConnectListener {
 
     /**
      * Close any existing transport
+     * @param wasConnected whether the connection was connected when the close was requested
      * @return closed if true, otherwise awaiting closed indication
      */
-    private boolean closeImpl() {
-        if(transport == null) {
-            return true;
-        }
+    private boolean closeImpl(boolean wasConnected) {
+        synchronized(this) {
+            if(transport == null) {
+                return true;
+            }
 
-        /* if connected, send an explicit close message and await response */
-        boolean isConnected = currentState.state == ConnectionState.connected;
-        if(isConnected) {
-            try {
-                Log.v(TAG, "Requesting connection close");
-                transport.send(new ProtocolMessage(ProtocolMessage.Action.close));
-                return false;
-            } catch (AblyException e) {
-                /* we're closing, and the attempt to send the CLOSE message failed;
-                 * continue, because we're not going to reinstate the transport
-                 * just to send a CLOSE message */
+            /* if connected, send an explicit close message and await response */
+            if(wasConnected) {
+                try {
+                    Log.v(TAG, "Requesting connection close");
+                    transport.send(new ProtocolMessage(ProtocolMessage.Action.close));
+                    return false;
+                } catch (AblyException e) {
+                    /* we're closing, and the attempt to send the CLOSE message failed;
+                     * continue, because we're not going to reinstate the transport
+                     * just to send a CLOSE message */
+                }
             }
         }
 
@@ -1409,9 +1548,14 @@ public class ConnectionManager implements ConnectListener {
     }
 
     private void clearTransport() {
-        if(transport != null) {
-            transport.close();
+        ITransport oldTransport;
+        synchronized(this) {
+            oldTransport = transport;
             transport = null;
+            discardOutbound();
+        }
+        if(oldTransport != null) {
+            oldTransport.close();
         }
     }
 
@@ -1447,18 +1591,84 @@ public class ConnectionManager implements ConnectListener {
         }
     }
 
+    /**
+     * Apply the client's backpressure policy before sending a message or presence update;
+     * this blocks, or throws, if the connection is unwritable and the policy requires it.
+     * This must be called before taking any channel lock. A thread processing inbound
+     * messages, such as a listener called without a dispatch executor, is never blocked,
+     * as it is needed to receive the acknowledgements that make a connection writable;
+     * with a shared event loop, it is needed by every connection on the loop.
+     */
+    public void awaitWritable() throws AblyException {
+        outboundLimit.await(!Boolean.TRUE.equals(inboundThread.get()));
+    }
+
+    public boolean isWritable() {
+        return outboundLimit.isWritable();
+    }
+
+    public void addWritabilityListener(Connection.WritabilityListener listener) {
+        outboundLimit.addListener(listener);
+    }
+
+    public void removeWritabilityListener(Connection.WritabilityListener listener) {
+        outboundLimit.removeListener(listener);
+    }
+
+    /**
+     * Record the state of the connection in a resume snapshot.
+     * @return false if the connection has no key, so cannot be recovered
+     */
+    public synchronized boolean snapshot(ResumeState state) {
+        if(connection.key == null) {
+            return false;
+        }
+        state.connectionId = connection.id;
+        state.connectionKey = connection.key;
+        state.connectionSerial = connection.serial;
+        state.msgSerial = msgSerial;
+        state.connectionStateTtl = connectionStateTtl;
+        return true;
+    }
+
+    /**
+     * Recover the connection from a resume snapshot at the next connection attempt,
+     * continuing its message serials if it is recovered.
+     */
+    public void restore(ResumeState state) {
+        QueuedMessage[] failedMessages;
+        synchronized(this) {
+            ably.options.recover = state.connectionKey + ":" + state.connectionSerial;
+            /* if the connection is not recovered, its id changes, and the serials are reset */
+            connection.id = state.connectionId;
+            msgSerial = state.msgSerial;
+            failedMessages = pendingMessages.restart(msgSerial);
+        }
+        pendingMessages.fail(failedMessages, new ErrorInfo("Connection recovered from saved state", 500, 50000));
+    }
+
     public void send(ProtocolMessage msg, boolean queueEvents, CompletionListener listener) throws AblyException {
         State state;
-        synchronized(this) {
-            state = this.currentState;
-            if(state.sendEvents) {
-                sendImpl(msg, listener);
-                return;
-            }
-            if(state.queueEvents && queueEvents) {
-                queuedMessages.add(new QueuedMessage(msg, listener));
-                return;
+        try {
+            synchronized(this) {
+                state = this.currentState;
+                if(state.sendEvents) {
+                    if(ProtocolMessage.ackRequired(msg)) {
+                        outboundLimit.add(1);
+                    }
+                    sendImpl(msg, listener);
+                    return;
+                }
+                if(state.queueEvents && queueEvents) {
+                    if(ProtocolMessage.ackRequired(msg)) {
+                        outboundLimit.add(1);
+                    }
+                    queuedMessages.add(new QueuedMessage(msg, listener));
+                    return;
+                }
             }
+        } finally {
+            outboundLimit.notifyListeners();
         }
         throw AblyException.fromErrorInfo(state.defaultErrorInfo);
     }
@@ -1466,6 +1676,9 @@ public class ConnectionManager implements ConnectListener {
     private void sendImpl(ProtocolMessage message, CompletionListener listener) throws AblyException {
         if(transport == null) {
             Log.v(TAG, "sendImpl(): Discarding message; transport unavailable");
+            if(ProtocolMessage.ackRequired(message)) {
+                outboundLimit.remove(1);
+            }
             return;
         }
         if(ProtocolMessage.ackRequired(message)) {
@@ -1475,12 +1688,15 @@ public class ConnectionManager implements ConnectListener {
         if(protocolListener != null) {
             protocolListener.onRawMessageSend(message);
         }
-        transport.send(message);
+        transportSend(message);
     }
 
     private void sendImpl(QueuedMessage msg) throws AblyException {
         if(transport == null) {
             Log.v(TAG, "sendImpl(): Discarding message; transport unavailable");
+            if(ProtocolMessage.ackRequired(msg.msg)) {
+                outboundLimit.remove(1);
+            }
             return;
         }
         ProtocolMessage message = msg.msg;
@@ -1491,142 +1707,113 @@ public class ConnectionManager implements ConnectListener {
         if(protocolListener != null) {
             protocolListener.onRawMessageSend(message);
         }
-        transport.send(message);
+        transportSend(message);
     }
 
-    private void sendQueuedMessages() {
-        synchronized(this) {
-            while(queuedMessages.size() > 0) {
-                try {
-                    sendImpl(queuedMessages.get(0));
-                } catch (AblyException e) {
-                    Log.e(TAG, "sendQueuedMessages(): Unexpected error sending queued messages", e);
-                } finally {
-                    queuedMessages.remove(0);
-                }
-            }
+    /**
+     * Send a message on the transport or, if transportFlushInterval is set and the message
+     * is a message or presence update, add it to the batch to be written at the next flush.
+     * Called with this locked.
+     */
+    private void transportSend(ProtocolMessage message) throws AblyException {
+        if(transportFlushInterval <= 0) {
+            transport.send(message);
+            return;
         }
-    }
-
-    private void failQueuedMessages(ErrorInfo reason) {
-        synchronized(this) {
-            for (QueuedMessage queued: queuedMessages) {
-                if (queued.listener != null) {
-                    try {
-                        queued.listener.onError(reason);
-                    } catch (Throwable t) {
-                        Log.e(TAG, "failQueuedMessages(): Unexpected error calling listener", t);
+        if(!ProtocolMessage.ackRequired(message)) {
+            /* other messages are not delayed, but must follow any already batched */
+            flushOutbound();
+            transport.send(message);
+            return;
+        }
+        outboundBatch.add(message);
+        if(outboundBatch.size() >= Defaults.TRANSPORT_BATCH_MAX_MESSAGES) {
+            flushOutbound();
+        } else if(outboundFlushTimer == null) {
+            outboundFlushTimer = ably.timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized(ConnectionManager.this) {
+                        try {
+                            flushOutbound();
+                        } catch(AblyException e) {
+                            Log.e(TAG, "flushOutbound(): Unexpected error sending batched messages", e);
+                        }
                     }
                 }
-            }
-            queuedMessages.clear();
+            }, transportFlushInterval);
         }
     }
 
     /**
-     * A class containing a queue of messages awaiting acknowledgement
+     * Write any batched messages to the transport. Called with this locked.
      */
-    private class PendingMessageQueue {
-        private long startSerial = 0L;
-        private ArrayList<QueuedMessage> queue = new ArrayList<QueuedMessage>();
+    private void flushOutbound() throws AblyException {
+        if(outboundFlushTimer != null) {
+            outboundFlushTimer.cancel();
+            outboundFlushTimer = null;
+        }
+        if(outboundBatch.isEmpty()) {
+            return;
+        }
+        ProtocolMessage[] batch = outboundBatch.toArray(new ProtocolMessage[outboundBatch.size()]);
+        outboundBatch.clear();
+        if(transport == null) {
+            /* messages awaiting acknowledgement remain pending, as if lost in transit */
+            Log.v(TAG, "flushOutbound(): Discarding messages; transport unavailable");
+            return;
+        }
+        transport.send(batch);
+    }
 
-        public synchronized void push(QueuedMessage msg) {
-            queue.add(msg);
+    /**
+     * Discard any batched messages, when their transport is replaced. Called with this locked.
+     */
+    private void discardOutbound() {
+        if(outboundFlushTimer != null) {
+            outboundFlushTimer.cancel();
+            outboundFlushTimer = null;
         }
+        outboundBatch.clear();
+    }
 
-        public void ack(long msgSerial, int count, ErrorInfo reason) {
-            QueuedMessage[] ackMessages = null, nackMessages = null;
-            synchronized(this) {
-                if(msgSerial < startSerial) {
-                    /* this is an error condition and shouldn't happen but
-                     * we can handle it gracefully by only processing the
-                     * relevant portion of the response */
-                    count -= (int)(startSerial - msgSerial);
-                    if(count < 0)
-                        count = 0;
-                    msgSerial = startSerial;
-                }
-                if(msgSerial > startSerial) {
-                    /* this counts as a nack of the messages earlier than serial,
-                     * as well as an ack */
-                    int nCount = (int)(msgSerial - startSerial);
-                    List<QueuedMessage> nackList = queue.subList(0, nCount);
-                    nackMessages = nackList.toArray(new QueuedMessage[nCount]);
-                    nackList.clear();
-                    startSerial = msgSerial;
-                }
-                if(msgSerial == startSerial) {
-                    List<QueuedMessage> ackList = queue.subList(0, count);
-                    ackMessages = ackList.toArray(new QueuedMessage[count]);
-                    ackList.clear();
-                    startSerial += count;
-                }
-            }
-            if(nackMessages != null) {
-                if(reason == null)
-                    reason = new ErrorInfo("Unknown error", 500, 50000);
-                for(QueuedMessage msg : nackMessages) {
-                    try {
-                        if(msg.listener != null)
-                            msg.listener.onError(reason);
-                    } catch(Throwable t) {
-                        Log.e(TAG, "ack(): listener exception", t);
-                    }
-                }
-            }
-            if(ackMessages != null) {
-                for(QueuedMessage msg : ackMessages) {
-                    try {
-                        if(msg.listener != null)
-                            msg.listener.onSuccess();
-                    } catch(Throwable t) {
-                        Log.e(TAG, "ack(): listener exception", t);
-                    }
+    private void sendQueuedMessages() {
+        synchronized(this) {
+            /* sent in one pass, as there may be many, eg ATTACHes for every channel */
+            for (QueuedMessage queued: queuedMessages) {
+                try {
+                    sendImpl(queued);
+                } catch (AblyException e) {
+                    Log.e(TAG, "sendQueuedMessages(): Unexpected error sending queued messages", e);
                 }
             }
+            queuedMessages.clear();
         }
+        outboundLimit.notifyListeners();
+    }
 
-        public synchronized void nack(long serial, int count, ErrorInfo reason) {
-            QueuedMessage[] nackMessages = null;
-            synchronized(this) {
-                if(serial != startSerial) {
-                    /* this is an error condition and shouldn't happen but
-                     * we can handle it gracefully by only processing the
-                     * relevant portion of the response */
-                    count -= (int)(startSerial - serial);
-                    serial = startSerial;
+    private void failQueuedMessages(ErrorInfo reason) {
+        QueuedMessage[] failed;
+        synchronized(this) {
+            failed = queuedMessages.toArray(new QueuedMessage[queuedMessages.size()]);
+            queuedMessages.clear();
+            for (QueuedMessage queued: failed) {
+                if(ProtocolMessage.ackRequired(queued.msg)) {
+                    outboundLimit.remove(1);
                 }
-                List<QueuedMessage> nackList = queue.subList(0, count);
-                nackMessages = nackList.toArray(new QueuedMessage[count]);
-                nackList.clear();
-                startSerial += count;
             }
-            if(nackMessages != null) {
-                if(reason == null)
-                    reason = new ErrorInfo("Unknown error", 500, 50000);
-                for(QueuedMessage msg : nackMessages) {
-                    try {
-                        if(msg.listener != null)
-                            msg.listener.onError(reason);
-                    } catch(Throwable t) {
-                        Log.e(TAG, "nack(): listener exception", t);
-                    }
+        }
+        /* listeners are called with the lock released, as they may call back into the library */
+        for (QueuedMessage queued: failed) {
+            if (queued.listener != null) {
+                try {
+                    queued.listener.onError(reason);
+                } catch (Throwable t) {
+                    Log.e(TAG, "failQueuedMessages(): Unexpected error calling listener", t);
                 }
             }
         }
-
-        /**
-         * reset the pending message queue, failing any currently pending messages.
-         * Used when a resume fails and we get a different connection id.
-         * @param oldMsgSerial the next message serial number for the old
-         * connection, and thus one more than the highest message serial
-         * in the queue.
-         */
-        public synchronized void reset(long oldMsgSerial, ErrorInfo err) {
-            nack(startSerial, (int)(oldMsgSerial - startSerial), err);
-            startSerial = 0;
-        }
-
+        outboundLimit.notifyListeners();
     }
 
     /***********************
@@ -1708,10 +1895,17 @@ public class ConnectionManager implements ConnectListener {
     private final Connection connection;
     private final ITransport.Factory transportFactory;
     private final List<QueuedMessage> queuedMessages = new ArrayList<>();
-    private final PendingMessageQueue pendingMessages = new PendingMessageQueue();
-    private final HashSet<Object> heartbeatWaiters = new HashSet<Object>();
+    private final PendingMessageQueue pendingMessages;
+    private final HashMap<String, HeartbeatWaiter> heartbeatWaiters = new HashMap<String, HeartbeatWaiter>();
+    private long heartbeatSerial;
     private final ActionQueue actionQueue = new ActionQueue();
     private final Hosts hosts;
+    private final OutboundLimit outboundLimit;
+    /* set while a thread processes an inbound message, of any connection */
+    private static final ThreadLocal<Boolean> inboundThread = new ThreadLocal<>();
+    private final long transportFlushInterval;
+    private final List<ProtocolMessage> outboundBatch = new ArrayList<>();
+    private HashedWheelTimer.Timeout outboundFlushTimer;
     private final PlatformAgentProvider platformAgentProvider;
 
     private Thread handlerThread;
@@ -1719,6 +1913,7 @@ public class ConnectionManager implements ConnectListener {
     private State currentState;
     private ErrorInfo stateError;
     private ConnectParams pendingConnect;
+    private Hosts.FallbackSequence fallbackSequence;
     private boolean suppressRetry; /* for tests only; modified via reflection */
     private ITransport transport;
     private long suspendTime;
@@ -47,8 +47,21 @@ public class Defaults {
     public static long connectionStateTtl = 60000L;
 
     public static final ITransport.Factory TRANSPORT = new WebSocketTransport.Factory();
+    public static final ITransport.Factory NIO_TRANSPORT = new NioWebSocketTransport.Factory();
     public static final int HTTP_MAX_RETRY_COUNT    = 3;
     public static final int HTTP_ASYNC_THREADPOOL_SIZE = 64;
+    public static final int MSGPACK_PACKER_POOL_SIZE = 8;
+    public static final int MSGPACK_PACKER_MAX_BUFFER_SIZE = 64 * 1024;
+    public static final int DISPATCH_QUEUE_CAPACITY = 0;
+    public static final long TIMER_TICK_INTERVAL = 100L;
+    public static final int TIMER_WHEEL_SIZE = 512;
+    public static final int WEBSOCKET_MAX_WINDOW_BITS = 15;
+    public static final int PUBLISH_BATCH_MAX_MESSAGES = 100;
+    public static final int PUBLISH_BATCH_MAX_BYTES = 64 * 1024;
+    public static final int TRANSPORT_BATCH_MAX_MESSAGES = 100;
+    public static final long RESUME_STATE_SAVE_INTERVAL = 5000L;
+    public static final double HOST_HEALTH_EWMA_WEIGHT = 0.2;
+    public static final double HOST_HEALTH_MAX_ERROR_RATE = 0.5;
 
     public static int getPort(ClientOptions options) {
         return options.tls
@@ -4,13 +4,25 @@ import io.ably.lib.types.AblyException;
 import io.ably.lib.types.ClientOptions;
 import io.ably.lib.types.ErrorInfo;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 
 /**
  * Object to encapsulate primary host name and shuffled fallback host names.
  *
+ * The health of each host is tracked from the outcome of the requests or connection
+ * attempts made to it, as moving averages of latency and error rate. If adaptive
+ * host selection is enabled, these are used to prefer the fastest healthy host, and
+ * to try fallback hosts in order of health. The fallback hosts keep their shuffled
+ * order; each {@link FallbackSequence} orders its own copy.
+ *
  * Methods on this class are safe to be called from any thread.
  */
 public class Hosts {
@@ -21,8 +33,13 @@ public class Hosts {
     private final boolean fallbackHostsIsDefault;
     private final boolean fallbackHostsUseDefault;
     private final long fallbackRetryTimeout;
+    private final boolean adaptive;
 
     private final Preferred preferred = new Preferred();
+    private final Map<String, Health> health = new HashMap<>();
+
+    /* the factor by which another healthy host must be faster to be preferred to the current one */
+    private static final double PREFERENCE_LATENCY_RATIO = 2.0;
 
     /**
      * Create Hosts object
@@ -77,6 +94,7 @@ public class Hosts {
         /* RSC15a: shuffle the fallback hosts. */
         Collections.shuffle(Arrays.asList(fallbackHosts));
         fallbackRetryTimeout = options.fallbackRetryTimeout;
+        adaptive = options.adaptiveHostSelection;
     }
 
     /**
@@ -106,18 +124,73 @@ public class Hosts {
      * Get preferred host name (taking into account any affinity to a fallback: see RSC15f)
      */
     public synchronized String getPreferredHost() {
-        final String host = preferred.getHostOrClearIfExpired();
-        return (host == null) ? primaryHost : host;
+        String host = preferred.getHostOrClearIfExpired();
+        if(host == null) {
+            host = primaryHost;
+        }
+        if(adaptive && isFallbackAllowed()) {
+            /* switch from a host known to be unhealthy, or much slower than another;
+             * a host with no recent measurements is kept, so that it is measured */
+            long now = System.currentTimeMillis();
+            Health current = getRecentHealth(host, now);
+            String best = getHealthiestHost(now);
+            if(current != null && best != null && !best.equals(host)) {
+                if(!current.isHealthy() || getRecentHealth(best, now).score() * PREFERENCE_LATENCY_RATIO < current.score()) {
+                    return best;
+                }
+            }
+        }
+        return host;
     }
 
     /**
-     * Get next fallback host if any
+     * Get next fallback host if any, trying the fallback hosts in their shuffled order
      *
      * @param lastHost
      * @return Successor host that can be used as a fallback.
      * null, if there is no successor fallback available.
      */
     public synchronized String getFallback(String lastHost) {
+        return getFallback(lastHost, fallbackHosts);
+    }
+
+    /**
+     * Start a sequence of hosts to be tried, in turn, by one request or connection
+     * attempt after its first host fails.
+     */
+    public FallbackSequence fallbackSequence() {
+        return new FallbackSequence();
+    }
+
+    /**
+     * A sequence of hosts to be tried by one request or connection attempt. If adaptive
+     * host selection is enabled, the fallback hosts are ordered, healthiest first, when
+     * the first host fails; the sequence keeps that order, so it is unaffected by other
+     * sequences in progress, and by health measured meanwhile.
+     */
+    public class FallbackSequence {
+        private String[] order;
+
+        private FallbackSequence() {}
+
+        /**
+         * Get the host to be tried after lastHost, if any
+         * @return null, if there is no successor fallback available
+         */
+        public String next(String lastHost) {
+            synchronized(Hosts.this) {
+                if(order == null && adaptive) {
+                    order = orderFallbackHosts(System.currentTimeMillis());
+                }
+                return getFallback(lastHost, (order != null) ? order : fallbackHosts);
+            }
+        }
+    }
+
+    /**
+     * Get the successor of lastHost, trying the fallback hosts in the given order
+     */
+    private String getFallback(String lastHost, String[] fallbackHosts) {
         if (fallbackHosts == null)
             return null;
         int idx;
@@ -125,7 +198,7 @@ public class Hosts {
             /* RSC15b, RTN17b: only use fallback if the hostname has not been overridden
              * or if ClientOptions#fallbackHostsUseDefault is true
              * or if ClientOptions#fallbackHosts was provided. */
-            if (!primaryHostIsDefault && !fallbackHostsUseDefault && fallbackHostsIsDefault)
+            if (!isFallbackAllowed())
                 return null;
             idx = 0;
         } else if(lastHost.equals(preferred.getHostOrClearIfExpired())) {
@@ -156,6 +229,174 @@ public class Hosts {
         return fallbackHosts.length - Arrays.asList(fallbackHosts).indexOf(candidateHost) - 1;
     }
 
+    /**
+     * Record a successful request or connection attempt to a host.
+     * @param host the host; hosts other than the primary and fallback hosts are ignored
+     * @param latency the time taken, in milliseconds
+     */
+    public synchronized void recordSuccess(String host, long latency) {
+        Health hostHealth = getHealth(host);
+        if(hostHealth != null) {
+            hostHealth.onSuccess(latency, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Record a request or connection attempt to a host that failed because of
+     * the host, such as by a connection failure, timeout, or 5xx response.
+     * @param host the host; hosts other than the primary and fallback hosts are ignored
+     */
+    public synchronized void recordFailure(String host) {
+        Health hostHealth = getHealth(host);
+        if(hostHealth != null) {
+            hostHealth.onFailure(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Get the health of each host to which a request or connection attempt has been made.
+     */
+    public synchronized HostStats[] getStats() {
+        long now = System.currentTimeMillis();
+        HostStats[] stats = new HostStats[health.size()];
+        int i = 0;
+        for(Map.Entry<String, Health> entry : health.entrySet()) {
+            Health hostHealth = entry.getValue();
+            stats[i++] = new HostStats(entry.getKey(), hostHealth.latency, hostHealth.errorRate,
+                hostHealth.successes, hostHealth.failures, now - hostHealth.updated);
+        }
+        return stats;
+    }
+
+    /**
+     * A snapshot of the health of a host, as measured by the requests or connection
+     * attempts made to it.
+     */
+    public static class HostStats {
+        public final String host;
+        /** The moving average latency of successful attempts in milliseconds; NaN if none has succeeded */
+        public final double latency;
+        /** The moving average proportion of attempts that failed, from 0 to 1 */
+        public final double errorRate;
+        public final long successes;
+        public final long failures;
+        /** The time since the last attempt, in milliseconds */
+        public final long age;
+
+        HostStats(String host, double latency, double errorRate, long successes, long failures, long age) {
+            this.host = host;
+            this.latency = latency;
+            this.errorRate = errorRate;
+            this.successes = successes;
+            this.failures = failures;
+            this.age = age;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "HostStats{host=%s, latency=%.1fms, errorRate=%.3f, successes=%d, failures=%d, age=%dms}",
+                host, latency, errorRate, successes, failures, age);
+        }
+    }
+
+    private boolean isFallbackAllowed() {
+        return primaryHostIsDefault || fallbackHostsUseDefault || !fallbackHostsIsDefault;
+    }
+
+    private Health getHealth(String host) {
+        Health hostHealth = health.get(host);
+        if(hostHealth == null && (host.equals(primaryHost) || Arrays.asList(fallbackHosts).contains(host))) {
+            hostHealth = new Health();
+            health.put(host, hostHealth);
+        }
+        return hostHealth;
+    }
+
+    /**
+     * The health of a host, if measured within the fallback retry timeout; older
+     * measurements are disregarded, so a host that has recovered is tried again
+     */
+    private Health getRecentHealth(String host, long now) {
+        Health hostHealth = health.get(host);
+        return (hostHealth != null && now - hostHealth.updated <= fallbackRetryTimeout) ? hostHealth : null;
+    }
+
+    /**
+     * The healthy host with the best score, or null if none is known to be healthy
+     */
+    private String getHealthiestHost(long now) {
+        String best = null;
+        double bestScore = Double.POSITIVE_INFINITY;
+        List<String> candidates = new ArrayList<>(fallbackHosts.length + 1);
+        candidates.add(primaryHost);
+        candidates.addAll(Arrays.asList(fallbackHosts));
+        for(String host : candidates) {
+            Health hostHealth = getRecentHealth(host, now);
+            if(hostHealth != null && hostHealth.isHealthy() && hostHealth.score() < bestScore) {
+                best = host;
+                bestScore = hostHealth.score();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * A copy of the fallback hosts with the healthy ones first, fastest first, followed by those
+     * without recent measurements, in their shuffled order, and then the unhealthy ones.
+     */
+    private String[] orderFallbackHosts(final long now) {
+        String[] ordered = fallbackHosts.clone();
+        Arrays.sort(ordered, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                Health healthA = getRecentHealth(a, now), healthB = getRecentHealth(b, now);
+                int rankA = rank(healthA), rankB = rank(healthB);
+                if(rankA != rankB) {
+                    return (rankA < rankB) ? -1 : 1;
+                }
+                return (healthA == null) ? 0 : Double.compare(healthA.score(), healthB.score());
+            }
+
+            private int rank(Health hostHealth) {
+                return (hostHealth == null) ? 1 : hostHealth.isHealthy() ? 0 : 2;
+            }
+        });
+        return ordered;
+    }
+
+    /**
+     * Exponentially weighted moving averages of the latency and error rate of a host.
+     */
+    private static class Health {
+        double latency = Double.NaN;
+        double errorRate;
+        long successes;
+        long failures;
+        long updated;
+
+        void onSuccess(long sample, long now) {
+            latency = Double.isNaN(latency) ? sample : latency + Defaults.HOST_HEALTH_EWMA_WEIGHT * (sample - latency);
+            errorRate -= Defaults.HOST_HEALTH_EWMA_WEIGHT * errorRate;
+            ++successes;
+            updated = now;
+        }
+
+        void onFailure(long now) {
+            errorRate += Defaults.HOST_HEALTH_EWMA_WEIGHT * (1 - errorRate);
+            ++failures;
+            updated = now;
+        }
+
+        boolean isHealthy() {
+            return !Double.isNaN(latency) && errorRate < Defaults.HOST_HEALTH_MAX_ERROR_RATE;
+        }
+
+        /* the expected time to a successful response, if failures cost as much as successes; lower is better */
+        double score() {
+            return Double.isNaN(latency) ? Double.POSITIVE_INFINITY : latency / Math.max(1 - errorRate, 0.05);
+        }
+    }
+
     private static class Preferred {
         private String host;
         private long expiry;
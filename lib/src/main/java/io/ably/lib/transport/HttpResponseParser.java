@@ -0,0 +1,325 @@
+package io.ably.lib.transport;
+
+import io.ably.lib.http.HttpCore;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An incremental parser of an HTTP/1.1 response, fed with the bytes received on a
+ * connection as they arrive. Bodies delimited by Content-Length, by the chunked
+ * transfer coding, or by the end of the connection are supported; informational
+ * (1xx) responses are skipped.
+ *
+ * Instances are not thread-safe.
+ */
+class HttpResponseParser {
+
+    private enum State { STATUS_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, BODY_TO_EOF, COMPLETE }
+
+    private static final int MAX_LINE_LENGTH = 65536;
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private final boolean headRequest;
+    private State state = State.STATUS_LINE;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+    private HttpCore.Response response;
+    private String version;
+    private String lastHeader;
+    private boolean started;
+    private boolean keepAlive;
+
+    /* the body, and the count of bytes expected in it or its current chunk */
+    private byte[] fixedBody;
+    private int fixedBodyLength;
+    private ByteArrayOutputStream body;
+    private long remaining;
+
+    /**
+     * @param headRequest whether the response is to a HEAD request, so has no body
+     */
+    HttpResponseParser(boolean headRequest) {
+        this.headRequest = headRequest;
+    }
+
+    /**
+     * Consume received bytes, up to the end of the response.
+     * @return true once the response is complete; any bytes following it remain in the buffer
+     * @throws ProtocolException if the response is malformed
+     */
+    boolean parse(ByteBuffer buffer) throws ProtocolException {
+        if(buffer.hasRemaining()) {
+            started = true;
+        }
+        while(state != State.COMPLETE && buffer.hasRemaining()) {
+            switch(state) {
+                case BODY:
+                case CHUNK_DATA:
+                case BODY_TO_EOF:
+                    readBody(buffer);
+                    break;
+                default:
+                    String text = readLine(buffer);
+                    if(text != null) {
+                        onLine(text);
+                    }
+                    break;
+            }
+        }
+        return state == State.COMPLETE;
+    }
+
+    /**
+     * Handle the end of the connection's input.
+     * @return true if the response is complete, its body being delimited by the end of the input
+     */
+    boolean onEndOfStream() {
+        if(state == State.BODY_TO_EOF) {
+            complete();
+        }
+        return state == State.COMPLETE;
+    }
+
+    /**
+     * Whether any part of a response has been received.
+     */
+    boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Whether the connection may be reused for another request once the response is complete.
+     */
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * The response, once complete.
+     */
+    HttpCore.Response getResponse() {
+        return (state == State.COMPLETE) ? response : null;
+    }
+
+    /**
+     * Read a line terminated by LF, excluding any preceding CR.
+     * @return the line, or null if the buffer ends before the line does
+     */
+    private String readLine(ByteBuffer buffer) throws ProtocolException {
+        while(buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if(b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length;
+                if(length > 0 && bytes[length - 1] == '\r') {
+                    --length;
+                }
+                line.reset();
+                return new String(bytes, 0, length, ISO_8859_1);
+            }
+            if(line.size() >= MAX_LINE_LENGTH) {
+                throw new ProtocolException("HTTP response line too long");
+            }
+            line.write(b);
+        }
+        return null;
+    }
+
+    private void onLine(String text) throws ProtocolException {
+        switch(state) {
+            case STATUS_LINE:
+                onStatusLine(text);
+                break;
+            case HEADERS:
+                if(text.isEmpty()) {
+                    onHeadersComplete();
+                } else {
+                    onHeaderLine(text);
+                }
+                break;
+            case CHUNK_SIZE:
+                onChunkSize(text);
+                break;
+            case CHUNK_END:
+                if(!text.isEmpty()) {
+                    throw new ProtocolException("Malformed HTTP chunk");
+                }
+                state = State.CHUNK_SIZE;
+                break;
+            case TRAILERS:
+                if(text.isEmpty()) {
+                    complete();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onStatusLine(String text) throws ProtocolException {
+        if(text.isEmpty()) {
+            /* tolerate a blank line preceding the status line */
+            return;
+        }
+        String[] parts = text.split(" ", 3);
+        if(parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new ProtocolException("Malformed HTTP status line: " + text);
+        }
+        response = new HttpCore.Response();
+        response.headers = new HashMap<>();
+        response.contentLength = -1;
+        version = parts[0];
+        try {
+            response.statusCode = Integer.parseInt(parts[1]);
+        } catch(NumberFormatException e) {
+            throw new ProtocolException("Malformed HTTP status line: " + text);
+        }
+        response.statusLine = (parts.length > 2) ? parts[2] : "";
+        lastHeader = null;
+        state = State.HEADERS;
+    }
+
+    private void onHeaderLine(String text) throws ProtocolException {
+        char first = text.charAt(0);
+        if((first == ' ' || first == '\t') && lastHeader != null) {
+            /* a folded continuation of the previous header's last value */
+            List<String> values = response.headers.get(lastHeader);
+            int last = values.size() - 1;
+            values.set(last, values.get(last) + ' ' + text.trim());
+            return;
+        }
+        int colon = text.indexOf(':');
+        if(colon <= 0) {
+            throw new ProtocolException("Malformed HTTP header: " + text);
+        }
+        String name = text.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+        String value = text.substring(colon + 1).trim();
+        List<String> values = response.headers.get(name);
+        if(values == null) {
+            values = new ArrayList<>(1);
+            response.headers.put(name, values);
+        }
+        values.add(value);
+        lastHeader = name;
+    }
+
+    private void onHeadersComplete() throws ProtocolException {
+        int statusCode = response.statusCode;
+        if(statusCode >= 100 && statusCode < 200 && statusCode != 101) {
+            /* an interim response; the final one follows */
+            state = State.STATUS_LINE;
+            return;
+        }
+        String connection = getHeader("connection");
+        if("HTTP/1.0".equals(version)) {
+            keepAlive = connection != null && connection.equalsIgnoreCase("keep-alive");
+        } else {
+            keepAlive = connection == null || !connection.equalsIgnoreCase("close");
+        }
+        response.contentType = getHeader("content-type");
+        if(headRequest || statusCode == 204 || statusCode == 304 || statusCode == 101) {
+            if(statusCode == 101) {
+                keepAlive = false;
+            }
+            complete();
+            return;
+        }
+        String transferEncoding = getHeader("transfer-encoding");
+        if(transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked")) {
+            body = new ByteArrayOutputStream();
+            state = State.CHUNK_SIZE;
+            return;
+        }
+        String contentLength = getHeader("content-length");
+        if(contentLength != null) {
+            int length;
+            try {
+                length = Integer.parseInt(contentLength);
+            } catch(NumberFormatException e) {
+                throw new ProtocolException("Malformed HTTP Content-Length: " + contentLength);
+            }
+            if(length < 0) {
+                throw new ProtocolException("Malformed HTTP Content-Length: " + contentLength);
+            }
+            response.contentLength = length;
+            fixedBody = new byte[length];
+            fixedBodyLength = 0;
+            remaining = length;
+            if(length == 0) {
+                complete();
+            } else {
+                state = State.BODY;
+            }
+            return;
+        }
+        /* the body extends to the end of the connection */
+        keepAlive = false;
+        body = new ByteArrayOutputStream();
+        state = State.BODY_TO_EOF;
+    }
+
+    private void onChunkSize(String text) throws ProtocolException {
+        int extension = text.indexOf(';');
+        String size = ((extension >= 0) ? text.substring(0, extension) : text).trim();
+        try {
+            remaining = Long.parseLong(size, 16);
+        } catch(NumberFormatException e) {
+            throw new ProtocolException("Malformed HTTP chunk size: " + text);
+        }
+        if(remaining < 0 || body.size() + remaining > Integer.MAX_VALUE) {
+            throw new ProtocolException("Malformed HTTP chunk size: " + text);
+        }
+        state = (remaining == 0) ? State.TRAILERS : State.CHUNK_DATA;
+    }
+
+    private void readBody(ByteBuffer buffer) {
+        int count = buffer.remaining();
+        if(state != State.BODY_TO_EOF) {
+            count = (int)Math.min(count, remaining);
+        }
+        if(fixedBody != null) {
+            buffer.get(fixedBody, fixedBodyLength, count);
+            fixedBodyLength += count;
+        } else if(buffer.hasArray()) {
+            body.write(buffer.array(), buffer.arrayOffset() + buffer.position(), count);
+            buffer.position(buffer.position() + count);
+        } else {
+            byte[] bytes = new byte[count];
+            buffer.get(bytes);
+            body.write(bytes, 0, count);
+        }
+        if(state == State.BODY_TO_EOF) {
+            return;
+        }
+        remaining -= count;
+        if(remaining == 0) {
+            if(state == State.BODY) {
+                complete();
+            } else {
+                state = State.CHUNK_END;
+            }
+        }
+    }
+
+    private void complete() {
+        if(fixedBody != null) {
+            response.body = fixedBody;
+        } else if(body != null) {
+            response.body = body.toByteArray();
+        }
+        fixedBody = null;
+        body = null;
+        state = State.COMPLETE;
+    }
+
+    private String getHeader(String name) {
+        List<String> values = response.headers.get(name);
+        return (values == null || values.isEmpty()) ? null : values.get(0);
+    }
+}
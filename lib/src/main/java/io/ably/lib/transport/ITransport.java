@@ -122,6 +122,14 @@ public interface ITransport {
      */
     void send(ProtocolMessage msg) throws AblyException;
 
+    /**
+     * Send a sequence of messages, each in its own frame, in as few
+     * writes to the network as the transport allows.
+     * @param msgs
+     * @throws AblyException
+     */
+    void send(ProtocolMessage[] msgs) throws AblyException;
+
     /**
      * Get connection URL
      * @return
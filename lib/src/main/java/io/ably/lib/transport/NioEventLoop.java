@@ -0,0 +1,158 @@
+package io.ably.lib.transport;
+
+import io.ably.lib.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single thread, and selector, serving the sockets of any number of
+ * non-blocking transports. Socket events, and tasks submitted by other
+ * threads, are processed in turn on the loop's thread, so handlers must
+ * not block.
+ *
+ * The shared loop is started on first use, and runs as a daemon thread
+ * for the lifetime of the process.
+ */
+class NioEventLoop implements Runnable {
+
+    /**
+     * A handler of readiness events for a registered channel.
+     */
+    interface Handler {
+        /**
+         * Called on the loop thread when the key's channel is ready for one
+         * or more of the operations in its interest set.
+         */
+        void onSelected(SelectionKey key);
+    }
+
+    private static NioEventLoop shared;
+    private static final ThreadPoolExecutor resolver = createResolver();
+
+    /**
+     * The event loop shared by all non-blocking transports in this process.
+     */
+    static synchronized NioEventLoop shared() throws IOException {
+        if(shared == null) {
+            shared = new NioEventLoop("ably-nio");
+        }
+        return shared;
+    }
+
+    /**
+     * The executor on which host names are resolved for the users of any loop, as
+     * resolution may block. At most MAX_RESOLVER_THREADS names are resolved at once;
+     * further resolutions wait for a thread.
+     */
+    static Executor resolver() {
+        return resolver;
+    }
+
+    private static ThreadPoolExecutor createResolver() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_RESOLVER_THREADS, MAX_RESOLVER_THREADS,
+            60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "ably-resolver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    /* buffer into which each socket is read; its content is consumed before the next read */
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    NioEventLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Run a task on the loop thread. Tasks run in the order submitted.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Whether the calling thread is the loop thread.
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * The buffer shared by all connections for socket reads. Must be used only on the loop thread,
+     * and its content consumed before control returns to the loop.
+     */
+    ByteBuffer readBuffer() {
+        return readBuffer;
+    }
+
+    /**
+     * Register a channel with this loop's selector. Must be called on the loop thread.
+     */
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws IOException {
+        return channel.register(selector, ops, handler);
+    }
+
+    @Override
+    public void run() {
+        while(true) {
+            try {
+                selector.select();
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if(!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        ((Handler)key.attachment()).onSelected(key);
+                    } catch(Throwable t) {
+                        Log.e(TAG, "Unexpected exception handling socket event", t);
+                    }
+                }
+            } catch(Throwable t) {
+                Log.e(TAG, "Unexpected exception in event loop", t);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch(Throwable t) {
+                Log.e(TAG, "Unexpected exception in event loop task", t);
+            }
+        }
+    }
+
+    private static final int READ_BUFFER_SIZE = 16384;
+    private static final int MAX_RESOLVER_THREADS = 4;
+    private static final String TAG = NioEventLoop.class.getName();
+}
@@ -0,0 +1,779 @@
+package io.ably.lib.transport;
+
+import io.ably.lib.http.HttpCore;
+import io.ably.lib.http.HttpEngine;
+import io.ably.lib.http.HttpUrlConnectionEngine;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.util.HashedWheelTimer;
+import io.ably.lib.util.Log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * A non-blocking HttpEngine, making HTTP/1.1 requests on sockets served by an event
+ * loop thread shared by every client in the process, so that no thread waits for a
+ * response. Connections are kept alive, and reused for later requests to the same host.
+ * At most {@link #MAX_CONNECTIONS_PER_ROUTE} connections are made to each host; further
+ * requests wait, in turn, for one of them to be free. Host names are resolved, for each
+ * new connection, on the resolver threads shared with the non-blocking transports, as
+ * resolution may block. This is selected with {@link ClientOptions#httpEngineFactory}.
+ *
+ * Proxies are not supported; if the client options specify a proxy, the factory
+ * makes the default engine instead.
+ */
+public class NioHttpEngine implements HttpEngine {
+
+    private static final String TAG = NioHttpEngine.class.getName();
+
+    public static class Factory implements HttpEngine.Factory {
+        @Override
+        public HttpEngine create(ClientOptions options) {
+            if(options.proxy != null) {
+                Log.w(TAG, "Proxies are not supported by the non-blocking HTTP engine; using HttpURLConnection");
+                return new HttpUrlConnectionEngine();
+            }
+            return new NioHttpEngine();
+        }
+    }
+
+    /* the most connections, open or being opened, to each host */
+    static final int MAX_CONNECTIONS_PER_ROUTE = 8;
+    /* the most idle connections kept for each host */
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    /* the time for which an idle connection is kept; less than servers typically allow */
+    private static final long KEEP_ALIVE_TIME = 15000L;
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static NioEventLoop loop;
+    private static SSLContext sslContext;
+    private static final HashedWheelTimer timer = new HashedWheelTimer("ably-http-timer", 100L, 512);
+
+    /**
+     * The event loop shared by every engine in the process. This is not the loop of the
+     * non-blocking realtime transports, as their listeners may make synchronous requests.
+     */
+    private static synchronized NioEventLoop loop() throws IOException {
+        if(loop == null) {
+            loop = new NioEventLoop("ably-http-nio");
+        }
+        return loop;
+    }
+
+    private static synchronized SSLContext sslContext() throws IOException {
+        if(sslContext == null) {
+            try {
+                SSLContext context = SSLContext.getInstance("TLS");
+                context.init(null, null, null);
+                sslContext = context;
+            } catch(GeneralSecurityException e) {
+                throw new IOException("Unable to initialise TLS", e);
+            }
+        }
+        return sslContext;
+    }
+
+    /* connections, and requests waiting for one, by route; accessed only on the loop thread */
+    private final Map<String, Route> routes = new HashMap<>();
+    private volatile boolean disposed;
+
+    @Override
+    public boolean isNonBlocking() {
+        return true;
+    }
+
+    /**
+     * Perform a request, waiting for its outcome. This must not be called on the
+     * engine's event loop thread.
+     */
+    @Override
+    public HttpCore.Response execute(HttpCore.Request request) throws IOException {
+        if(loop().inEventLoop()) {
+            throw new IOException("Synchronous HTTP request on the event loop thread");
+        }
+        SyncCallback callback = new SyncCallback();
+        executeAsync(request, callback);
+        return callback.await();
+    }
+
+    @Override
+    public void executeAsync(HttpCore.Request request, Callback callback) {
+        try {
+            final Exchange exchange = new Exchange(request, callback);
+            loop().execute(new Runnable() {
+                @Override
+                public void run() {
+                    exchange.start();
+                }
+            });
+        } catch(IOException e) {
+            callback.onError(e);
+        }
+    }
+
+    /**
+     * Close the engine's idle connections. Requests in progress are completed, but
+     * their connections are then closed.
+     */
+    @Override
+    public void dispose() {
+        disposed = true;
+        try {
+            loop().execute(new Runnable() {
+                @Override
+                public void run() {
+                    for(Route route : routes.values()) {
+                        Connection connection;
+                        while((connection = route.idle.pollFirst()) != null) {
+                            connection.close();
+                        }
+                    }
+                }
+            });
+        } catch(IOException e) {
+            Log.e(TAG, "Unable to close idle connections", e);
+        }
+    }
+
+    /**
+     * The state of the given route, created if there is none; called on the loop thread.
+     */
+    private Route route(String name) {
+        Route route = routes.get(name);
+        if(route == null) {
+            route = new Route();
+            routes.put(name, route);
+        }
+        return route;
+    }
+
+    /**
+     * Take an idle connection for the given route, if one remains open; called on the loop thread.
+     */
+    private Connection takeIdle(Route route) {
+        long now = System.currentTimeMillis();
+        Connection connection;
+        while((connection = route.idle.pollFirst()) != null) {
+            if(now - connection.idleSince < KEEP_ALIVE_TIME && connection.isOpen()) {
+                break;
+            }
+            connection.close();
+        }
+        return connection;
+    }
+
+    /**
+     * Keep a connection for reuse, or give it to the next request waiting for one;
+     * called on the loop thread.
+     */
+    private void putIdle(Connection connection) {
+        if(disposed) {
+            connection.close();
+            return;
+        }
+        Route route = connection.route;
+        Exchange next = route.pollPending();
+        if(next != null) {
+            connection.assign(next, true);
+            next.onReady();
+            return;
+        }
+        route.idle.addFirst(connection);
+        if(route.idle.size() > MAX_IDLE_CONNECTIONS) {
+            route.idle.pollLast().close();
+        }
+    }
+
+    private void removeIdle(Connection connection) {
+        connection.route.idle.remove(connection);
+    }
+
+    /**
+     * Count a new connection to the given route, if it has fewer than the most allowed.
+     */
+    private boolean reserve(Route route) {
+        if(route.connections >= MAX_CONNECTIONS_PER_ROUTE) {
+            return false;
+        }
+        ++route.connections;
+        return true;
+    }
+
+    /**
+     * Release a connection to the given route; the next request waiting for one
+     * then makes a new connection. The request is started by a separate task, as
+     * this is called as a connection is closed.
+     */
+    private void release(final Route route) {
+        --route.connections;
+        if(route.pending.isEmpty()) {
+            return;
+        }
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                Exchange next;
+                while(route.connections < MAX_CONNECTIONS_PER_ROUTE && (next = route.pollPending()) != null) {
+                    next.acquireConnection();
+                }
+            }
+        });
+    }
+
+    /**
+     * The connections to a host, and the requests waiting for one. Routes are kept for the
+     * life of the engine, as a client makes requests to few hosts. Accessed only on the loop thread.
+     */
+    private static class Route {
+        /* connections open or being opened, including those that are idle */
+        private int connections;
+        /* idle connections, most recently used first */
+        private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+        /* requests waiting for a connection, in the order made */
+        private final ArrayDeque<Exchange> pending = new ArrayDeque<>();
+
+        /**
+         * Take the next waiting request that has not since failed, if any.
+         */
+        Exchange pollPending() {
+            Exchange exchange;
+            while((exchange = pending.pollFirst()) != null && exchange.done) {}
+            return exchange;
+        }
+    }
+
+    /**
+     * A request, from when it is submitted until its outcome is notified. All methods
+     * other than the constructor are called on the loop thread.
+     */
+    private class Exchange {
+        private final HttpCore.Request request;
+        private final Callback callback;
+        private final String host;
+        private final int port;
+        private final boolean tls;
+        private final String routeName;
+        private final ByteBuffer encoded;
+        private final boolean idempotent;
+
+        private Route route;
+        private Connection connection;
+        /* whether a new connection to the route has been counted for this request */
+        private boolean reserved;
+        private HttpResponseParser parser;
+        /* whether the connection is ready for the request to be written */
+        private boolean ready;
+        private boolean requestSent;
+        private boolean retried;
+        private boolean done;
+        /* resolved once a new connection is needed */
+        private InetSocketAddress address;
+        private long startTime;
+        private long lastActivity;
+        private HashedWheelTimer.Timeout timeout;
+
+        /**
+         * Validate and encode a request, on the calling thread.
+         * @throws IOException if the request cannot be made
+         */
+        Exchange(HttpCore.Request request, Callback callback) throws IOException {
+            this.request = request;
+            this.callback = callback;
+            URL url = request.url;
+            String protocol = url.getProtocol();
+            tls = "https".equalsIgnoreCase(protocol);
+            if(!tls && !"http".equalsIgnoreCase(protocol)) {
+                throw new IOException("Unsupported protocol: " + protocol);
+            }
+            if(request.proxy != null && request.proxy != Proxy.NO_PROXY) {
+                throw new IOException("Proxies are not supported by the non-blocking HTTP engine");
+            }
+            host = url.getHost();
+            port = (url.getPort() == -1) ? url.getDefaultPort() : url.getPort();
+            routeName = protocol.toLowerCase(Locale.ROOT) + "://" + host + ':' + port;
+            if(tls) {
+                /* initialised here, so as not to delay the loop */
+                sslContext();
+            }
+            String method = request.method;
+            idempotent = method.equals("GET") || method.equals("HEAD") || method.equals("PUT") || method.equals("DELETE");
+            encoded = encode(url.getDefaultPort());
+        }
+
+        private ByteBuffer encode(int defaultPort) {
+            String target = request.url.getFile();
+            StringBuilder builder = new StringBuilder(256);
+            builder.append(request.method).append(' ').append(target.isEmpty() ? "/" : target).append(" HTTP/1.1\r\n");
+            if(!request.headers.containsKey("Host")) {
+                builder.append("Host: ").append(host);
+                if(port != defaultPort) {
+                    builder.append(':').append(port);
+                }
+                builder.append("\r\n");
+            }
+            for(Map.Entry<String, List<String>> header : request.headers.entrySet()) {
+                for(String value : header.getValue()) {
+                    builder.append(header.getKey()).append(": ").append(value).append("\r\n");
+                }
+            }
+            byte[] body = request.body;
+            if(!request.headers.containsKey("Content-Length")) {
+                if(body != null) {
+                    builder.append("Content-Length: ").append(body.length).append("\r\n");
+                } else if(request.method.equals("POST") || request.method.equals("PUT") || request.method.equals("PATCH")) {
+                    builder.append("Content-Length: 0\r\n");
+                }
+            }
+            builder.append("\r\n");
+            byte[] head = builder.toString().getBytes(ISO_8859_1);
+            if(body == null) {
+                return ByteBuffer.wrap(head);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(head.length + body.length);
+            buffer.put(head).put(body);
+            buffer.flip();
+            return buffer;
+        }
+
+        void start() {
+            if(disposed) {
+                fail(new IOException("HTTP engine disposed"));
+                return;
+            }
+            startTime = System.currentTimeMillis();
+            long period = timeoutPeriod();
+            if(period > 0) {
+                scheduleTimeout(period);
+            }
+            route = route(routeName);
+            acquireConnection();
+        }
+
+        /**
+         * Use an idle connection, if there is one, or make a new one.
+         */
+        void acquireConnection() {
+            Connection idle = takeIdle(route);
+            if(idle != null) {
+                idle.assign(this, true);
+                onReady();
+            } else {
+                connect();
+            }
+        }
+
+        /**
+         * Make a new connection or, if the route has as many as allowed, wait for one
+         * to be released or become idle.
+         */
+        private void connect() {
+            if(!reserved) {
+                if(!reserve(route)) {
+                    route.pending.addLast(this);
+                    return;
+                }
+                reserved = true;
+            }
+            if(address == null) {
+                resolve();
+                return;
+            }
+            /* the connection is counted until it is closed */
+            reserved = false;
+            connection = new Connection(route);
+            connection.assign(this, false);
+            connection.open(address, tls ? host : null, port);
+        }
+
+        /**
+         * Resolve the host on the resolver thread, then connect on the loop thread.
+         */
+        private void resolve() {
+            NioEventLoop.resolver().execute(new Runnable() {
+                @Override
+                public void run() {
+                    final InetSocketAddress resolved = new InetSocketAddress(host, port);
+                    loop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if(done) {
+                                return;
+                            }
+                            if(resolved.isUnresolved()) {
+                                fail(new UnknownHostException(host));
+                                return;
+                            }
+                            address = resolved;
+                            connect();
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * Called once the connection is ready, to write the request.
+         */
+        void onReady() {
+            ready = true;
+            lastActivity = System.currentTimeMillis();
+            parser = new HttpResponseParser(request.method.equals("HEAD"));
+            encoded.rewind();
+            connection.write();
+        }
+
+        /**
+         * Called when the connection fails before the response is complete.
+         */
+        void onConnectionFailed(IOException e, boolean reused) {
+            if(done) {
+                return;
+            }
+            /* a kept-alive connection may be closed by the server as a request is made on it */
+            if(reused && idempotent && !retried && !parser.isStarted()) {
+                Log.d(TAG, "Retrying request on new connection; url = " + request.url);
+                retried = true;
+                ready = false;
+                requestSent = false;
+                startTime = System.currentTimeMillis();
+                connect();
+                return;
+            }
+            fail(e);
+        }
+
+        void complete(HttpCore.Response response) {
+            if(done) {
+                return;
+            }
+            done = true;
+            cancelTimeout();
+            try {
+                callback.onResponse(response);
+            } catch(Throwable t) {
+                Log.e(TAG, "Unexpected exception calling HTTP callback", t);
+            }
+        }
+
+        void fail(IOException e) {
+            if(done) {
+                return;
+            }
+            done = true;
+            cancelTimeout();
+            if(reserved) {
+                reserved = false;
+                release(route);
+            }
+            try {
+                callback.onError(e);
+            } catch(Throwable t) {
+                Log.e(TAG, "Unexpected exception calling HTTP callback", t);
+            }
+        }
+
+        /**
+         * The period between checks of the timeout: the shorter nonzero timeout, or 0 if none.
+         */
+        private long timeoutPeriod() {
+            long connectTimeout = request.connectTimeout, readTimeout = request.readTimeout;
+            if(connectTimeout <= 0) return Math.max(readTimeout, 0);
+            if(readTimeout <= 0) return connectTimeout;
+            return Math.min(connectTimeout, readTimeout);
+        }
+
+        private void scheduleTimeout(long delay) {
+            timeout = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    /* the timer thread must not block, so the check is made on the loop */
+                    loop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            checkTimeout();
+                        }
+                    });
+                }
+            }, delay);
+        }
+
+        private void cancelTimeout() {
+            if(timeout != null) {
+                timeout.cancel();
+                timeout = null;
+            }
+        }
+
+        /**
+         * Fail the request if it has made no progress within its timeout: the connect timeout,
+         * until the connection is ready, then the read timeout, between reads and writes.
+         */
+        private void checkTimeout() {
+            timeout = null;
+            if(done) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long limit = ready ? request.readTimeout : request.connectTimeout;
+            long since = ready ? lastActivity : startTime;
+            if(limit > 0 && now - since >= limit) {
+                /* there is no connection while the host is being resolved */
+                if(connection != null) {
+                    connection.close();
+                }
+                fail(new SocketTimeoutException((ready ? "Read" : "Connect") + " timed out; url = " + request.url));
+                return;
+            }
+            scheduleTimeout((limit > 0) ? since + limit - now : timeoutPeriod());
+        }
+    }
+
+    /**
+     * A connection to a host, serving one request at a time. All methods are called
+     * on the loop thread.
+     */
+    private class Connection implements NioEventLoop.Handler {
+        private final Route route;
+        private SocketChannel socket;
+        private TlsChannel tlsChannel;
+        private ByteChannel channel;
+        private SelectionKey key;
+        private boolean connected;
+        private boolean handshakeComplete;
+        private boolean closed;
+        private Exchange exchange;
+        /* whether the current exchange is a reuse of the connection */
+        private boolean reused;
+        private long idleSince;
+
+        Connection(Route route) {
+            this.route = route;
+        }
+
+        void assign(Exchange exchange, boolean reused) {
+            this.exchange = exchange;
+            this.reused = reused;
+            exchange.connection = this;
+        }
+
+        boolean isOpen() {
+            return key != null && key.isValid() && socket.isOpen();
+        }
+
+        /**
+         * @param tlsHost the host to be authenticated for a TLS connection, or null
+         */
+        void open(InetSocketAddress address, String tlsHost, int port) {
+            try {
+                socket = SocketChannel.open();
+                socket.configureBlocking(false);
+                socket.socket().setTcpNoDelay(true);
+                channel = socket;
+                key = loop.register(socket, SelectionKey.OP_CONNECT, this);
+                if(tlsHost != null) {
+                    tlsChannel = new TlsChannel(socket, TlsChannel.createClientEngine(sslContext(), tlsHost, port));
+                    channel = tlsChannel;
+                }
+                if(socket.connect(address)) {
+                    onConnected();
+                }
+            } catch(IOException e) {
+                onFailure(e);
+            }
+        }
+
+        @Override
+        public void onSelected(SelectionKey key) {
+            try {
+                if(exchange == null) {
+                    /* an idle connection is readable only if the server has closed it */
+                    removeIdle(this);
+                    close();
+                    return;
+                }
+                if(!connected) {
+                    if(socket.finishConnect()) {
+                        onConnected();
+                    }
+                    return;
+                }
+                if(!handshakeComplete) {
+                    continueHandshake();
+                    return;
+                }
+                if(key.isWritable()) {
+                    write();
+                }
+                if(key.isValid() && key.isReadable()) {
+                    read();
+                }
+            } catch(IOException e) {
+                onFailure(e);
+            }
+        }
+
+        private void onConnected() throws IOException {
+            connected = true;
+            continueHandshake();
+        }
+
+        private void continueHandshake() throws IOException {
+            if(tlsChannel != null) {
+                int ops = tlsChannel.handshake();
+                if(ops != 0) {
+                    key.interestOps(ops);
+                    return;
+                }
+            }
+            handshakeComplete = true;
+            exchange.onReady();
+        }
+
+        /**
+         * Write as much of the request as the socket accepts.
+         */
+        void write() {
+            try {
+                ByteBuffer encoded = exchange.encoded;
+                int count;
+                do {
+                    count = channel.write(encoded);
+                    if(count > 0) {
+                        exchange.lastActivity = System.currentTimeMillis();
+                    }
+                } while(count > 0 && encoded.hasRemaining());
+                if(encoded.hasRemaining() || (tlsChannel != null && !tlsChannel.flush())) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                exchange.requestSent = true;
+                key.interestOps(SelectionKey.OP_READ);
+            } catch(IOException e) {
+                onFailure(e);
+            }
+        }
+
+        private void read() throws IOException {
+            HttpResponseParser parser = exchange.parser;
+            ByteBuffer buffer = loop.readBuffer();
+            while(true) {
+                buffer.clear();
+                int count = channel.read(buffer);
+                if(count < 0) {
+                    if(parser.onEndOfStream()) {
+                        onResponse(parser.getResponse(), false);
+                    } else {
+                        onFailure(new EOFException("Connection closed before response complete"));
+                    }
+                    return;
+                }
+                if(count == 0) {
+                    return;
+                }
+                exchange.lastActivity = System.currentTimeMillis();
+                buffer.flip();
+                if(parser.parse(buffer)) {
+                    /* bytes following the response are unexpected, so the connection isn't reused */
+                    onResponse(parser.getResponse(), parser.isKeepAlive() && !buffer.hasRemaining());
+                    return;
+                }
+            }
+        }
+
+        private void onResponse(HttpCore.Response response, boolean keepAlive) {
+            Exchange completed = exchange;
+            exchange = null;
+            if(keepAlive && completed.requestSent) {
+                idleSince = System.currentTimeMillis();
+                putIdle(this);
+            } else {
+                close();
+            }
+            completed.complete(response);
+        }
+
+        private void onFailure(IOException e) {
+            close();
+            Exchange failed = exchange;
+            exchange = null;
+            if(failed != null) {
+                failed.onConnectionFailed(e, reused);
+            }
+        }
+
+        void close() {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            release(route);
+            if(key != null) {
+                key.cancel();
+            }
+            try {
+                if(channel != null) {
+                    channel.close();
+                }
+            } catch(IOException e) {
+                /* the socket is closed regardless */
+            }
+        }
+    }
+
+    /**
+     * A callback on which a thread waits for the outcome of a request.
+     */
+    private static class SyncCallback implements Callback {
+        private HttpCore.Response response;
+        private IOException error;
+        private boolean done;
+
+        @Override
+        public synchronized void onResponse(HttpCore.Response response) {
+            this.response = response;
+            done = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onError(IOException e) {
+            this.error = e;
+            done = true;
+            notifyAll();
+        }
+
+        synchronized HttpCore.Response await() throws IOException {
+            try {
+                while(!done) {
+                    wait();
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for HTTP response");
+            }
+            if(error != null) {
+                throw error;
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package io.ably.lib.transport;
+
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.ProtocolMessage;
+import io.ably.lib.types.ProtocolSerializer;
+import io.ably.lib.util.Log;
+import io.ably.lib.util.MsgpackPackerPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketAdapter;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.Handshakedata;
+import org.java_websocket.handshake.HandshakeImpl1Client;
+
+/**
+ * A WebSocket transport using non-blocking sockets, served by an event loop
+ * shared with every other such transport in the process, instead of a reader
+ * thread per connection. This is selected with {@link io.ably.lib.types.ClientOptions#nonBlockingTransport}.
+ *
+ * Inbound messages are processed on the event loop thread, so a listener that
+ * blocks delays every connection on the loop; applications with slow listeners
+ * should set {@link io.ably.lib.types.ClientOptions#dispatchExecutor}.
+ */
+public class NioWebSocketTransport implements ITransport {
+
+    private static final String TAG = NioWebSocketTransport.class.getName();
+    /* the most buffers read from a connection each time the loop selects it */
+    private static final int MAX_READS_PER_SELECTION = 16;
+
+    /******************
+     * public factory API
+     ******************/
+
+    public static class Factory implements ITransport.Factory {
+        @Override
+        public NioWebSocketTransport getTransport(TransportParams params, ConnectionManager connectionManager) {
+            return new NioWebSocketTransport(params, connectionManager);
+        }
+    }
+
+    /******************
+     * protected constructor
+     ******************/
+
+    protected NioWebSocketTransport(TransportParams params, ConnectionManager connectionManager) {
+        this.params = params;
+        this.connectionManager = connectionManager;
+        this.channelBinaryMode = params.options.useBinaryProtocol;
+        /* We do not require Ably heartbeats, as we can use WebSocket pings instead. */
+        params.heartbeats = false;
+    }
+
+    /******************
+     * ITransport methods
+     ******************/
+
+    @Override
+    public void connect(ConnectListener connectListener) {
+        this.connectListener = connectListener;
+        try {
+            wsUri = WebSocketTransport.connectUri(params, connectionManager);
+            Log.d(TAG, "connect(); wsUri = " + wsUri);
+            final NioEventLoop loop = NioEventLoop.shared();
+            final WsConnection connection = new WsConnection(loop, URI.create(wsUri));
+            synchronized(this) {
+                wsConnection = connection;
+            }
+            /* resolution may block, so is done on a resolver thread, and not on the caller's */
+            NioEventLoop.resolver().execute(new Runnable() {
+                @Override
+                public void run() {
+                    resolve(connection);
+                }
+            });
+        } catch(AblyException e) {
+            Log.e(TAG, "Unexpected exception attempting connection; wsUri = " + wsUri, e);
+            connectListener.onTransportUnavailable(this, e.errorInfo);
+        } catch(Throwable t) {
+            Log.e(TAG, "Unexpected exception attempting connection; wsUri = " + wsUri, t);
+            connectListener.onTransportUnavailable(this, AblyException.fromThrowable(t).errorInfo);
+        }
+    }
+
+    /**
+     * Resolve the host, on the resolver thread, then open the connection on the loop thread,
+     * unless the transport has been closed meanwhile.
+     */
+    private void resolve(final WsConnection connection) {
+        final InetSocketAddress address = new InetSocketAddress(params.host, params.port);
+        if(address.isUnresolved()) {
+            synchronized(this) {
+                if(wsConnection != connection) {
+                    return;
+                }
+                wsConnection = null;
+            }
+            Log.e(TAG, "Unable to resolve host; wsUri = " + wsUri);
+            connectListener.onTransportUnavailable(this, new ErrorInfo("Unable to resolve host " + params.host, 503, 80000));
+            return;
+        }
+        connection.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized(NioWebSocketTransport.this) {
+                    if(wsConnection != connection) {
+                        return;
+                    }
+                }
+                connection.open(address);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        Log.d(TAG, "close()");
+        final WsConnection connection;
+        synchronized(this) {
+            connection = wsConnection;
+            wsConnection = null;
+        }
+        if(connection != null) {
+            connection.loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    connection.close();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void send(ProtocolMessage msg) throws AblyException {
+        Log.d(TAG, "send(); action = " + msg.action);
+        WsConnection connection;
+        synchronized(this) {
+            connection = wsConnection;
+        }
+        try {
+            if(connection == null) {
+                throw new WebsocketNotConnectedException();
+            }
+            if(channelBinaryMode) {
+                /* the pooled buffer is sent without copying; the engine
+                 * frames it before send() returns, so it can then be reused */
+                MsgpackPackerPool.PooledPacker pooledPacker = connectionManager.ably.msgpackPackerPool.acquire();
+                try {
+                    ProtocolSerializer.writeMsgpack(msg, pooledPacker.packer);
+                    if (Log.level <= Log.VERBOSE) {
+                        ProtocolMessage decodedMsg = ProtocolSerializer.readMsgpack(pooledPacker.toByteBuffer());
+                        Log.v(TAG, "send(): " + decodedMsg.action + ": " + new String(ProtocolSerializer.writeJSON(decodedMsg)));
+                    }
+                    connection.engine.send(pooledPacker.toByteBuffer());
+                } finally {
+                    pooledPacker.release();
+                }
+            } else {
+                if (Log.level <= Log.VERBOSE)
+                    Log.v(TAG, "send(): " + new String(ProtocolSerializer.writeJSON(msg)));
+                connection.engine.send(ProtocolSerializer.writeJSON(msg));
+            }
+        }
+        catch (WebsocketNotConnectedException e){
+            if(connectListener != null) {
+                connectListener.onTransportUnavailable(this, AblyException.fromThrowable(e).errorInfo);
+            } else
+                throw AblyException.fromThrowable(e);
+        }
+        catch (Exception e) {
+            throw AblyException.fromThrowable(e);
+        }
+    }
+
+    @Override
+    public void send(ProtocolMessage[] msgs) throws AblyException {
+        Log.d(TAG, "send(); messages = " + msgs.length);
+        WsConnection connection;
+        synchronized(this) {
+            connection = wsConnection;
+        }
+        try {
+            if(connection == null) {
+                throw new WebsocketNotConnectedException();
+            }
+            WebSocketTransport.queueFrames(connection.engine, msgs, channelBinaryMode, connectionManager.ably.msgpackPackerPool);
+            connection.onWriteDemand(connection.engine);
+        }
+        catch (WebsocketNotConnectedException e){
+            if(connectListener != null) {
+                connectListener.onTransportUnavailable(this, AblyException.fromThrowable(e).errorInfo);
+            } else
+                throw AblyException.fromThrowable(e);
+        }
+        catch (Exception e) {
+            throw AblyException.fromThrowable(e);
+        }
+    }
+
+    @Override
+    public String getHost() {
+        return params.host;
+    }
+
+    protected void preProcessReceivedMessage(ProtocolMessage message)
+    {
+        //Gives the chance to child classes to do message pre-processing
+    }
+
+    /**************************
+     * WebSocket connection
+     **************************/
+
+    /**
+     * A WebSocket connection, driven by the event loop. The framing and handshake are
+     * performed by a Java-WebSocket engine; this reads from and writes to its socket as
+     * the loop reports the socket ready. All methods other than the engine's send methods,
+     * and onWriteDemand, are called on the loop thread.
+     */
+    class WsConnection extends WebSocketAdapter implements NioEventLoop.Handler {
+
+        private final NioEventLoop loop;
+        private final URI uri;
+        private final WebSocketImpl engine;
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        private SocketChannel socket;
+        private TlsChannel tls;
+        private ByteChannel channel;
+        private SelectionKey key;
+        private boolean handshakeStarted;
+
+        WsConnection(NioEventLoop loop, URI uri) {
+            this.loop = loop;
+            this.uri = uri;
+            this.engine = new WebSocketImpl(this, WebSocketTransport.draft(params.options, connectionManager));
+        }
+
+        void open(InetSocketAddress address) {
+            try {
+                socket = SocketChannel.open();
+                socket.configureBlocking(false);
+                socket.socket().setTcpNoDelay(true);
+                channel = socket;
+                engine.setChannel(socket);
+                key = loop.register(socket, SelectionKey.OP_CONNECT, this);
+                engine.setSelectionKey(key);
+                if(socket.connect(address)) {
+                    onConnected();
+                }
+            } catch(Throwable t) {
+                onException(t);
+            }
+        }
+
+        void close() {
+            if(engine.isOpen()) {
+                engine.close(CloseFrame.NORMAL);
+            } else {
+                engine.closeConnection(CloseFrame.NEVER_CONNECTED, "closed before open", false);
+            }
+        }
+
+        @Override
+        public void onSelected(SelectionKey key) {
+            try {
+                if(key.isConnectable()) {
+                    if(!socket.finishConnect()) {
+                        return;
+                    }
+                    onConnected();
+                    return;
+                }
+                if(!handshakeStarted) {
+                    continueTlsHandshake();
+                    return;
+                }
+                if(key.isReadable()) {
+                    read();
+                }
+                if(key.isValid() && key.isWritable()) {
+                    write();
+                }
+            } catch(Throwable t) {
+                onException(t);
+            }
+        }
+
+        private void onConnected() throws Exception {
+            if(params.options.tls) {
+                SSLContext sslContext = SSLContext.getInstance("TLS");
+                sslContext.init(null, null, null);
+                SSLEngine sslEngine = TlsChannel.createClientEngine(sslContext, params.host, params.port);
+                tls = new TlsChannel(socket, sslEngine);
+                channel = tls;
+                engine.setChannel(tls);
+            }
+            continueTlsHandshake();
+        }
+
+        private void continueTlsHandshake() throws Exception {
+            if(tls != null) {
+                int ops = tls.handshake();
+                if(ops != 0) {
+                    key.interestOps(ops);
+                    return;
+                }
+            }
+            handshakeStarted = true;
+            key.interestOps(SelectionKey.OP_READ);
+            startWebSocketHandshake();
+        }
+
+        private void startWebSocketHandshake() throws Exception {
+            String path = uri.getRawPath();
+            if(path == null || path.isEmpty()) path = "/";
+            if(uri.getRawQuery() != null) path += '?' + uri.getRawQuery();
+            boolean defaultPort = params.port == WebSocketImpl.DEFAULT_PORT || params.port == WebSocketImpl.DEFAULT_WSS_PORT;
+            HandshakeImpl1Client handshake = new HandshakeImpl1Client();
+            handshake.setResourceDescriptor(path);
+            handshake.put("Host", uri.getHost() + (defaultPort ? "" : ":" + params.port));
+            engine.startHandshake(handshake);
+        }
+
+        /**
+         * Read and decode what has been received, up to MAX_READS_PER_SELECTION buffers,
+         * so that a busy connection does not hold up others on the loop. If that many are
+         * read, reading resumes in a task after the loop has served the other connections;
+         * it is not left to the selector, as the TLS channel may hold data already received.
+         */
+        private void read() throws IOException {
+            ByteBuffer buffer = loop.readBuffer();
+            for(int reads = 0; reads < MAX_READS_PER_SELECTION; reads++) {
+                buffer.clear();
+                int count = channel.read(buffer);
+                if(count < 0) {
+                    engine.eot();
+                    return;
+                }
+                if(count == 0) {
+                    return;
+                }
+                buffer.flip();
+                engine.decode(buffer);
+                if(!key.isValid()) {
+                    return;
+                }
+            }
+            loop.execute(readTask);
+        }
+
+        private final Runnable readTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if(key.isValid()) {
+                        read();
+                    }
+                } catch(Throwable t) {
+                    onException(t);
+                }
+            }
+        };
+
+        private void write() throws IOException {
+            writeScheduled.set(false);
+            ByteBuffer buffer;
+            while((buffer = engine.outQueue.peek()) != null) {
+                channel.write(buffer);
+                if(buffer.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                engine.outQueue.poll();
+            }
+            if(tls != null && !tls.flush()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void onException(Throwable t) {
+            Log.e(TAG, "Connection error ", t);
+            Exception e = (t instanceof Exception) ? (Exception)t : new Exception(t);
+            onWebsocketError(engine, e);
+            engine.closeConnection(engine.isOpen() ? CloseFrame.ABNORMAL_CLOSE : CloseFrame.NEVER_CONNECTED, String.valueOf(t.getMessage()), false);
+        }
+
+        /**************************
+         * WebSocketListener methods
+         **************************/
+
+        @Override
+        public void onWriteDemand(WebSocket conn) {
+            if(!handshakeStarted || !writeScheduled.compareAndSet(false, true)) {
+                return;
+            }
+            /* the engine calls this holding its write lock, so the write is always deferred
+             * to a loop task; a failed write closes the connection, notifying the
+             * ConnectionManager, which may itself be waiting for that lock in send() */
+            loop.execute(writeTask);
+        }
+
+        private final Runnable writeTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if(key.isValid()) {
+                        write();
+                    }
+                } catch(Throwable t) {
+                    onException(t);
+                }
+            }
+        };
+
+        @Override
+        public void onWebsocketOpen(WebSocket conn, Handshakedata handshake) {
+            Log.d(TAG, "onOpen()");
+            connectListener.onTransportAvailable(NioWebSocketTransport.this);
+            activityMonitor.flagActivity();
+        }
+
+        @Override
+        public void onWebsocketMessage(WebSocket conn, ByteBuffer blob) {
+            try {
+                ProtocolMessage msg = msgpackDecoder.readMsgpack(blob);
+                Log.d(TAG, "onMessage(): msg (binary) = " + msg);
+                preProcessReceivedMessage(msg);
+                connectionManager.onMessage(NioWebSocketTransport.this, msg);
+            } catch (AblyException e) {
+                String msg = "Unexpected exception processing received binary message";
+                Log.e(TAG, msg, e);
+            }
+            activityMonitor.flagActivity();
+        }
+
+        @Override
+        public void onWebsocketMessage(WebSocket conn, String string) {
+            try {
+                ProtocolMessage msg = ProtocolSerializer.fromJSON(string);
+                Log.d(TAG, "onMessage(): msg (text) = " + msg);
+                preProcessReceivedMessage(msg);
+                connectionManager.onMessage(NioWebSocketTransport.this, msg);
+            } catch (AblyException e) {
+                String msg = "Unexpected exception processing received text message";
+                Log.e(TAG, msg, e);
+            }
+            activityMonitor.flagActivity();
+        }
+
+        /* This allows us to detect a websocket ping, so we don't need Ably pings. */
+        @Override
+        public void onWebsocketPing(WebSocket conn, Framedata f) {
+            Log.d(TAG, "onWebsocketPing()");
+            /* Call superclass to ensure the pong is sent. */
+            super.onWebsocketPing(conn, f);
+            activityMonitor.flagActivity();
+        }
+
+        @Override
+        public void onWebsocketClose(WebSocket conn, int wsCode, String wsReason, boolean remote) {
+            Log.d(TAG, "onClose(): wsCode = " + wsCode + "; wsReason = " + wsReason + "; remote = " + remote);
+            activityMonitor.dispose();
+            connectListener.onTransportUnavailable(NioWebSocketTransport.this, WebSocketTransport.closeReason(wsCode));
+        }
+
+        @Override
+        public void onWebsocketError(WebSocket conn, Exception e) {
+            connectListener.onTransportUnavailable(NioWebSocketTransport.this, new ErrorInfo(e.getMessage(), 503, 80000));
+        }
+
+        @Override
+        public void onWebsocketClosing(WebSocket conn, int code, String reason, boolean remote) {}
+
+        @Override
+        public void onWebsocketCloseInitiated(WebSocket conn, int code, String reason) {}
+
+        @Override
+        public InetSocketAddress getLocalSocketAddress(WebSocket conn) {
+            return (socket == null) ? null : (InetSocketAddress)socket.socket().getLocalSocketAddress();
+        }
+
+        @Override
+        public InetSocketAddress getRemoteSocketAddress(WebSocket conn) {
+            return (socket == null) ? null : (InetSocketAddress)socket.socket().getRemoteSocketAddress();
+        }
+
+        private final ActivityMonitor activityMonitor = new ActivityMonitor(connectionManager, new Runnable() {
+            @Override
+            public void run() {
+                loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        engine.closeConnection(CloseFrame.ABNORMAL_CLOSE, "timed out");
+                    }
+                });
+            }
+        });
+        private final ProtocolSerializer.MsgpackDecoder msgpackDecoder = new ProtocolSerializer.MsgpackDecoder();
+    }
+
+    public String toString() {
+        return NioWebSocketTransport.class.getName() + " {" + getURL() + "}";
+    }
+
+    public String getURL() {
+        return wsUri;
+    }
+
+    /******************
+     * private members
+     ******************/
+
+    private final TransportParams params;
+    private final ConnectionManager connectionManager;
+    private final boolean channelBinaryMode;
+    private String wsUri;
+    private ConnectListener connectListener;
+
+    private WsConnection wsConnection;
+}
@@ -0,0 +1,145 @@
+package io.ably.lib.transport;
+
+import io.ably.lib.realtime.Connection.WritabilityListener;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.BackpressurePolicy;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Counts the outbound messages of a connection that require acknowledgement, from
+ * when they are queued or sent until they are acknowledged or failed, and applies
+ * the backpressure policy of the client options to new messages.
+ *
+ * The connection becomes unwritable when the count reaches the high watermark, and
+ * writable again when it falls to the low watermark. Messages that have been accepted
+ * are never discarded, so the count may exceed the high watermark by the number of
+ * publishers released together when the connection becomes writable.
+ */
+class OutboundLimit {
+
+    static final ErrorInfo REASON_QUEUE_FULL = new ErrorInfo("Outbound message queue full", 429, 42910);
+
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final BackpressurePolicy policy;
+    private final long blockTimeout;
+    private final CopyOnWriteArrayList<WritabilityListener> listeners = new CopyOnWriteArrayList<>();
+
+    private int count;
+    private boolean writable = true;
+
+    /* the state last reported to listeners */
+    private final Object notifyLock = new Object();
+    private boolean notifiedWritable = true;
+
+    OutboundLimit(ClientOptions options) {
+        this(options.outboundHighWatermark, options.outboundLowWatermark, options.backpressurePolicy, options.realtimeRequestTimeout);
+    }
+
+    OutboundLimit(int highWatermark, int lowWatermark, BackpressurePolicy policy, long blockTimeout) {
+        this.highWatermark = highWatermark;
+        this.lowWatermark = (lowWatermark <= 0 || lowWatermark >= highWatermark) ? highWatermark / 2 : lowWatermark;
+        this.policy = policy;
+        this.blockTimeout = blockTimeout;
+    }
+
+    synchronized boolean isWritable() {
+        return writable;
+    }
+
+    synchronized int getCount() {
+        return count;
+    }
+
+    void addListener(WritabilityListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(WritabilityListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Apply the backpressure policy to a new message: if the connection is unwritable,
+     * wait for it to become writable, or reject the message, as configured.
+     * This must not be called with locks held that are needed to process acknowledgements.
+     * @param mayWait false if the calling thread processes acknowledgements, so could never
+     * see the connection become writable; the message is then rejected instead of waiting
+     * @throws AblyException if the message is rejected, or the wait times out
+     */
+    void await(boolean mayWait) throws AblyException {
+        if(highWatermark <= 0 || policy == BackpressurePolicy.NOTIFY) {
+            return;
+        }
+        synchronized(this) {
+            if(writable) {
+                return;
+            }
+            if(policy == BackpressurePolicy.REJECT || !mayWait) {
+                throw AblyException.fromErrorInfo(REASON_QUEUE_FULL);
+            }
+            long deadline = System.currentTimeMillis() + blockTimeout;
+            while(!writable) {
+                long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0) {
+                    throw AblyException.fromErrorInfo(REASON_QUEUE_FULL);
+                }
+                try {
+                    wait(remaining);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw AblyException.fromThrowable(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Count messages accepted for sending.
+     */
+    synchronized void add(int messages) {
+        count += messages;
+        if(writable && highWatermark > 0 && count >= highWatermark) {
+            writable = false;
+        }
+    }
+
+    /**
+     * Count messages acknowledged, failed or discarded.
+     */
+    synchronized void remove(int messages) {
+        count = Math.max(0, count - messages);
+        if(!writable && count <= lowWatermark) {
+            writable = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Notify listeners of any change in writability since they were last notified.
+     * Listeners are called on the calling thread, so this must be called without
+     * the ConnectionManager locked, as listeners may publish.
+     */
+    void notifyListeners() {
+        synchronized(notifyLock) {
+            boolean current = isWritable();
+            if(current == notifiedWritable) {
+                return;
+            }
+            notifiedWritable = current;
+            for(WritabilityListener listener : listeners) {
+                try {
+                    listener.onWritabilityChanged(current);
+                } catch(Throwable t) {
+                    Log.e(TAG, "Unexpected exception calling WritabilityListener", t);
+                }
+            }
+        }
+    }
+
+    private static final String TAG = OutboundLimit.class.getName();
+}
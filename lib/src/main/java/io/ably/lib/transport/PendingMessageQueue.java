@@ -0,0 +1,187 @@
+package io.ably.lib.transport;
+
+import io.ably.lib.transport.ConnectionManager.QueuedMessage;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.util.Log;
+
+/**
+ * A queue of messages awaiting acknowledgement, indexed by msgSerial.
+ *
+ * Messages are held in a ring buffer, so resolving an ACK or NACK costs time in
+ * proportion to the number of messages it covers, however many are outstanding.
+ * Resolved messages are removed under the lock, and their listeners called as a
+ * batch after it is released.
+ */
+class PendingMessageQueue {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final OutboundLimit outboundLimit;
+
+    /* buffer length is always a power of 2 */
+    private QueuedMessage[] buffer = new QueuedMessage[INITIAL_CAPACITY];
+    private int head;
+    private int size;
+    private long startSerial = 0L;
+
+    PendingMessageQueue(OutboundLimit outboundLimit) {
+        this.outboundLimit = outboundLimit;
+    }
+
+    /**
+     * Add a message; its msgSerial must follow that of the last message pushed.
+     */
+    public synchronized void push(QueuedMessage msg) {
+        if(size == buffer.length) {
+            grow();
+        }
+        buffer[(head + size) & (buffer.length - 1)] = msg;
+        ++size;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Resolve an ACK of count messages from msgSerial. Any pending messages earlier
+     * than msgSerial are treated as nacked.
+     */
+    public void ack(long msgSerial, int count, ErrorInfo reason) {
+        QueuedMessage[] nackMessages, ackMessages;
+        synchronized(this) {
+            /* msgSerial earlier than startSerial is an error condition and shouldn't
+             * happen, but we handle it gracefully by only processing the relevant
+             * portion of the response */
+            long ackStart = Math.max(msgSerial, startSerial);
+            nackMessages = removeTo(ackStart);
+            ackMessages = removeTo(msgSerial + count);
+        }
+        fail(nackMessages, reason, "ack()");
+        succeed(ackMessages, "ack()");
+    }
+
+    /**
+     * Resolve a NACK of count messages from serial.
+     */
+    public void nack(long serial, int count, ErrorInfo reason) {
+        QueuedMessage[] nackMessages;
+        synchronized(this) {
+            /* as for ack(), any earlier messages are also nacked */
+            nackMessages = removeTo(serial + count);
+        }
+        fail(nackMessages, reason, "nack()");
+    }
+
+    /**
+     * reset the pending message queue, removing any currently pending messages,
+     * which the caller must then fail().
+     * Used when a resume fails and we get a different connection id.
+     * @param oldMsgSerial the next message serial number for the old
+     * connection, and thus one more than the highest message serial
+     * in the queue.
+     * @return the removed messages, or null if none
+     */
+    public synchronized QueuedMessage[] reset(long oldMsgSerial) {
+        /* every pending message precedes oldMsgSerial */
+        QueuedMessage[] nackMessages = removeTo(startSerial + size);
+        startSerial = 0;
+        return nackMessages;
+    }
+
+    /**
+     * Set the msgSerial of the next message to be pushed, removing any currently
+     * pending messages, which the caller must then fail(). Used when the serials
+     * of a recovered connection are continued.
+     * @return the removed messages, or null if none
+     */
+    public synchronized QueuedMessage[] restart(long nextMsgSerial) {
+        QueuedMessage[] nackMessages = removeTo(startSerial + size);
+        startSerial = nextMsgSerial;
+        return nackMessages;
+    }
+
+    /**
+     * Fail messages removed by reset() or restart(), releasing their outbound capacity.
+     * The caller must hold no lock, as the listeners may call back into the library.
+     */
+    public void fail(QueuedMessage[] messages, ErrorInfo reason) {
+        fail(messages, reason, "fail()");
+    }
+
+    /**
+     * Remove the messages with serials from startSerial up to, but excluding,
+     * endSerial, bounded by the messages present. Called with the lock held.
+     * @return the removed messages, or null if none
+     */
+    private QueuedMessage[] removeTo(long endSerial) {
+        long available = Math.min(endSerial - startSerial, size);
+        if(available <= 0) {
+            return null;
+        }
+        int count = (int)available;
+        QueuedMessage[] removed = new QueuedMessage[count];
+        int mask = buffer.length - 1;
+        int first = Math.min(count, buffer.length - head);
+        System.arraycopy(buffer, head, removed, 0, first);
+        System.arraycopy(buffer, 0, removed, first, count - first);
+        for(int i = 0; i < count; i++) {
+            buffer[(head + i) & mask] = null;
+        }
+        head = (head + count) & mask;
+        size -= count;
+        startSerial += count;
+        return removed;
+    }
+
+    private void grow() {
+        QueuedMessage[] grown = new QueuedMessage[buffer.length << 1];
+        int first = buffer.length - head;
+        System.arraycopy(buffer, head, grown, 0, first);
+        System.arraycopy(buffer, 0, grown, first, head);
+        buffer = grown;
+        head = 0;
+    }
+
+    private void succeed(QueuedMessage[] messages, String operation) {
+        if(messages == null) {
+            return;
+        }
+        release(messages);
+        for(QueuedMessage msg : messages) {
+            try {
+                if(msg.listener != null)
+                    msg.listener.onSuccess();
+            } catch(Throwable t) {
+                Log.e(TAG, operation + ": listener exception", t);
+            }
+        }
+    }
+
+    private void fail(QueuedMessage[] messages, ErrorInfo reason, String operation) {
+        if(messages == null) {
+            return;
+        }
+        release(messages);
+        if(reason == null)
+            reason = new ErrorInfo("Unknown error", 500, 50000);
+        for(QueuedMessage msg : messages) {
+            try {
+                if(msg.listener != null)
+                    msg.listener.onError(reason);
+            } catch(Throwable t) {
+                Log.e(TAG, operation + ": listener exception", t);
+            }
+        }
+    }
+
+    /**
+     * Release the outbound capacity held by resolved messages
+     */
+    private void release(QueuedMessage[] messages) {
+        outboundLimit.remove(messages.length);
+        outboundLimit.notifyListeners();
+    }
+
+    private static final String TAG = PendingMessageQueue.class.getName();
+}
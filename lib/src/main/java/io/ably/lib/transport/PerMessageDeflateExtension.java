@@ -0,0 +1,333 @@
+package io.ably.lib.transport;
+
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.util.CompressionStats;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.extensions.CompressionExtension;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.FramedataImpl1;
+import org.java_websocket.protocols.IProtocol;
+
+/**
+ * The permessage-deflate WebSocket extension (RFC 7692), for the Java-WebSocket
+ * engine used by both WebSocket transports.
+ *
+ * The client offers the extension with the parameters configured in ClientOptions.
+ * If the server accepts, every data message sent is compressed, and messages the
+ * server sends compressed (with RSV1 set) are decompressed. Messages are always
+ * compressed with a 15-bit window, as java.util.zip does not support smaller ones,
+ * so the client does not offer client_max_window_bits.
+ *
+ * The extension must be used with a DeflateDraft.
+ *
+ * With context takeover each compressed frame depends on those before it, so frames
+ * must be encoded in the order they are written. ConnectionManager sends every data
+ * message with its lock held, so frames reach encodeFrame in wire order; control
+ * frames are not compressed, so may be sent from other threads. Frames are decoded
+ * on the transport's reading thread. The codec methods are synchronized, as encoding
+ * and decoding happen on different threads.
+ */
+class PerMessageDeflateExtension extends CompressionExtension {
+
+    static final String EXTENSION_NAME = "permessage-deflate";
+    private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+    private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+    private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+    private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+    static final int MIN_WINDOW_BITS = 8;
+    static final int MAX_WINDOW_BITS = 15;
+
+    /* the empty stored block that ends the output of a sync flush; removed from
+     * each compressed message by the sender, and restored by the receiver */
+    private static final byte[] TAIL = {0, 0, (byte)0xff, (byte)0xff};
+    private static final int CHUNK_SIZE = 8192;
+
+    private final int serverMaxWindowBits;
+    private final boolean clientNoContextTakeover;
+    private final boolean serverNoContextTakeover;
+    private final CompressionStats stats;
+
+    /* the negotiated state, set when the server accepts the offer */
+    private Deflater deflater;
+    private Inflater inflater;
+    private boolean resetDeflater;
+    private boolean resetInflater;
+
+    /* whether the inbound message in progress is compressed */
+    private boolean inflatingMessage;
+    private byte[] deflateBuffer = new byte[CHUNK_SIZE];
+    private byte[] inflateBuffer = new byte[CHUNK_SIZE];
+
+    PerMessageDeflateExtension(ClientOptions options, CompressionStats stats) {
+        this(options.webSocketServerMaxWindowBits, options.webSocketClientNoContextTakeover, options.webSocketServerNoContextTakeover, stats);
+    }
+
+    PerMessageDeflateExtension(int serverMaxWindowBits, boolean clientNoContextTakeover, boolean serverNoContextTakeover, CompressionStats stats) {
+        this.serverMaxWindowBits = serverMaxWindowBits;
+        this.clientNoContextTakeover = clientNoContextTakeover;
+        this.serverNoContextTakeover = serverNoContextTakeover;
+        this.stats = stats;
+    }
+
+    /**
+     * Whether the server has accepted the extension for this connection.
+     */
+    synchronized boolean isNegotiated() {
+        return deflater != null;
+    }
+
+    @Override
+    public String getProvidedExtensionAsClient() {
+        StringBuilder offer = new StringBuilder(EXTENSION_NAME);
+        if(clientNoContextTakeover)
+            offer.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+        if(serverNoContextTakeover)
+            offer.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+        if(serverMaxWindowBits < MAX_WINDOW_BITS)
+            offer.append("; ").append(SERVER_MAX_WINDOW_BITS).append('=').append(serverMaxWindowBits);
+        return offer.toString();
+    }
+
+    @Override
+    public String getProvidedExtensionAsServer() {
+        /* never used as a server */
+        return "";
+    }
+
+    @Override
+    public boolean acceptProvidedExtensionAsServer(String inputExtension) {
+        return false;
+    }
+
+    /**
+     * Accept the server's response to the offer, if it is valid for the offer made.
+     * @param inputExtension the Sec-WebSocket-Extensions header of the handshake response
+     */
+    @Override
+    public synchronized boolean acceptProvidedExtensionAsClient(String inputExtension) {
+        if(inputExtension == null)
+            return false;
+        for(String extension : inputExtension.split(",")) {
+            String[] params = extension.split(";");
+            if(!EXTENSION_NAME.equalsIgnoreCase(params[0].trim()))
+                continue;
+            boolean resetDeflater = clientNoContextTakeover, resetInflater = false;
+            for(int i = 1; i < params.length; i++) {
+                String[] param = params[i].split("=", 2);
+                String name = param[0].trim();
+                String value = (param.length > 1) ? param[1].trim().replace("\"", "") : null;
+                if(SERVER_NO_CONTEXT_TAKEOVER.equalsIgnoreCase(name) && value == null) {
+                    resetInflater = true;
+                } else if(CLIENT_NO_CONTEXT_TAKEOVER.equalsIgnoreCase(name) && value == null) {
+                    resetDeflater = true;
+                } else if(SERVER_MAX_WINDOW_BITS.equalsIgnoreCase(name)) {
+                    /* any window up to our own is decompressed by Inflater */
+                    int bits = parseWindowBits(value);
+                    if(bits < MIN_WINDOW_BITS || bits > serverMaxWindowBits)
+                        return false;
+                } else if(CLIENT_MAX_WINDOW_BITS.equalsIgnoreCase(name)) {
+                    /* not offered; only acceptable if it imposes no limit */
+                    if(parseWindowBits(value) != MAX_WINDOW_BITS)
+                        return false;
+                } else {
+                    return false;
+                }
+            }
+            this.resetDeflater = resetDeflater;
+            this.resetInflater = resetInflater;
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            inflater = new Inflater(true);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void encodeFrame(Framedata inputFrame) {
+        if(deflater == null || !(inputFrame instanceof DataFrame))
+            return;
+
+        FramedataImpl1 frame = (FramedataImpl1)inputFrame;
+        ByteBuffer payload = frame.getPayloadData();
+        int rawSize = payload.remaining();
+        if(payload.hasArray()) {
+            deflater.setInput(payload.array(), payload.arrayOffset() + payload.position(), rawSize);
+        } else {
+            byte[] input = new byte[rawSize];
+            payload.duplicate().get(input);
+            deflater.setInput(input);
+        }
+
+        /* a sync flush is complete once it leaves space in the output buffer */
+        int size = 0;
+        while(true) {
+            size += deflater.deflate(deflateBuffer, size, deflateBuffer.length - size, Deflater.SYNC_FLUSH);
+            if(size < deflateBuffer.length)
+                break;
+            deflateBuffer = Arrays.copyOf(deflateBuffer, deflateBuffer.length * 2);
+        }
+        if(frame.isFin() && endsWithTail(deflateBuffer, size))
+            size -= TAIL.length;
+
+        frame.setPayload(ByteBuffer.wrap(Arrays.copyOf(deflateBuffer, size)));
+        /* only the first frame of a message is marked as compressed */
+        frame.setRSV1(frame.getOpcode() != Opcode.CONTINUOUS);
+        if(frame.isFin() && resetDeflater)
+            deflater.reset();
+        stats.recordSent(rawSize, size);
+    }
+
+    @Override
+    public synchronized void decodeFrame(Framedata inputFrame) throws InvalidDataException {
+        if(inflater == null || !(inputFrame instanceof DataFrame))
+            return;
+
+        FramedataImpl1 frame = (FramedataImpl1)inputFrame;
+        if(frame.getOpcode() != Opcode.CONTINUOUS) {
+            inflatingMessage = frame.isRSV1();
+        } else if(frame.isRSV1()) {
+            throw new InvalidDataException(CloseFrame.PROTOCOL_ERROR, "RSV1 set on continuation frame");
+        }
+        if(!inflatingMessage)
+            return;
+
+        ByteBuffer payload = frame.getPayloadData();
+        int compressedSize = payload.remaining();
+        int size;
+        try {
+            if(payload.hasArray()) {
+                size = inflate(payload.array(), payload.arrayOffset() + payload.position(), compressedSize, 0);
+            } else {
+                byte[] input = new byte[compressedSize];
+                payload.duplicate().get(input);
+                size = inflate(input, 0, input.length, 0);
+            }
+            if(frame.isFin()) {
+                size = inflate(TAIL, 0, TAIL.length, size);
+                if(resetInflater || inflater.finished())
+                    inflater.reset();
+            }
+        } catch(DataFormatException e) {
+            throw new InvalidDataException(CloseFrame.PROTOCOL_ERROR, "Invalid compressed message: " + e.getMessage());
+        }
+
+        frame.setPayload(ByteBuffer.wrap(Arrays.copyOf(inflateBuffer, size)));
+        frame.setRSV1(false);
+        stats.recordReceived(size, compressedSize);
+    }
+
+    @Override
+    public IExtension copyInstance() {
+        return new PerMessageDeflateExtension(serverMaxWindowBits, clientNoContextTakeover, serverNoContextTakeover, stats);
+    }
+
+    /**
+     * Release the compression state when the connection ends.
+     */
+    @Override
+    public synchronized void reset() {
+        if(deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if(inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        inflatingMessage = false;
+    }
+
+    @Override
+    public String toString() {
+        return "PerMessageDeflateExtension";
+    }
+
+    /**
+     * The RFC 6455 draft, for use with this extension. The Draft_6455 of this
+     * version of Java-WebSocket does not write the RSV bits of the frames it sends,
+     * so RSV1 is set here for frames that have been compressed.
+     */
+    static class DeflateDraft extends Draft_6455 {
+        DeflateDraft(IExtension extension) {
+            super(extension);
+        }
+
+        private DeflateDraft(List<IExtension> extensions, List<IProtocol> protocols, int maxFrameSize) {
+            super(extensions, protocols, maxFrameSize);
+        }
+
+        @Override
+        public ByteBuffer createBinaryFrame(Framedata framedata) {
+            ByteBuffer frame = super.createBinaryFrame(framedata);
+            if(framedata.isRSV1()) {
+                frame.put(0, (byte)(frame.get(0) | RSV1));
+            }
+            return frame;
+        }
+
+        @Override
+        public Draft copyInstance() {
+            List<IExtension> extensions = new ArrayList<>();
+            for(IExtension extension : getKnownExtensions()) {
+                extensions.add(extension.copyInstance());
+            }
+            List<IProtocol> protocols = new ArrayList<>();
+            for(IProtocol protocol : getKnownProtocols()) {
+                protocols.add(protocol.copyInstance());
+            }
+            return new DeflateDraft(extensions, protocols, getMaxFrameSize());
+        }
+
+        private static final int RSV1 = 0x40;
+    }
+
+    /**
+     * Decompress the given input into inflateBuffer, from the given offset.
+     * @return the offset in inflateBuffer of the end of the output
+     */
+    private int inflate(byte[] input, int offset, int length, int size) throws DataFormatException {
+        inflater.setInput(input, offset, length);
+        while(!inflater.finished()) {
+            if(size == inflateBuffer.length)
+                inflateBuffer = Arrays.copyOf(inflateBuffer, inflateBuffer.length * 2);
+            int count = inflater.inflate(inflateBuffer, size, inflateBuffer.length - size);
+            if(count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                break;
+            size += count;
+        }
+        return size;
+    }
+
+    private static boolean endsWithTail(byte[] buffer, int size) {
+        if(size < TAIL.length)
+            return false;
+        for(int i = 0; i < TAIL.length; i++) {
+            if(buffer[size - TAIL.length + i] != TAIL[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static int parseWindowBits(String value) {
+        try {
+            return (value == null) ? -1 : Integer.parseInt(value);
+        } catch(NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package io.ably.lib.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+
+/**
+ * A TLS session over a non-blocking SocketChannel. The handshake is driven by
+ * calls to handshake() as the socket becomes ready; once it completes, read()
+ * and write() transfer application data, never blocking.
+ *
+ * Instances are not thread-safe; all calls must be made on the same thread.
+ */
+class TlsChannel implements ByteChannel {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /**
+     * The protocols that are considered to be safe.
+     */
+    private static final List<String> SAFE_PROTOCOLS = Arrays.asList("TLSv1.2", "TLSv1.3");
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+
+    /* received ciphertext not yet unwrapped; in write mode */
+    private ByteBuffer netIn;
+    /* unwrapped plaintext not yet read; in read mode */
+    private ByteBuffer appIn;
+    /* wrapped ciphertext not yet written to the socket; in read mode */
+    private ByteBuffer netOut;
+
+    TlsChannel(SocketChannel channel, SSLEngine engine) {
+        this.channel = channel;
+        this.engine = engine;
+        int packetSize = engine.getSession().getPacketBufferSize();
+        netIn = ByteBuffer.allocate(packetSize);
+        netOut = ByteBuffer.allocate(packetSize);
+        netOut.flip();
+        appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        appIn.flip();
+    }
+
+    /**
+     * Create a client SSLEngine for the given server, verifying its hostname and
+     * limited to the safe protocols, with its handshake begun.
+     */
+    static SSLEngine createClientEngine(SSLContext sslContext, String host, int port) throws SSLException {
+        SSLEngine sslEngine = sslContext.createSSLEngine(host, port);
+        sslEngine.setUseClientMode(true);
+        SSLParameters sslParameters = sslEngine.getSSLParameters();
+        sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+        List<String> protocols = new ArrayList<>();
+        for(String protocol : sslEngine.getSupportedProtocols()) {
+            if(SAFE_PROTOCOLS.contains(protocol)) protocols.add(protocol);
+        }
+        sslParameters.setProtocols(protocols.toArray(new String[protocols.size()]));
+        sslEngine.setSSLParameters(sslParameters);
+        sslEngine.beginHandshake();
+        return sslEngine;
+    }
+
+    /**
+     * Advance the handshake as far as possible without blocking.
+     * @return 0 if the handshake is complete; otherwise the SelectionKey operation
+     * for which the socket must be ready before the handshake can proceed
+     */
+    int handshake() throws IOException {
+        if(!flush()) {
+            return SelectionKey.OP_WRITE;
+        }
+        while(true) {
+            switch(engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    break;
+                case NEED_WRAP:
+                    wrap(EMPTY);
+                    if(!flush()) {
+                        return SelectionKey.OP_WRITE;
+                    }
+                    break;
+                case NEED_UNWRAP:
+                    int count = channel.read(netIn);
+                    if(count < 0) {
+                        throw new EOFException("Connection closed during TLS handshake");
+                    }
+                    SSLEngineResult.Status status = unwrap();
+                    if(status == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("TLS session closed during handshake");
+                    }
+                    if(status == SSLEngineResult.Status.BUFFER_UNDERFLOW && count == 0) {
+                        return SelectionKey.OP_READ;
+                    }
+                    break;
+                default:
+                    return 0;
+            }
+        }
+    }
+
+    /**
+     * Write any pending ciphertext to the socket.
+     * @return true if there is none remaining
+     */
+    boolean flush() throws IOException {
+        if(netOut.hasRemaining()) {
+            channel.write(netOut);
+        }
+        return !netOut.hasRemaining();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if(!appIn.hasRemaining()) {
+            int count = channel.read(netIn);
+            SSLEngineResult.Status status = unwrap();
+            /* post-handshake messages, such as a key update, may need a response */
+            while(engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+            }
+            if(engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                wrap(EMPTY);
+                flush();
+            }
+            if(!appIn.hasRemaining()) {
+                return (count < 0 || status == SSLEngineResult.Status.CLOSED) ? -1 : 0;
+            }
+        }
+        int count = Math.min(appIn.remaining(), dst.remaining());
+        if(count == appIn.remaining()) {
+            dst.put(appIn);
+        } else {
+            ByteBuffer slice = appIn.duplicate();
+            slice.limit(slice.position() + count);
+            dst.put(slice);
+            appIn.position(appIn.position() + count);
+        }
+        return count;
+    }
+
+    /**
+     * Encrypt and send data. Data is consumed from src only while the
+     * ciphertext for data previously consumed has been written in full;
+     * if this returns with flush() incomplete, the socket must become
+     * writable before writing again.
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int consumed = 0;
+        while(src.hasRemaining() && flush()) {
+            consumed += wrap(src);
+        }
+        flush();
+        return consumed;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            engine.closeOutbound();
+            if(flush()) {
+                wrap(EMPTY);
+                flush();
+            }
+        } catch(IOException e) {
+            /* the socket is closed regardless */
+        } finally {
+            channel.close();
+        }
+    }
+
+    private int wrap(ByteBuffer src) throws SSLException {
+        netOut.compact();
+        try {
+            while(true) {
+                SSLEngineResult result = engine.wrap(src, netOut);
+                switch(result.getStatus()) {
+                    case BUFFER_OVERFLOW:
+                        netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                        continue;
+                    case CLOSED:
+                        if(result.bytesProduced() == 0 && src.hasRemaining()) {
+                            throw new SSLException("TLS session closed");
+                        }
+                        return result.bytesConsumed();
+                    default:
+                        return result.bytesConsumed();
+                }
+            }
+        } finally {
+            netOut.flip();
+        }
+    }
+
+    /**
+     * Unwrap as many complete records as have been received.
+     * @return the status of the last unwrap
+     */
+    private SSLEngineResult.Status unwrap() throws SSLException {
+        netIn.flip();
+        appIn.compact();
+        try {
+            while(true) {
+                SSLEngineResult result = engine.unwrap(netIn, appIn);
+                switch(result.getStatus()) {
+                    case BUFFER_OVERFLOW:
+                        appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                        continue;
+                    case BUFFER_UNDERFLOW:
+                        if(netIn.limit() == netIn.capacity()) {
+                            /* the record is larger than the buffer */
+                            netIn.compact();
+                            netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+                            netIn.flip();
+                        }
+                        return result.getStatus();
+                    case OK:
+                        if(netIn.hasRemaining() && result.bytesConsumed() > 0
+                                && result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_WRAP
+                                && result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                            continue;
+                        }
+                        return result.getStatus();
+                    default:
+                        return result.getStatus();
+                }
+            }
+        } finally {
+            netIn.compact();
+            appIn.flip();
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * A buffer, in write mode, with the content of the given write-mode buffer
+     * and at least the given capacity; double the current capacity if that is greater.
+     */
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minCapacity) {
+        ByteBuffer enlarged = ByteBuffer.allocate(Math.max(minCapacity, buffer.capacity() * 2));
+        buffer.flip();
+        enlarged.put(buffer);
+        return enlarged;
+    }
+}
@@ -2,20 +2,26 @@ package io.ably.lib.transport;
 
 import io.ably.lib.http.HttpUtils;
 import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ClientOptions;
 import io.ably.lib.types.ErrorInfo;
 import io.ably.lib.types.Param;
 import io.ably.lib.types.ProtocolMessage;
 import io.ably.lib.types.ProtocolSerializer;
 import io.ably.lib.util.Log;
+import io.ably.lib.util.MsgpackPackerPool;
 
+import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.net.ssl.SSLContext;
 
+import org.java_websocket.WebSocketImpl;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
 import org.java_websocket.exceptions.WebsocketNotConnectedException;
 import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.framing.Framedata;
@@ -58,12 +64,7 @@ public class WebSocketTransport implements ITransport {
         this.connectListener = connectListener;
         try {
             boolean isTls = params.options.tls;
-            String wsScheme = isTls ? "wss://" : "ws://";
-            wsUri = wsScheme + params.host + ':' + params.port + "/";
-            Param[] authParams = connectionManager.ably.auth.getAuthParams();
-            Param[] connectParams = params.getConnectParams(authParams);
-            if(connectParams.length > 0)
-                wsUri = HttpUtils.encodeParams(wsUri, connectParams);
+            wsUri = connectUri(params, connectionManager);
 
             Log.d(TAG, "connect(); wsUri = " + wsUri);
             synchronized(this) {
@@ -101,12 +102,19 @@ public class WebSocketTransport implements ITransport {
         Log.d(TAG, "send(); action = " + msg.action);
         try {
             if(channelBinaryMode) {
-                byte[] encodedMsg = ProtocolSerializer.writeMsgpack(msg);
-                if (Log.level <= Log.VERBOSE) {
-                    ProtocolMessage decodedMsg = ProtocolSerializer.readMsgpack(encodedMsg);
-                    Log.v(TAG, "send(): " + decodedMsg.action + ": " + new String(ProtocolSerializer.writeJSON(decodedMsg)));
+                /* the pooled buffer is sent without copying; the WebSocket client
+                 * frames it before send() returns, so it can then be reused */
+                MsgpackPackerPool.PooledPacker pooledPacker = connectionManager.ably.msgpackPackerPool.acquire();
+                try {
+                    ProtocolSerializer.writeMsgpack(msg, pooledPacker.packer);
+                    if (Log.level <= Log.VERBOSE) {
+                        ProtocolMessage decodedMsg = ProtocolSerializer.readMsgpack(pooledPacker.toByteBuffer());
+                        Log.v(TAG, "send(): " + decodedMsg.action + ": " + new String(ProtocolSerializer.writeJSON(decodedMsg)));
+                    }
+                    wsConnection.send(pooledPacker.toByteBuffer());
+                } finally {
+                    pooledPacker.release();
                 }
-                wsConnection.send(encodedMsg);
             } else {
                 if (Log.level <= Log.VERBOSE)
                     Log.v(TAG, "send(): " + new String(ProtocolSerializer.writeJSON(msg)));
@@ -124,6 +132,23 @@ public class WebSocketTransport implements ITransport {
         }
     }
 
+    @Override
+    public void send(ProtocolMessage[] msgs) throws AblyException {
+        Log.d(TAG, "send(); messages = " + msgs.length);
+        try {
+            queueFrames((WebSocketImpl)wsConnection.getConnection(), msgs, channelBinaryMode, connectionManager.ably.msgpackPackerPool);
+        }
+        catch (WebsocketNotConnectedException e){
+            if(connectListener != null) {
+                connectListener.onTransportUnavailable(this, AblyException.fromThrowable(e).errorInfo);
+            } else
+                throw AblyException.fromThrowable(e);
+        }
+        catch (Exception e) {
+            throw AblyException.fromThrowable(e);
+        }
+    }
+
     @Override
     public String getHost() {
         return params.host;
@@ -141,7 +166,7 @@ public class WebSocketTransport implements ITransport {
     class WsClient extends WebSocketClient {
 
         WsClient(URI serverUri) {
-            super(serverUri);
+            super(serverUri, draft(params.options, connectionManager));
         }
 
         @Override
@@ -154,7 +179,7 @@ public class WebSocketTransport implements ITransport {
         @Override
         public void onMessage(ByteBuffer blob) {
             try {
-                ProtocolMessage msg = ProtocolSerializer.readMsgpack(blob.array());
+                ProtocolMessage msg = msgpackDecoder.readMsgpack(blob);
                 Log.d(TAG, "onMessage(): msg (binary) = " + msg);
                 WebSocketTransport.this.preProcessReceivedMessage(msg);
                 connectionManager.onMessage(WebSocketTransport.this, msg);
@@ -192,38 +217,7 @@ public class WebSocketTransport implements ITransport {
         public void onClose(final int wsCode, final String wsReason, final boolean remote) {
             Log.d(TAG, "onClose(): wsCode = " + wsCode + "; wsReason = " + wsReason + "; remote = " + remote);
 
-            ErrorInfo reason;
-            switch(wsCode) {
-                case NEVER_CONNECTED:
-                case CLOSE_NORMAL:
-                case BUGGYCLOSE:
-                case GOING_AWAY:
-                case ABNORMAL_CLOSE:
-                    /* we don't know the specific reason that the connection closed in these cases,
-                     * but we have to assume it's a problem with connectivity rather than some other
-                     * application problem */
-                    reason = ConnectionManager.REASON_DISCONNECTED;
-                    break;
-                case REFUSE:
-                case POLICY_VALIDATION:
-                    reason = ConnectionManager.REASON_REFUSED;
-                    break;
-                case TOOBIG:
-                    reason = ConnectionManager.REASON_TOO_BIG;
-                    break;
-                case NO_UTF8:
-                case CLOSE_PROTOCOL_ERROR:
-                case UNEXPECTED_CONDITION:
-                case EXTENSION:
-                case TLS_ERROR:
-                default:
-                    /* we don't know the specific reason that the connection closed in these cases,
-                     * but we have to assume it's an application problem, and the problem will
-                     * recur if we try again. The failed state means that we won't automatically
-                     * try again. */
-                    reason = ConnectionManager.REASON_FAILED;
-                    break;
-            }
+            ErrorInfo reason = closeReason(wsCode);
             connectListener.onTransportUnavailable(WebSocketTransport.this, reason);
             dispose();
         }
@@ -234,79 +228,135 @@ public class WebSocketTransport implements ITransport {
             connectListener.onTransportUnavailable(WebSocketTransport.this, new ErrorInfo(e.getMessage(), 503, 80000));
         }
 
-        private synchronized void dispose() {
-            /* dispose timer */
-            try {
-                timer.cancel();
-                timer = null;
-            } catch(IllegalStateException e) {}
+        private void dispose() {
+            activityMonitor.dispose();
         }
 
-        private synchronized void flagActivity() {
-            lastActivityTime = System.currentTimeMillis();
-            connectionManager.setLastActivity(lastActivityTime);
-            if (activityTimerTask == null && connectionManager.maxIdleInterval != 0) {
-                /* No timer currently running because previously there was no
-                 * maxIdleInterval configured, but now there is a
-                 * maxIdleInterval configured.  Call checkActivity so a timer
-                 * gets started.  This happens when flagActivity gets called
-                 * just after processing the connect message that configures
-                 * maxIdleInterval. */
-                checkActivity();
-            }
+        private void flagActivity() {
+            activityMonitor.flagActivity();
         }
 
-        private synchronized void checkActivity() {
-            long timeout = connectionManager.maxIdleInterval;
-            if (timeout == 0) {
-                Log.v(TAG, "checkActivity: infinite timeout");
-                return;
-            }
-            if(activityTimerTask != null) {
-                /* timer already running */
-                return;
-            }
-            timeout += connectionManager.ably.options.realtimeRequestTimeout;
-            long now = System.currentTimeMillis();
-            long next = lastActivityTime + timeout;
-            if (now < next) {
-                /* We have not reached maxIdleInterval+realtimeRequestTimeout
-                 * of inactivity.  Schedule a new timer for that long after the
-                 * last activity time. */
-                Log.v(TAG, "checkActivity: ok");
-                schedule((activityTimerTask = new TimerTask() {
-                    public void run() {
-                        try {
-                            checkActivity();
-                        } catch(Throwable t) {
-                            Log.e(TAG, "Unexpected exception in activity timer handler", t);
-                        }
-                    }
-                }), next - now);
-            } else {
-                /* Timeout has been reached. Close the connection. */
-                Log.e(TAG, "No activity for " + timeout + "ms, closing connection");
+        /***************************
+         * WsClient private members
+         ***************************/
+
+        private final ActivityMonitor activityMonitor = new ActivityMonitor(connectionManager, new Runnable() {
+            @Override
+            public void run() {
                 closeConnection(CloseFrame.ABNORMAL_CLOSE, "timed out");
             }
+        });
+        private final ProtocolSerializer.MsgpackDecoder msgpackDecoder = new ProtocolSerializer.MsgpackDecoder();
+    }
+
+    /**
+     * The URI for a connection with the given parameters, including the connect and auth params.
+     */
+    static String connectUri(TransportParams params, ConnectionManager connectionManager) throws AblyException {
+        String wsScheme = params.options.tls ? "wss://" : "ws://";
+        String wsUri = wsScheme + params.host + ':' + params.port + "/";
+        Param[] authParams = connectionManager.ably.auth.getAuthParams();
+        Param[] connectParams = params.getConnectParams(authParams);
+        if(connectParams.length > 0)
+            wsUri = HttpUtils.encodeParams(wsUri, connectParams);
+        return wsUri;
+    }
+
+    /**
+     * The protocol draft for a connection with the given options, offering
+     * permessage-deflate compression if enabled.
+     */
+    static Draft_6455 draft(ClientOptions options, ConnectionManager connectionManager) {
+        if(!options.webSocketCompression) {
+            return new Draft_6455();
         }
+        return new PerMessageDeflateExtension.DeflateDraft(new PerMessageDeflateExtension(options, connectionManager.ably.connection.compressionStats));
+    }
 
-        private synchronized void schedule(TimerTask task, long delay) {
-            if(timer != null) {
+    /**
+     * Frame each message as the engine does for an individual send, and queue the
+     * frames as a single buffer, so that they are written to the socket, and
+     * encrypted, together. Sends must be serialised by the caller, as they
+     * are by the ConnectionManager.
+     */
+    static void queueFrames(WebSocketImpl engine, ProtocolMessage[] msgs, boolean binaryMode, MsgpackPackerPool packerPool) throws AblyException, IOException, InterruptedException {
+        if(!engine.isOpen()) {
+            throw new WebsocketNotConnectedException();
+        }
+        Draft draft = engine.getDraft();
+        List<ByteBuffer> frames = new ArrayList<>();
+        int size = 0;
+        for(ProtocolMessage msg : msgs) {
+            if (Log.level <= Log.VERBOSE)
+                Log.v(TAG, "send(): " + new String(ProtocolSerializer.writeJSON(msg)));
+            if(binaryMode) {
+                /* the frame is a copy, so the pooled buffer can be reused once framed */
+                MsgpackPackerPool.PooledPacker pooledPacker = packerPool.acquire();
                 try {
-                    timer.schedule(task, delay);
-                } catch(IllegalStateException ise) {
-                    Log.e(TAG, "Unexpected exception scheduling activity timer", ise);
+                    ProtocolSerializer.writeMsgpack(msg, pooledPacker.packer);
+                    size += frame(draft, pooledPacker.toByteBuffer(), frames);
+                } finally {
+                    pooledPacker.release();
                 }
+            } else {
+                size += frame(draft, ByteBuffer.wrap(ProtocolSerializer.writeJSON(msg)), frames);
             }
         }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for(ByteBuffer frame : frames) {
+            buffer.put(frame);
+        }
+        buffer.flip();
+        engine.outQueue.put(buffer);
+    }
 
-        /***************************
-         * WsClient private members
-         ***************************/
+    private static int frame(Draft draft, ByteBuffer payload, List<ByteBuffer> frames) {
+        int size = 0;
+        for(Framedata framedata : draft.createFrames(payload, true)) {
+            ByteBuffer frame = draft.createBinaryFrame(framedata);
+            size += frame.remaining();
+            frames.add(frame);
+        }
+        return size;
+    }
 
-        private Timer timer = new Timer();
-        private TimerTask activityTimerTask = null;
-        private long lastActivityTime;
+    /**
+     * The reason for the closure of a WebSocket with the given close code.
+     */
+    static ErrorInfo closeReason(int wsCode) {
+        ErrorInfo reason;
+        switch(wsCode) {
+            case NEVER_CONNECTED:
+            case CLOSE_NORMAL:
+            case BUGGYCLOSE:
+            case GOING_AWAY:
+            case ABNORMAL_CLOSE:
+                /* we don't know the specific reason that the connection closed in these cases,
+                 * but we have to assume it's a problem with connectivity rather than some other
+                 * application problem */
+                reason = ConnectionManager.REASON_DISCONNECTED;
+                break;
+            case REFUSE:
+            case POLICY_VALIDATION:
+                reason = ConnectionManager.REASON_REFUSED;
+                break;
+            case TOOBIG:
+                reason = ConnectionManager.REASON_TOO_BIG;
+                break;
+            case NO_UTF8:
+            case CLOSE_PROTOCOL_ERROR:
+            case UNEXPECTED_CONDITION:
+            case EXTENSION:
+            case TLS_ERROR:
+            default:
+                /* we don't know the specific reason that the connection closed in these cases,
+                 * but we have to assume it's an application problem, and the problem will
+                 * recur if we try again. The failed state means that we won't automatically
+                 * try again. */
+                reason = ConnectionManager.REASON_FAILED;
+                break;
+        }
+        return reason;
     }
 
     public String toString() {
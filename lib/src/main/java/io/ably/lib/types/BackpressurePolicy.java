@@ -0,0 +1,28 @@
+package io.ably.lib.types;
+
+/**
+ * The response of a realtime client to publishing, or presence updates, while its
+ * connection is unwritable, having reached {@link ClientOptions#outboundHighWatermark}
+ * messages queued or awaiting acknowledgement.
+ */
+public enum BackpressurePolicy {
+    /**
+     * Accept the message; the application is expected to throttle in response to
+     * {@link io.ably.lib.realtime.Connection.WritabilityListener} notifications.
+     */
+    NOTIFY,
+
+    /**
+     * Block the publishing thread until the connection becomes writable. If it does not
+     * within the realtime request timeout, the message is rejected. A message published
+     * on a thread processing inbound messages, such as from a listener when no
+     * {@link ClientOptions#dispatchExecutor} is set, is rejected immediately instead, as
+     * that thread must be free to receive the acknowledgements awaited.
+     */
+    BLOCK,
+
+    /**
+     * Reject the message immediately, with error code 42910.
+     */
+    REJECT
+}
@@ -18,8 +18,6 @@ import org.msgpack.core.MessageUnpacker;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class BaseMessage implements Cloneable {
     /**
@@ -97,29 +95,28 @@ public class BaseMessage implements Cloneable {
         Object lastPayload = data;
 
         if(encoding != null) {
-            String[] xforms = encoding.split("\\/");
-            int lastProcessedEncodingIndex = 0, encodingsToProcess  = xforms.length;
+            EncodingChain chain = EncodingChain.get(encoding);
+            EncodingChain.Step[] steps = chain.steps;
+            int lastProcessedEncodingIndex = 0, encodingsToProcess  = steps.length;
             try {
                 while((lastProcessedEncodingIndex  = encodingsToProcess ) > 0) {
-                    Matcher match = xformPattern.matcher(xforms[--encodingsToProcess ]);
-                    if(!match.matches()) break;
-                    switch(match.group(1)) {
-                        case "base64":
+                    switch(steps[--encodingsToProcess ]) {
+                        case BASE64:
                             try {
                                 data = Base64Coder.decode((String) data);
                             } catch (IllegalArgumentException e) {
                                 throw MessageDecodeException.fromDescription("Invalid base64 data received");
                             }
-                            if(lastProcessedEncodingIndex == xforms.length) {
+                            if(lastProcessedEncodingIndex == steps.length) {
                                 lastPayload = data;
                             }
                             continue;
 
-                        case "utf-8":
+                        case UTF8:
                             try { data = new String((byte[])data, "UTF-8"); } catch(UnsupportedEncodingException|ClassCastException e) {}
                             continue;
 
-                        case "json":
+                        case JSON:
                             try {
                                 String jsonText = ((String)data).trim();
                                 data = Serialisation.gsonParser.parse(jsonText);
@@ -128,7 +125,7 @@ public class BaseMessage implements Cloneable {
                             }
                             continue;
 
-                        case "cipher":
+                        case CIPHER:
                             if(opts != null && opts.encrypted) {
                                 try {
                                     data = opts.getCipherSet().getDecipher().decrypt((byte[]) data);
@@ -140,7 +137,7 @@ public class BaseMessage implements Cloneable {
                             else {
                                 throw MessageDecodeException.fromDescription("Encrypted message received but encryption is not set up");
                             }
-                        case "vcdiff":
+                        case VCDIFF:
                             data = vcdiffApply((byte[]) data, context.getLastMessageData());
                             lastPayload = data;
 
@@ -149,7 +146,7 @@ public class BaseMessage implements Cloneable {
                     break;
                 }
             } finally {
-                encoding = (lastProcessedEncodingIndex  <= 0) ? null : join(xforms, '/', 0, lastProcessedEncodingIndex );
+                encoding = chain.remaining(lastProcessedEncodingIndex);
             }
         }
 
@@ -163,15 +160,17 @@ public class BaseMessage implements Cloneable {
     }
 
     public void encode(ChannelOptions opts) throws AblyException {
+        /* the transformations applied here, appended to the existing encoding once at the end */
+        String xforms = null;
         if(data != null) {
             if(data instanceof JsonElement) {
                 data = Serialisation.gson.toJson((JsonElement)data);
-                encoding = ((encoding == null) ? "" : encoding + "/") + "json";
+                xforms = "json";
             }
             if(data instanceof String) {
                 if (opts != null && opts.encrypted) {
                     try { data = ((String)data).getBytes("UTF-8"); } catch(UnsupportedEncodingException e) {}
-                    encoding = ((encoding == null) ? "" : encoding + "/") + "utf-8";
+                    xforms = (xforms == null) ? "utf-8" : "json/utf-8";
                 }
             } else if(!(data instanceof byte[])) {
                 Log.d(TAG, "Message data must be either `byte[]`, `String` or `JSONElement`; implicit coercion of other types to String is deprecated");
@@ -181,17 +180,10 @@ public class BaseMessage implements Cloneable {
         if (opts != null && opts.encrypted) {
             EncryptingChannelCipher cipher = opts.getCipherSet().getEncipher();
             data = cipher.encrypt((byte[]) data);
-            encoding = ((encoding == null) ? "" : encoding + "/") + "cipher+" + cipher.getAlgorithm();
+            xforms = EncodingChain.append(xforms, "cipher+" + cipher.getAlgorithm());
         }
-    }
-
-    /* trivial utilities for processing encoding string */
-    private static Pattern xformPattern = Pattern.compile("([\\-\\w]+)(\\+([\\-\\w]+))?");
-    private String join(String[] elements, char separator, int start, int end) {
-        StringBuilder result = new StringBuilder(elements[start++]);
-        for(int i = start; i < end; i++)
-            result.append(separator).append(elements[i]);
-        return result.toString();
+        if(xforms != null)
+            encoding = EncodingChain.append(encoding, xforms);
     }
 
     /**
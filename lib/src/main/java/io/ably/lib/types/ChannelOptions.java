@@ -2,6 +2,7 @@ package io.ably.lib.types;
 
 import java.util.Map;
 
+import io.ably.lib.transport.Defaults;
 import io.ably.lib.util.Base64Coder;
 import io.ably.lib.util.Crypto;
 import io.ably.lib.util.Crypto.ChannelCipher;
@@ -24,6 +25,39 @@ public class ChannelOptions {
      */
     public boolean encrypted;
 
+    /**
+     * Whether the payloads of messages received on this channel are decoded lazily.
+     * When set, the data of a message is decoded only once it is known to be delivered to
+     * a subscriber, and messages that no subscriber receives are discarded undecoded;
+     * a presence message is decoded only once it is known not to be superseded.
+     * A message is decoded at most once, so listeners observe the same decoded data
+     * as when this option is not set.
+     *
+     * This has no effect on channels with the delta param, where every message must be
+     * decoded in order to apply the next delta.
+     */
+    public boolean lazyDecoding;
+
+    /**
+     * The time, in milliseconds, for which a realtime publish may wait to be merged with
+     * subsequent publishes on this channel into a single protocol message. 0 (the default)
+     * sends each publish immediately. A batch is sent when it reaches
+     * publishBatchMaxMessages or publishBatchMaxBytes, or this time after its first publish.
+     * The CompletionListener of each publish is still called individually.
+     */
+    public long publishLinger;
+
+    /**
+     * The maximum number of messages in a batch of coalesced publishes; see {@link #publishLinger}.
+     */
+    public int publishBatchMaxMessages = Defaults.PUBLISH_BATCH_MAX_MESSAGES;
+
+    /**
+     * The maximum size of a batch of coalesced publishes, estimated from the size of
+     * each message's name, clientId, id, encoding and encoded data; see {@link #publishLinger}.
+     */
+    public int publishBatchMaxBytes = Defaults.PUBLISH_BATCH_MAX_BYTES;
+
     public boolean hasModes() {
         return null != modes && 0 != modes.length;
     }
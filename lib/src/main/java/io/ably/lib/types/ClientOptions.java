@@ -1,5 +1,6 @@
 package io.ably.lib.types;
 
+import io.ably.lib.http.HttpEngine;
 import io.ably.lib.push.Storage;
 import io.ably.lib.rest.Auth.AuthOptions;
 import io.ably.lib.rest.Auth.TokenParams;
@@ -8,6 +9,7 @@ import io.ably.lib.util.Log;
 import io.ably.lib.util.Log.LogHandler;
 
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * Options: Ably library options for REST and Realtime APIs
@@ -168,6 +170,18 @@ public class ClientOptions extends AuthOptions {
      * Spec: TO3l10
      */
     public long fallbackRetryTimeout = Defaults.fallbackRetryTimeout;
+
+    /**
+     * If true, REST requests and realtime connections choose among the primary and
+     * fallback hosts by their measured latency and error rate, preferring the fastest
+     * healthy host, rather than always starting with the primary host and trying the
+     * fallback hosts in random order. Measurements older than fallbackRetryTimeout are
+     * disregarded. Host health is available from
+     * {@link io.ably.lib.http.HttpCore#getHostStats()} and
+     * {@link io.ably.lib.realtime.Connection#getHostStats()} whether or not this is set.
+     */
+    public boolean adaptiveHostSelection;
+
     /**
      * When a TokenParams object is provided, it will override
      * the client library defaults described in TokenParams
@@ -191,6 +205,145 @@ public class ClientOptions extends AuthOptions {
      */
     public int asyncHttpThreadpoolSize = Defaults.HTTP_ASYNC_THREADPOOL_SIZE;
 
+    /**
+     * The factory of the engine that makes REST requests; null (the default) to make each
+     * request with an HttpURLConnection. With a non-blocking engine, such as
+     * {@link io.ably.lib.transport.NioHttpEngine}, async requests occupy a thread of the
+     * asyncHttp threadpool only while their responses are processed, so many requests may
+     * be in progress at once without a thread for each.
+     */
+    public HttpEngine.Factory httpEngineFactory;
+
+    /**
+     * If true, REST requests offer to accept responses compressed with gzip or deflate, and
+     * such responses are decompressed transparently. This reduces the bandwidth used by
+     * JSON-heavy responses, at some cost in CPU. The bytes received, before and after
+     * decompression, are counted in {@link io.ably.lib.http.HttpCore#compressionStats}.
+     */
+    public boolean httpCompression;
+
+    /**
+     * If positive, REST request bodies of at least this many bytes, such as large batch
+     * publishes, are sent compressed with gzip where that makes them smaller. 0 (the
+     * default) sends all request bodies uncompressed.
+     */
+    public int httpRequestCompressionThreshold;
+
+    /**
+     * If true, realtime connections use non-blocking sockets served by a single event loop
+     * thread shared by all clients in the process, instead of a reader thread per connection.
+     * This suits processes with many clients. Inbound messages are processed on the event
+     * loop thread, so listeners that block should be run on a {@link #dispatchExecutor}.
+     */
+    public boolean nonBlockingTransport;
+
+    /**
+     * If true, realtime WebSocket connections offer the permessage-deflate extension
+     * (RFC 7692), so that messages in each direction are compressed if the server accepts it.
+     * This reduces the bandwidth used by text-heavy (JSON) payloads, at some cost in CPU,
+     * and memory for each connection. The bytes sent and received, before and after
+     * compression, are counted in {@link io.ably.lib.realtime.Connection#compressionStats}.
+     */
+    public boolean webSocketCompression;
+
+    /**
+     * The base-2 logarithm of the largest LZ77 window, from 8 to 15, the server may use
+     * to compress messages when webSocketCompression is enabled. A smaller window needs
+     * less memory at each end, at some cost in compression. Messages sent by the client
+     * are compressed with a 15-bit window.
+     */
+    public int webSocketServerMaxWindowBits = Defaults.WEBSOCKET_MAX_WINDOW_BITS;
+
+    /**
+     * If true, when webSocketCompression is enabled, each message sent by the client
+     * is compressed independently of the previous ones. This saves the memory held
+     * for the compression context between messages, at some cost in compression.
+     */
+    public boolean webSocketClientNoContextTakeover;
+
+    /**
+     * If true, when webSocketCompression is enabled, the server is asked to compress
+     * each message independently of the previous ones.
+     */
+    public boolean webSocketServerNoContextTakeover;
+
+    /**
+     * The number of outbound messages, queued for sending or awaiting acknowledgement,
+     * at which a realtime connection becomes unwritable; see
+     * {@link io.ably.lib.realtime.Connection#isWritable()}. 0 (the default) for no limit.
+     * Only messages and presence updates are counted.
+     */
+    public int outboundHighWatermark;
+
+    /**
+     * The number of outbound messages to which the count must fall, once the connection
+     * has become unwritable, for it to become writable again. 0 for half of the
+     * outboundHighWatermark.
+     */
+    public int outboundLowWatermark;
+
+    /**
+     * The response to publishing, or presence updates, while the connection is unwritable.
+     */
+    public BackpressurePolicy backpressurePolicy = BackpressurePolicy.NOTIFY;
+
+    /**
+     * The interval, in milliseconds, over which messages and presence updates for any
+     * channels are collected to be written to a realtime transport together. Each is
+     * still sent in its own frame, but the frames of a batch are written, and encrypted,
+     * in a single operation. 0 (the default) writes each message as it is sent.
+     */
+    public long transportFlushInterval;
+
+    /**
+     * A store in which the state of the realtime connection, and the serial of each
+     * attached channel, is saved periodically and whenever the connection is disconnected.
+     * A client instanced with a store holding a recoverable state, and no explicit
+     * {@link #recover} string, recovers the connection and re-attaches each channel from
+     * its last message received, so that a restarted process resumes where it left off.
+     * The state is cleared when the connection is closed or fails. See
+     * {@link io.ably.lib.util.FileResumeStateStore}. null (the default) for no store.
+     */
+    public ResumeStateStore resumeStateStore;
+
+    /**
+     * The interval, in milliseconds, at which the state is saved to the resumeStateStore
+     * while connected.
+     */
+    public long resumeStateSaveInterval = Defaults.RESUME_STATE_SAVE_INTERVAL;
+
+    /**
+     * The maximum number of msgpack packers, with their buffers, retained for reuse
+     * when serialising outbound messages in the binary protocol. 0 disables reuse.
+     */
+    public int msgpackPackerPoolSize = Defaults.MSGPACK_PACKER_POOL_SIZE;
+
+    /**
+     * The buffer size, in bytes, above which a msgpack packer is discarded after
+     * use instead of being retained for reuse. This bounds the memory held by idle
+     * packers after an unusually large message has been sent.
+     */
+    public int msgpackPackerMaxBufferSize = Defaults.MSGPACK_PACKER_MAX_BUFFER_SIZE;
+
+    /**
+     * An Executor on which realtime MessageListener, PresenceListener and ConnectionStateListener
+     * callbacks are run. Callbacks for each channel, and for the connection, are queued and run
+     * serially in the order of the events, so listeners observe the same ordering as when
+     * callbacks are run by the library's own threads. The library does not shut the executor down.
+     * If null (the default), callbacks are run on the library thread that received the event.
+     */
+    public Executor dispatchExecutor;
+
+    /**
+     * The maximum number of callbacks queued for each channel when a dispatchExecutor is set.
+     * Inbound messages are never held up by a slow executor; when a channel's queue is full,
+     * further callbacks for it are discarded, and counted in AblyRealtime.dispatchMetrics.
+     * The channel then emits an UPDATE event with resumed false and an error, as for any
+     * loss of message continuity, so subscribers know that messages were missed.
+     * 0 (the default) for an unbounded queue, so that no callback is discarded.
+     */
+    public int dispatchQueueCapacity = Defaults.DISPATCH_QUEUE_CAPACITY;
+
     /**
      * Whether to tell Ably to wait for push REST requests to fully wait for all their effects
      * before responding.
@@ -0,0 +1,103 @@
+package io.ably.lib.types;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed message encoding: the transformations named by an encoding string such as
+ * "json/utf-8/cipher+aes-128-cbc/base64", in the order in which they were applied.
+ *
+ * Messages received on a channel typically carry one of only a handful of distinct
+ * encodings, so parsed chains are cached and shared; decoding a message with a
+ * recurring encoding then needs neither a split of the encoding string nor a regex
+ * match per transformation.
+ */
+final class EncodingChain {
+
+    enum Step {
+        BASE64,
+        UTF8,
+        JSON,
+        CIPHER,
+        VCDIFF,
+        /* an unrecognised or malformed transformation, at which decoding stops */
+        UNSUPPORTED
+    }
+
+    /**
+     * The transformations, in the order in which they were applied.
+     */
+    final Step[] steps;
+
+    /**
+     * For each n, the encoding that remains once all but the first n transformations
+     * have been reversed; null for n == 0.
+     */
+    private final String[] remaining;
+
+    private EncodingChain(String encoding) {
+        String[] xforms = encoding.split("\\/");
+        steps = new Step[xforms.length];
+        remaining = new String[xforms.length + 1];
+        StringBuilder prefix = new StringBuilder();
+        for(int i = 0; i < xforms.length; i++) {
+            steps[i] = parseStep(xforms[i]);
+            if(i > 0) prefix.append('/');
+            prefix.append(xforms[i]);
+            remaining[i + 1] = prefix.toString();
+        }
+    }
+
+    /**
+     * The encoding that remains once all but the first count transformations have been reversed.
+     */
+    String remaining(int count) {
+        return remaining[count];
+    }
+
+    /**
+     * Obtain the parsed chain for the given encoding.
+     */
+    static EncodingChain get(String encoding) {
+        EncodingChain chain = cache.get(encoding);
+        if(chain == null) {
+            chain = new EncodingChain(encoding);
+            /* an unexpectedly large number of distinct encodings is not retained */
+            if(cache.size() < MAX_CACHED_CHAINS)
+                cache.put(encoding, chain);
+        }
+        return chain;
+    }
+
+    /**
+     * Append a transformation to an encoding, which may be null.
+     */
+    static String append(String encoding, String xform) {
+        return (encoding == null) ? xform : encoding + '/' + xform;
+    }
+
+    private static Step parseStep(String xform) {
+        Matcher match = xformPattern.matcher(xform);
+        if(!match.matches())
+            return Step.UNSUPPORTED;
+        switch(match.group(1)) {
+            case "base64":
+                return Step.BASE64;
+            case "utf-8":
+                return Step.UTF8;
+            case "json":
+                return Step.JSON;
+            case "cipher":
+                return Step.CIPHER;
+            case "vcdiff":
+                return Step.VCDIFF;
+            default:
+                return Step.UNSUPPORTED;
+        }
+    }
+
+    private static final int MAX_CACHED_CHAINS = 64;
+    private static final ConcurrentHashMap<String, EncodingChain> cache = new ConcurrentHashMap<>();
+    private static final Pattern xformPattern = Pattern.compile("([\\-\\w]+)(\\+([\\-\\w]+))?");
+}
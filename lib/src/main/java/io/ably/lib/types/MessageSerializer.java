@@ -2,12 +2,14 @@ package io.ably.lib.types;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
 import io.ably.lib.http.HttpCore;
 import io.ably.lib.http.HttpUtils;
 import io.ably.lib.util.Log;
+import io.ably.lib.util.MsgpackPackerPool;
 
 import org.msgpack.core.MessageFormat;
 import org.msgpack.core.MessagePacker;
@@ -43,6 +45,15 @@ public class MessageSerializer {
         }
     }
 
+    public static Message[] readMsgpack(InputStream packed) throws AblyException {
+        try {
+            MessageUnpacker unpacker = Serialisation.msgpackUnpackerConfig.newUnpacker(packed);
+            return readMsgpackArray(unpacker);
+        } catch(IOException ioe) {
+            throw AblyException.fromThrowable(ioe);
+        }
+    }
+
     /****************************************
      *            Msgpack encode
      ****************************************/
@@ -55,6 +66,10 @@ public class MessageSerializer {
         return new HttpUtils.ByteArrayRequestBody(writeMsgpackArray(messages), "application/x-msgpack");
     }
 
+    public static HttpCore.RequestBody asMsgpackRequest(Message[] messages, MsgpackPackerPool packerPool) {
+        return new HttpUtils.ByteArrayRequestBody(writeMsgpackArray(messages, packerPool), "application/x-msgpack");
+    }
+
     public static byte[] writeMsgpackArray(Message[] messages) {
         try {
             ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -65,6 +80,19 @@ public class MessageSerializer {
         } catch(IOException e) { return null; }
     }
 
+    public static byte[] writeMsgpackArray(Message[] messages, MsgpackPackerPool packerPool) {
+        MsgpackPackerPool.PooledPacker pooledPacker = packerPool.acquire();
+        try {
+            writeMsgpackArray(messages, pooledPacker.packer);
+            pooledPacker.packer.flush();
+            return pooledPacker.toByteArray();
+        } catch(IOException e) {
+            return null;
+        } finally {
+            pooledPacker.release();
+        }
+    }
+
     public static void writeMsgpackArray(Message[] messages, MessagePacker packer) {
         try {
             int count = messages.length;
@@ -103,6 +131,10 @@ public class MessageSerializer {
         return new HttpUtils.ByteArrayRequestBody(writeMsgpackArray(pubSpecs), "application/x-msgpack");
     }
 
+    public static HttpCore.RequestBody asMsgpackRequest(Message.Batch[] pubSpecs, MsgpackPackerPool packerPool) {
+        return new HttpUtils.ByteArrayRequestBody(writeMsgpackArray(pubSpecs, packerPool), "application/x-msgpack");
+    }
+
     static byte[] writeMsgpackArray(Message.Batch[] pubSpecs) {
         try {
             ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -113,6 +145,19 @@ public class MessageSerializer {
         } catch(IOException e) { return null; }
     }
 
+    static byte[] writeMsgpackArray(Message.Batch[] pubSpecs, MsgpackPackerPool packerPool) {
+        MsgpackPackerPool.PooledPacker pooledPacker = packerPool.acquire();
+        try {
+            writeMsgpackArray(pubSpecs, pooledPacker.packer);
+            pooledPacker.packer.flush();
+            return pooledPacker.toByteArray();
+        } catch(IOException e) {
+            return null;
+        } finally {
+            pooledPacker.release();
+        }
+    }
+
     static void writeMsgpackArray(Message.Batch[] pubSpecs, MessagePacker packer) throws IOException {
         try {
             int count = pubSpecs.length;
@@ -130,6 +175,14 @@ public class MessageSerializer {
         return Serialisation.gson.fromJson(new String(packed), Message[].class);
     }
 
+    public static Message[] readMessagesFromJson(InputStream json) throws AblyException {
+        try {
+            return Serialisation.jsonStreamToArray(json, Message.class);
+        } catch(IOException ioe) {
+            throw AblyException.fromThrowable(ioe);
+        }
+    }
+
     /****************************************
      *            JSON encode
      ****************************************/
@@ -150,11 +203,11 @@ public class MessageSerializer {
      *              BodyHandler
      ****************************************/
 
-    public static HttpCore.BodyHandler<Message> getMessageResponseHandler(ChannelOptions opts) {
+    public static HttpCore.StreamingBodyHandler<Message> getMessageResponseHandler(ChannelOptions opts) {
         return opts == null ? messageResponseHandler : new MessageBodyHandler(opts);
     }
 
-    private static class MessageBodyHandler implements HttpCore.BodyHandler<Message> {
+    private static class MessageBodyHandler implements HttpCore.StreamingBodyHandler<Message> {
 
         MessageBodyHandler(ChannelOptions opts) { this.opts = opts; }
 
@@ -166,24 +219,38 @@ public class MessageSerializer {
                     messages = readMessagesFromJson(body);
                 else if("application/x-msgpack".equals(contentType))
                     messages = readMsgpack(body);
-                if(messages != null) {
-                    for (Message message : messages) {
-                        try {
-                            message.decode(opts);
-                        } catch (MessageDecodeException e) {
-                            Log.e(TAG, e.errorInfo.message);
-                        }
-                    }
-                }
-                return messages;
+                return decode(messages);
             } catch (MessageDecodeException e) {
                 throw AblyException.fromThrowable(e);
             }
         }
 
+        @Override
+        public Message[] handleResponseBody(String contentType, InputStream body) throws AblyException {
+            Message[] messages = null;
+            if("application/json".equals(contentType))
+                messages = readMessagesFromJson(body);
+            else if("application/x-msgpack".equals(contentType))
+                messages = readMsgpack(body);
+            return decode(messages);
+        }
+
+        private Message[] decode(Message[] messages) {
+            if(messages != null) {
+                for (Message message : messages) {
+                    try {
+                        message.decode(opts);
+                    } catch (MessageDecodeException e) {
+                        Log.e(TAG, e.errorInfo.message);
+                    }
+                }
+            }
+            return messages;
+        }
+
         private ChannelOptions opts;
     }
 
-    private static HttpCore.BodyHandler<Message> messageResponseHandler = new MessageBodyHandler(null);
+    private static HttpCore.StreamingBodyHandler<Message> messageResponseHandler = new MessageBodyHandler(null);
     private static final String TAG = MessageSerializer.class.getName();
 }
@@ -2,6 +2,7 @@ package io.ably.lib.types;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import io.ably.lib.http.HttpCore;
 import io.ably.lib.http.HttpUtils;
@@ -39,6 +40,15 @@ public class PresenceSerializer {
         }
     }
 
+    public static PresenceMessage[] readMsgpack(InputStream packed) throws AblyException {
+        try {
+            MessageUnpacker unpacker = Serialisation.msgpackUnpackerConfig.newUnpacker(packed);
+            return readMsgpackArray(unpacker);
+        } catch(IOException ioe) {
+            throw AblyException.fromThrowable(ioe);
+        }
+    }
+
     /****************************************
      *            Msgpack encode
      ****************************************/
@@ -70,6 +80,10 @@ public class PresenceSerializer {
         return Serialisation.gson.fromJson(new String(packed), PresenceMessage[].class);
     }
 
+    private static PresenceMessage[] readJson(InputStream json) throws IOException {
+        return Serialisation.jsonStreamToArray(json, PresenceMessage.class);
+    }
+
     /****************************************
      *            JSON encode
      ****************************************/
@@ -86,11 +100,11 @@ public class PresenceSerializer {
      *              BodyHandler
      ****************************************/
 
-    public static HttpCore.BodyHandler<PresenceMessage> getPresenceResponseHandler(ChannelOptions opts) {
+    public static HttpCore.StreamingBodyHandler<PresenceMessage> getPresenceResponseHandler(ChannelOptions opts) {
         return opts == null ? presenceResponseHandler : new PresenceBodyHandler(opts);
     }
 
-    private static class PresenceBodyHandler implements HttpCore.BodyHandler<PresenceMessage> {
+    private static class PresenceBodyHandler implements HttpCore.StreamingBodyHandler<PresenceMessage> {
 
         PresenceBodyHandler(ChannelOptions opts) { this.opts = opts; }
 
@@ -102,25 +116,43 @@ public class PresenceSerializer {
                     messages = readJson(body);
                 else if("application/x-msgpack".equals(contentType))
                     messages = readMsgpack(body);
-                if(messages != null) {
-                    for (PresenceMessage message : messages) {
-                        try {
-                            message.decode(opts);
-                        } catch (MessageDecodeException e) {
-                            Log.e(TAG, e.errorInfo.message);
-                        }
-                    }
-                }
-                return messages;
+                return decode(messages);
             } catch(IOException e) {
                 throw AblyException.fromThrowable(e);
             }
         }
 
+        @Override
+        public PresenceMessage[] handleResponseBody(String contentType, InputStream body) throws AblyException {
+            try {
+                PresenceMessage[] messages = null;
+                if("application/json".equals(contentType))
+                    messages = readJson(body);
+                else if("application/x-msgpack".equals(contentType))
+                    messages = readMsgpack(body);
+                return decode(messages);
+            } catch(IOException e) {
+                throw AblyException.fromThrowable(e);
+            }
+        }
+
+        private PresenceMessage[] decode(PresenceMessage[] messages) {
+            if(messages != null) {
+                for (PresenceMessage message : messages) {
+                    try {
+                        message.decode(opts);
+                    } catch (MessageDecodeException e) {
+                        Log.e(TAG, e.errorInfo.message);
+                    }
+                }
+            }
+            return messages;
+        }
+
         private ChannelOptions opts;
     }
 
-    private static HttpCore.BodyHandler<PresenceMessage> presenceResponseHandler = new PresenceBodyHandler(null);
+    private static HttpCore.StreamingBodyHandler<PresenceMessage> presenceResponseHandler = new PresenceBodyHandler(null);
 
     private static final String TAG = PresenceSerializer.class.getName();
 }
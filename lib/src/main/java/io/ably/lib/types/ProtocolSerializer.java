@@ -2,11 +2,14 @@ package io.ably.lib.types;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 import org.msgpack.core.MessagePacker;
 import org.msgpack.core.MessageUnpacker;
+import org.msgpack.core.buffer.ByteBufferInput;
 
+import io.ably.lib.util.MsgpackPackerPool;
 import io.ably.lib.util.Serialisation;
 
 public class ProtocolSerializer {
@@ -24,6 +27,42 @@ public class ProtocolSerializer {
         }
     }
 
+    /**
+     * Decode a ProtocolMessage directly from the remaining bytes of the given buffer,
+     * without first copying them into an array.
+     */
+    public static ProtocolMessage readMsgpack(ByteBuffer packed) throws AblyException {
+        try {
+            MessageUnpacker unpacker = Serialisation.msgpackUnpackerConfig.newUnpacker(packed);
+            return ProtocolMessage.fromMsgpack(unpacker);
+        } catch (IOException ioe) {
+            throw AblyException.fromThrowable(ioe);
+        }
+    }
+
+    /**
+     * A msgpack decoder for a sequence of ProtocolMessages, such as the frames received
+     * on a single transport. The unpacker and its input are reused for every message,
+     * and each message is read in place from the buffer it is received in.
+     *
+     * Instances are not thread-safe; they are intended to be used only by the thread
+     * that reads from the transport.
+     */
+    public static class MsgpackDecoder {
+        private final ByteBufferInput input = new ByteBufferInput(ByteBuffer.allocate(0));
+        private final MessageUnpacker unpacker = Serialisation.msgpackUnpackerConfig.newUnpacker(input);
+
+        public ProtocolMessage readMsgpack(ByteBuffer packed) throws AblyException {
+            try {
+                input.reset(packed);
+                unpacker.reset(input);
+                return ProtocolMessage.fromMsgpack(unpacker);
+            } catch (IOException ioe) {
+                throw AblyException.fromThrowable(ioe);
+            }
+        }
+    }
+
     /****************************************
      *            Msgpack encode
      ****************************************/
@@ -39,6 +78,26 @@ public class ProtocolSerializer {
         } catch(IOException e) { return null; }
     }
 
+    public static byte[] writeMsgpack(ProtocolMessage message, MsgpackPackerPool packerPool) {
+        MsgpackPackerPool.PooledPacker pooledPacker = packerPool.acquire();
+        try {
+            writeMsgpack(message, pooledPacker.packer);
+            return pooledPacker.toByteArray();
+        } catch(IOException e) {
+            return null;
+        } finally {
+            pooledPacker.release();
+        }
+    }
+
+    /**
+     * Write the given message to the packer, and flush it.
+     */
+    public static void writeMsgpack(ProtocolMessage message, MessagePacker packer) throws IOException {
+        message.writeMsgpack(packer);
+        packer.flush();
+    }
+
     /****************************************
      *              JSON decode
      ****************************************/
@@ -0,0 +1,55 @@
+package io.ably.lib.types;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A snapshot of the state of a realtime connection and its attached channels, from
+ * which a new client instance, such as one in a restarted process, can recover the
+ * connection and resume each channel from the last message received.
+ * See {@link ClientOptions#resumeStateStore}.
+ */
+public class ResumeState {
+    /**
+     * The id of the connection.
+     */
+    public String connectionId;
+
+    /**
+     * The private connection key, from which the connection is recovered.
+     */
+    public String connectionKey;
+
+    /**
+     * The serial of the last message received on the connection.
+     */
+    public long connectionSerial;
+
+    /**
+     * The serial to be assigned to the next message sent on the connection.
+     */
+    public long msgSerial;
+
+    /**
+     * The time for which the connection remains recoverable once disconnected,
+     * in milliseconds.
+     */
+    public long connectionStateTtl;
+
+    /**
+     * The time the snapshot was taken, in milliseconds since the epoch.
+     */
+    public long timestamp;
+
+    /**
+     * For each attached channel, the channel serial from which it is to be resumed.
+     */
+    public Map<String, String> channelSerials = new HashMap<>();
+
+    /**
+     * Whether the connection can still be recovered at the given time.
+     */
+    public boolean isRecoverable(long now) {
+        return connectionKey != null && now - timestamp < connectionStateTtl;
+    }
+}
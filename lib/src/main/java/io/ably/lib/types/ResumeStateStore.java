@@ -0,0 +1,28 @@
+package io.ably.lib.types;
+
+/**
+ * Persistent storage for the {@link ResumeState} of a realtime client.
+ * Methods are called from library threads; they are not called concurrently.
+ */
+public interface ResumeStateStore {
+    /**
+     * Load the last state saved.
+     * @return the state, or null if none has been saved
+     * @throws AblyException
+     */
+    ResumeState load() throws AblyException;
+
+    /**
+     * Save the state, replacing any saved previously.
+     * @param state the state
+     * @throws AblyException
+     */
+    void save(ResumeState state) throws AblyException;
+
+    /**
+     * Discard any saved state; called when the connection is closed or fails,
+     * after which it cannot be recovered.
+     * @throws AblyException
+     */
+    void clear() throws AblyException;
+}
@@ -1,5 +1,7 @@
 package io.ably.lib.types;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 
 import io.ably.lib.http.HttpCore;
@@ -23,12 +25,27 @@ public class StatsReader  {
         return Serialisation.gson.fromJson(packed, Stats[].class);
     }
 
-    public static HttpCore.BodyHandler<Stats> statsResponseHandler = new HttpCore.BodyHandler<Stats>() {
+    public static Stats[] readJson(InputStream json) throws AblyException {
+        try {
+            return Serialisation.jsonStreamToArray(json, Stats.class);
+        } catch (IOException e) {
+            throw AblyException.fromThrowable(e);
+        }
+    }
+
+    public static HttpCore.StreamingBodyHandler<Stats> statsResponseHandler = new HttpCore.StreamingBodyHandler<Stats>() {
         @Override
         public Stats[] handleResponseBody(String contentType, byte[] body) throws AblyException {
             if("application/json".equals(contentType))
                 return readJson(body);
             return null;
         }
+
+        @Override
+        public Stats[] handleResponseBody(String contentType, InputStream body) throws AblyException {
+            if("application/json".equals(contentType))
+                return readJson(body);
+            return null;
+        }
     };
 }
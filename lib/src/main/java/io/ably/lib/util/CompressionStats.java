@@ -0,0 +1,72 @@
+package io.ably.lib.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts of the bytes sent and received through a compressing codec, both
+ * before compression (raw) and after (compressed), so the saving can be measured.
+ * Only data that passed through the codec is counted.
+ *
+ * Methods on this class are safe to be called from any thread.
+ */
+public class CompressionStats {
+
+    private final AtomicLong rawBytesSent = new AtomicLong();
+    private final AtomicLong compressedBytesSent = new AtomicLong();
+    private final AtomicLong rawBytesReceived = new AtomicLong();
+    private final AtomicLong compressedBytesReceived = new AtomicLong();
+
+    /**
+     * Record data compressed for sending.
+     * @param rawBytes the size of the data before compression
+     * @param compressedBytes the size of the data as sent
+     */
+    public void recordSent(long rawBytes, long compressedBytes) {
+        rawBytesSent.addAndGet(rawBytes);
+        compressedBytesSent.addAndGet(compressedBytes);
+    }
+
+    /**
+     * Record data received and decompressed.
+     * @param rawBytes the size of the data after decompression
+     * @param compressedBytes the size of the data as received
+     */
+    public void recordReceived(long rawBytes, long compressedBytes) {
+        rawBytesReceived.addAndGet(rawBytes);
+        compressedBytesReceived.addAndGet(compressedBytes);
+    }
+
+    /**
+     * The total size of data sent, before compression.
+     */
+    public long getRawBytesSent() {
+        return rawBytesSent.get();
+    }
+
+    /**
+     * The total size of data sent, after compression.
+     */
+    public long getCompressedBytesSent() {
+        return compressedBytesSent.get();
+    }
+
+    /**
+     * The total size of data received, after decompression.
+     */
+    public long getRawBytesReceived() {
+        return rawBytesReceived.get();
+    }
+
+    /**
+     * The total size of data received, before decompression.
+     */
+    public long getCompressedBytesReceived() {
+        return compressedBytesReceived.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStats{sent=" + getCompressedBytesSent() + "/" + getRawBytesSent()
+            + ", received=" + getCompressedBytesReceived() + "/" + getRawBytesReceived() + "}";
+    }
+}
@@ -0,0 +1,69 @@
+package io.ably.lib.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing the dispatch of listener callbacks through the
+ * SerialExecutors of a client, when a dispatch executor is configured.
+ *
+ * Methods on this class are safe to be called from any thread.
+ */
+public class DispatchMetrics {
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    /**
+     * The number of callbacks queued for dispatch.
+     */
+    public long getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * The number of queued callbacks that have been run.
+     */
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    /**
+     * The number of callbacks currently queued and not yet run.
+     */
+    public long getPending() {
+        return queued.get() - dispatched.get();
+    }
+
+    /**
+     * The number of callbacks discarded because their queue was full.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * The greatest number of callbacks observed in any one queue.
+     */
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    void onQueued(int queueDepth) {
+        queued.incrementAndGet();
+        long max;
+        while(queueDepth > (max = maxQueueDepth.get())) {
+            if(maxQueueDepth.compareAndSet(max, queueDepth))
+                break;
+        }
+    }
+
+    void onDispatched() {
+        dispatched.incrementAndGet();
+    }
+
+    void onDropped() {
+        dropped.incrementAndGet();
+    }
+}
@@ -1,10 +1,7 @@
 package io.ably.lib.util;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * An interface exposing the ability to register listeners for a class of events
@@ -15,12 +12,18 @@ import java.util.Map;
  */
 public abstract class EventEmitter<Event, Listener> {
 
+    /*
+     * The registered listeners and filters are held in immutable arrays, replaced
+     * on each registration change. Changes are serialised by synchronizing on this
+     * emitter; emit() reads the current arrays without locking or copying.
+     */
+
     /**
      * Remove all registered listeners irrespective of type
      */
     public synchronized void off() {
-        listeners.clear();
-        filters.clear();
+        listeners = EMPTY;
+        filters = EMPTY;
     }
 
     /**
@@ -28,8 +31,8 @@ public abstract class EventEmitter<Event, Listener> {
      * @param listener
      */
     public synchronized void on(Listener listener) {
-        if(!listeners.contains(listener))
-            listeners.add(listener);
+        if(indexOf(listeners, listener) < 0)
+            listeners = append(listeners, listener);
     }
 
     /**
@@ -37,7 +40,7 @@ public abstract class EventEmitter<Event, Listener> {
      * @param listener
      */
     public synchronized void once(Listener listener) {
-        filters.put(listener, new Filter(null, listener, true));
+        putFilter(new Filter(null, listener, true));
     }
 
     /**
@@ -45,8 +48,8 @@ public abstract class EventEmitter<Event, Listener> {
      * @param listener
      */
     public synchronized void off(Listener listener) {
-        listeners.remove(listener);
-        filters.remove(listener);
+        listeners = remove(listeners, indexOf(listeners, listener));
+        filters = remove(filters, indexOfFilter(listener));
     }
 
     /**
@@ -54,7 +57,7 @@ public abstract class EventEmitter<Event, Listener> {
      * @param listener
      */
     public synchronized void on(Event event, Listener listener) {
-        filters.put(listener, new Filter(event, listener, false));
+        putFilter(new Filter(event, listener, false));
     }
 
     /**
@@ -62,7 +65,7 @@ public abstract class EventEmitter<Event, Listener> {
      * @param listener
      */
     public synchronized void once(Event event, Listener listener) {
-        filters.put(listener, new Filter(event, listener, true));
+        putFilter(new Filter(event, listener, true));
     }
 
     /**
@@ -71,33 +74,34 @@ public abstract class EventEmitter<Event, Listener> {
      * @param event
      */
     public synchronized void off(Event event, Listener listener) {
-        Filter filter = filters.get(listener);
-        if(filter != null && filter.event == event)
-            filters.remove(listener);
+        int index = indexOfFilter(listener);
+        if(index >= 0 && filterAt(filters, index).event == event)
+            filters = remove(filters, index);
     }
 
     /**
-     * Emit the given event (broadcasting to registered listeners)
+     * Emit the given event (broadcasting to registered listeners).
+     * This method does not lock the emitter, and may be called from any thread.
      * @param event the Event
      * @param args the arguments to pass to listeners
      */
-    public synchronized void emit(Event event, Object... args) {
+    @SuppressWarnings("unchecked")
+    public void emit(Event event, Object... args) {
         /*
          * The set of listeners called by emit must not change over the course of the emit
          * Refer RTE6a part of Spec for more details.
-         * To address this issue, we clone the listeners before calling emit.
+         * The registered listeners are never modified in place, so this is a snapshot.
          */
-        List<Listener> clonedListeners = new ArrayList<>(listeners);
-
-        for (Listener listener : clonedListeners) {
-            apply(listener, event, args);
+        final Object[] listeners = this.listeners;
+        for (Object listener : listeners) {
+            apply((Listener) listener, event, args);
         }
 
-        Map<Listener, Filter> clonedFilters = new HashMap<>(filters);
-        for (Iterator<Map.Entry<Listener, Filter>> it = clonedFilters.entrySet().iterator(); it.hasNext(); ) {
-            Map.Entry<Listener, Filter> entry = it.next();
-            if (entry.getValue().apply(event, args)) {
-                filters.remove(entry.getKey());
+        final Object[] filters = this.filters;
+        for (Object filter : filters) {
+            Filter entry = (Filter) filter;
+            if (entry.apply(event, args)) {
+                removeFilter(entry);
             }
         }
     }
@@ -109,8 +113,12 @@ public abstract class EventEmitter<Event, Listener> {
         private Event event;
         private Listener listener;
         private boolean once;
+        /* set when a once filter is claimed, so it is applied once even if emitted concurrently */
+        private final AtomicBoolean fired = new AtomicBoolean();
         protected boolean apply(Event event, Object... args) {
             if(this.event == event || this.event == null) {
+                if(once && !fired.compareAndSet(false, true))
+                    return false;
                 EventEmitter.this.apply(listener, event, args);
                 return once;
             }
@@ -118,6 +126,66 @@ public abstract class EventEmitter<Event, Listener> {
         }
     }
 
-    Map<Listener, Filter> filters = new HashMap<Listener, Filter>();
-    List<Listener> listeners = new ArrayList<Listener>();
+    /**
+     * Add a filter, replacing any existing filter for the same listener.
+     */
+    private void putFilter(Filter filter) {
+        int index = indexOfFilter(filter.listener);
+        if(index < 0) {
+            filters = append(filters, filter);
+        } else {
+            Object[] updated = filters.clone();
+            updated[index] = filter;
+            filters = updated;
+        }
+    }
+
+    /**
+     * Remove a filter that has fired, if it has not since been replaced or removed.
+     */
+    private synchronized void removeFilter(Filter filter) {
+        filters = remove(filters, indexOf(filters, filter));
+    }
+
+    private int indexOfFilter(Listener listener) {
+        final Object[] filters = this.filters;
+        for(int i = 0; i < filters.length; i++) {
+            if(filterAt(filters, i).listener.equals(listener))
+                return i;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Filter filterAt(Object[] filters, int index) {
+        return (Filter) filters[index];
+    }
+
+    private static int indexOf(Object[] elements, Object element) {
+        for(int i = 0; i < elements.length; i++) {
+            if(elements[i].equals(element))
+                return i;
+        }
+        return -1;
+    }
+
+    private static Object[] append(Object[] elements, Object element) {
+        Object[] updated = Arrays.copyOf(elements, elements.length + 1);
+        updated[elements.length] = element;
+        return updated;
+    }
+
+    private static Object[] remove(Object[] elements, int index) {
+        if(index < 0)
+            return elements;
+        Object[] updated = new Object[elements.length - 1];
+        System.arraycopy(elements, 0, updated, 0, index);
+        System.arraycopy(elements, index + 1, updated, index, updated.length - index);
+        return updated;
+    }
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private volatile Object[] filters = EMPTY;
+    private volatile Object[] listeners = EMPTY;
 }
@@ -0,0 +1,92 @@
+package io.ably.lib.util;
+
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ResumeState;
+import io.ably.lib.types.ResumeStateStore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * A {@link ResumeStateStore} holding the state as JSON in a file. Each save writes
+ * a temporary file alongside, which then replaces the file, so a process that exits
+ * during a save leaves the previous state intact.
+ */
+public class FileResumeStateStore implements ResumeStateStore {
+
+    private final File file;
+    private final File tempFile;
+
+    /**
+     * @param file the file in which the state is held; its directory must exist
+     */
+    public FileResumeStateStore(File file) {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+    }
+
+    @Override
+    public ResumeState load() throws AblyException {
+        if(!file.exists()) {
+            return null;
+        }
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), UTF8);
+            return Serialisation.gson.fromJson(reader, ResumeState.class);
+        } catch(IOException | RuntimeException e) {
+            /* an unreadable state is discarded, as if none had been saved */
+            Log.e(TAG, "Unable to read resume state; file = " + file, e);
+            return null;
+        } finally {
+            close(reader);
+        }
+    }
+
+    @Override
+    public void save(ResumeState state) throws AblyException {
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), UTF8);
+            try {
+                Serialisation.gson.toJson(state, writer);
+                /* closed here, rather than quietly, so that a failure to write is reported */
+                writer.close();
+                writer = null;
+            } finally {
+                close(writer);
+            }
+            /* rename does not replace an existing file on every platform */
+            if(!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+                throw new IOException("Unable to replace " + file);
+            }
+        } catch(IOException e) {
+            throw AblyException.fromThrowable(e);
+        }
+    }
+
+    @Override
+    public void clear() throws AblyException {
+        if(file.exists() && !file.delete()) {
+            throw AblyException.fromThrowable(new IOException("Unable to delete " + file));
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if(closeable != null) {
+            try {
+                closeable.close();
+            } catch(IOException e) {}
+        }
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String TAG = FileResumeStateStore.class.getName();
+}
@@ -0,0 +1,227 @@
+package io.ably.lib.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timer for large numbers of timeouts, such as those of the operations on every
+ * channel of a connection. Timeouts are held in a wheel of buckets, each spanning one
+ * tick, so scheduling and cancelling a timeout are constant-time operations and a
+ * single thread serves every timeout, however many are pending.
+ *
+ * Timeouts expire up to one tick late. Their tasks are run on the timer's thread, so
+ * must not block. The thread is started when a timeout is scheduled, and exits once no
+ * timeouts remain pending, or the timer is closed.
+ *
+ * Methods on this class are safe to be called from any thread.
+ */
+public class HashedWheelTimer {
+
+    private final String name;
+    private final long tickNanos;
+    private final Timeout[] wheel;
+    private final int mask;
+    private final Object lock = new Object();
+
+    /* the following are guarded by lock */
+    private Thread worker;
+    /* in System.nanoTime(), so unaffected by changes to the wall clock */
+    private long startTime;
+    private long tick;
+    private int pending;
+    private long scheduledCount;
+    private long expiredCount;
+    private long cancelledCount;
+
+    /**
+     * @param name the name of the timer thread
+     * @param tickMillis the duration of each tick, in milliseconds
+     * @param wheelSize the number of buckets; rounded up to a power of 2
+     */
+    public HashedWheelTimer(String name, long tickMillis, int wheelSize) {
+        int size = 1;
+        while(size < wheelSize) size <<= 1;
+        this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheel = new Timeout[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Schedule a task to be run once the given delay has elapsed.
+     * @return a handle by which the timeout may be cancelled
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task);
+        synchronized(lock) {
+            if(worker == null) {
+                startTime = System.nanoTime();
+                tick = 0;
+                worker = new Thread(new Worker(), name);
+                worker.setDaemon(true);
+                worker.start();
+            }
+            long elapsed = System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(delayMillis, 0));
+            /* the tick at the end of which the timeout expires; never one already processed */
+            long expiryTick = Math.max((elapsed + tickNanos - 1) / tickNanos - 1, tick);
+            timeout.rounds = (expiryTick - tick) / wheel.length;
+            timeout.bucket = (int)(expiryTick & mask);
+            link(timeout);
+            ++pending;
+            ++scheduledCount;
+        }
+        return timeout;
+    }
+
+    /**
+     * Cancel all pending timeouts, and stop the timer thread.
+     * The timer remains usable; a timeout scheduled after close starts a new thread.
+     */
+    public void close() {
+        synchronized(lock) {
+            for(int i = 0; i < wheel.length; i++) {
+                for(Timeout timeout = wheel[i]; timeout != null; ) {
+                    Timeout next = timeout.next;
+                    timeout.done = true;
+                    timeout.prev = timeout.next = null;
+                    timeout = next;
+                }
+                wheel[i] = null;
+            }
+            cancelledCount += pending;
+            pending = 0;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * The number of timeouts scheduled and neither expired nor cancelled.
+     */
+    public int pending() {
+        synchronized(lock) {
+            return pending;
+        }
+    }
+
+    /**
+     * The number of timeouts scheduled since the timer was created.
+     */
+    public long getScheduled() {
+        synchronized(lock) {
+            return scheduledCount;
+        }
+    }
+
+    /**
+     * The number of timeouts that have expired, running their tasks.
+     */
+    public long getExpired() {
+        synchronized(lock) {
+            return expiredCount;
+        }
+    }
+
+    /**
+     * The number of timeouts cancelled before expiry, including those pending when the timer was closed.
+     */
+    public long getCancelled() {
+        synchronized(lock) {
+            return cancelledCount;
+        }
+    }
+
+    private void link(Timeout timeout) {
+        Timeout head = wheel[timeout.bucket];
+        timeout.next = head;
+        if(head != null) head.prev = timeout;
+        wheel[timeout.bucket] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if(timeout.prev != null) timeout.prev.next = timeout.next;
+        else wheel[timeout.bucket] = timeout.next;
+        if(timeout.next != null) timeout.next.prev = timeout.prev;
+        timeout.prev = timeout.next = null;
+    }
+
+    public class Timeout {
+        private final Runnable task;
+        private long rounds;
+        private int bucket;
+        private Timeout prev, next;
+        /* guarded by lock */
+        private boolean done;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * Cancel this timeout, if it has not already expired.
+         * @return true if the timeout was cancelled; false if it had already expired or been cancelled
+         */
+        public boolean cancel() {
+            synchronized(lock) {
+                if(done) return false;
+                done = true;
+                unlink(this);
+                --pending;
+                ++cancelledCount;
+                return true;
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            while(true) {
+                Timeout expired = null;
+                synchronized(lock) {
+                    if(pending == 0) {
+                        worker = null;
+                        return;
+                    }
+                    long tickEnd = startTime + (tick + 1) * tickNanos;
+                    long remaining;
+                    while((remaining = tickEnd - System.nanoTime()) > 0 && pending > 0) {
+                        try {
+                            lock.wait(TimeUnit.NANOSECONDS.toMillis(remaining + 999999L));
+                        } catch(InterruptedException e) {}
+                    }
+                    if(pending == 0) {
+                        continue;
+                    }
+                    /* collect expired timeouts from this tick's bucket into a list of their own */
+                    int bucket = (int)(tick & mask);
+                    for(Timeout timeout = wheel[bucket]; timeout != null; ) {
+                        Timeout next = timeout.next;
+                        if(timeout.rounds <= 0) {
+                            unlink(timeout);
+                            timeout.done = true;
+                            --pending;
+                            ++expiredCount;
+                            timeout.next = expired;
+                            expired = timeout;
+                        } else {
+                            --timeout.rounds;
+                        }
+                        timeout = next;
+                    }
+                    ++tick;
+                }
+                while(expired != null) {
+                    Timeout next = expired.next;
+                    expired.next = null;
+                    try {
+                        expired.task.run();
+                    } catch(Throwable t) {
+                        Log.e(TAG, "Unexpected exception in timer task", t);
+                    }
+                    expired = next;
+                }
+            }
+        }
+    }
+
+    private static final String TAG = HashedWheelTimer.class.getName();
+}
@@ -0,0 +1,120 @@
+package io.ably.lib.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies, in milliseconds, with buckets of exponentially
+ * increasing width: bucket 0 counts latencies of 0ms, and bucket n counts
+ * latencies from 2^(n-1)ms up to, but excluding, 2^n ms.
+ *
+ * Methods on this class are safe to be called from any thread.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of buckets; the last counts all latencies of 2^30ms or more.
+     */
+    public static final int BUCKET_COUNT = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency.
+     * @param millis the latency, in milliseconds; negative values are recorded as 0
+     */
+    public void record(long millis) {
+        if(millis < 0) millis = 0;
+        buckets.incrementAndGet(bucketFor(millis));
+        count.incrementAndGet();
+        total.addAndGet(millis);
+        long current;
+        while(millis < (current = min.get())) {
+            if(min.compareAndSet(current, millis))
+                break;
+        }
+        while(millis > (current = max.get())) {
+            if(max.compareAndSet(current, millis))
+                break;
+        }
+    }
+
+    /**
+     * The number of latencies recorded.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * The least latency recorded, in milliseconds; 0 if none has been recorded.
+     */
+    public long getMin() {
+        return count.get() == 0 ? 0 : min.get();
+    }
+
+    /**
+     * The greatest latency recorded, in milliseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * The mean latency recorded, in milliseconds; 0 if none has been recorded.
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double)total.get() / n;
+    }
+
+    /**
+     * An upper bound on the given percentile of the latencies recorded: the
+     * upper bound of the bucket in which that percentile falls, limited to the
+     * greatest latency recorded.
+     * @param percentile the percentile, from 0 to 100
+     * @return the latency, in milliseconds; 0 if none has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = getBuckets();
+        long n = 0;
+        for(long bucketCount : counts) n += bucketCount;
+        if(n == 0) return 0;
+        long rank = Math.max(1, (long)Math.ceil(n * Math.min(Math.max(percentile, 0), 100) / 100));
+        long cumulative = 0;
+        for(int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            if(cumulative >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * The count of latencies in each bucket.
+     */
+    public long[] getBuckets() {
+        long[] result = new long[BUCKET_COUNT];
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            result[i] = buckets.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * The greatest latency, in milliseconds, counted by the given bucket.
+     */
+    public static long upperBound(int bucket) {
+        return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    private static int bucketFor(long millis) {
+        int bucket = 64 - Long.numberOfLeadingZeros(millis);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+}
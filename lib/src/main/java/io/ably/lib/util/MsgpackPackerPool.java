@@ -0,0 +1,128 @@
+package io.ably.lib.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import org.msgpack.core.MessagePacker;
+
+/**
+ * A bounded pool of msgpack packers, each writing to its own reusable in-memory
+ * buffer. Serialising an outbound message with a pooled packer avoids allocating
+ * a new packer, and a new growing buffer, for every message.
+ *
+ * Methods on this class are safe to be called from any thread; a PooledPacker
+ * must only be used by one thread at a time, between acquire() and release().
+ */
+public class MsgpackPackerPool {
+
+    private final int poolSize;
+    private final int maxBufferSize;
+    private final ArrayDeque<PooledPacker> pool = new ArrayDeque<>();
+
+    /**
+     * @param poolSize the maximum number of idle packers retained for reuse; 0 disables pooling
+     * @param maxBufferSize packers whose buffer has grown beyond this size, in bytes,
+     * are discarded on release instead of being retained
+     */
+    public MsgpackPackerPool(int poolSize, int maxBufferSize) {
+        this.poolSize = poolSize;
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    /**
+     * Obtain an empty packer, from the pool if one is available.
+     */
+    public PooledPacker acquire() {
+        PooledPacker packer;
+        synchronized(pool) {
+            packer = pool.poll();
+        }
+        return (packer != null) ? packer : new PooledPacker();
+    }
+
+    /**
+     * Return a packer to the pool. Its content is discarded.
+     */
+    public void release(PooledPacker packer) {
+        if(!packer.reset() || packer.capacity() > maxBufferSize) {
+            return;
+        }
+        synchronized(pool) {
+            if(pool.size() < poolSize) {
+                pool.push(packer);
+            }
+        }
+    }
+
+    public class PooledPacker {
+        public final MessagePacker packer;
+        private final Buffer buffer;
+
+        private PooledPacker() {
+            buffer = new Buffer();
+            packer = Serialisation.msgpackPackerConfig.newPacker(buffer);
+        }
+
+        /**
+         * The number of bytes written. The packer must have been flushed.
+         */
+        public int size() {
+            return buffer.size();
+        }
+
+        /**
+         * A copy of the bytes written. The packer must have been flushed.
+         */
+        public byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
+
+        /**
+         * A view of the bytes written, without copying. The packer must have been flushed,
+         * and the view is only valid until this packer is released.
+         */
+        public ByteBuffer toByteBuffer() {
+            return buffer.toByteBuffer();
+        }
+
+        /**
+         * Return this packer to the pool it was acquired from.
+         */
+        public void release() {
+            MsgpackPackerPool.this.release(this);
+        }
+
+        private int capacity() {
+            return buffer.capacity();
+        }
+
+        /**
+         * Discard any content, including anything left unflushed by a failed write.
+         * @return false if the packer is not in a reusable state
+         */
+        private boolean reset() {
+            try {
+                packer.flush();
+            } catch(IOException e) {
+                return false;
+            }
+            buffer.reset();
+            return true;
+        }
+    }
+
+    /**
+     * A ByteArrayOutputStream whose content can be read in place.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        private ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+    }
+}
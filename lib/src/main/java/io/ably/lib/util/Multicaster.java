@@ -1,6 +1,7 @@
 package io.ably.lib.util;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -8,20 +9,43 @@ import java.util.List;
  * @param <T> The type of elements being added to this multicaster - the listeners.
  */
 public abstract class Multicaster<T> {
-    private final List<T> members = new ArrayList<>();
+    /* an immutable snapshot, replaced on each change to the members */
+    private volatile List<T> members = Collections.emptyList();
 
-    public Multicaster(T... members) { for(T m : members) this.members.add(m); }
+    public Multicaster(T... members) { for(T m : members) add(m); }
 
-    public synchronized void add(T member) { members.add(member); }
-    public synchronized void remove(T member) { members.remove(member); }
-    public synchronized void clear() { members.clear(); }
-    public synchronized boolean isEmpty() { return members.isEmpty(); }
-    public synchronized int size() { return members.size(); }
+    public synchronized void add(T member) {
+        Object[] updated = members.toArray(new Object[members.size() + 1]);
+        updated[updated.length - 1] = member;
+        setMembers(updated);
+    }
+
+    public synchronized void remove(T member) {
+        int index = members.indexOf(member);
+        if(index < 0)
+            return;
+        Object[] updated = new Object[members.size() - 1];
+        for(int i = 0, j = 0; i < updated.length + 1; i++) {
+            if(i != index)
+                updated[j++] = members.get(i);
+        }
+        setMembers(updated);
+    }
+
+    public synchronized void clear() { members = Collections.emptyList(); }
+    public boolean isEmpty() { return members.isEmpty(); }
+    public int size() { return members.size(); }
 
     /**
      * Returns a snapshot of the members of this multicaster instance.
+     * The snapshot is immutable, and obtaining it does not lock or copy.
      */
-    protected synchronized List<T> getMembers() {
-        return new ArrayList<>(members);
+    protected List<T> getMembers() {
+        return members;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void setMembers(Object[] updated) {
+        members = Collections.unmodifiableList((List<T>) Arrays.asList(updated));
     }
 }
@@ -0,0 +1,137 @@
+package io.ably.lib.util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An Executor that runs tasks one at a time, in the order in which they were
+ * submitted, on threads of an underlying Executor.
+ *
+ * The queue of pending tasks may be bounded; when it is full, tasks submitted are
+ * discarded and counted in the metrics, and the overflow handler is called once for
+ * each run of discarded tasks, so that the loss is reported to those it affects.
+ * execute() never blocks, as it is called by threads that must keep processing
+ * inbound data, such as a shared transport event loop serving every connection.
+ */
+public class SerialExecutor implements Executor {
+
+    private final Executor executor;
+    private final int capacity;
+    private final DispatchMetrics metrics;
+    private final Runnable onOverflow;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean scheduled;
+    private boolean overflowed;
+
+    /**
+     * @param executor the Executor on which tasks are run
+     * @param capacity the maximum number of pending tasks; 0 for an unbounded queue
+     * @param metrics the counters to update
+     */
+    public SerialExecutor(Executor executor, int capacity, DispatchMetrics metrics) {
+        this(executor, capacity, metrics, null);
+    }
+
+    /**
+     * @param executor the Executor on which tasks are run
+     * @param capacity the maximum number of pending tasks; 0 for an unbounded queue
+     * @param metrics the counters to update
+     * @param onOverflow called, on the submitting thread, when a task is discarded after
+     * the previous one was accepted; may be null
+     */
+    public SerialExecutor(Executor executor, int capacity, DispatchMetrics metrics, Runnable onOverflow) {
+        this.executor = executor;
+        this.capacity = capacity;
+        this.metrics = metrics;
+        this.onOverflow = onOverflow;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized(this) {
+            if(capacity > 0 && tasks.size() >= capacity) {
+                metrics.onDropped();
+                if(overflowed) {
+                    return;
+                }
+                overflowed = true;
+                task = null;
+            } else {
+                overflowed = false;
+                tasks.add(task);
+                metrics.onQueued(tasks.size());
+                if(scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+        }
+        if(task == null) {
+            onOverflow();
+            return;
+        }
+        schedule();
+    }
+
+    /**
+     * The number of tasks pending.
+     */
+    public synchronized int size() {
+        return tasks.size();
+    }
+
+    private void onOverflow() {
+        Log.w(TAG, "Dispatch queue full; callbacks discarded");
+        if(onOverflow == null) {
+            return;
+        }
+        try {
+            onOverflow.run();
+        } catch(Throwable t) {
+            Log.e(TAG, "Unexpected exception in overflow handler", t);
+        }
+    }
+
+    private void schedule() {
+        try {
+            executor.execute(drain);
+        } catch(RejectedExecutionException e) {
+            Log.e(TAG, "Dispatch executor rejected task; pending callbacks discarded", e);
+            synchronized(this) {
+                tasks.clear();
+                scheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Runs pending tasks, yielding the executor thread after a bounded number
+     * so that one busy queue does not monopolise a shared executor.
+     */
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            for(int i = 0; i < MAX_TASKS_PER_DRAIN; i++) {
+                Runnable task;
+                synchronized(SerialExecutor.this) {
+                    task = tasks.poll();
+                    if(task == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch(Throwable t) {
+                    Log.e(TAG, "Unexpected exception in dispatched task", t);
+                }
+                metrics.onDispatched();
+            }
+            schedule();
+        }
+    };
+
+    private static final int MAX_TASKS_PER_DRAIN = 64;
+    private static final String TAG = SerialExecutor.class.getName();
+}
@@ -6,8 +6,10 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
 import io.ably.lib.http.HttpCore;
 import io.ably.lib.platform.Platform;
 import io.ably.lib.types.AblyException;
@@ -25,10 +27,14 @@ import org.msgpack.value.Value;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Array;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -184,6 +190,28 @@ public class Serialisation {
         }
     }
 
+    /**
+     * Read a JSON array from a stream, decoding each element as it is read so that
+     * neither the encoded text nor a parse tree of the whole array is held in memory
+     */
+    public static <T> T[] jsonStreamToArray(InputStream input, Class<T> elementClass) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(input, "UTF-8"));
+        List<T> elements = new ArrayList<>();
+        try {
+            reader.beginArray();
+            while(reader.hasNext()) {
+                T element = gson.fromJson(reader, elementClass);
+                elements.add(element);
+            }
+            reader.endArray();
+        } catch(JsonParseException e) {
+            throw new IOException("Unable to parse JSON array", e);
+        }
+        @SuppressWarnings("unchecked")
+        T[] array = (T[])Array.newInstance(elementClass, elements.size());
+        return elements.toArray(array);
+    }
+
     public static void gsonToMsgpack(JsonElement json, MessagePacker packer) {
         if (json.isJsonArray()) {
             gsonToMsgpack((JsonArray)json, packer);
@@ -0,0 +1,209 @@
+package io.ably.lib.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.util.CompressionStats;
+import io.ably.lib.util.PlatformAgentProvider;
+import org.junit.Test;
+
+public class HttpCompressionTest {
+
+    private static final byte[] BODY = body();
+
+    @Test
+    public void decompress_gzip() throws IOException {
+        CompressionStats stats = new CompressionStats();
+        byte[] compressed = gzip(BODY);
+        HttpCore.Response response = response("gzip", compressed);
+        HttpCompression.decompress(response, stats);
+        assertArrayEquals(BODY, response.body);
+        assertEquals(BODY.length, response.contentLength);
+        assertNull("Verify encoding header removed", response.getHeaderFields(HttpConstants.Headers.CONTENT_ENCODING));
+        assertEquals(BODY.length, stats.getRawBytesReceived());
+        assertEquals(compressed.length, stats.getCompressedBytesReceived());
+    }
+
+    /**
+     * Verify that deflate bodies are decompressed whether or not they have the zlib wrapper
+     */
+    @Test
+    public void decompress_deflate() throws IOException {
+        for(boolean nowrap : new boolean[] { false, true }) {
+            HttpCore.Response response = response("Deflate", deflate(BODY, nowrap));
+            HttpCompression.decompress(response, new CompressionStats());
+            assertArrayEquals(BODY, response.body);
+        }
+    }
+
+    @Test
+    public void decompress_stream() throws IOException {
+        CompressionStats stats = new CompressionStats();
+        byte[] compressed = gzip(BODY);
+        HttpCore.Response response = response("gzip", null);
+        response.bodyStream = new ByteArrayInputStream(compressed);
+        HttpCompression.decompress(response, stats);
+        assertArrayEquals(BODY, readFully(response.bodyStream));
+        response.bodyStream.close();
+        assertEquals(BODY.length, stats.getRawBytesReceived());
+        assertEquals(compressed.length, stats.getCompressedBytesReceived());
+    }
+
+    @Test
+    public void unknown_encoding_unchanged() throws IOException {
+        HttpCore.Response response = response("br", BODY);
+        HttpCompression.decompress(response, new CompressionStats());
+        assertArrayEquals(BODY, response.body);
+        assertEquals("br", response.getHeaderFields(HttpConstants.Headers.CONTENT_ENCODING).get(0));
+    }
+
+    /**
+     * Verify that HttpCore compresses request bodies above the threshold, offers to accept
+     * compressed responses, and decompresses them
+     */
+    @Test
+    public void http_core_compression() throws Exception {
+        ClientOptions options = new ClientOptions("test.app:key");
+        options.httpCompression = true;
+        options.httpRequestCompressionThreshold = 1024;
+        final List<HttpCore.Request> requests = new ArrayList<>();
+        options.httpEngineFactory = new HttpEngine.Factory() {
+            @Override
+            public HttpEngine create(ClientOptions options) {
+                return new EchoEngine(requests);
+            }
+        };
+        HttpCore httpCore = new HttpCore(options, null, new PlatformAgentProvider() {
+            @Override
+            public String createPlatformAgent() {
+                return null;
+            }
+        });
+        HttpCore.ResponseHandler<byte[]> handler = new HttpCore.ResponseHandler<byte[]>() {
+            @Override
+            public byte[] handleResponse(HttpCore.Response response, ErrorInfo error) throws AblyException {
+                return response.body;
+            }
+        };
+
+        byte[] small = "{}".getBytes("UTF-8");
+        byte[] result = httpCore.httpExecute(new URL("http://localhost/small"), Proxy.NO_PROXY, HttpConstants.Methods.POST, null, new HttpUtils.ByteArrayRequestBody(small, HttpConstants.ContentTypes.JSON), false, handler);
+        assertArrayEquals(small, result);
+        assertNull("Verify small body not compressed", requests.get(0).headers.get(HttpConstants.Headers.CONTENT_ENCODING));
+        assertEquals(HttpCompression.ACCEPT_ENCODING, requests.get(0).headers.get(HttpConstants.Headers.ACCEPT_ENCODING).get(0));
+
+        result = httpCore.httpExecute(new URL("http://localhost/large"), Proxy.NO_PROXY, HttpConstants.Methods.POST, null, new HttpUtils.ByteArrayRequestBody(BODY, HttpConstants.ContentTypes.JSON), false, handler);
+        assertArrayEquals(BODY, result);
+        HttpCore.Request request = requests.get(1);
+        assertEquals("gzip", request.headers.get(HttpConstants.Headers.CONTENT_ENCODING).get(0));
+        assertEquals(String.valueOf(request.body.length), request.headers.get(HttpConstants.Headers.CONTENT_LENGTH).get(0));
+        assertEquals(BODY.length, httpCore.compressionStats.getRawBytesSent());
+        assertEquals(request.body.length, httpCore.compressionStats.getCompressedBytesSent());
+        assertEquals(BODY.length, httpCore.compressionStats.getRawBytesReceived());
+    }
+
+    /**
+     * An engine responding to each request with its body, gzip-compressed if the
+     * request body was large enough to be compressed
+     */
+    private static class EchoEngine implements HttpEngine {
+        private final List<HttpCore.Request> requests;
+
+        EchoEngine(List<HttpCore.Request> requests) {
+            this.requests = requests;
+        }
+
+        @Override
+        public boolean isNonBlocking() {
+            return false;
+        }
+
+        @Override
+        public HttpCore.Response execute(HttpCore.Request request) throws IOException {
+            requests.add(request);
+            List<String> encoding = request.headers.get(HttpConstants.Headers.CONTENT_ENCODING);
+            byte[] body = (encoding != null) ? readFully(new GZIPInputStream(new ByteArrayInputStream(request.body))) : request.body;
+            HttpCore.Response response = response((encoding != null) ? "gzip" : null, (encoding != null) ? gzip(body) : body);
+            response.statusCode = 200;
+            response.contentType = HttpConstants.ContentTypes.JSON;
+            return response;
+        }
+
+        @Override
+        public void executeAsync(HttpCore.Request request, Callback callback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void dispose() {}
+    }
+
+    private static HttpCore.Response response(String encoding, byte[] body) {
+        HttpCore.Response response = new HttpCore.Response();
+        response.headers = new HashMap<>();
+        if(encoding != null) {
+            List<String> values = new ArrayList<>();
+            values.add(encoding);
+            response.headers.put("content-encoding", values);
+        }
+        response.body = body;
+        response.contentLength = (body != null) ? body.length : -1;
+        return response;
+    }
+
+    private static byte[] body() {
+        StringBuilder json = new StringBuilder("[");
+        for(int i = 0; i < 200; i++) {
+            json.append(i > 0 ? "," : "").append("{\"name\":\"event\",\"data\":\"payload ").append(i).append("\"}");
+        }
+        try {
+            return json.append(']').toString().getBytes("UTF-8");
+        } catch(IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(data);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data, boolean nowrap) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream deflate = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap));
+        deflate.write(data);
+        deflate.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while((read = in.read(buffer)) > -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
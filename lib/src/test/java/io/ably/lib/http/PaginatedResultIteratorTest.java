@@ -0,0 +1,170 @@
+package io.ably.lib.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.AsyncPaginatedResult;
+import io.ably.lib.types.Callback;
+import io.ably.lib.types.ErrorInfo;
+import org.junit.After;
+import org.junit.Test;
+
+public class PaginatedResultIteratorTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void iterates_all_pages() {
+        PaginatedResultIterator<String> iterator = new PagesRequest(new String[][] {
+            { "a", "b" }, {}, null, { "c" }
+        }).iterator();
+        StringBuilder items = new StringBuilder();
+        while(iterator.hasNext()) {
+            items.append(iterator.next());
+        }
+        assertEquals("abc", items.toString());
+        assertFalse(iterator.hasNext());
+        try {
+            iterator.next();
+            fail("Expected iteration to be complete");
+        } catch(NoSuchElementException e) {
+            /* expected */
+        }
+    }
+
+    /**
+     * Verify that the following page is requested once a page is reached, and no further
+     */
+    @Test
+    public void prefetches_one_page() throws InterruptedException {
+        PaginatedResultIterator<String> iterator = new PagesRequest(new String[][] {
+            { "a", "b" }, { "c" }, { "d" }
+        }).iterator();
+        assertEquals("a", iterator.next());
+        Thread.sleep(100);
+        assertEquals("Verify second page was prefetched", 2, requests.get());
+        assertEquals("b", iterator.next());
+        assertEquals("c", iterator.next());
+        assertEquals(3, requests.get());
+        assertEquals("d", iterator.next());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void page_failure() {
+        PaginatedResultIterator<String> iterator = new PagesRequest(new String[][] {
+            { "a" }, { "b" }
+        }, 1).iterator();
+        assertEquals("a", iterator.next());
+        try {
+            iterator.hasNext();
+            fail("Expected page to fail");
+        } catch(PaginatedResultIterator.PageFailedException e) {
+            assertEquals(50000, e.getCause().errorInfo.code);
+        }
+    }
+
+    @Test
+    public void failed_request() {
+        BasePaginatedQuery.ResultRequest<String> request = new BasePaginatedQuery.ResultRequest.Failed<String>(
+            AblyException.fromErrorInfo(new ErrorInfo("Invalid params", 400, 40000)));
+        try {
+            request.iterator().hasNext();
+            fail("Expected request to fail");
+        } catch(PaginatedResultIterator.PageFailedException e) {
+            assertEquals(40000, e.getCause().errorInfo.code);
+        }
+    }
+
+    /**
+     * A request delivering the given pages asynchronously, failing the request for
+     * the page at failIndex, if any
+     */
+    private class PagesRequest extends BasePaginatedQuery.ResultRequest.Failed<String> {
+        private final String[][] pages;
+        private final int failIndex;
+
+        PagesRequest(String[][] pages) {
+            this(pages, -1);
+        }
+
+        PagesRequest(String[][] pages, int failIndex) {
+            super(null);
+            this.pages = pages;
+            this.failIndex = failIndex;
+        }
+
+        @Override
+        public void async(Callback<AsyncPaginatedResult<String>> callback) {
+            deliver(0, callback);
+        }
+
+        private void deliver(final int index, final Callback<AsyncPaginatedResult<String>> callback) {
+            requests.incrementAndGet();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if(index == failIndex) {
+                        callback.onError(new ErrorInfo("Page failed", 500, 50000));
+                    } else {
+                        callback.onSuccess(new Page(index));
+                    }
+                }
+            });
+        }
+
+        private class Page implements AsyncPaginatedResult<String> {
+            private final int index;
+
+            Page(int index) {
+                this.index = index;
+            }
+
+            @Override
+            public String[] items() {
+                return pages[index];
+            }
+
+            @Override
+            public void next(Callback<AsyncPaginatedResult<String>> callback) {
+                assertTrue(hasNext());
+                deliver(index + 1, callback);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return index + 1 < pages.length;
+            }
+
+            @Override
+            public void first(Callback<AsyncPaginatedResult<String>> callback) {}
+
+            @Override
+            public void current(Callback<AsyncPaginatedResult<String>> callback) {}
+
+            @Override
+            public boolean hasFirst() {
+                return false;
+            }
+
+            @Override
+            public boolean hasCurrent() {
+                return false;
+            }
+        }
+    }
+}
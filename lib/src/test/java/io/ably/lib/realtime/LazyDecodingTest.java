@@ -0,0 +1,167 @@
+package io.ably.lib.realtime;
+
+import com.google.gson.JsonElement;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ChannelOptions;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PresenceMessage;
+import io.ably.lib.types.ProtocolMessage;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decoding of inbound messages on a channel with ChannelOptions.lazyDecoding.
+ * No connection is made; messages are given to a channel forced into the attached state.
+ */
+public class LazyDecodingTest {
+
+    private AblyRealtime ably;
+
+    @After
+    public void tearDown() {
+        if(ably != null) {
+            ably.close();
+        }
+    }
+
+    @Test
+    public void message_without_listeners_not_decoded() throws AblyException {
+        Channel channel = createChannel(null);
+        Message message = jsonMessage("test-name");
+        channel.onChannelMessage(messages(message));
+        assertEquals("json", message.encoding);
+        assertTrue(message.data instanceof String);
+    }
+
+    @Test
+    public void message_named_listener_decoded() throws AblyException {
+        Channel channel = createChannel(null);
+        final List<Message> received = new ArrayList<>();
+        channel.subscribe("test-name", new ChannelBase.MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                received.add(message);
+            }
+        });
+        Message named = jsonMessage("test-name");
+        Message other = jsonMessage("other-name");
+        channel.onChannelMessage(messages(named, other));
+        assertEquals(1, received.size());
+        assertDecoded(received.get(0));
+        assertEquals("json", other.encoding);
+    }
+
+    /**
+     * Verify that a listener subscribed after a message was left undecoded,
+     * but before it was dispatched, does not receive the undecoded message
+     */
+    @Test
+    public void message_listener_subscribed_before_dispatch() throws AblyException {
+        final List<Runnable> dispatched = new ArrayList<>();
+        Channel channel = createChannel(new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                dispatched.add(task);
+            }
+        });
+        channel.onChannelMessage(messages(jsonMessage("test-name")));
+        final List<Message> received = new ArrayList<>();
+        channel.subscribe(new ChannelBase.MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                received.add(message);
+            }
+        });
+        runAll(dispatched);
+        for(Message message : received) {
+            assertDecoded(message);
+        }
+    }
+
+    @Test
+    public void presence_superseded_not_decoded() throws AblyException {
+        Channel channel = createChannel(null);
+        PresenceMessage newer = jsonPresence();
+        PresenceMessage older = jsonPresence();
+        channel.onChannelMessage(presence("other-connection", 2, newer));
+        channel.onChannelMessage(presence("other-connection", 1, older));
+        assertDecoded(newer);
+        assertEquals("json", older.encoding);
+    }
+
+    @Test
+    public void presence_own_connection_decoded() throws AblyException {
+        Channel channel = createChannel(null);
+        ably.connection.id = "own-connection";
+        PresenceMessage newer = jsonPresence();
+        PresenceMessage older = jsonPresence();
+        channel.onChannelMessage(presence("own-connection", 2, newer));
+        channel.onChannelMessage(presence("own-connection", 1, older));
+        assertDecoded(newer);
+        assertDecoded(older);
+    }
+
+    private Channel createChannel(Executor dispatchExecutor) throws AblyException {
+        ClientOptions options = new ClientOptions("not.an:key");
+        options.autoConnect = false;
+        options.dispatchExecutor = dispatchExecutor;
+        ably = new AblyRealtime(options);
+        ChannelOptions channelOptions = new ChannelOptions();
+        channelOptions.lazyDecoding = true;
+        Channel channel = ably.channels.get("test-channel", channelOptions);
+        channel.state = ChannelState.attached;
+        return channel;
+    }
+
+    private static Message jsonMessage(String name) {
+        Message message = new Message(name, "{\"text\":\"test-data\"}");
+        message.encoding = "json";
+        return message;
+    }
+
+    private static PresenceMessage jsonPresence() {
+        PresenceMessage message = new PresenceMessage(PresenceMessage.Action.enter, "test-client", "{\"text\":\"test-data\"}");
+        message.encoding = "json";
+        return message;
+    }
+
+    private static ProtocolMessage messages(Message... messages) {
+        ProtocolMessage protocolMessage = new ProtocolMessage(ProtocolMessage.Action.message, "test-channel");
+        protocolMessage.id = "test-connection:0";
+        protocolMessage.connectionId = "test-connection";
+        protocolMessage.messages = messages;
+        return protocolMessage;
+    }
+
+    private static ProtocolMessage presence(String connectionId, int serial, PresenceMessage... messages) {
+        ProtocolMessage protocolMessage = new ProtocolMessage(ProtocolMessage.Action.presence, "test-channel");
+        protocolMessage.id = connectionId + ':' + serial;
+        protocolMessage.connectionId = connectionId;
+        protocolMessage.presence = messages;
+        return protocolMessage;
+    }
+
+    private static void assertDecoded(Message message) {
+        assertEquals(null, message.encoding);
+        assertTrue(message.data instanceof JsonElement);
+    }
+
+    private static void assertDecoded(PresenceMessage message) {
+        assertEquals(null, message.encoding);
+        assertTrue(message.data instanceof JsonElement);
+    }
+
+    private static void runAll(List<Runnable> tasks) {
+        for(Runnable task : tasks) {
+            task.run();
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package io.ably.lib.test.common;
 
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -28,6 +27,7 @@ import io.ably.lib.debug.DebugOptions.RawHttpListener;
 import io.ably.lib.debug.DebugOptions.RawProtocolListener;
 import io.ably.lib.http.HttpCore;
 import io.ably.lib.http.HttpUtils;
+import io.ably.lib.realtime.BulkCompletionListener;
 import io.ably.lib.realtime.Channel;
 import io.ably.lib.realtime.Channel.MessageListener;
 import io.ably.lib.realtime.ChannelState;
@@ -194,6 +194,25 @@ public class Helpers {
         }
     }
 
+    public static class BulkCompletionWaiter implements BulkCompletionListener {
+        public Map<String, ErrorInfo> errors;
+
+        public synchronized Map<String, ErrorInfo> waitFor() {
+            while(errors == null)
+                try { wait(); } catch(InterruptedException e) {}
+            return errors;
+        }
+
+        /**
+         * BulkCompletionListener methods
+         */
+        @Override
+        public synchronized void onComplete(Map<String, ErrorInfo> errors) {
+            this.errors = errors;
+            notifyAll();
+        }
+    }
+
     /**
      * A class that subscribes to a channel and tracks messages received.
      * @author paddy
@@ -206,6 +225,13 @@ public class Helpers {
          * Public API
          */
 
+        /**
+         * Track messages delivered to this listener, which the caller subscribes.
+         */
+        public MessageWaiter() {
+            reset();
+        }
+
         /**
          * Track all messages on a channel.
          * @param channel
@@ -280,6 +306,13 @@ public class Helpers {
     public static class PresenceWaiter implements PresenceListener {
         public List<PresenceMessage> receivedMessages;
 
+        /**
+         * Track presence messages delivered to this listener, which the caller subscribes.
+         */
+        public PresenceWaiter() {
+            reset();
+        }
+
         /**
          * Public API
          * @param channel
@@ -793,7 +826,6 @@ public class Helpers {
     public static class RawHttpRequest {
         public String id;
         public URL url;
-        public HttpURLConnection conn;
         public String method;
         public String authHeader;
         public Map<String, List<String>> requestHeaders;
@@ -809,7 +841,7 @@ public class Helpers {
         private AsyncWaiter<RawHttpRequest> requestWaiter = null;
 
         @Override
-        public HttpCore.Response onRawHttpRequest(String id, HttpURLConnection conn, String method, String authHeader, Map<String, List<String>> requestHeaders,
+        public HttpCore.Response onRawHttpRequest(String id, URL url, String method, String authHeader, Map<String, List<String>> requestHeaders,
                                                   HttpCore.RequestBody requestBody) {
 
             /* duplicating if necessary, ensure lower-case versions of header names are present */
@@ -822,8 +854,7 @@ public class Helpers {
             }
             RawHttpRequest req = new RawHttpRequest();
             req.id = id;
-            req.url = conn.getURL();
-            req.conn = conn;
+            req.url = url;
             req.method = method;
             req.authHeader = authHeader;
             req.requestHeaders = normalisedHeaders;
@@ -897,7 +928,7 @@ public class Helpers {
             String result = null;
             RawHttpRequest req = get(id);
             if(req != null) {
-                String query = req.conn.getURL().getQuery();
+                String query = req.url.getQuery();
                 if(query != null && !query.isEmpty()) {
                     result = HttpUtils.decodeParams(query).get(param).value;
                 }
@@ -30,6 +30,19 @@ public class ParameterizedTest {
             );
     }
 
+    /**
+     * Parameters for tests of the transports: each protocol, with each transport.
+     * Subclasses return these from their own @Parameters method.
+     */
+    protected static Iterable<Setup.TestParameters> transportData() {
+        return Arrays.asList(
+                Setup.TestParameters.TEXT,
+                Setup.TestParameters.BINARY,
+                Setup.TestParameters.TEXT_NIO,
+                Setup.TestParameters.BINARY_NIO
+            );
+    }
+
     @Parameter
     public Setup.TestParameters testParams;
 
@@ -93,19 +93,27 @@ public class Setup {
 
     public static class TestParameters {
         public boolean useBinaryProtocol;
+        public boolean nonBlockingTransport;
         public String name;
 
         public static TestParameters BINARY = new TestParameters(true, "binary_protocol");
         public static TestParameters TEXT = new TestParameters(false, "text_protocol");
+        public static TestParameters BINARY_NIO = new TestParameters(true, true, "binary_protocol_nio");
+        public static TestParameters TEXT_NIO = new TestParameters(false, true, "text_protocol_nio");
 
         public TestParameters(boolean useBinaryProtocol, String name) {
+            this(useBinaryProtocol, false, name);
+        }
+
+        public TestParameters(boolean useBinaryProtocol, boolean nonBlockingTransport, String name) {
             this.useBinaryProtocol = useBinaryProtocol;
+            this.nonBlockingTransport = nonBlockingTransport;
             this.name = name;
         }
 
         public boolean equals(Object obj) {
             TestParameters arg = (TestParameters)obj;
-            return arg.useBinaryProtocol == this.useBinaryProtocol;
+            return arg.useBinaryProtocol == this.useBinaryProtocol && arg.nonBlockingTransport == this.nonBlockingTransport;
         }
 
         public String toString() {
@@ -154,6 +162,7 @@ public class Setup {
         public void fillInOptions(ClientOptions opts, TestParameters params) {
             if(params == null) { params = TestParameters.getDefault(); }
             opts.useBinaryProtocol = params.useBinaryProtocol;
+            opts.nonBlockingTransport = params.nonBlockingTransport;
             opts.restHost = restHost;
             opts.realtimeHost = realtimeHost;
             opts.environment = environment;
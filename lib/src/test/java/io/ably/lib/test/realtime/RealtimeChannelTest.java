@@ -89,6 +89,77 @@ public class RealtimeChannelTest extends ParameterizedTest {
         }
     }
 
+    /**
+     * Attach, detach and release a number of channels with the bulk channels API.
+     */
+    @Test
+    public void attach_detach_release_bulk() {
+        String[] channelNames = new String[10];
+        for(int i = 0; i < channelNames.length; i++)
+            channelNames[i] = "attach_detach_release_bulk_" + i + "_" + testParams.name;
+        AblyRealtime ably = null;
+        try {
+            ClientOptions opts = createOptions(testVars.keys[0].keyStr);
+            ably = new AblyRealtime(opts);
+
+            /* attach all channels */
+            Helpers.BulkCompletionWaiter attachWaiter = new Helpers.BulkCompletionWaiter();
+            ably.channels.attach(channelNames, attachWaiter);
+            assertTrue("Verify attach succeeded", attachWaiter.waitFor().isEmpty());
+            for(String channelName : channelNames)
+                assertEquals("Verify attached state reached", ChannelState.attached, ably.channels.get(channelName).state);
+
+            /* detach all channels */
+            Helpers.BulkCompletionWaiter detachWaiter = new Helpers.BulkCompletionWaiter();
+            ably.channels.detach(channelNames, detachWaiter);
+            assertTrue("Verify detach succeeded", detachWaiter.waitFor().isEmpty());
+            for(String channelName : channelNames)
+                assertEquals("Verify detached state reached", ChannelState.detached, ably.channels.get(channelName).state);
+
+            /* release all channels */
+            ably.channels.release(channelNames);
+            for(String channelName : channelNames)
+                assertFalse("Verify channel was released", ably.channels.containsKey(channelName));
+
+        } catch (AblyException e) {
+            e.printStackTrace();
+            fail("attach_detach_release_bulk: Unexpected exception instantiating library");
+        } finally {
+            if(ably != null)
+                ably.close();
+        }
+    }
+
+    /**
+     * Verify that bulk operations on no channels complete immediately.
+     */
+    @Test
+    public void attach_detach_bulk_empty() {
+        AblyRealtime ably = null;
+        try {
+            ClientOptions opts = createOptions(testVars.keys[0].keyStr);
+            opts.autoConnect = false;
+            ably = new AblyRealtime(opts);
+
+            Helpers.BulkCompletionWaiter attachWaiter = new Helpers.BulkCompletionWaiter();
+            ably.channels.attach(new String[0], attachWaiter);
+            assertNotNull("Verify attach completed", attachWaiter.errors);
+            assertTrue(attachWaiter.errors.isEmpty());
+
+            Helpers.BulkCompletionWaiter detachWaiter = new Helpers.BulkCompletionWaiter();
+            ably.channels.detach(new String[0], detachWaiter);
+            assertNotNull("Verify detach completed", detachWaiter.errors);
+            assertTrue(detachWaiter.errors.isEmpty());
+
+        } catch (AblyException e) {
+            e.printStackTrace();
+            fail("attach_detach_bulk_empty: Unexpected exception instantiating library");
+        } finally {
+            if(ably != null)
+                ably.close();
+        }
+    }
+
     /**
      * Connect to the service using the default (binary) protocol
      * and attach before the connected state is reached.
@@ -3,20 +3,24 @@ package io.ably.lib.test.realtime;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import org.junit.Ignore;
 import org.junit.Test;
+import org.junit.runners.Parameterized.Parameters;
 
 import io.ably.lib.debug.DebugOptions;
 import io.ably.lib.debug.DebugOptions.RawProtocolListener;
 import io.ably.lib.realtime.AblyRealtime;
 import io.ably.lib.realtime.ConnectionState;
 import io.ably.lib.rest.Auth.AuthMethod;
+import io.ably.lib.test.common.Helpers.AsyncWaiter;
 import io.ably.lib.test.common.Helpers.CompletionWaiter;
 import io.ably.lib.test.common.Helpers.ConnectionWaiter;
 import io.ably.lib.test.common.ParameterizedTest;
+import io.ably.lib.test.common.Setup;
 import io.ably.lib.types.AblyException;
 import io.ably.lib.types.ClientOptions;
 import io.ably.lib.types.Param;
@@ -25,6 +29,11 @@ import org.junit.rules.Timeout;
 
 public class RealtimeConnectTest extends ParameterizedTest {
 
+    @Parameters(name = "{0}")
+    public static Iterable<Setup.TestParameters> data() {
+        return transportData();
+    }
+
     public Timeout testTimeout = Timeout.seconds(30);
 
     /**
@@ -77,6 +86,39 @@ public class RealtimeConnectTest extends ParameterizedTest {
         }
     }
 
+    /**
+     * Ping the service several times concurrently and confirm that each
+     * round-trip time is reported and recorded.
+     */
+    @Test
+    public void connect_measure_round_trip() {
+        try {
+            ClientOptions opts = createOptions(testVars.keys[0].keyStr);
+            AblyRealtime ably = new AblyRealtime(opts);
+            ConnectionWaiter connectionWaiter = new ConnectionWaiter(ably.connection);
+            connectionWaiter.waitFor(ConnectionState.connected);
+            assertEquals("Verify connected state is reached", ConnectionState.connected, ably.connection.state);
+
+            AsyncWaiter<Long>[] waiters = new AsyncWaiter[3];
+            for(int i = 0; i < waiters.length; i++) {
+                waiters[i] = new AsyncWaiter<>();
+                ably.connection.measureRoundTrip(waiters[i]);
+            }
+            for(AsyncWaiter<Long> waiter : waiters) {
+                waiter.waitFor();
+                assertNull("Verify ping succeeded", waiter.error);
+                assertNotNull("Verify round-trip time reported", waiter.result);
+            }
+            assertEquals("Verify round-trip times recorded", waiters.length, ably.connection.pingLatency.getCount());
+
+            ably.close();
+            connectionWaiter.waitFor(ConnectionState.closed);
+        } catch (AblyException e) {
+            e.printStackTrace();
+            fail("connect_measure_round_trip: Unexpected exception instantiating library");
+        }
+    }
+
     /**
      * Perform a simple connect, close the connection, and verify that
      * the connection can be re-established by calling connect().
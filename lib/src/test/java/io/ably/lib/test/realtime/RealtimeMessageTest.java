@@ -3,6 +3,7 @@ package io.ably.lib.test.realtime;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -11,6 +12,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
@@ -22,8 +25,10 @@ import io.ably.lib.util.Serialisation;
 import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.runners.Parameterized.Parameters;
 import org.junit.rules.Timeout;
 
+import io.ably.lib.debug.DebugOptions;
 import io.ably.lib.http.Http;
 import io.ably.lib.http.HttpCore;
 import io.ably.lib.http.HttpHelpers;
@@ -31,6 +36,7 @@ import io.ably.lib.http.HttpScheduler;
 import io.ably.lib.http.HttpUtils;
 import io.ably.lib.realtime.AblyRealtime;
 import io.ably.lib.realtime.Channel;
+import io.ably.lib.realtime.ChannelBase;
 import io.ably.lib.realtime.ChannelState;
 import io.ably.lib.realtime.ConnectionState;
 import io.ably.lib.rest.AblyRest;
@@ -39,12 +45,14 @@ import io.ably.lib.test.common.Helpers.CompletionSet;
 import io.ably.lib.test.common.Helpers.CompletionWaiter;
 import io.ably.lib.test.common.Helpers.ConnectionWaiter;
 import io.ably.lib.test.common.Helpers.MessageWaiter;
+import io.ably.lib.test.common.Helpers.RawProtocolMonitor;
 import io.ably.lib.test.common.Helpers;
 import io.ably.lib.test.common.ParameterizedTest;
 import io.ably.lib.test.common.Setup;
 import io.ably.lib.transport.ConnectionManager;
 import io.ably.lib.types.AblyException;
 import io.ably.lib.types.Callback;
+import io.ably.lib.types.ChannelOptions;
 import io.ably.lib.types.ClientOptions;
 import io.ably.lib.types.ErrorInfo;
 import io.ably.lib.types.Message;
@@ -53,6 +61,11 @@ import io.ably.lib.util.Log;
 
 public class RealtimeMessageTest extends ParameterizedTest {
 
+    @Parameters(name = "{0}")
+    public static Iterable<Setup.TestParameters> data() {
+        return transportData();
+    }
+
     private static final String testMessagesEncodingFile = "ably-common/test-resources/messages-encoding.json";
     private static Gson gson = new Gson();
 
@@ -162,6 +175,56 @@ public class RealtimeMessageTest extends ParameterizedTest {
         }
     }
 
+    /**
+     * Connect to the service, subscribe a batch listener, and publish several
+     * messages together; verify that they are delivered to the listener as one batch.
+     */
+    @Test
+    public void batch_subscribe() {
+        AblyRealtime ably = null;
+        String channelName = "batch_subscribe_" + testParams.name;
+        try {
+            ClientOptions opts = createOptions(testVars.keys[0].keyStr);
+            ably = new AblyRealtime(opts);
+
+            /* create a channel and subscribe */
+            final Channel channel = ably.channels.get(channelName);
+            final ArrayBlockingQueue<Message[]> batches = new ArrayBlockingQueue<>(1);
+            channel.subscribeBatch(new ChannelBase.BatchMessageListener() {
+                @Override
+                public void onMessages(Message[] messages) {
+                    batches.add(messages);
+                }
+            });
+            (new ChannelWaiter(channel)).waitFor(ChannelState.attached);
+            assertEquals("Verify attached state reached", channel.state, ChannelState.attached);
+
+            /* publish to the channel */
+            CompletionWaiter msgComplete = new CompletionWaiter();
+            channel.publish(new Message[] {
+                new Message("test_event_0", "Test message 0 (batch_subscribe)"),
+                new Message("test_event_1", "Test message 1 (batch_subscribe)"),
+                new Message("test_event_2", "Test message 2 (batch_subscribe)")
+            }, msgComplete);
+            msgComplete.waitFor();
+            assertTrue("Verify success callback was called", msgComplete.success);
+
+            /* wait for the batch */
+            Message[] batch = batches.poll(10, TimeUnit.SECONDS);
+            assertNotNull("Verify batch listener was called", batch);
+            assertEquals("Verify all messages were delivered in one batch", 3, batch.length);
+            for(int i = 0; i < batch.length; i++)
+                assertEquals("Verify message order", "test_event_" + i, batch[i].name);
+
+        } catch(AblyException|InterruptedException e) {
+            e.printStackTrace();
+            fail("batch_subscribe: Unexpected exception");
+        } finally {
+            if(ably != null)
+                ably.close();
+        }
+    }
+
     /**
      * Get a channel and subscribe without explicitly attaching.
      * Verify that the channel reaches the attached state.
@@ -986,4 +1049,53 @@ public class RealtimeMessageTest extends ParameterizedTest {
             }
         }
     }
+
+    /**
+     * Verify that publishes on a channel with publishLinger set are coalesced into
+     * protocol messages of at most publishBatchMaxMessages messages, with the
+     * listener of every publish called, and every message delivered in order
+     */
+    @Test
+    public void publish_coalesced() throws AblyException {
+        AblyRealtime ably = null;
+        try {
+            DebugOptions opts = new DebugOptions(testVars.keys[0].keyStr);
+            fillInOptions(opts);
+            RawProtocolMonitor monitor = RawProtocolMonitor.createSender(ProtocolMessage.Action.message);
+            opts.protocolListener = monitor;
+            ably = new AblyRealtime(opts);
+
+            ChannelOptions channelOptions = new ChannelOptions();
+            channelOptions.publishLinger = 200;
+            channelOptions.publishBatchMaxMessages = 5;
+            final Channel channel = ably.channels.get(createChannelName("publish_coalesced"), channelOptions);
+            channel.attach();
+            (new ChannelWaiter(channel)).waitFor(ChannelState.attached);
+            MessageWaiter messageWaiter = new MessageWaiter(channel);
+
+            /* two full batches are sent at once; the remainder once the linger expires */
+            int messageCount = 12;
+            CompletionSet publishComplete = new CompletionSet();
+            for(int i = 0; i < messageCount; i++) {
+                channel.publish("coalesced", "message " + i, publishComplete.add());
+            }
+            ErrorInfo[] errors = publishComplete.waitFor();
+            assertEquals("Verify every publish succeeded", 0, errors.length);
+
+            monitor.waitForSend(3);
+            assertEquals("Verify publishes coalesced into three protocol messages", 3, monitor.sentMessages.size());
+            assertEquals(5, monitor.sentMessages.get(0).messages.length);
+            assertEquals(5, monitor.sentMessages.get(1).messages.length);
+            assertEquals(2, monitor.sentMessages.get(2).messages.length);
+
+            messageWaiter.waitFor(messageCount);
+            for(int i = 0; i < messageCount; i++) {
+                assertEquals("Verify message order", "message " + i, messageWaiter.receivedMessages.get(i).data);
+            }
+        } finally {
+            if(ably != null) {
+                ably.close();
+            }
+        }
+    }
 }
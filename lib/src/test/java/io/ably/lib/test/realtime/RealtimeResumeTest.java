@@ -10,6 +10,7 @@ import io.ably.lib.test.common.Helpers.CompletionSet;
 import io.ably.lib.test.common.Helpers.ConnectionWaiter;
 import io.ably.lib.test.common.Helpers.MessageWaiter;
 import io.ably.lib.test.common.ParameterizedTest;
+import io.ably.lib.test.common.Setup;
 import io.ably.lib.types.AblyException;
 import io.ably.lib.types.ClientOptions;
 import io.ably.lib.types.ErrorInfo;
@@ -18,6 +19,7 @@ import io.ably.lib.types.ProtocolMessage;
 import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.runners.Parameterized.Parameters;
 import org.junit.rules.Timeout;
 
 import java.lang.reflect.InvocationTargetException;
@@ -30,6 +32,11 @@ import static org.junit.Assert.fail;
 
 public class RealtimeResumeTest extends ParameterizedTest {
 
+    @Parameters(name = "{0}")
+    public static Iterable<Setup.TestParameters> data() {
+        return transportData();
+    }
+
     private static final String TAG = RealtimeResumeTest.class.getName();
 
     @Rule
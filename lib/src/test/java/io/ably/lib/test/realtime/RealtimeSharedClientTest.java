@@ -0,0 +1,214 @@
+package io.ably.lib.test.realtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import io.ably.lib.realtime.AblyRealtime;
+import io.ably.lib.realtime.ConnectionState;
+import io.ably.lib.realtime.SharedChannel;
+import io.ably.lib.realtime.SharedClient;
+import io.ably.lib.rest.AblyRest;
+import io.ably.lib.rest.Auth;
+import io.ably.lib.rest.Auth.TokenParams;
+import io.ably.lib.test.common.Helpers.CompletionWaiter;
+import io.ably.lib.test.common.Helpers.ConnectionWaiter;
+import io.ably.lib.test.common.Helpers.MessageWaiter;
+import io.ably.lib.test.common.Helpers.PresenceWaiter;
+import io.ably.lib.test.common.ParameterizedTest;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.PresenceMessage;
+
+public class RealtimeSharedClientTest extends ParameterizedTest {
+
+    @Rule
+    public Timeout testTimeout = Timeout.seconds(60);
+
+    private Auth.TokenDetails wildcardToken;
+
+    @Before
+    public void setUpBefore() throws Exception {
+        AblyRest rest = new AblyRest(createOptions(testVars.keys[0].keyStr));
+        wildcardToken = rest.auth.requestToken(new TokenParams() {{ clientId = "*"; }}, null);
+    }
+
+    /**
+     * Verify that shared clients publish as their own clientId on a single
+     * channel instance, and receive each other's messages
+     */
+    @Test
+    public void shared_clients_publish_subscribe() {
+        AblyRealtime ably = null;
+        try {
+            ClientOptions opts = createOptions();
+            opts.tokenDetails = wildcardToken;
+            ably = new AblyRealtime(opts);
+            new ConnectionWaiter(ably.connection).waitFor(ConnectionState.connected);
+
+            SharedClient alice = ably.createSharedClient("alice");
+            SharedClient bob = ably.createSharedClient("bob");
+            assertSame("Verify connection is shared", alice.connection, bob.connection);
+
+            String channelName = "shared_clients_publish_subscribe_" + testParams.name;
+            SharedChannel aliceChannel = alice.channels.get(channelName);
+            SharedChannel bobChannel = bob.channels.get(channelName);
+            assertEquals("Verify a single underlying channel", 1, ably.channels.size());
+
+            MessageWaiter aliceWaiter = new MessageWaiter();
+            MessageWaiter bobWaiter = new MessageWaiter();
+            aliceChannel.subscribe(aliceWaiter);
+            bobChannel.subscribe(bobWaiter);
+
+            CompletionWaiter publishWaiter = new CompletionWaiter();
+            aliceChannel.publish("greeting", "hello from alice", publishWaiter);
+            publishWaiter.waitFor();
+            assertTrue("Verify publish succeeded", publishWaiter.success);
+
+            bobWaiter.waitFor(1);
+            assertEquals("Verify message attributed to publisher", "alice", bobWaiter.receivedMessages.get(0).clientId);
+            aliceWaiter.waitFor(1);
+
+            /* releasing one client's channel leaves the other's subscribed */
+            alice.close();
+            assertTrue("Verify channel retained for remaining client", ably.channels.containsKey(channelName));
+            bobWaiter.reset();
+            bobChannel.publish("greeting", "hello from bob", null);
+            bobWaiter.waitFor(1);
+            assertEquals("Verify alice's listener removed", 1, aliceWaiter.receivedMessages.size());
+
+            bob.close();
+            assertFalse("Verify channel released with its last client", ably.channels.containsKey(channelName));
+        } catch (AblyException e) {
+            e.printStackTrace();
+            fail("shared_clients_publish_subscribe: Unexpected exception");
+        } finally {
+            if(ably != null)
+                ably.close();
+        }
+    }
+
+    /**
+     * Verify that shared clients enter presence as their own clientId,
+     * and leave when closed
+     */
+    @Test
+    public void shared_clients_presence() {
+        AblyRealtime ably = null;
+        try {
+            ClientOptions opts = createOptions();
+            opts.tokenDetails = wildcardToken;
+            ably = new AblyRealtime(opts);
+            new ConnectionWaiter(ably.connection).waitFor(ConnectionState.connected);
+
+            SharedClient alice = ably.createSharedClient("alice");
+            SharedClient bob = ably.createSharedClient("bob");
+            String channelName = "shared_clients_presence_" + testParams.name;
+            SharedChannel aliceChannel = alice.channels.get(channelName);
+            SharedChannel bobChannel = bob.channels.get(channelName);
+
+            PresenceWaiter presenceWaiter = new PresenceWaiter();
+            bobChannel.presence.subscribe(presenceWaiter);
+
+            CompletionWaiter enterWaiter = new CompletionWaiter();
+            aliceChannel.presence.enter("alice's status", enterWaiter);
+            bobChannel.presence.enter("bob's status", enterWaiter);
+            enterWaiter.waitFor(2);
+            assertTrue("Verify enter succeeded", enterWaiter.success);
+            presenceWaiter.waitFor("alice", PresenceMessage.Action.enter);
+            presenceWaiter.waitFor("bob", PresenceMessage.Action.enter);
+            assertEquals("Verify both members present", 2, bobChannel.presence.get(true).length);
+
+            alice.close();
+            presenceWaiter.waitFor("alice", PresenceMessage.Action.leave);
+            PresenceMessage[] members = bobChannel.presence.get(true);
+            assertEquals("Verify closed client has left", 1, members.length);
+            assertEquals("bob", members[0].clientId);
+        } catch (AblyException e) {
+            e.printStackTrace();
+            fail("shared_clients_presence: Unexpected exception");
+        } finally {
+            if(ably != null)
+                ably.close();
+        }
+    }
+
+    /**
+     * Verify that shared clients cannot be created on a connection with a specific clientId
+     */
+    @Test
+    public void shared_client_requires_wildcard_identity() {
+        try {
+            ClientOptions opts = createOptions(testVars.keys[0].keyStr);
+            opts.clientId = "carol";
+            opts.autoConnect = false;
+            AblyRealtime ably = new AblyRealtime(opts);
+            try {
+                ably.createSharedClient("alice");
+                fail("Expected shared client to be rejected");
+            } catch (AblyException e) {
+                assertNotNull(e.errorInfo);
+                assertEquals(40012, e.errorInfo.code);
+            }
+            ably.close();
+        } catch (AblyException e) {
+            e.printStackTrace();
+            fail("shared_client_requires_wildcard_identity: Unexpected exception");
+        }
+    }
+
+    /**
+     * Verify that releasing a shared client's channels leaves channels the application
+     * was already using directly, and releases those created for shared clients
+     */
+    @Test
+    public void shared_client_release_keeps_direct_channel() {
+        try {
+            ClientOptions opts = createOptions(testVars.keys[0].keyStr);
+            opts.autoConnect = false;
+            AblyRealtime ably = new AblyRealtime(opts);
+            ably.channels.get("direct");
+
+            SharedClient alice = ably.createSharedClient("alice");
+            alice.channels.get("direct");
+            alice.channels.get("shared");
+            alice.close();
+            assertTrue("Verify direct channel retained", ably.channels.containsKey("direct"));
+            assertFalse("Verify shared channel released", ably.channels.containsKey("shared"));
+            ably.close();
+        } catch (AblyException e) {
+            e.printStackTrace();
+            fail("shared_client_release_keeps_direct_channel: Unexpected exception");
+        }
+    }
+
+    /**
+     * Verify that publishing through a shared client does not modify the given messages
+     */
+    @Test
+    public void shared_client_publish_copies_messages() {
+        try {
+            ClientOptions opts = createOptions(testVars.keys[0].keyStr);
+            opts.autoConnect = false;
+            AblyRealtime ably = new AblyRealtime(opts);
+            SharedClient alice = ably.createSharedClient("alice");
+            Message message = new Message("name", "data");
+            alice.channels.get("shared").publish(message, null);
+            assertNull("Verify message not modified", message.clientId);
+            ably.close();
+        } catch (AblyException e) {
+            e.printStackTrace();
+            fail("shared_client_publish_copies_messages: Unexpected exception");
+        }
+    }
+}
@@ -26,6 +26,7 @@ import io.ably.lib.test.common.Setup;
     RealtimePresenceTest.class,
     RealtimeMessageTest.class,
     RealtimeResumeTest.class,
+    RealtimeSharedClientTest.class,
     RealtimeRecoverTest.class,
     RealtimeCryptoTest.class,
     RealtimeChannelHistoryTest.class,
@@ -1,6 +1,7 @@
 package io.ably.lib.test.rest;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
 
@@ -14,6 +15,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.Timeout;
 
+import io.ably.lib.http.PaginatedResultIterator;
 import io.ably.lib.rest.AblyRest;
 import io.ably.lib.rest.Channel;
 import io.ably.lib.test.common.ParameterizedTest;
@@ -411,6 +413,34 @@ public class RestChannelHistoryTest extends ParameterizedTest {
         }
     }
 
+    /**
+     * Check iteration over all pages (forwards)
+     */
+    @Test
+    public void channelhistory_iterator_f() {
+        /* first, publish some messages */
+        Channel history3 = ably.channels.get("persisted:channelhistory_iterator_f_" + testParams.name);
+        for(int i = 0; i < 50; i++)
+        try {
+            history3.publish("history" + i,  String.valueOf(i));
+        } catch(AblyException e) {
+            e.printStackTrace();
+            fail("channelhistory_iterator_f: Unexpected exception");
+            return;
+        }
+
+        /* iterate over the history for this channel, 10 messages per page */
+        PaginatedResultIterator<Message> messages = history3.historyIterator(new Param[] { new Param("direction", "forwards"), new Param("limit", "10") });
+        int count = 0;
+        while(messages.hasNext()) {
+            Message message = messages.next();
+            assertEquals("Expect messages in forward order", "history" + count, message.name);
+            ++count;
+        }
+        assertEquals("Expected 50 messages", 50, count);
+        assertFalse("Expected iteration to be complete", messages.hasNext());
+    }
+
     /**
      * Check query pagination (backwards)
      */
@@ -19,7 +19,7 @@ import io.ably.lib.types.Param;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -135,7 +135,7 @@ public class RestChannelPublishTest extends ParameterizedTest {
             opts.useBinaryProtocol = true;
             opts.httpListener = new DebugOptions.RawHttpListener() {
                 @Override
-                public HttpCore.Response onRawHttpRequest(String id, HttpURLConnection conn, String method, String authHeader, Map<String, List<String>> requestHeaders, HttpCore.RequestBody requestBody) {
+                public HttpCore.Response onRawHttpRequest(String id, URL url, String method, String authHeader, Map<String, List<String>> requestHeaders, HttpCore.RequestBody requestBody) {
                     /* verify request body contains the supplied ids */
                     try {
                         if(method.equalsIgnoreCase("POST")) {
@@ -196,7 +196,7 @@ public class RestChannelPublishTest extends ParameterizedTest {
             opts.useBinaryProtocol = true;
             opts.httpListener = new DebugOptions.RawHttpListener() {
                 @Override
-                public HttpCore.Response onRawHttpRequest(String id, HttpURLConnection conn, String method, String authHeader, Map<String, List<String>> requestHeaders, HttpCore.RequestBody requestBody) {
+                public HttpCore.Response onRawHttpRequest(String id, URL url, String method, String authHeader, Map<String, List<String>> requestHeaders, HttpCore.RequestBody requestBody) {
                     /* verify request body contains the supplied ids */
                     try {
                         if(method.equalsIgnoreCase("POST")) {
@@ -254,7 +254,7 @@ public class RestChannelPublishTest extends ParameterizedTest {
         }
 
         @Override
-        public HttpCore.Response onRawHttpRequest(String id, HttpURLConnection conn, String method, String authHeader, Map<String, List<String>> requestHeaders, HttpCore.RequestBody requestBody) {
+        public HttpCore.Response onRawHttpRequest(String id, URL url, String method, String authHeader, Map<String, List<String>> requestHeaders, HttpCore.RequestBody requestBody) {
             /* verify request body contains the supplied ids */
             try {
                 if(method.equalsIgnoreCase("POST")) {
@@ -343,7 +343,7 @@ public class RestChannelPublishTest extends ParameterizedTest {
             opts.useBinaryProtocol = true;
             opts.httpListener = new DebugOptions.RawHttpListener() {
                 @Override
-                public HttpCore.Response onRawHttpRequest(String id, HttpURLConnection conn, String method, String authHeader, Map<String, List<String>> requestHeaders, HttpCore.RequestBody requestBody) {
+                public HttpCore.Response onRawHttpRequest(String id, URL url, String method, String authHeader, Map<String, List<String>> requestHeaders, HttpCore.RequestBody requestBody) {
                     /* verify request body contains the library-generated ids */
                     try {
                         if(method.equalsIgnoreCase("POST")) {
@@ -133,6 +133,14 @@ public class MockWebsocketFactory implements ITransport.Factory {
             }
         }
 
+        @Override
+        public void send(ProtocolMessage[] msgs) throws AblyException {
+            /* apply the send behaviour to each message */
+            for(ProtocolMessage msg : msgs) {
+                send(msg);
+            }
+        }
+
         @Override
         public void connect(ConnectListener connectListener) {
             String host = givenTransportParams.getHost();
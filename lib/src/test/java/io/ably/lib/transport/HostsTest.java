@@ -1,6 +1,7 @@
 package io.ably.lib.transport;
 
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
@@ -254,6 +255,145 @@ public class HostsTest {
         new Hosts(null, Defaults.HOST_REALTIME, options);
     }
 
+    /**
+     * Expect fallback hosts to be tried healthy first, fastest first, then those
+     * without measurements, then unhealthy ones.
+     */
+    @Test
+    public void hosts_adaptive_fallback_order() throws AblyException {
+        // Given
+        options.adaptiveHostSelection = true;
+        options.fallbackHosts = new String[] { "a.ably.com", "b.ably.com", "c.ably.com", "d.ably.com" };
+        Hosts hosts = new Hosts(Defaults.HOST_REALTIME, Defaults.HOST_REALTIME, options);
+
+        // When
+        hosts.recordSuccess("c.ably.com", 200);
+        hosts.recordSuccess("a.ably.com", 50);
+        hosts.recordFailure("b.ably.com");
+
+        // Then
+        assertThat(collectFallbackSequence(hosts), contains("a.ably.com", "c.ably.com", "d.ably.com", "b.ably.com"));
+    }
+
+    /**
+     * Expect a sequence of fallback hosts in progress to keep its order, and try each
+     * host once, while health is measured and other sequences start.
+     */
+    @Test
+    public void hosts_adaptive_concurrent_sequences() throws AblyException {
+        // Given
+        options.adaptiveHostSelection = true;
+        options.fallbackHosts = new String[] { "a.ably.com", "b.ably.com", "c.ably.com" };
+        Hosts hosts = new Hosts(Defaults.HOST_REALTIME, Defaults.HOST_REALTIME, options);
+        hosts.recordSuccess("a.ably.com", 50);
+        hosts.recordSuccess("b.ably.com", 100);
+        hosts.recordSuccess("c.ably.com", 200);
+        Hosts.FallbackSequence first = hosts.fallbackSequence();
+        assertThat(first.next(Defaults.HOST_REALTIME), is("a.ably.com"));
+
+        // When the first fallback fails, and another sequence starts
+        for(int i = 0; i < 4; i++) {
+            hosts.recordFailure("a.ably.com");
+        }
+        assertThat(collectFallbackSequence(hosts), contains("b.ably.com", "c.ably.com", "a.ably.com"));
+
+        // Then
+        assertThat(first.next("a.ably.com"), is("b.ably.com"));
+        assertThat(first.next("b.ably.com"), is("c.ably.com"));
+        assertThat(first.next("c.ably.com"), nullValue());
+    }
+
+    /**
+     * Expect the preferred host to move from an unhealthy or much slower host to the healthiest.
+     */
+    @Test
+    public void hosts_adaptive_preferred_host() throws AblyException {
+        // Given
+        options.adaptiveHostSelection = true;
+        options.fallbackHosts = new String[] { "a.ably.com", "b.ably.com" };
+        Hosts hosts = new Hosts(Defaults.HOST_REALTIME, Defaults.HOST_REALTIME, options);
+
+        // When the primary host is slightly slower
+        hosts.recordSuccess(Defaults.HOST_REALTIME, 120);
+        hosts.recordSuccess("b.ably.com", 100);
+
+        // Then
+        assertThat(hosts.getPreferredHost(), is(Defaults.HOST_REALTIME));
+
+        // When the primary host fails repeatedly
+        for(int i = 0; i < 4; i++) {
+            hosts.recordFailure(Defaults.HOST_REALTIME);
+        }
+
+        // Then
+        assertThat(hosts.getPreferredHost(), is("b.ably.com"));
+
+        // When a fallback host is much faster
+        hosts.setPreferredHost("b.ably.com", true);
+        hosts.recordSuccess("a.ably.com", 10);
+
+        // Then
+        assertThat(hosts.getPreferredHost(), is("a.ably.com"));
+    }
+
+    /**
+     * Expect health to be measured, but not to affect host selection, by default;
+     * and requests to other hosts to be ignored.
+     */
+    @Test
+    public void hosts_stats() throws AblyException {
+        // Given
+        Hosts hosts = new Hosts(Defaults.HOST_REALTIME, Defaults.HOST_REALTIME, options);
+
+        // When
+        hosts.recordFailure(Defaults.HOST_REALTIME);
+        hosts.recordSuccess(Defaults.HOST_REALTIME, 100);
+        hosts.recordSuccess("auth.example.com", 100);
+
+        // Then
+        Hosts.HostStats[] stats = hosts.getStats();
+        assertThat(stats.length, is(1));
+        assertThat(stats[0].host, is(Defaults.HOST_REALTIME));
+        assertThat(stats[0].latency, is(100.0));
+        assertThat(stats[0].errorRate, closeTo(0.16, 1e-9));
+        assertThat(stats[0].successes, is(1L));
+        assertThat(stats[0].failures, is(1L));
+        assertThat(hosts.getPreferredHost(), is(Defaults.HOST_REALTIME));
+    }
+
+    /**
+     * Expect measurements older than fallbackRetryTimeout to be disregarded.
+     */
+    @Test
+    public void hosts_adaptive_stale_health() throws AblyException, InterruptedException {
+        // Given
+        options.adaptiveHostSelection = true;
+        options.fallbackRetryTimeout = 50;
+        options.fallbackHosts = new String[] { "a.ably.com" };
+        Hosts hosts = new Hosts(Defaults.HOST_REALTIME, Defaults.HOST_REALTIME, options);
+        hosts.recordSuccess("a.ably.com", 10);
+        for(int i = 0; i < 4; i++) {
+            hosts.recordFailure(Defaults.HOST_REALTIME);
+        }
+        assertThat(hosts.getPreferredHost(), is("a.ably.com"));
+
+        // When
+        Thread.sleep(100);
+
+        // Then
+        assertThat(hosts.getPreferredHost(), is(Defaults.HOST_REALTIME));
+    }
+
+    private List<String> collectFallbackSequence(Hosts hosts) {
+        List<String> fallbackHosts = new ArrayList<>();
+        Hosts.FallbackSequence sequence = hosts.fallbackSequence();
+        String host = hosts.getPrimaryHost();
+        while ((host = sequence.next(host)) != null){
+            fallbackHosts.add(host);
+        }
+        return fallbackHosts;
+    }
+
     private List<String> collectFallbackHosts(Hosts hosts) {
         List<String> fallbackHosts = new ArrayList<>();
         String host = hosts.getPrimaryHost();
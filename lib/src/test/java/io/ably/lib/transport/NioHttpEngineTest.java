@@ -0,0 +1,359 @@
+package io.ably.lib.transport;
+
+import io.ably.lib.http.AsyncHttpScheduler;
+import io.ably.lib.http.HttpConstants;
+import io.ably.lib.http.HttpCore;
+import io.ably.lib.http.HttpEngine;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.Callback;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.util.PlatformAgentProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NioHttpEngineTest {
+
+    private static final String UTF_8 = "UTF-8";
+
+    private TestServer server;
+    private HttpEngine engine;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TestServer();
+        engine = new NioHttpEngine.Factory().create(new ClientOptions());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        engine.dispose();
+        server.close();
+    }
+
+    /**
+     * Verify that requests on a kept-alive connection reuse it, and that
+     * request bodies and response headers are transferred
+     */
+    @Test
+    public void keep_alive() throws IOException {
+        server.response = "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nX-Test: a\r\nX-Test: b\r\nContent-Length: %d\r\n\r\n%s";
+        for(int i = 0; i < 3; i++) {
+            HttpCore.Request request = request("/echo", HttpConstants.Methods.POST);
+            request.body = ("request " + i).getBytes(UTF_8);
+            HttpCore.Response response = engine.execute(request);
+            assertEquals(200, response.statusCode);
+            assertEquals("OK", response.statusLine);
+            assertEquals("text/plain", response.contentType);
+            assertEquals(2, response.getHeaderFields("X-Test").size());
+            assertEquals("request " + i, new String(response.body, UTF_8));
+        }
+        assertEquals("Verify a single connection is used", 1, server.connections.get());
+    }
+
+    @Test
+    public void chunked_response() throws IOException {
+        server.response = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5;ext=1\r\nhello\r\n6\r\n world\r\n0\r\nX-Trailer: t\r\n\r\n";
+        HttpCore.Response response = engine.execute(request("/chunked", HttpConstants.Methods.GET));
+        assertEquals("hello world", new String(response.body, UTF_8));
+        assertEquals(-1, response.contentLength);
+    }
+
+    /**
+     * Verify a response delimited by the end of the connection, and that
+     * the next request is made on a new connection
+     */
+    @Test
+    public void response_to_end_of_stream() throws IOException {
+        server.response = "HTTP/1.0 200 OK\r\n\r\nbody";
+        server.closeAfterResponse = true;
+        assertEquals("body", new String(engine.execute(request("/a", HttpConstants.Methods.GET)).body, UTF_8));
+        assertEquals("body", new String(engine.execute(request("/b", HttpConstants.Methods.GET)).body, UTF_8));
+        assertEquals(2, server.connections.get());
+    }
+
+    @Test
+    public void read_timeout() throws IOException {
+        server.response = null;
+        HttpCore.Request request = request("/silent", HttpConstants.Methods.GET);
+        request.readTimeout = 300;
+        try {
+            engine.execute(request);
+            fail("Expected request to time out");
+        } catch(SocketTimeoutException e) {
+            /* expected */
+        }
+    }
+
+    @Test
+    public void connection_refused() throws IOException {
+        int port = server.port();
+        server.close();
+        HttpCore.Request request = request("/", HttpConstants.Methods.GET);
+        request.url = new URL("http://localhost:" + port + "/");
+        try {
+            engine.execute(request);
+            fail("Expected connection to be refused");
+        } catch(ConnectException e) {
+            /* expected */
+        }
+    }
+
+    /**
+     * Verify that a host that cannot be resolved fails the request
+     */
+    @Test
+    public void unknown_host() throws IOException {
+        HttpCore.Request request = request("/", HttpConstants.Methods.GET);
+        request.url = new URL("http://unknown-host.invalid/");
+        try {
+            engine.execute(request);
+            fail("Expected host to be unknown");
+        } catch(UnknownHostException e) {
+            /* expected */
+        }
+    }
+
+    /**
+     * Verify that concurrent async requests are in progress together, although
+     * the scheduler has a single thread
+     */
+    @Test
+    public void async_requests_do_not_block_scheduler() throws Exception {
+        server.response = "HTTP/1.1 200 OK\r\nContent-Length: %d\r\n\r\n%s";
+        server.responseDelay = 500;
+        ClientOptions options = new ClientOptions("test.app:key");
+        options.asyncHttpThreadpoolSize = 1;
+        options.httpEngineFactory = new NioHttpEngine.Factory();
+        HttpCore httpCore = new HttpCore(options, null, new PlatformAgentProvider() {
+            @Override
+            public String createPlatformAgent() {
+                return null;
+            }
+        });
+        AsyncHttpScheduler scheduler = new AsyncHttpScheduler(httpCore, options);
+        int count = 10;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final AtomicInteger successes = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        for(int i = 0; i < count; i++) {
+            scheduler.httpExecute(new URL(server.url("/async")), HttpConstants.Methods.GET, null, null, new HttpCore.ResponseHandler<String>() {
+                @Override
+                public String handleResponse(HttpCore.Response response, ErrorInfo error) throws AblyException {
+                    return new String(response.body);
+                }
+            }, new Callback<String>() {
+                @Override
+                public void onSuccess(String result) {
+                    successes.incrementAndGet();
+                    latch.countDown();
+                }
+
+                @Override
+                public void onError(ErrorInfo reason) {
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue("Verify requests complete", latch.await(5, TimeUnit.SECONDS));
+        assertEquals(count, successes.get());
+        assertTrue("Verify requests were concurrent", System.currentTimeMillis() - start < count * server.responseDelay / 2);
+        scheduler.dispose();
+    }
+
+    /**
+     * Verify that a burst of requests to a host opens no more than the most connections
+     * allowed, and that the requests waiting for a connection are then made on them
+     */
+    @Test
+    public void connections_limited_per_route() throws Exception {
+        server.response = "HTTP/1.1 200 OK\r\nContent-Length: %d\r\n\r\n%s";
+        server.responseDelay = 100;
+        int count = NioHttpEngine.MAX_CONNECTIONS_PER_ROUTE * 4;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final AtomicInteger successes = new AtomicInteger();
+        for(int i = 0; i < count; i++) {
+            engine.executeAsync(request("/burst", HttpConstants.Methods.GET), new HttpEngine.Callback() {
+                @Override
+                public void onResponse(HttpCore.Response response) {
+                    successes.incrementAndGet();
+                    latch.countDown();
+                }
+
+                @Override
+                public void onError(IOException e) {
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue("Verify requests complete", latch.await(5, TimeUnit.SECONDS));
+        assertEquals(count, successes.get());
+        assertEquals(NioHttpEngine.MAX_CONNECTIONS_PER_ROUTE, server.connections.get());
+    }
+
+    /**
+     * Verify that a response is parsed however it is divided as received
+     */
+    @Test
+    public void parse_divided_response() throws IOException {
+        byte[] bytes = "HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 201 Created\r\nContent-Length: 4\r\nFolded: a\r\n b\r\n\r\nbody".getBytes(UTF_8);
+        for(int split = 1; split < bytes.length; split++) {
+            HttpResponseParser parser = new HttpResponseParser(false);
+            assertFalse(parser.parse(ByteBuffer.wrap(bytes, 0, split)));
+            assertTrue(parser.parse(ByteBuffer.wrap(bytes, split, bytes.length - split)));
+            HttpCore.Response response = parser.getResponse();
+            assertEquals(201, response.statusCode);
+            assertEquals("a b", response.getHeaderFields("folded").get(0));
+            assertArrayEquals("body".getBytes(UTF_8), response.body);
+            assertTrue(parser.isKeepAlive());
+        }
+    }
+
+    @Test
+    public void parse_no_content() throws IOException {
+        HttpResponseParser parser = new HttpResponseParser(false);
+        ByteBuffer buffer = ByteBuffer.wrap("HTTP/1.1 204 No Content\r\nConnection: close\r\n\r\nHTTP".getBytes(UTF_8));
+        assertTrue(parser.parse(buffer));
+        assertNull(parser.getResponse().body);
+        assertFalse(parser.isKeepAlive());
+        assertEquals("Verify following bytes are not consumed", 4, buffer.remaining());
+    }
+
+    private HttpCore.Request request(String path, String method) throws IOException {
+        HttpCore.Request request = new HttpCore.Request();
+        request.url = new URL(server.url(path));
+        request.method = method;
+        request.connectTimeout = 2000;
+        request.readTimeout = 2000;
+        return request;
+    }
+
+    /**
+     * A server responding to each request with the formatted response, given
+     * the length and content of the request body
+     */
+    private static class TestServer implements Runnable {
+        private final ServerSocket serverSocket = new ServerSocket(0);
+        final AtomicInteger connections = new AtomicInteger();
+        volatile String response;
+        volatile boolean closeAfterResponse;
+        volatile long responseDelay;
+
+        TestServer() throws IOException {
+            Thread thread = new Thread(this, "test-http-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int port() {
+            return serverSocket.getLocalPort();
+        }
+
+        String url(String path) {
+            return "http://localhost:" + port() + path;
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(true) {
+                    final Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            } catch(IOException e) {
+                /* closed */
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                while(true) {
+                    int contentLength = 0;
+                    String line;
+                    if((line = readLine(in)) == null) {
+                        break;
+                    }
+                    while(!(line = readLine(in)).isEmpty()) {
+                        if(line.toLowerCase().startsWith("content-length:")) {
+                            contentLength = Integer.parseInt(line.substring(15).trim());
+                        }
+                    }
+                    byte[] body = new byte[contentLength];
+                    for(int read = 0; read < contentLength; ) {
+                        read += in.read(body, read, contentLength - read);
+                    }
+                    String format = response;
+                    if(format == null) {
+                        continue;
+                    }
+                    if(responseDelay > 0) {
+                        Thread.sleep(responseDelay);
+                    }
+                    String content = new String(body, UTF_8);
+                    out.write(String.format(format, body.length, content).getBytes(UTF_8));
+                    out.flush();
+                    if(closeAfterResponse) {
+                        break;
+                    }
+                }
+            } catch(IOException | InterruptedException e) {
+                /* connection closed */
+            } finally {
+                try {
+                    socket.close();
+                } catch(IOException e) {}
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while((b = in.read()) != '\n') {
+                if(b < 0) {
+                    return null;
+                }
+                if(b != '\r') {
+                    line.write(b);
+                }
+            }
+            return line.toString(UTF_8);
+        }
+    }
+}
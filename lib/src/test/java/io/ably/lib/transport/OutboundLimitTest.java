@@ -0,0 +1,136 @@
+package io.ably.lib.transport;
+
+import io.ably.lib.realtime.Connection.WritabilityListener;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.BackpressurePolicy;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OutboundLimitTest {
+
+    @Test
+    public void watermarks() {
+        OutboundLimit limit = new OutboundLimit(4, 2, BackpressurePolicy.NOTIFY, 1000);
+        limit.add(3);
+        assertTrue("Verify writable below high watermark", limit.isWritable());
+        limit.add(1);
+        assertFalse("Verify unwritable at high watermark", limit.isWritable());
+        limit.remove(1);
+        assertFalse("Verify unwritable above low watermark", limit.isWritable());
+        limit.remove(1);
+        assertTrue("Verify writable at low watermark", limit.isWritable());
+        assertEquals(2, limit.getCount());
+    }
+
+    @Test
+    public void default_low_watermark() {
+        OutboundLimit limit = new OutboundLimit(10, 0, BackpressurePolicy.NOTIFY, 1000);
+        limit.add(10);
+        limit.remove(4);
+        assertFalse("Verify unwritable above half of high watermark", limit.isWritable());
+        limit.remove(1);
+        assertTrue("Verify writable at half of high watermark", limit.isWritable());
+    }
+
+    @Test
+    public void no_limit() throws AblyException {
+        OutboundLimit limit = new OutboundLimit(0, 0, BackpressurePolicy.REJECT, 1000);
+        limit.add(100000);
+        assertTrue("Verify always writable without a limit", limit.isWritable());
+        limit.await(true);
+    }
+
+    @Test
+    public void reject_when_full() throws AblyException {
+        OutboundLimit limit = new OutboundLimit(2, 1, BackpressurePolicy.REJECT, 1000);
+        limit.await(true);
+        limit.add(2);
+        try {
+            limit.await(true);
+            fail("Expected message to be rejected");
+        } catch(AblyException e) {
+            assertEquals(42910, e.errorInfo.code);
+        }
+        limit.remove(1);
+        limit.await(true);
+    }
+
+    @Test
+    public void block_until_writable() throws Exception {
+        final OutboundLimit limit = new OutboundLimit(2, 1, BackpressurePolicy.BLOCK, 10000);
+        limit.add(2);
+        Thread acker = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch(InterruptedException e) {}
+                limit.remove(1);
+            }
+        };
+        acker.start();
+        long start = System.currentTimeMillis();
+        limit.await(true);
+        assertTrue("Verify publisher was blocked", System.currentTimeMillis() - start >= 50);
+        acker.join();
+    }
+
+    /**
+     * A thread that processes acknowledgements is never made to wait for them
+     */
+    @Test
+    public void block_rejects_inbound_thread() {
+        OutboundLimit limit = new OutboundLimit(1, 0, BackpressurePolicy.BLOCK, 10000);
+        limit.add(1);
+        long start = System.currentTimeMillis();
+        try {
+            limit.await(false);
+            fail("Expected message to be rejected");
+        } catch(AblyException e) {
+            assertEquals(42910, e.errorInfo.code);
+        }
+        assertTrue("Verify publisher was not blocked", System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void block_timeout() {
+        OutboundLimit limit = new OutboundLimit(1, 0, BackpressurePolicy.BLOCK, 100);
+        limit.add(1);
+        try {
+            limit.await(true);
+            fail("Expected wait to time out");
+        } catch(AblyException e) {
+            assertEquals(42910, e.errorInfo.code);
+        }
+    }
+
+    @Test
+    public void listener_notified_of_changes() {
+        OutboundLimit limit = new OutboundLimit(2, 1, BackpressurePolicy.NOTIFY, 1000);
+        final List<Boolean> changes = new ArrayList<>();
+        limit.addListener(new WritabilityListener() {
+            @Override
+            public void onWritabilityChanged(boolean writable) {
+                changes.add(writable);
+            }
+        });
+        limit.add(1);
+        limit.notifyListeners();
+        assertTrue("Verify no notification without a change", changes.isEmpty());
+        limit.add(1);
+        limit.notifyListeners();
+        limit.notifyListeners();
+        limit.remove(1);
+        limit.notifyListeners();
+        assertEquals(2, changes.size());
+        assertFalse(changes.get(0));
+        assertTrue(changes.get(1));
+    }
+}
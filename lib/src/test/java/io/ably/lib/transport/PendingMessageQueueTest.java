@@ -0,0 +1,133 @@
+package io.ably.lib.transport;
+
+import io.ably.lib.realtime.CompletionListener;
+import io.ably.lib.transport.ConnectionManager.QueuedMessage;
+import io.ably.lib.types.BackpressurePolicy;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.ProtocolMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PendingMessageQueueTest {
+
+    /**
+     * Records the outcome of each message, in order of completion
+     */
+    private static class Outcomes {
+        final List<String> results = new ArrayList<>();
+
+        QueuedMessage message(final int serial) {
+            ProtocolMessage msg = new ProtocolMessage(ProtocolMessage.Action.message, "channel");
+            msg.msgSerial = (long)serial;
+            return new QueuedMessage(msg, new CompletionListener() {
+                @Override
+                public void onSuccess() {
+                    results.add(serial + ":ack");
+                }
+                @Override
+                public void onError(ErrorInfo reason) {
+                    results.add(serial + ":nack:" + reason.code);
+                }
+            });
+        }
+    }
+
+    private static PendingMessageQueue queue(Outcomes outcomes, int count) {
+        PendingMessageQueue queue = new PendingMessageQueue(new OutboundLimit(0, 0, BackpressurePolicy.NOTIFY, 0));
+        for(int i = 0; i < count; i++) {
+            queue.push(outcomes.message(i));
+        }
+        return queue;
+    }
+
+    @Test
+    public void ack_in_order() {
+        Outcomes outcomes = new Outcomes();
+        PendingMessageQueue queue = queue(outcomes, 5);
+        queue.ack(0, 2, null);
+        queue.ack(2, 1, null);
+        assertEquals("[0:ack, 1:ack, 2:ack]", outcomes.results.toString());
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void ack_with_gap_nacks_earlier() {
+        Outcomes outcomes = new Outcomes();
+        PendingMessageQueue queue = queue(outcomes, 5);
+        queue.ack(2, 2, new ErrorInfo("gap", 500, 50001));
+        assertEquals("[0:nack:50001, 1:nack:50001, 2:ack, 3:ack]", outcomes.results.toString());
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void ack_overlapping_and_excess() {
+        Outcomes outcomes = new Outcomes();
+        PendingMessageQueue queue = queue(outcomes, 3);
+        queue.ack(0, 1, null);
+        /* serial 0 has already been acked; count extends beyond the queue */
+        queue.ack(0, 10, null);
+        assertEquals("[0:ack, 1:ack, 2:ack]", outcomes.results.toString());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void nack_without_reason() {
+        Outcomes outcomes = new Outcomes();
+        PendingMessageQueue queue = queue(outcomes, 3);
+        queue.nack(1, 1, null);
+        assertEquals("[0:nack:50000, 1:nack:50000]", outcomes.results.toString());
+    }
+
+    @Test
+    public void wraps_and_grows() {
+        Outcomes outcomes = new Outcomes();
+        PendingMessageQueue queue = queue(outcomes, 0);
+        int serial = 0, acked = 0;
+        /* advance the head part way through the buffer, then grow it while wrapped */
+        for(; serial < 50; serial++) queue.push(outcomes.message(serial));
+        queue.ack(0, 40, null);
+        acked += 40;
+        for(; serial < 200; serial++) queue.push(outcomes.message(serial));
+        assertEquals(160, queue.size());
+        queue.ack(acked, 160, null);
+        assertEquals(200, outcomes.results.size());
+        for(int i = 0; i < 200; i++) {
+            assertEquals(i + ":ack", outcomes.results.get(i));
+        }
+    }
+
+    @Test
+    public void reset_fails_all() {
+        Outcomes outcomes = new Outcomes();
+        PendingMessageQueue queue = queue(outcomes, 3);
+        queue.ack(0, 1, null);
+        queue.fail(queue.reset(3), new ErrorInfo("Connection resume failed", 500, 50000));
+        assertEquals("[0:ack, 1:nack:50000, 2:nack:50000]", outcomes.results.toString());
+        /* serials restart from 0 */
+        queue.push(outcomes.message(0));
+        queue.ack(0, 1, null);
+        assertEquals("0:ack", outcomes.results.get(3));
+    }
+
+    /**
+     * Verify that messages continuing the serials of a recovered connection are acknowledged
+     */
+    @Test
+    public void restart_at_serial() {
+        Outcomes outcomes = new Outcomes();
+        PendingMessageQueue queue = queue(outcomes, 2);
+        queue.fail(queue.restart(5), new ErrorInfo("Restarted", 500, 50000));
+        assertEquals("[0:nack:50000, 1:nack:50000]", outcomes.results.toString());
+        outcomes.results.clear();
+        queue.push(outcomes.message(5));
+        queue.push(outcomes.message(6));
+        queue.ack(5, 1, null);
+        queue.ack(6, 1, null);
+        assertEquals("[5:ack, 6:ack]", outcomes.results.toString());
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,141 @@
+package io.ably.lib.transport;
+
+import io.ably.lib.util.CompressionStats;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.ContinuousFrame;
+import org.java_websocket.framing.FramedataImpl1;
+import org.java_websocket.framing.PingFrame;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PerMessageDeflateExtensionTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String MESSAGE = "{\"action\":15,\"channel\":\"test-channel\",\"messages\":[{\"name\":\"test-name\",\"data\":\"test-data\"}]}";
+
+    @Test
+    public void offer_parameters() {
+        assertEquals("permessage-deflate", extension(15, false, false).getProvidedExtensionAsClient());
+        assertEquals("permessage-deflate; client_no_context_takeover; server_no_context_takeover; server_max_window_bits=10",
+            extension(10, true, true).getProvidedExtensionAsClient());
+    }
+
+    @Test
+    public void accept_response() {
+        assertFalse("Verify absent extension not accepted", extension(15, false, false).acceptProvidedExtensionAsClient(""));
+        assertFalse("Verify other extension not accepted", extension(15, false, false).acceptProvidedExtensionAsClient("x-webkit-deflate-frame"));
+        assertFalse("Verify larger window not accepted", extension(10, false, false).acceptProvidedExtensionAsClient("permessage-deflate; server_max_window_bits=12"));
+        assertFalse("Verify limit on client window not accepted", extension(15, false, false).acceptProvidedExtensionAsClient("permessage-deflate; client_max_window_bits=10"));
+        assertFalse("Verify unknown parameter not accepted", extension(15, false, false).acceptProvidedExtensionAsClient("permessage-deflate; unknown"));
+
+        PerMessageDeflateExtension extension = extension(12, false, false);
+        assertTrue(extension.acceptProvidedExtensionAsClient("x-other, permessage-deflate; server_max_window_bits=\"10\"; server_no_context_takeover"));
+        assertTrue(extension.isNegotiated());
+        extension.reset();
+        assertFalse(extension.isNegotiated());
+    }
+
+    /**
+     * Verify that messages compressed by one end are decompressed by the other, with and without context takeover
+     */
+    @Test
+    public void round_trip() throws InvalidDataException {
+        for(boolean noContextTakeover : new boolean[] {false, true}) {
+            CompressionStats stats = new CompressionStats();
+            PerMessageDeflateExtension sender = new PerMessageDeflateExtension(15, noContextTakeover, false, stats);
+            PerMessageDeflateExtension receiver = new PerMessageDeflateExtension(15, false, noContextTakeover, stats);
+            assertTrue(sender.acceptProvidedExtensionAsClient("permessage-deflate"));
+            assertTrue(receiver.acceptProvidedExtensionAsClient("permessage-deflate"));
+
+            int[] sizes = new int[3];
+            for(int i = 0; i < sizes.length; i++) {
+                BinaryFrame frame = frame(new BinaryFrame(), MESSAGE.getBytes(UTF8), true);
+                sender.encodeFrame(frame);
+                assertTrue("Verify frame marked compressed", frame.isRSV1());
+                sizes[i] = frame.getPayloadData().remaining();
+                receiver.decodeFrame(frame);
+                assertFalse(frame.isRSV1());
+                assertEquals(MESSAGE, new String(bytes(frame), UTF8));
+            }
+            if(noContextTakeover) {
+                assertEquals("Verify messages compressed independently", sizes[0], sizes[2]);
+            } else {
+                assertTrue("Verify context retained between messages", sizes[2] < sizes[0]);
+            }
+            assertEquals(3L * MESSAGE.length(), stats.getRawBytesSent());
+            assertEquals(stats.getRawBytesSent(), stats.getRawBytesReceived());
+            assertEquals(stats.getCompressedBytesSent(), stats.getCompressedBytesReceived());
+            assertTrue(stats.getCompressedBytesSent() < stats.getRawBytesSent());
+        }
+    }
+
+    /**
+     * Verify decompression of a message split across frames, and that control frames are not compressed
+     */
+    @Test
+    public void fragmented_message() throws InvalidDataException {
+        PerMessageDeflateExtension sender = extension(15, false, false);
+        PerMessageDeflateExtension receiver = extension(15, false, false);
+        assertTrue(sender.acceptProvidedExtensionAsClient("permessage-deflate"));
+        assertTrue(receiver.acceptProvidedExtensionAsClient("permessage-deflate"));
+
+        byte[] message = new byte[100000];
+        for(int i = 0; i < message.length; i++) {
+            message[i] = (byte)(i % 251);
+        }
+        BinaryFrame first = frame(new BinaryFrame(), Arrays.copyOfRange(message, 0, 60000), false);
+        ContinuousFrame last = frame(new ContinuousFrame(), Arrays.copyOfRange(message, 60000, message.length), true);
+        sender.encodeFrame(first);
+        sender.encodeFrame(last);
+        assertTrue(first.isRSV1());
+        assertFalse(last.isRSV1());
+
+        PingFrame ping = new PingFrame();
+        sender.encodeFrame(ping);
+        assertFalse(ping.isRSV1());
+
+        receiver.decodeFrame(first);
+        receiver.decodeFrame(last);
+        ByteBuffer decoded = ByteBuffer.allocate(message.length);
+        decoded.put(first.getPayloadData()).put(last.getPayloadData());
+        assertArrayEquals(message, decoded.array());
+    }
+
+    /**
+     * Verify that uncompressed messages pass through
+     */
+    @Test
+    public void uncompressed_message() throws InvalidDataException {
+        PerMessageDeflateExtension receiver = extension(15, false, false);
+        assertTrue(receiver.acceptProvidedExtensionAsClient("permessage-deflate"));
+        BinaryFrame frame = frame(new BinaryFrame(), MESSAGE.getBytes(UTF8), true);
+        receiver.decodeFrame(frame);
+        assertEquals(MESSAGE, new String(bytes(frame), UTF8));
+    }
+
+    private static PerMessageDeflateExtension extension(int serverMaxWindowBits, boolean clientNoContextTakeover, boolean serverNoContextTakeover) {
+        return new PerMessageDeflateExtension(serverMaxWindowBits, clientNoContextTakeover, serverNoContextTakeover, new CompressionStats());
+    }
+
+    private static <T extends FramedataImpl1> T frame(T frame, byte[] payload, boolean fin) {
+        frame.setPayload(ByteBuffer.wrap(payload));
+        frame.setFin(fin);
+        return frame;
+    }
+
+    private static byte[] bytes(FramedataImpl1 frame) {
+        ByteBuffer payload = frame.getPayloadData().duplicate();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,785 @@
+package io.ably.lib.transport;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.ably.lib.debug.DebugOptions;
+import io.ably.lib.realtime.AblyRealtime;
+import io.ably.lib.realtime.BulkCompletionListener;
+import io.ably.lib.realtime.Channel;
+import io.ably.lib.realtime.ChannelEvent;
+import io.ably.lib.realtime.ChannelStateListener;
+import io.ably.lib.realtime.CompletionListener;
+import io.ably.lib.realtime.ConnectionState;
+import io.ably.lib.realtime.ConnectionStateListener;
+import io.ably.lib.rest.Auth;
+import io.ably.lib.rest.Auth.TokenParams;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.BackpressurePolicy;
+import io.ably.lib.types.Callback;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.types.ErrorInfo;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.ProtocolMessage;
+import io.ably.lib.types.ResumeState;
+import io.ably.lib.types.ResumeStateStore;
+import io.ably.lib.util.CompressionStats;
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Exercises each WebSocket transport against a local server that
+ * speaks just enough of the realtime protocol (JSON format).
+ */
+@RunWith(Parameterized.class)
+public class WebSocketTransportTest {
+
+    @Parameters(name = "nonBlockingTransport={0}")
+    public static Iterable<Boolean> data() {
+        return Arrays.asList(false, true);
+    }
+
+    @Parameter
+    public boolean nonBlockingTransport;
+
+    private MockRealtimeServer server;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        server = new MockRealtimeServer();
+        server.start();
+        assertTrue(server.started.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        server.stop(1000);
+    }
+
+    @Test
+    public void connect_subscribe_ping_close() throws AblyException, InterruptedException {
+        connectSubscribePingClose(createOptions());
+    }
+
+    /**
+     * Verify that messages are compressed in each direction when the server accepts permessage-deflate
+     */
+    @Test
+    public void connect_compressed() throws AblyException, InterruptedException {
+        ClientOptions opts = createOptions();
+        opts.webSocketCompression = true;
+        opts.webSocketServerMaxWindowBits = 12;
+        CompressionStats stats = connectSubscribePingClose(opts);
+        assertEquals("Verify extension negotiated", 1, server.compressedConnections.get());
+        assertTrue("Verify messages sent compressed", stats.getRawBytesSent() > 0);
+        assertTrue("Verify messages received compressed", stats.getRawBytesReceived() > 0);
+        assertTrue("Verify received messages decompressed", stats.getCompressedBytesReceived() < stats.getRawBytesReceived());
+    }
+
+    /**
+     * Verify that the connection is uncompressed when the server does not accept permessage-deflate
+     */
+    @Test
+    public void connect_compression_declined() throws AblyException, InterruptedException {
+        server.stop(1000);
+        server = new MockRealtimeServer(false);
+        server.start();
+        assertTrue(server.started.await(5, TimeUnit.SECONDS));
+
+        ClientOptions opts = createOptions();
+        opts.webSocketCompression = true;
+        CompressionStats stats = connectSubscribePingClose(opts);
+        assertEquals(0, stats.getRawBytesSent());
+        assertEquals(0, stats.getRawBytesReceived());
+    }
+
+    /**
+     * Verify that messages for many channels are written to the transport in batches,
+     * and are delivered and acknowledged individually
+     */
+    @Test
+    public void publish_batched() throws AblyException, InterruptedException {
+        DebugOptions opts = createOptions();
+        opts.transportFlushInterval = 1000;
+        final List<Integer> batchSizes = countBatches(opts);
+        AblyRealtime ably = new AblyRealtime(opts);
+        try {
+            int channelCount = 20;
+            String[] channelNames = new String[channelCount];
+            for(int i = 0; i < channelCount; i++) {
+                channelNames[i] = "test-channel-" + i;
+            }
+            final CountDownLatch attached = new CountDownLatch(1);
+            ably.channels.attach(channelNames, new BulkCompletionListener() {
+                @Override
+                public void onComplete(Map<String, ErrorInfo> errors) {
+                    if(errors.isEmpty()) {
+                        attached.countDown();
+                    }
+                }
+            });
+            ably.connect();
+            assertTrue("Verify every channel attached", attached.await(5, TimeUnit.SECONDS));
+
+            final CountDownLatch acked = new CountDownLatch(channelCount);
+            final AtomicInteger errors = new AtomicInteger();
+            for(String channelName : channelNames) {
+                ably.channels.get(channelName).publish("test-name", "test-data", new CompletionListener() {
+                    @Override
+                    public void onSuccess() {
+                        acked.countDown();
+                    }
+
+                    @Override
+                    public void onError(ErrorInfo reason) {
+                        errors.incrementAndGet();
+                    }
+                });
+            }
+            assertTrue("Verify every message acknowledged", acked.await(5, TimeUnit.SECONDS));
+            assertEquals(0, errors.get());
+            assertEquals("Verify each message sent in its own frame", channelCount, server.messagesReceived.get());
+            assertEquals("Verify messages written in a single batch", Collections.singletonList(channelCount), batchSizes);
+        } finally {
+            ably.close();
+        }
+    }
+
+    /**
+     * Verify that messages batched when the connection is closed are written before the CLOSE
+     */
+    @Test
+    public void close_flushes_batch() throws AblyException, InterruptedException {
+        DebugOptions opts = createOptions();
+        opts.transportFlushInterval = 10000;
+        final List<Integer> batchSizes = countBatches(opts);
+        AblyRealtime ably = new AblyRealtime(opts);
+        final BlockingQueue<ConnectionState> states = new LinkedBlockingQueue<>();
+        ably.connection.on(new ConnectionStateListener() {
+            @Override
+            public void onConnectionStateChanged(ConnectionStateChange change) {
+                states.add(change.current);
+            }
+        });
+        try {
+            Channel channel = ably.channels.get("test-channel");
+            final CountDownLatch attached = new CountDownLatch(1);
+            channel.attach(new CompletionListener() {
+                @Override
+                public void onSuccess() {
+                    attached.countDown();
+                }
+
+                @Override
+                public void onError(ErrorInfo reason) {}
+            });
+            ably.connect();
+            assertTrue(attached.await(5, TimeUnit.SECONDS));
+
+            channel.publish("test-name", "test-data");
+            ably.close();
+            while(states.poll(5, TimeUnit.SECONDS) != ConnectionState.closed) {}
+            assertEquals(Collections.singletonList(1), batchSizes);
+            assertEquals(1, server.messagesReceived.get());
+            assertTrue("Verify message sent before CLOSE", server.actions.indexOf(15) < server.actions.indexOf(7));
+        } finally {
+            ably.close();
+        }
+    }
+
+    /**
+     * Verify that authorize() on a connected client sends the new token in an AUTH
+     * message, and completes when the server responds with CONNECTED (RTC8a)
+     */
+    @Test
+    public void authorize_sends_auth() throws AblyException, InterruptedException {
+        ClientOptions opts = createOptions();
+        opts.token = null;
+        final AtomicInteger tokens = new AtomicInteger();
+        opts.authCallback = new Auth.TokenCallback() {
+            @Override
+            public Object getTokenRequest(TokenParams params) {
+                return "test-token-" + tokens.incrementAndGet();
+            }
+        };
+        AblyRealtime ably = new AblyRealtime(opts);
+        try {
+            final CountDownLatch connected = new CountDownLatch(1);
+            ably.connection.on(ConnectionState.connected, new ConnectionStateListener() {
+                @Override
+                public void onConnectionStateChanged(ConnectionStateChange change) {
+                    connected.countDown();
+                }
+            });
+            ably.connect();
+            assertTrue(connected.await(5, TimeUnit.SECONDS));
+
+            ably.auth.authorize(null, null);
+            assertEquals("Verify AUTH message sent with the new token", "test-token-2", server.authTokens.poll(5, TimeUnit.SECONDS));
+            assertEquals(ConnectionState.connected, ably.connection.state);
+        } finally {
+            ably.close();
+        }
+    }
+
+    /**
+     * Verify that messages awaiting acknowledgement when the connection is not resumed
+     * are failed, and that their listeners are called without the connection locked
+     */
+    @Test
+    public void resume_failure_fails_pending() throws AblyException, InterruptedException {
+        ClientOptions opts = createOptions();
+        opts.token = null;
+        opts.authCallback = new Auth.TokenCallback() {
+            @Override
+            public Object getTokenRequest(TokenParams params) {
+                return "test-token";
+            }
+        };
+        final AblyRealtime ably = new AblyRealtime(opts);
+        try {
+            ably.connect();
+            awaitState(ably, ConnectionState.connected);
+            server.ackMessages = false;
+            final BlockingQueue<Boolean> lockHeld = new ArrayBlockingQueue<>(1);
+            ably.channels.get("test-channel").publish("test-name", "test-data", new CompletionListener() {
+                @Override
+                public void onSuccess() {}
+
+                @Override
+                public void onError(ErrorInfo reason) {
+                    lockHeld.add(Thread.holdsLock(ably.connection.connectionManager));
+                }
+            });
+            assertNotNull("Verify message sent", server.msgSerials.poll(5, TimeUnit.SECONDS));
+
+            /* the server confirms the AUTH with a CONNECTED for a new connection */
+            server.connectionId = "new-connection-id";
+            ably.auth.authorize(null, null);
+            Boolean held = lockHeld.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Verify message failed", held);
+            assertFalse("Verify listener called without the lock", held);
+        } finally {
+            ably.close();
+        }
+    }
+
+    /**
+     * Verify that a message published on a connection recovered from saved state
+     * continues its message serials, and is acknowledged
+     */
+    @Test
+    public void publish_after_restore() throws AblyException, InterruptedException {
+        final ResumeState state = new ResumeState();
+        state.connectionId = "test-connection-id";
+        state.connectionKey = "test-connection-key";
+        state.connectionSerial = 3;
+        state.msgSerial = 5;
+        state.connectionStateTtl = 120000;
+        state.timestamp = System.currentTimeMillis();
+        ClientOptions opts = createOptions();
+        opts.resumeStateStore = new ResumeStateStore() {
+            @Override
+            public ResumeState load() {
+                return state;
+            }
+
+            @Override
+            public void save(ResumeState state) {}
+
+            @Override
+            public void clear() {}
+        };
+        AblyRealtime ably = new AblyRealtime(opts);
+        try {
+            final BlockingQueue<String> outcomes = new ArrayBlockingQueue<>(1);
+            ably.channels.get("test-channel").publish("test-name", "test-data", new CompletionListener() {
+                @Override
+                public void onSuccess() {
+                    outcomes.add("ack");
+                }
+
+                @Override
+                public void onError(ErrorInfo reason) {
+                    outcomes.add("nack:" + reason.code);
+                }
+            });
+            ably.connect();
+            assertEquals("ack", outcomes.poll(5, TimeUnit.SECONDS));
+            assertEquals("Verify serials continued", Long.valueOf(5), server.msgSerials.poll(5, TimeUnit.SECONDS));
+        } finally {
+            ably.close();
+        }
+    }
+
+    /**
+     * Verify that a ping still awaiting its response fails when the connection is closed
+     */
+    @Test
+    public void ping_fails_on_close() throws AblyException, InterruptedException {
+        server.echoHeartbeats = false;
+        AblyRealtime ably = new AblyRealtime(createOptions());
+        try {
+            final CountDownLatch connected = new CountDownLatch(1);
+            ably.connection.on(ConnectionState.connected, new ConnectionStateListener() {
+                @Override
+                public void onConnectionStateChanged(ConnectionStateChange change) {
+                    connected.countDown();
+                }
+            });
+            ably.connect();
+            assertTrue(connected.await(5, TimeUnit.SECONDS));
+
+            final BlockingQueue<ErrorInfo> errors = new ArrayBlockingQueue<>(1);
+            ably.connection.measureRoundTrip(new Callback<Long>() {
+                @Override
+                public void onSuccess(Long roundTripMillis) {}
+
+                @Override
+                public void onError(ErrorInfo reason) {
+                    errors.add(reason);
+                }
+            });
+            ably.close();
+            assertNotNull("Verify ping failed", errors.poll(5, TimeUnit.SECONDS));
+        } finally {
+            ably.close();
+        }
+    }
+
+    /**
+     * Verify that the library's own connection listeners run when the state changes,
+     * not when the dispatch executor gets to them
+     */
+    @Test
+    public void internal_listeners_not_dispatched() throws AblyException, InterruptedException {
+        ClientOptions opts = createOptions();
+        final List<Runnable> dispatched = new CopyOnWriteArrayList<>();
+        opts.dispatchExecutor = new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                /* never run, as a stalled executor */
+                dispatched.add(task);
+            }
+        };
+        AblyRealtime ably = new AblyRealtime(opts);
+        try {
+            ably.channels.get("test-channel");
+            ably.connect();
+            awaitState(ably, ConnectionState.connected);
+            ably.close();
+            awaitState(ably, ConnectionState.closed);
+            assertFalse("Verify channels removed on close", ably.channels.containsKey("test-channel"));
+            assertFalse("Verify application listeners are dispatched", dispatched.isEmpty());
+        } finally {
+            ably.close();
+        }
+    }
+
+    /**
+     * Verify that a channel whose dispatch queue overflows tells its subscribers that
+     * messages were missed, with an UPDATE event that is not resumed
+     */
+    @Test
+    public void dispatch_overflow_reported() throws AblyException, InterruptedException {
+        server.messagesPerAttach = 3;
+        ClientOptions opts = createOptions();
+        opts.dispatchQueueCapacity = 1;
+        opts.dispatchExecutor = new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                /* never run, as a stalled executor */
+            }
+        };
+        AblyRealtime ably = new AblyRealtime(opts);
+        try {
+            Channel channel = ably.channels.get("test-channel");
+            final BlockingQueue<ChannelStateListener.ChannelStateChange> updates = new LinkedBlockingQueue<>();
+            channel.on(ChannelEvent.update, new ChannelStateListener() {
+                @Override
+                public void onChannelStateChanged(ChannelStateChange stateChange) {
+                    updates.add(stateChange);
+                }
+            });
+            channel.subscribe(new Channel.MessageListener() {
+                @Override
+                public void onMessage(Message message) {}
+            });
+            ably.connect();
+            ChannelStateListener.ChannelStateChange update = updates.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Verify update event emitted", update);
+            assertFalse(update.resumed);
+            assertEquals(50000, update.reason.code);
+            assertTrue(ably.dispatchMetrics.getDropped() > 0);
+            assertNull("Verify overflow reported once", updates.poll(200, TimeUnit.MILLISECONDS));
+        } finally {
+            ably.close();
+        }
+    }
+
+    /**
+     * Verify that a message listener, run on the transport's thread, is not blocked when
+     * it publishes on an unwritable connection with the BLOCK policy, as that thread is
+     * the one that would receive the acknowledgements
+     */
+    @Test
+    public void publish_from_listener_block() throws AblyException, InterruptedException {
+        ClientOptions opts = createOptions();
+        opts.outboundHighWatermark = 2;
+        opts.backpressurePolicy = BackpressurePolicy.BLOCK;
+        AblyRealtime ably = new AblyRealtime(opts);
+        try {
+            final Channel channel = ably.channels.get("test-channel");
+            final BlockingQueue<String> outcomes = new LinkedBlockingQueue<>();
+            channel.subscribe(new Channel.MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    long start = System.currentTimeMillis();
+                    try {
+                        for(int i = 0; i < 3; i++) {
+                            channel.publish("test-name", "test-data");
+                        }
+                        outcomes.add("published");
+                    } catch(AblyException e) {
+                        outcomes.add(e.errorInfo.code + (System.currentTimeMillis() - start < 1000 ? "" : " after waiting"));
+                    }
+                }
+            });
+            ably.connect();
+            assertEquals("Verify third message rejected without waiting", "42910", outcomes.poll(15, TimeUnit.SECONDS));
+
+            /* once acknowledged, publishing from another thread succeeds */
+            for(int i = 0; i < 100 && !ably.connection.isWritable(); i++) {
+                Thread.sleep(50);
+            }
+            channel.publish("test-name", "test-data");
+        } finally {
+            ably.close();
+        }
+    }
+
+    /**
+     * Verify that a burst of messages, more than are read from the socket at
+     * once, is received in full and in order
+     */
+    @Test
+    public void receive_burst() throws AblyException, InterruptedException {
+        int count = 2000;
+        server.messagesPerAttach = count;
+        AblyRealtime ably = new AblyRealtime(createOptions());
+        try {
+            final BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+            ably.channels.get("test-channel").subscribe(new Channel.MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    messages.add(message);
+                }
+            });
+            ably.connect();
+            for(int i = 0; i < count; i++) {
+                Message message = messages.poll(5, TimeUnit.SECONDS);
+                assertNotNull("Verify message received", message);
+                assertEquals("test-id:" + i + ":0", message.id);
+            }
+        } finally {
+            ably.close();
+        }
+    }
+
+    /**
+     * Verify that a host that cannot be resolved fails the connection attempt
+     */
+    @Test
+    public void connect_unknown_host() throws AblyException, InterruptedException {
+        ClientOptions opts = createOptions();
+        opts.realtimeHost = "unknown-host.invalid";
+        AblyRealtime ably = new AblyRealtime(opts);
+        try {
+            ably.connect();
+            awaitState(ably, ConnectionState.disconnected);
+            assertNotNull(ably.connection.reason);
+        } finally {
+            ably.close();
+        }
+    }
+
+    private static void awaitState(AblyRealtime ably, ConnectionState state) throws InterruptedException {
+        for(int i = 0; i < 500 && ably.connection.state != state; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(state, ably.connection.state);
+    }
+
+    /**
+     * Record the size of each batch of messages written to the transport
+     */
+    private List<Integer> countBatches(DebugOptions opts) {
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        opts.transportFactory = new ITransport.Factory() {
+            @Override
+            public ITransport getTransport(ITransport.TransportParams params, ConnectionManager connectionManager) {
+                if(nonBlockingTransport) {
+                    return new NioWebSocketTransport(params, connectionManager) {
+                        @Override
+                        public void send(ProtocolMessage[] msgs) throws AblyException {
+                            batchSizes.add(msgs.length);
+                            super.send(msgs);
+                        }
+                    };
+                }
+                return new WebSocketTransport(params, connectionManager) {
+                    @Override
+                    public void send(ProtocolMessage[] msgs) throws AblyException {
+                        batchSizes.add(msgs.length);
+                        super.send(msgs);
+                    }
+                };
+            }
+        };
+        return batchSizes;
+    }
+
+    private DebugOptions createOptions() {
+        DebugOptions opts = new DebugOptions();
+        opts.token = "test-token";
+        opts.tls = false;
+        opts.realtimeHost = "localhost";
+        opts.port = server.getPort();
+        opts.useBinaryProtocol = false;
+        opts.autoConnect = false;
+        opts.nonBlockingTransport = nonBlockingTransport;
+        return opts;
+    }
+
+    /**
+     * Connect, receive a message, ping and close, on the mock server
+     * @return the compression stats of the connection
+     */
+    private CompressionStats connectSubscribePingClose(ClientOptions opts) throws AblyException, InterruptedException {
+        AblyRealtime ably = new AblyRealtime(opts);
+        final BlockingQueue<ConnectionState> states = new ArrayBlockingQueue<>(16);
+        ably.connection.on(new ConnectionStateListener() {
+            @Override
+            public void onConnectionStateChanged(ConnectionStateChange change) {
+                states.add(change.current);
+            }
+        });
+
+        try {
+            ably.connect();
+            assertEquals(ConnectionState.connecting, states.poll(5, TimeUnit.SECONDS));
+            assertEquals(ConnectionState.connected, states.poll(5, TimeUnit.SECONDS));
+
+            /* subscribe; the server sends a message once attached */
+            final BlockingQueue<Message> messages = new ArrayBlockingQueue<>(16);
+            Channel channel = ably.channels.get("test-channel");
+            channel.subscribe(new Channel.MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    messages.add(message);
+                }
+            });
+            Message message = messages.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Verify message received", message);
+            assertEquals("test-data", message.data);
+
+            /* ping; the server echoes the heartbeat */
+            final BlockingQueue<Long> roundTrips = new ArrayBlockingQueue<>(1);
+            ably.connection.measureRoundTrip(new Callback<Long>() {
+                @Override
+                public void onSuccess(Long roundTripMillis) {
+                    roundTrips.add(roundTripMillis);
+                }
+
+                @Override
+                public void onError(ErrorInfo reason) {}
+            });
+            assertNotNull("Verify ping response received", roundTrips.poll(5, TimeUnit.SECONDS));
+
+            ably.close();
+            assertEquals(ConnectionState.closing, states.poll(5, TimeUnit.SECONDS));
+            assertEquals(ConnectionState.closed, states.poll(5, TimeUnit.SECONDS));
+            return ably.connection.compressionStats;
+        } finally {
+            ably.close();
+        }
+    }
+
+    private static final String CONNECTED = "{\"action\":4,\"connectionId\":\"%s\",\"connectionSerial\":-1,"
+        + "\"connectionDetails\":{\"connectionKey\":\"test-connection-key\",\"maxIdleInterval\":15000,"
+        + "\"connectionStateTtl\":120000}}";
+    /* the interval, in ms, at which the mock server retries writes that may have been left pending */
+    private static final long FLUSH_INTERVAL = 20;
+
+    private static class MockRealtimeServer extends WebSocketServer {
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger compressedConnections = new AtomicInteger();
+        final AtomicInteger messagesReceived = new AtomicInteger();
+        final BlockingQueue<String> authTokens = new ArrayBlockingQueue<>(16);
+        final BlockingQueue<Long> msgSerials = new LinkedBlockingQueue<>();
+        final List<Integer> actions = new CopyOnWriteArrayList<>();
+        volatile boolean echoHeartbeats = true;
+        volatile boolean ackMessages = true;
+        volatile String connectionId = "test-connection-id";
+        volatile int messagesPerAttach = 1;
+        /* Java-WebSocket's server can leave a frame sent from a worker thread unwritten, if its
+         * selector thread finishes an earlier write at that moment and clears the write interest;
+         * so the writes of connections still holding frames are requested again */
+        private final List<WebSocket> connections = new CopyOnWriteArrayList<>();
+        private final Timer flushTimer = new Timer("mock-realtime-flush", true);
+
+        MockRealtimeServer() {
+            this(true);
+        }
+
+        MockRealtimeServer(boolean compression) {
+            super(new InetSocketAddress("localhost", 0), Collections.<Draft>singletonList(
+                compression ? new PerMessageDeflateExtension.DeflateDraft(new ServerDeflateExtension()) : new Draft_6455()));
+            setReuseAddr(true);
+        }
+
+        @Override
+        public void onStart() {
+            flushTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    for(WebSocket conn : connections) {
+                        if(conn.hasBufferedData()) {
+                            onWriteDemand(conn);
+                        }
+                    }
+                }
+            }, FLUSH_INTERVAL, FLUSH_INTERVAL);
+            started.countDown();
+        }
+
+        @Override
+        public void stop(int timeout) throws InterruptedException {
+            flushTimer.cancel();
+            super.stop(timeout);
+        }
+
+        @Override
+        public void onOpen(WebSocket conn, ClientHandshake handshake) {
+            if(((Draft_6455)conn.getDraft()).getExtension() instanceof ServerDeflateExtension) {
+                compressedConnections.incrementAndGet();
+            }
+            connections.add(conn);
+            conn.send(String.format(CONNECTED, connectionId));
+        }
+
+        /* the client sends JSON in binary frames */
+        @Override
+        public void onMessage(WebSocket conn, ByteBuffer message) {
+            onMessage(conn, new String(message.array(), message.arrayOffset() + message.position(), message.remaining(), Charset.forName("UTF-8")));
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, String message) {
+            JsonObject msg = new JsonParser().parse(message).getAsJsonObject();
+            int action = msg.get("action").getAsInt();
+            actions.add(action);
+            switch(action) {
+                case 0: /* heartbeat */
+                    if(echoHeartbeats) {
+                        conn.send(message);
+                    }
+                    break;
+                case 7: /* close */
+                    conn.send("{\"action\":8}");
+                    conn.close();
+                    break;
+                case 15: /* message; acknowledge each protocol message, all with a single message */
+                    assertEquals(1, msg.getAsJsonArray("messages").size());
+                    long msgSerial = msg.get("msgSerial").getAsLong();
+                    msgSerials.add(msgSerial);
+                    if(!ackMessages) {
+                        break;
+                    }
+                    messagesReceived.incrementAndGet();
+                    conn.send("{\"action\":1,\"msgSerial\":" + msgSerial + ",\"count\":1}");
+                    break;
+                case 17: /* auth; the server confirms with another CONNECTED */
+                    authTokens.add(msg.getAsJsonObject("auth").get("accessToken").getAsString());
+                    conn.send(String.format(CONNECTED, connectionId));
+                    break;
+                case 10: /* attach */
+                    String channel = msg.get("channel").getAsString();
+                    conn.send("{\"action\":11,\"channel\":\"" + channel + "\",\"flags\":0}");
+                    for(int i = 0; i < messagesPerAttach; i++) {
+                        conn.send("{\"action\":15,\"channel\":\"" + channel + "\",\"id\":\"test-id:" + i + "\",\"connectionSerial\":" + i + ","
+                            + "\"messages\":[{\"name\":\"test-name\",\"data\":\"test-data\"}]}");
+                    }
+                    break;
+            }
+        }
+
+        @Override
+        public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+            connections.remove(conn);
+        }
+
+        @Override
+        public void onError(WebSocket conn, Exception ex) {}
+    }
+
+    /**
+     * The client's permessage-deflate codec, accepting the client's offer as a server
+     */
+    private static class ServerDeflateExtension extends PerMessageDeflateExtension {
+        ServerDeflateExtension() {
+            super(15, false, false, new CompressionStats());
+        }
+
+        @Override
+        public boolean acceptProvidedExtensionAsServer(String inputExtension) {
+            return acceptProvidedExtensionAsClient(inputExtension);
+        }
+
+        /* the client accepts a window no larger than it offered */
+        @Override
+        public String getProvidedExtensionAsServer() {
+            return EXTENSION_NAME + "; server_max_window_bits=12";
+        }
+
+        @Override
+        public IExtension copyInstance() {
+            return new ServerDeflateExtension();
+        }
+    }
+}
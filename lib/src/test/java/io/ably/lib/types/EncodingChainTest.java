@@ -0,0 +1,64 @@
+package io.ably.lib.types;
+
+import com.google.gson.JsonObject;
+import io.ably.lib.util.Base64Coder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class EncodingChainTest {
+
+    @Test
+    public void parse_encoding_chain() {
+        // When
+        EncodingChain chain = EncodingChain.get("json/utf-8/cipher+aes-128-cbc/base64");
+
+        // Then
+        assertArrayEquals(new EncodingChain.Step[] {
+            EncodingChain.Step.JSON,
+            EncodingChain.Step.UTF8,
+            EncodingChain.Step.CIPHER,
+            EncodingChain.Step.BASE64
+        }, chain.steps);
+        assertNull(chain.remaining(0));
+        assertEquals("json/utf-8", chain.remaining(2));
+        assertEquals("json/utf-8/cipher+aes-128-cbc/base64", chain.remaining(4));
+    }
+
+    @Test
+    public void parsed_chain_is_cached() {
+        assertSame(EncodingChain.get("json/base64"), EncodingChain.get("json/base64"));
+    }
+
+    @Test
+    public void unsupported_step_is_retained_after_decode() throws MessageDecodeException {
+        // Given
+        Message message = new Message("test-name", new String(Base64Coder.encode("{\"a\":1}".getBytes())));
+        message.encoding = "custom/json/utf-8/base64";
+
+        // When
+        message.decode(null);
+
+        // Then
+        assertEquals("custom", message.encoding);
+        assertEquals(1, ((JsonObject) message.data).get("a").getAsInt());
+    }
+
+    @Test
+    public void encode_appends_to_existing_encoding() throws AblyException {
+        // Given
+        JsonObject json = new JsonObject();
+        json.addProperty("a", 1);
+        Message message = new Message("test-name", json);
+        message.encoding = "custom";
+
+        // When
+        message.encode(null);
+
+        // Then
+        assertEquals("custom/json", message.encoding);
+    }
+}
@@ -0,0 +1,62 @@
+package io.ably.lib.types;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ProtocolSerializerTest {
+
+    /**
+     * Decode a msgpack ProtocolMessage from a ByteBuffer whose content does not start
+     * at the beginning of its backing array.
+     */
+    @Test
+    public void read_msgpack_from_byte_buffer() throws AblyException {
+        // Given
+        byte[] packed = ProtocolSerializer.writeMsgpack(messageProtocolMessage("test-channel", "test-data"));
+        byte[] framed = new byte[packed.length + 8];
+        System.arraycopy(packed, 0, framed, 4, packed.length);
+        ByteBuffer buffer = ByteBuffer.wrap(framed, 4, packed.length).slice();
+
+        // When
+        ProtocolMessage decoded = ProtocolSerializer.readMsgpack(buffer);
+
+        // Then
+        assertEquals(ProtocolMessage.Action.message, decoded.action);
+        assertEquals("test-channel", decoded.channel);
+        assertEquals(1, decoded.messages.length);
+        assertEquals("test-name", decoded.messages[0].name);
+        assertEquals("test-data", decoded.messages[0].data);
+    }
+
+    /**
+     * Decode a sequence of messages with a single MsgpackDecoder, as a transport does.
+     */
+    @Test
+    public void msgpack_decoder_is_reusable() throws AblyException {
+        // Given
+        ProtocolSerializer.MsgpackDecoder decoder = new ProtocolSerializer.MsgpackDecoder();
+        byte[] binaryData = new byte[] { 1, 2, 3, 4 };
+
+        // When
+        ProtocolMessage first = decoder.readMsgpack(ByteBuffer.wrap(ProtocolSerializer.writeMsgpack(messageProtocolMessage("first", "test-data"))));
+        ProtocolMessage second = decoder.readMsgpack(ByteBuffer.wrap(ProtocolSerializer.writeMsgpack(messageProtocolMessage("second", binaryData))));
+        ProtocolMessage third = decoder.readMsgpack(ByteBuffer.wrap(ProtocolSerializer.writeMsgpack(new ProtocolMessage(ProtocolMessage.Action.heartbeat))));
+
+        // Then
+        assertEquals("first", first.channel);
+        assertEquals("test-data", first.messages[0].data);
+        assertEquals("second", second.channel);
+        assertArrayEquals(binaryData, (byte[]) second.messages[0].data);
+        assertEquals(ProtocolMessage.Action.heartbeat, third.action);
+    }
+
+    private static ProtocolMessage messageProtocolMessage(String channel, Object data) {
+        ProtocolMessage protocolMessage = new ProtocolMessage(ProtocolMessage.Action.message, channel);
+        protocolMessage.messages = new Message[] { new Message("test-name", data) };
+        return protocolMessage;
+    }
+}
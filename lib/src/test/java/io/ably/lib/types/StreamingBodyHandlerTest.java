@@ -0,0 +1,95 @@
+package io.ably.lib.types;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+
+import io.ably.lib.http.HttpCore;
+import org.junit.Test;
+
+public class StreamingBodyHandlerTest {
+
+    private static final String JSON = "application/json";
+    private static final String MSGPACK = "application/x-msgpack";
+
+    @Test
+    public void messages_from_json_stream() throws AblyException {
+        Message[] messages = messages();
+        byte[] body = MessageSerializer.asJsonRequest(messages).getEncoded();
+        HttpCore.StreamingBodyHandler<Message> handler = MessageSerializer.getMessageResponseHandler(null);
+        assertMessages(messages, handler.handleResponseBody(JSON, new ByteArrayInputStream(body)));
+    }
+
+    @Test
+    public void messages_from_msgpack_stream() throws AblyException {
+        Message[] messages = messages();
+        byte[] body = MessageSerializer.writeMsgpackArray(messages);
+        HttpCore.StreamingBodyHandler<Message> handler = MessageSerializer.getMessageResponseHandler(null);
+        assertMessages(messages, handler.handleResponseBody(MSGPACK, new ByteArrayInputStream(body)));
+    }
+
+    @Test
+    public void presence_from_json_and_msgpack_streams() throws AblyException {
+        PresenceMessage[] messages = new PresenceMessage[] {
+            new PresenceMessage(PresenceMessage.Action.enter, "client-a", "data-a"),
+            new PresenceMessage(PresenceMessage.Action.update, "client-b", "data-b")
+        };
+        HttpCore.StreamingBodyHandler<PresenceMessage> handler = PresenceSerializer.getPresenceResponseHandler(null);
+        byte[] json = PresenceSerializer.asJsonRequest(messages).getEncoded();
+        byte[] msgpack = PresenceSerializer.writeMsgpackArray(messages);
+        for(PresenceMessage[] decoded : new PresenceMessage[][] {
+                handler.handleResponseBody(JSON, new ByteArrayInputStream(json)),
+                handler.handleResponseBody(MSGPACK, new ByteArrayInputStream(msgpack)) }) {
+            assertEquals(2, decoded.length);
+            assertEquals(PresenceMessage.Action.enter, decoded[0].action);
+            assertEquals("client-a", decoded[0].clientId);
+            assertEquals("data-a", decoded[0].data);
+            assertEquals(PresenceMessage.Action.update, decoded[1].action);
+            assertEquals("data-b", decoded[1].data);
+        }
+    }
+
+    @Test
+    public void empty_json_stream() throws AblyException, UnsupportedEncodingException {
+        Message[] decoded = MessageSerializer.getMessageResponseHandler(null).handleResponseBody(JSON, new ByteArrayInputStream("[]".getBytes("UTF-8")));
+        assertEquals(0, decoded.length);
+    }
+
+    @Test
+    public void truncated_json_stream() throws UnsupportedEncodingException {
+        byte[] body = "[{\"name\":\"a\"},{\"name\":".getBytes("UTF-8");
+        try {
+            MessageSerializer.getMessageResponseHandler(null).handleResponseBody(JSON, new ByteArrayInputStream(body));
+            fail("Expected truncated body to be rejected");
+        } catch(AblyException e) {
+            /* expected */
+        }
+    }
+
+    private static Message[] messages() {
+        Message[] messages = new Message[10];
+        for(int i = 0; i < messages.length; i++) {
+            messages[i] = (i % 2 == 0)
+                ? new Message("name-" + i, "data-" + i)
+                : new Message("name-" + i, new byte[] { (byte)i, 1, 2, 3 });
+        }
+        return messages;
+    }
+
+    private static void assertMessages(Message[] expected, Message[] actual) {
+        assertEquals(expected.length, actual.length);
+        for(int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].name, actual[i].name);
+            assertNull("Verify message was decoded", actual[i].encoding);
+            if(expected[i].data instanceof byte[]) {
+                assertArrayEquals((byte[])expected[i].data, (byte[])actual[i].data);
+            } else {
+                assertEquals(expected[i].data, actual[i].data);
+            }
+        }
+    }
+}
@@ -2,7 +2,14 @@ package io.ably.lib.util;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
@@ -344,4 +351,114 @@ public class EventEmitterTest {
         assertEquals(event0Listener.counts.get(MyEvents.event_0), Integer.valueOf(1));
         assertNull(event1Listener.counts.get(MyEvents.event_1));
     }
+
+    /**
+     * Emit from many threads while other threads register and remove listeners;
+     * verify that a listener registered throughout receives every event.
+     */
+    @Test
+    public void concurrent_emit_with_listener_churn() throws Throwable {
+        final MyEmitter emitter = new MyEmitter();
+        final AtomicInteger stableCount = new AtomicInteger();
+        final AtomicInteger stableEventCount = new AtomicInteger();
+        emitter.on(new MyListener() {
+            @Override
+            public void onMyThingHappened(MyEventPayload theThing) {
+                stableCount.incrementAndGet();
+            }
+        });
+        emitter.on(MyEvents.event_0, new MyListener() {
+            @Override
+            public void onMyThingHappened(MyEventPayload theThing) {
+                stableEventCount.incrementAndGet();
+            }
+        });
+
+        final int emitterThreads = 4;
+        final int churnThreads = 4;
+        final int emitsPerThread = 20000;
+        final AtomicBoolean emitting = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for(int i = 0; i < churnThreads; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while(emitting.get()) {
+                            MyListener listener = new CountingListener();
+                            emitter.on(listener);
+                            emitter.once(MyEvents.event_1, new CountingListener());
+                            emitter.on(MyEvents.event_0, listener);
+                            emitter.off(listener);
+                        }
+                    } catch(Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+        }
+        final CountDownLatch emitted = new CountDownLatch(emitterThreads);
+        for(int i = 0; i < emitterThreads; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for(int j = 0; j < emitsPerThread; j++) {
+                            emitter.emit((j % 2 == 0) ? MyEvents.event_0 : MyEvents.event_1, "stress");
+                        }
+                    } catch(Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        emitted.countDown();
+                    }
+                }
+            });
+        }
+
+        for(Thread thread : threads) thread.start();
+        assertTrue(emitted.await(60, TimeUnit.SECONDS));
+        emitting.set(false);
+        for(Thread thread : threads) thread.join();
+
+        if(failure.get() != null) throw failure.get();
+        assertEquals(emitterThreads * emitsPerThread, stableCount.get());
+        assertEquals(emitterThreads * emitsPerThread / 2, stableEventCount.get());
+    }
+
+    /**
+     * Emit concurrently from many threads; verify that a "once" listener is called exactly once.
+     */
+    @Test
+    public void once_listener_called_once_with_concurrent_emit() throws InterruptedException {
+        final int threadCount = 8;
+        for(int round = 0; round < 100; round++) {
+            final MyEmitter emitter = new MyEmitter();
+            final AtomicInteger count = new AtomicInteger();
+            emitter.once(MyEvents.event_0, new MyListener() {
+                @Override
+                public void onMyThingHappened(MyEventPayload theThing) {
+                    count.incrementAndGet();
+                }
+            });
+
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for(int i = 0; i < threadCount; i++) {
+                threads.add(new Thread() {
+                    @Override
+                    public void run() {
+                        try { start.await(); } catch(InterruptedException e) { return; }
+                        emitter.emit(MyEvents.event_0, "fireEvent");
+                    }
+                });
+            }
+            for(Thread thread : threads) thread.start();
+            start.countDown();
+            for(Thread thread : threads) thread.join();
+
+            assertEquals(1, count.get());
+        }
+    }
 }
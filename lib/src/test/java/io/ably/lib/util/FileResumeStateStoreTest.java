@@ -0,0 +1,100 @@
+package io.ably.lib.util;
+
+import io.ably.lib.realtime.AblyRealtime;
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.ClientOptions;
+import io.ably.lib.types.ResumeState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class FileResumeStateStoreTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("ably-resume-state", ".json");
+        assertEquals(true, file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void save_load_clear() throws AblyException {
+        FileResumeStateStore store = new FileResumeStateStore(file);
+        assertNull("Verify no state before first save", store.load());
+
+        store.save(state("first-key"));
+        store.save(state("second-key"));
+        ResumeState loaded = store.load();
+        assertEquals("second-key", loaded.connectionKey);
+        assertEquals("test-connection-id", loaded.connectionId);
+        assertEquals(42, loaded.connectionSerial);
+        assertEquals(7, loaded.msgSerial);
+        assertEquals("test-serial", loaded.channelSerials.get("test-channel"));
+
+        store.clear();
+        assertFalse(file.exists());
+        assertNull(store.load());
+    }
+
+    @Test
+    public void unreadable_state_discarded() throws AblyException, IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("{not json".getBytes("UTF-8"));
+        out.close();
+        assertNull(new FileResumeStateStore(file).load());
+    }
+
+    /**
+     * Verify that a client instanced with a recoverable state recovers its connection,
+     * and that an expired state is ignored
+     */
+    @Test
+    public void client_restores_state() throws AblyException {
+        FileResumeStateStore store = new FileResumeStateStore(file);
+        store.save(state("test-connection-key"));
+        AblyRealtime ably = new AblyRealtime(options(store));
+        assertEquals("test-connection-key:42", ably.options.recover);
+        assertEquals("test-connection-id", ably.connection.id);
+        ably.close();
+
+        ResumeState expired = state("test-connection-key");
+        expired.timestamp -= expired.connectionStateTtl;
+        store.save(expired);
+        ably = new AblyRealtime(options(store));
+        assertNull(ably.options.recover);
+        ably.close();
+    }
+
+    private static ClientOptions options(FileResumeStateStore store) throws AblyException {
+        ClientOptions options = new ClientOptions("test.app:key");
+        options.autoConnect = false;
+        options.resumeStateStore = store;
+        return options;
+    }
+
+    private static ResumeState state(String connectionKey) {
+        ResumeState state = new ResumeState();
+        state.connectionId = "test-connection-id";
+        state.connectionKey = connectionKey;
+        state.connectionSerial = 42;
+        state.msgSerial = 7;
+        state.connectionStateTtl = 120000;
+        state.timestamp = System.currentTimeMillis();
+        state.channelSerials.put("test-channel", "test-serial");
+        return state;
+    }
+}
@@ -0,0 +1,111 @@
+package io.ably.lib.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedWheelTimerTest {
+
+    /**
+     * Timeouts expire no earlier than their delay, including delays
+     * spanning more than one revolution of the wheel.
+     */
+    @Test
+    public void timeouts_expire_after_delay() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, 8);
+        final CountDownLatch expired = new CountDownLatch(2);
+        final long start = System.currentTimeMillis();
+        final long[] elapsed = new long[2];
+
+        for(int i = 0; i < 2; i++) {
+            final int index = i;
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    elapsed[index] = System.currentTimeMillis() - start;
+                    expired.countDown();
+                }
+            }, i == 0 ? 30 : 250);
+        }
+
+        assertTrue(expired.await(10, TimeUnit.SECONDS));
+        assertTrue(elapsed[0] >= 30);
+        assertTrue(elapsed[1] >= 250);
+        assertEquals(0, timer.pending());
+    }
+
+    /**
+     * Cancelled timeouts do not expire, and only the first cancel succeeds.
+     */
+    @Test
+    public void cancelled_timeouts_do_not_expire() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, 8);
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch expired = new CountDownLatch(1);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                count.incrementAndGet();
+            }
+        };
+
+        HashedWheelTimer.Timeout[] timeouts = new HashedWheelTimer.Timeout[1000];
+        for(int i = 0; i < timeouts.length; i++) {
+            timeouts[i] = timer.schedule(task, 50);
+        }
+        for(HashedWheelTimer.Timeout timeout : timeouts) {
+            assertTrue(timeout.cancel());
+            assertFalse(timeout.cancel());
+        }
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                expired.countDown();
+            }
+        }, 100);
+
+        assertTrue(expired.await(10, TimeUnit.SECONDS));
+        assertEquals(0, count.get());
+        assertEquals(0, timer.pending());
+    }
+
+    /**
+     * Closing the timer cancels pending timeouts; it remains usable afterwards.
+     */
+    @Test
+    public void close_cancels_pending_timeouts() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, 8);
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch expired = new CountDownLatch(1);
+
+        for(int i = 0; i < 10; i++) {
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    count.incrementAndGet();
+                }
+            }, 50);
+        }
+        timer.close();
+        assertEquals(0, timer.pending());
+
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                expired.countDown();
+            }
+        }, 100);
+
+        assertTrue(expired.await(10, TimeUnit.SECONDS));
+        assertEquals(0, count.get());
+        assertEquals(11, timer.getScheduled());
+        assertEquals(10, timer.getCancelled());
+        assertEquals(1, timer.getExpired());
+    }
+}
@@ -0,0 +1,47 @@
+package io.ably.lib.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void latencies_counted_in_exponential_buckets() {
+        // Given
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // When
+        for(long millis : new long[] {0, 1, 2, 3, 4, 100, -5}) {
+            histogram.record(millis);
+        }
+
+        // Then
+        long[] buckets = histogram.getBuckets();
+        assertEquals(2, buckets[0]);
+        assertEquals(1, buckets[1]);
+        assertEquals(2, buckets[2]);
+        assertEquals(1, buckets[3]);
+        assertEquals(1, buckets[7]);
+        assertEquals(7, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(110.0 / 7, histogram.getMean(), 0.001);
+    }
+
+    @Test
+    public void percentile_is_bucket_upper_bound() {
+        // Given
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i = 0; i < 99; i++) {
+            histogram.record(10);
+        }
+        histogram.record(1000);
+
+        // Then
+        assertEquals(15, histogram.getPercentile(50));
+        assertEquals(15, histogram.getPercentile(99));
+        assertEquals(1000, histogram.getPercentile(100));
+        assertEquals(0, new LatencyHistogram().getPercentile(50));
+    }
+}
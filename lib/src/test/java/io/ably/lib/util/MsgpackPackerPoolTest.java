@@ -0,0 +1,98 @@
+package io.ably.lib.util;
+
+import io.ably.lib.types.AblyException;
+import io.ably.lib.types.Message;
+import io.ably.lib.types.MessageSerializer;
+import io.ably.lib.types.ProtocolMessage;
+import io.ably.lib.types.ProtocolSerializer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class MsgpackPackerPoolTest {
+
+    @Test
+    public void released_packer_is_reused() throws IOException {
+        MsgpackPackerPool pool = new MsgpackPackerPool(1, 1024);
+
+        MsgpackPackerPool.PooledPacker first = pool.acquire();
+        first.packer.packString("first");
+        first.packer.flush();
+        first.release();
+        MsgpackPackerPool.PooledPacker second = pool.acquire();
+
+        assertSame(first, second);
+        assertEquals(0, second.size());
+    }
+
+    @Test
+    public void pool_retains_at_most_pool_size_packers() {
+        MsgpackPackerPool pool = new MsgpackPackerPool(1, 1024);
+
+        MsgpackPackerPool.PooledPacker first = pool.acquire();
+        MsgpackPackerPool.PooledPacker second = pool.acquire();
+        first.release();
+        second.release();
+
+        assertSame(first, pool.acquire());
+        assertNotSame(second, pool.acquire());
+    }
+
+    @Test
+    public void pool_size_zero_disables_reuse() {
+        MsgpackPackerPool pool = new MsgpackPackerPool(0, 1024);
+
+        MsgpackPackerPool.PooledPacker first = pool.acquire();
+        first.release();
+
+        assertNotSame(first, pool.acquire());
+    }
+
+    @Test
+    public void oversized_packer_is_discarded() throws IOException {
+        MsgpackPackerPool pool = new MsgpackPackerPool(1, 1024);
+
+        MsgpackPackerPool.PooledPacker first = pool.acquire();
+        first.packer.packBinaryHeader(4096);
+        first.packer.writePayload(new byte[4096]);
+        first.packer.flush();
+        first.release();
+
+        assertNotSame(first, pool.acquire());
+    }
+
+    /**
+     * Output from a reused packer is the same as from a newly allocated one,
+     * including after a previous write was abandoned without being flushed.
+     */
+    @Test
+    public void reused_packer_output_matches_unpooled_output() throws IOException, AblyException {
+        MsgpackPackerPool pool = new MsgpackPackerPool(1, 64 * 1024);
+        ProtocolMessage message = new ProtocolMessage(ProtocolMessage.Action.message, "test-channel");
+        message.messages = new Message[] { new Message("test-name", "test-data") };
+        byte[] expected = ProtocolSerializer.writeMsgpack(message);
+
+        MsgpackPackerPool.PooledPacker abandoned = pool.acquire();
+        abandoned.packer.packString("partial");
+        abandoned.release();
+
+        assertArrayEquals(expected, ProtocolSerializer.writeMsgpack(message, pool));
+        assertArrayEquals(expected, ProtocolSerializer.writeMsgpack(message, pool));
+
+        MsgpackPackerPool.PooledPacker pooledPacker = pool.acquire();
+        ProtocolSerializer.writeMsgpack(message, pooledPacker.packer);
+        ByteBuffer view = pooledPacker.toByteBuffer();
+        byte[] viewed = new byte[view.remaining()];
+        view.get(viewed);
+        assertArrayEquals(expected, viewed);
+        pooledPacker.release();
+
+        assertArrayEquals(MessageSerializer.writeMsgpackArray(message.messages), MessageSerializer.writeMsgpackArray(message.messages, pool));
+    }
+}
@@ -0,0 +1,116 @@
+package io.ably.lib.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SerialExecutorTest {
+
+    /**
+     * Tasks run in submission order, one at a time, even on a multi-threaded executor.
+     */
+    @Test
+    public void tasks_run_in_order() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        DispatchMetrics metrics = new DispatchMetrics();
+        SerialExecutor serialExecutor = new SerialExecutor(executor, 0, metrics);
+        final List<Integer> results = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        try {
+            for(int i = 0; i < 1000; i++) {
+                final int value = i;
+                serialExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        results.add(value);
+                    }
+                });
+            }
+            serialExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            });
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1000, results.size());
+        for(int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), results.get(i));
+        }
+        assertEquals(1001, metrics.getQueued());
+    }
+
+    /**
+     * Submission does not block while the queue is full; the task is discarded and counted,
+     * and the overflow reported once for each run of discarded tasks.
+     */
+    @Test
+    public void full_queue_drops_task() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        DispatchMetrics metrics = new DispatchMetrics();
+        final AtomicInteger overflows = new AtomicInteger();
+        final SerialExecutor serialExecutor = new SerialExecutor(executor, 1, metrics, new Runnable() {
+            @Override
+            public void run() {
+                overflows.incrementAndGet();
+            }
+        });
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+
+        try {
+            /* a task that runs until released, and another that fills the queue */
+            serialExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    running.countDown();
+                    try { release.await(); } catch(InterruptedException e) {}
+                }
+            });
+            assertTrue(running.await(10, TimeUnit.SECONDS));
+            serialExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    results.add("queued");
+                }
+            });
+            for(int i = 0; i < 2; i++) {
+                serialExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        results.add("dropped");
+                    }
+                });
+            }
+            assertEquals(2, metrics.getDropped());
+            assertEquals("Verify overflow reported once", 1, overflows.get());
+            assertEquals(1, serialExecutor.size());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(Collections.singletonList("queued"), results);
+        assertEquals(2, metrics.getQueued());
+        assertEquals(2, metrics.getDispatched());
+        assertEquals(1, metrics.getMaxQueueDepth());
+    }
+}